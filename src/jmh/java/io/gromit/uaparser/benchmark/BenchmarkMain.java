@@ -0,0 +1,50 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The Class BenchmarkMain, runs the benchmarks at each thread count with the
+ * GC profiler, which adds the allocation rate and bytes allocated per
+ * operation to the results.
+ * <p>
+ * Arguments: a regex of the benchmarks to run (ParserBenchmark by default)
+ * and the thread counts, comma separated (1,4,16,64 by default). Run
+ * StartupBenchmark at one thread, it times single cold calls.
+ */
+public class BenchmarkMain {
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws RunnerException the runner exception
+	 */
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : "ParserBenchmark";
+		String threads = args.length > 1 ? args[1] : "1,4,16,64";
+		for (String count : threads.split(",")) {
+			Options options = new OptionsBuilder().include(include).threads(Integer.parseInt(count.trim()))
+					.addProfiler(GCProfiler.class).build();
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.gromit.uaparser.cache.Cache;
+import io.gromit.uaparser.cache.CaffeineCache;
+import io.gromit.uaparser.cache.ClockCache;
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.cache.MappedFileCache;
+import io.gromit.uaparser.model.Browser;
+
+/**
+ * The Class CacheBenchmark, compares the caches on a zipfian stream over a
+ * million distinct agent strings, the way a parser uses them: a lookup, and a
+ * put on a miss. The hits and misses per thread are reported next to the
+ * throughput, so the hit rate of each cache can be read from them.
+ * <p>
+ * Run it with gradle jmh -PjmhInclude=CacheBenchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+	/** The Constant STREAM_LENGTH. */
+	private static final int STREAM_LENGTH = 1 << 22;
+
+	/** The cache, guava, caffeine, clock or mapped. */
+	@Param({ "guava", "caffeine", "clock", "mapped" })
+	public String cache;
+
+	/** The distinct agent strings. */
+	@Param({ "1000000" })
+	public int distinct;
+
+	/** The size of the cache. */
+	@Param({ "16384" })
+	public int size;
+
+	/** The zipf exponent of the stream. */
+	@Param({ "0.9" })
+	public double exponent;
+
+	/** The cache under test. */
+	private Cache underTest;
+
+	/** The file of the mapped cache, null for the others. */
+	private File file;
+
+	/** The agents. */
+	private String[] agents;
+
+	/** The stream of agent indexes. */
+	private int[] stream;
+
+	/**
+	 * Sets the up.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if ("guava".equals(cache)) {
+			underTest = new GuavaCache(size);
+		} else if ("caffeine".equals(cache)) {
+			underTest = new CaffeineCache(size);
+		} else if ("clock".equals(cache)) {
+			underTest = new ClockCache(size);
+		} else {
+			file = File.createTempFile("uap-cache", ".bin");
+			underTest = new MappedFileCache(file, size);
+		}
+		agents = new String[distinct];
+		for (int i = 0; i < distinct; i++) {
+			agents[i] = "Mozilla/5.0 (Linux; Android 10; SM-" + i + ") AppleWebKit/537.36 Chrome/" + (i % 120) + ".0";
+		}
+		stream = Corpus.zipf(distinct, exponent, STREAM_LENGTH);
+	}
+
+	/**
+	 * Tear down.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * The Class Cursor, the position of a thread in the stream, and its hits
+	 * and misses.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Cursor {
+
+		/** The position. */
+		int position;
+
+		/** The hits. */
+		public long hits;
+
+		/** The misses. */
+		public long misses;
+
+		/**
+		 * Sets the up, threads start at random places so they do not look
+		 * the same agent strings up at the same time.
+		 */
+		@Setup(Level.Trial)
+		public void setUp() {
+			position = ThreadLocalRandom.current().nextInt(STREAM_LENGTH);
+		}
+
+		/**
+		 * Reset, counts each iteration apart.
+		 */
+		@Setup(Level.Iteration)
+		public void reset() {
+			hits = 0;
+			misses = 0;
+		}
+	}
+
+	/**
+	 * Lookup, a get and a put on a miss.
+	 *
+	 * @param cursor the cursor
+	 * @return the browser, null on a miss
+	 */
+	@Benchmark
+	public Browser lookup(Cursor cursor) {
+		String agent = agents[stream[cursor.position++ & (STREAM_LENGTH - 1)]];
+		Browser browser = underTest.getUserAgent(agent);
+		if (browser != null) {
+			cursor.hits++;
+		} else {
+			cursor.misses++;
+			underTest.putUserAgent(agent, Browser.OTHER);
+		}
+		return browser;
+	}
+}
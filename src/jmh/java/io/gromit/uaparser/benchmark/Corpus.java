@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The Class Corpus, the offline rules and agent strings the benchmarks run
+ * on, see src/test/resources/benchmark/README.
+ */
+final class Corpus {
+
+	/** The Constant SEED. */
+	private static final long SEED = 20160601L;
+
+	/**
+	 * Instantiates a new corpus.
+	 */
+	private Corpus() {
+	}
+
+	/**
+	 * Regexes.
+	 *
+	 * @return the bundled regexes yaml
+	 */
+	static InputStream regexes() {
+		return Corpus.class.getResourceAsStream("/benchmark/regexes.yaml");
+	}
+
+	/**
+	 * Agents.
+	 *
+	 * @return the agent strings, shuffled with a fixed seed so that the
+	 *         popularity rank of each one is the same on every run
+	 */
+	static String[] agents() {
+		try (InputStream input = Corpus.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			List<String> agents = IOUtils.readLines(input, StandardCharsets.UTF_8);
+			Collections.shuffle(agents, new Random(SEED));
+			return agents.toArray(new String[agents.size()]);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Zipf, a stream of indexes where index i shows up in proportion to
+	 * 1/(i+1)^exponent.
+	 *
+	 * @param n the number of distinct indexes
+	 * @param exponent the exponent
+	 * @param length the length of the stream
+	 * @return the stream
+	 */
+	static int[] zipf(int n, double exponent, int length) {
+		double[] cumulative = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += 1 / Math.pow(i + 1, exponent);
+			cumulative[i] = sum;
+		}
+		Random random = new Random(SEED);
+		int[] stream = new int[length];
+		for (int i = 0; i < length; i++) {
+			double target = random.nextDouble() * sum;
+			int low = 0, high = n - 1;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (cumulative[middle] < target) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			stream[i] = low;
+		}
+		return stream;
+	}
+
+	/**
+	 * Round robin, a stream that visits every index once.
+	 *
+	 * @param n the number of distinct indexes
+	 * @return the stream
+	 */
+	static int[] roundRobin(int n) {
+		int[] stream = new int[n];
+		for (int i = 0; i < n; i++) {
+			stream[i] = i;
+		}
+		return stream;
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.gromit.uaparser.Parser;
+import io.gromit.uaparser.cache.Cache;
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.cache.NoCache;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Client;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class ParserBenchmark, the time of a parse with and without a cache.
+ * <p>
+ * A hot run draws a zipfian stream over the corpus and starts with every
+ * agent string in the cache. A cold run visits the agent strings in turn
+ * through a 16 entry cache, so nearly every parse misses and then replaces an
+ * entry. Without a cache the two only differ in the mix of agent strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+	/** The Constant STREAM_LENGTH. */
+	private static final int STREAM_LENGTH = 1 << 16;
+
+	/** The Constant COLD_CACHE_SIZE. */
+	private static final int COLD_CACHE_SIZE = 16;
+
+	/** The cache, none or guava. */
+	@Param({ "none", "guava" })
+	public String cache;
+
+	/** The temperature, hot or cold. */
+	@Param({ "hot", "cold" })
+	public String temperature;
+
+	/** The parser. */
+	private Parser parser;
+
+	/** The agents. */
+	private String[] agents;
+
+	/** The stream of agent indexes. */
+	private int[] stream;
+
+	/**
+	 * Sets the up.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		boolean hot = "hot".equals(temperature);
+		Cache parserCache = "guava".equals(cache) ? new GuavaCache(hot ? 16384 : COLD_CACHE_SIZE) : NoCache.NO_CACHE;
+		parser = new Parser(Corpus.regexes()).cache(parserCache);
+		agents = Corpus.agents();
+		stream = hot ? Corpus.zipf(agents.length, 1.0, STREAM_LENGTH) : Corpus.roundRobin(agents.length);
+		if (hot) {
+			for (String agent : agents) {
+				parser.parse(agent);
+			}
+		}
+	}
+
+	/**
+	 * The Class Cursor, the position of a thread in the stream.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		/** The position. */
+		int position;
+
+		/**
+		 * Sets the up, threads start at random places so they do not parse
+		 * the same agent strings at the same time.
+		 */
+		@Setup(Level.Trial)
+		public void setUp() {
+			position = ThreadLocalRandom.current().nextInt(STREAM_LENGTH);
+		}
+	}
+
+	/**
+	 * Next.
+	 *
+	 * @param cursor the cursor
+	 * @return the next agent string of the thread
+	 */
+	private String next(Cursor cursor) {
+		int position = cursor.position;
+		if (position >= stream.length) {
+			position %= stream.length;
+		}
+		cursor.position = position + 1;
+		return agents[stream[position]];
+	}
+
+	/**
+	 * Parses the.
+	 *
+	 * @param cursor the cursor
+	 * @return the client
+	 */
+	@Benchmark
+	public Client parse(Cursor cursor) {
+		return parser.parse(next(cursor));
+	}
+
+	/**
+	 * Parses the browser.
+	 *
+	 * @param cursor the cursor
+	 * @return the browser
+	 */
+	@Benchmark
+	public Browser parseBrowser(Cursor cursor) {
+		return parser.parseBrowser(next(cursor));
+	}
+
+	/**
+	 * Parses the OS.
+	 *
+	 * @param cursor the cursor
+	 * @return the os
+	 */
+	@Benchmark
+	public OS parseOS(Cursor cursor) {
+		return parser.parseOS(next(cursor));
+	}
+
+	/**
+	 * Parses the device.
+	 *
+	 * @param cursor the cursor
+	 * @return the device
+	 */
+	@Benchmark
+	public Device parseDevice(Cursor cursor) {
+		return parser.parseDevice(next(cursor));
+	}
+}
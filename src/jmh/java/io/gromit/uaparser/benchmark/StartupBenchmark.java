@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.gromit.uaparser.LoadMode;
+import io.gromit.uaparser.Parser;
+import io.gromit.uaparser.model.Client;
+
+/**
+ * The Class StartupBenchmark, the time from a fresh JVM to a parser, and to
+ * its first parse, in each load mode. Every fork measures a single cold call.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@Threads(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+	/** The load mode. */
+	@Param({ "EAGER", "LAZY", "PARALLEL" })
+	public LoadMode mode;
+
+	/** The regexes yaml. */
+	private byte[] regexYaml;
+
+	/** The agent. */
+	private String agent;
+
+	/**
+	 * Sets the up.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		try (InputStream in = Corpus.regexes()) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		agent = Corpus.agents()[0];
+	}
+
+	/**
+	 * Load.
+	 *
+	 * @return the parser
+	 */
+	@Benchmark
+	public Parser load() {
+		return new Parser(new ByteArrayInputStream(regexYaml), mode);
+	}
+
+	/**
+	 * Load and parse.
+	 *
+	 * @return the client
+	 */
+	@Benchmark
+	public Client loadAndParse() {
+		return new Parser(new ByteArrayInputStream(regexYaml), mode).parse(agent);
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser;
+
+import io.gromit.uaparser.Parser.Parsers;
+import io.gromit.uaparser.cache.Cache;
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Client;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+import io.gromit.uaparser.parsers.ParseBudget;
+
+/**
+ * The Class LazyClient, from {@link Parser#parseLazy(String)}, parses each of
+ * its browser, os and device on first access, with the rules, cache, budget
+ * and metrics of the parser at that call. It is not a {@link Client}, whose
+ * fields are always set, see {@link #toClient()} for one. Threads racing on
+ * the first access may parse it twice, they get equal results.
+ */
+public final class LazyClient {
+
+	/** The user agent. */
+	public final String userAgent;
+
+	/** The key, the agent string normalized. */
+	private final String key;
+
+	/** The parsers. */
+	private final Parsers parsers;
+
+	/** The cache. */
+	private final Cache cache;
+
+	/** The budget. */
+	private final ParseBudget budget;
+
+	/** The metrics, null when not recording. */
+	private final ParserMetrics metrics;
+
+	/** The browser, set before {@link #browserParsed}. */
+	private Browser browser;
+
+	/** The os, set before {@link #osParsed}. */
+	private OS os;
+
+	/** The device, set before {@link #deviceParsed}. */
+	private Device device;
+
+	/** The browser parsed. */
+	private volatile boolean browserParsed;
+
+	/** The os parsed. */
+	private volatile boolean osParsed;
+
+	/** The device parsed. */
+	private volatile boolean deviceParsed;
+
+	/**
+	 * Instantiates a new lazy client.
+	 *
+	 * @param userAgent the user agent
+	 * @param key the key, the agent string normalized
+	 * @param parsers the parsers
+	 * @param cache the cache
+	 * @param budget the budget
+	 * @param metrics the metrics, null for none
+	 */
+	LazyClient(String userAgent, String key, Parsers parsers, Cache cache, ParseBudget budget,
+			ParserMetrics metrics) {
+		this.userAgent = userAgent;
+		this.key = key;
+		this.parsers = parsers;
+		this.cache = cache;
+		this.budget = budget;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Gets the browser, parsing it on first access.
+	 *
+	 * @return the browser
+	 */
+	public Browser getBrowser() {
+		if (!browserParsed) {
+			browser = parsers.uaParser.parse(key, cache, budget, metrics == null ? null : metrics.browser);
+			browserParsed = true;
+		}
+		return browser;
+	}
+
+	/**
+	 * Gets the os, parsing it on first access.
+	 *
+	 * @return the os
+	 */
+	public OS getOs() {
+		if (!osParsed) {
+			os = parsers.osParser.parse(key, cache, budget, metrics == null ? null : metrics.os);
+			osParsed = true;
+		}
+		return os;
+	}
+
+	/**
+	 * Gets the device, parsing it on first access.
+	 *
+	 * @return the device
+	 */
+	public Device getDevice() {
+		if (!deviceParsed) {
+			device = parsers.deviceParser.parse(key, cache, budget, metrics == null ? null : metrics.device);
+			deviceParsed = true;
+		}
+		return device;
+	}
+
+	/**
+	 * To client, parsing whatever was not accessed yet.
+	 *
+	 * @return the client
+	 */
+	public Client toClient() {
+		return new Client(userAgent, getBrowser(), getOs(), getDevice());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return toClient().toString();
+	}
+}
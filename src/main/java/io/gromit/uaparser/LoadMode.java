@@ -0,0 +1,102 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.lang3.StringUtils;
+
+import io.gromit.uaparser.Parser.Parsers;
+import io.gromit.uaparser.parsers.DeviceParser;
+import io.gromit.uaparser.parsers.OSParser;
+import io.gromit.uaparser.parsers.RuleSnapshot;
+import io.gromit.uaparser.parsers.UserAgentParser;
+
+/**
+ * The Enum LoadMode, when and how a parser compiles the patterns it loads.
+ * The mode is picked with the {@link #PROPERTY} system property or given to
+ * the constructor, and defaults to {@link #EAGER}.
+ */
+public enum LoadMode {
+
+	/** The lists are compiled one after the other before the constructor returns. */
+	EAGER,
+
+	/**
+	 * The constructor only reads the rules, the yaml is parsed and compiled by
+	 * the first parse, or ahead of it by {@link Parser#compileInBackground()}.
+	 * Errors in the yaml then show up on the first parse.
+	 */
+	LAZY,
+
+	/**
+	 * The three lists, and the patterns of each, are compiled in parallel on
+	 * the common {@link ForkJoinPool} before the constructor returns.
+	 */
+	PARALLEL {
+		@Override
+		Parsers compile(final RuleSnapshot rules) {
+			return ForkJoinPool.commonPool().invoke(new RecursiveTask<Parsers>() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected Parsers compute() {
+					ForkJoinTask<UserAgentParser> uaParser = ForkJoinTask.adapt(new Callable<UserAgentParser>() {
+						@Override
+						public UserAgentParser call() {
+							return rules.userAgentParser();
+						}
+					}).fork();
+					ForkJoinTask<OSParser> osParser = ForkJoinTask.adapt(new Callable<OSParser>() {
+						@Override
+						public OSParser call() {
+							return rules.osParser();
+						}
+					}).fork();
+					DeviceParser deviceParser = rules.deviceParser();
+					return new Parsers(uaParser.join(), osParser.join(), deviceParser);
+				}
+			});
+		}
+	};
+
+	/** The Constant PROPERTY. */
+	public static final String PROPERTY = "io.gromit.uaparser.load.mode";
+
+	/**
+	 * Compile.
+	 *
+	 * @param rules the rules
+	 * @return the parsers of the rules
+	 */
+	Parsers compile(RuleSnapshot rules) {
+		return new Parsers(rules.userAgentParser(), rules.osParser(), rules.deviceParser());
+	}
+
+	/**
+	 * Configured.
+	 *
+	 * @return the mode named by the {@link #PROPERTY} system property, or
+	 *         {@link #EAGER}
+	 */
+	public static LoadMode configured() {
+		String name = System.getProperty(PROPERTY);
+		return StringUtils.isBlank(name) ? EAGER : valueOf(name.trim().toUpperCase());
+	}
+}
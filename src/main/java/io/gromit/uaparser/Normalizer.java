@@ -0,0 +1,356 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.gromit.uaparser.Parser.Parsers;
+
+/**
+ * The Class Normalizer, rewrites agent strings before the cache and the
+ * parsers see them, so agent strings differing only in noise, like repeated
+ * whitespace or proxy suffixes, can share a cache entry. The client keeps the
+ * agent string as it came.
+ * <p>
+ * No rule is safe for every rule set: many patterns expect exactly one space,
+ * and some are anchored to the end of the agent string, like the WebPageTest
+ * one that a ",gzip(gfe)" suffix hides. So there is no default; a rule set is
+ * only safe for the rules and the agent strings it was checked with, see
+ * {@link #validate(Parser, Iterable)}, against a corpus like the uap-core tests
+ * and your own traffic.
+ */
+public final class Normalizer {
+
+	/** The Constant NONE, leaves agent strings as they are. */
+	public static final Normalizer NONE = new Normalizer(new Rule[0]);
+
+	/** The rules, applied in order. */
+	private final Rule[] rules;
+
+	/**
+	 * Instantiates a new normalizer.
+	 *
+	 * @param rules the rules
+	 */
+	private Normalizer(Rule[] rules) {
+		this.rules = rules;
+	}
+
+	/**
+	 * Collapse whitespace, turns runs of two or more spaces and tabs into one
+	 * space and drops those at both ends. Patterns matching a single space or
+	 * anchored to the ends may then match where they did not, validate it
+	 * with the rules in use.
+	 *
+	 * @return the normalizer
+	 */
+	public Normalizer collapseWhitespace() {
+		return with(new Rule() {
+			@Override
+			public CharSequence apply(CharSequence agentString) {
+				int length = agentString.length();
+				boolean clean = length == 0 || (!blank(agentString.charAt(0)) && !blank(agentString.charAt(length - 1)));
+				for (int i = 1; clean && i < length; i++) {
+					clean = !blank(agentString.charAt(i)) || !blank(agentString.charAt(i - 1));
+				}
+				if (clean) {
+					return agentString;
+				}
+				StringBuilder builder = new StringBuilder(length);
+				for (int i = 0; i < length;) {
+					char c = agentString.charAt(i);
+					if (!blank(c)) {
+						builder.append(c);
+						i++;
+						continue;
+					}
+					int run = i;
+					while (i < length && blank(agentString.charAt(i))) {
+						i++;
+					}
+					if (run > 0 && i < length) {
+						builder.append(i - run == 1 ? c : ' ');
+					}
+				}
+				return builder.toString();
+			}
+		});
+	}
+
+	/**
+	 * Strip suffix, drops the suffix from the end of agent strings, as often
+	 * as it is repeated there.
+	 *
+	 * @param suffix the suffix
+	 * @return the normalizer
+	 */
+	public Normalizer stripSuffix(final String suffix) {
+		if (suffix == null || suffix.isEmpty()) {
+			throw new IllegalArgumentException("suffix can not be empty");
+		}
+		return with(new Rule() {
+			@Override
+			public CharSequence apply(CharSequence agentString) {
+				int end = agentString.length();
+				while (end >= suffix.length() && endsWith(agentString, end, suffix)) {
+					end -= suffix.length();
+				}
+				return end == agentString.length() ? agentString : agentString.subSequence(0, end).toString();
+			}
+		});
+	}
+
+	/**
+	 * Replace all, rewrites every match of the regex, for noise like the
+	 * session tokens of an app.
+	 *
+	 * @param regex the regex
+	 * @param replacement the replacement, as in {@link Matcher#replaceAll(String)}
+	 * @return the normalizer
+	 */
+	public Normalizer replaceAll(String regex, final String replacement) {
+		final Pattern pattern = Pattern.compile(regex);
+		if (replacement == null) {
+			throw new IllegalArgumentException("replacement can not be null");
+		}
+		return with(new Rule() {
+			@Override
+			public CharSequence apply(CharSequence agentString) {
+				Matcher matcher = pattern.matcher(agentString);
+				return matcher.find() ? matcher.replaceAll(replacement) : agentString;
+			}
+		});
+	}
+
+	/**
+	 * With.
+	 *
+	 * @param rule the rule
+	 * @return a normalizer applying the rule after those of this one
+	 */
+	private Normalizer with(Rule rule) {
+		Rule[] rules = Arrays.copyOf(this.rules, this.rules.length + 1);
+		rules[this.rules.length] = rule;
+		return new Normalizer(rules);
+	}
+
+	/**
+	 * Checks if is none.
+	 *
+	 * @return true, if it has no rules
+	 */
+	public boolean isNone() {
+		return rules.length == 0;
+	}
+
+	/**
+	 * Normalize.
+	 *
+	 * @param agentString the agent string
+	 * @return the key to parse and cache it under, the agent string itself if
+	 *         no rule changes it
+	 */
+	public String normalize(String agentString) {
+		return normalize((CharSequence) agentString).toString();
+	}
+
+	/**
+	 * Normalize.
+	 *
+	 * @param agentString the agent string
+	 * @return the key to parse and cache it under, the agent string itself if
+	 *         no rule changes it, read in place until then
+	 */
+	public CharSequence normalize(CharSequence agentString) {
+		if (agentString == null) {
+			return null;
+		}
+		CharSequence key = agentString;
+		for (Rule rule : rules) {
+			key = rule.apply(key);
+		}
+		return key;
+	}
+
+	/**
+	 * Validate, parses every agent string the rules rewrite both as it is and
+	 * rewritten, with the parsers in use but no cache.
+	 *
+	 * @param parser the parser
+	 * @param agentStrings the agent strings, like the user_agent_string of
+	 *            the uap-core test cases
+	 * @return the validation
+	 */
+	public Validation validate(Parser parser, Iterable<String> agentStrings) {
+		Parsers parsers = parser.parsers();
+		Set<String> distinct = new HashSet<String>();
+		Set<String> keys = new HashSet<String>();
+		List<String> mismatches = new ArrayList<String>();
+		int rewritten = 0;
+		for (String agentString : agentStrings) {
+			if (agentString == null || !distinct.add(agentString)) {
+				continue;
+			}
+			String key = normalize(agentString);
+			keys.add(key);
+			if (key.equals(agentString)) {
+				continue;
+			}
+			rewritten++;
+			if (!parsers.uaParser.parse(agentString).equals(parsers.uaParser.parse(key))
+					|| !parsers.osParser.parse(agentString).equals(parsers.osParser.parse(key))
+					|| !parsers.deviceParser.parse(agentString).equals(parsers.deviceParser.parse(key))) {
+				mismatches.add(agentString);
+			}
+		}
+		return new Validation(distinct.size(), keys.size(), rewritten, mismatches);
+	}
+
+	/**
+	 * Blank.
+	 *
+	 * @param c the c
+	 * @return true, if a space or a tab
+	 */
+	private static boolean blank(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+	/**
+	 * Ends with.
+	 *
+	 * @param agentString the agent string
+	 * @param end the end of the part checked
+	 * @param suffix the suffix
+	 * @return true, if the part ends with the suffix
+	 */
+	private static boolean endsWith(CharSequence agentString, int end, String suffix) {
+		for (int i = suffix.length() - 1, j = end - 1; i >= 0; i--, j--) {
+			if (agentString.charAt(j) != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The Interface Rule.
+	 */
+	private interface Rule {
+
+		/**
+		 * Apply.
+		 *
+		 * @param agentString the agent string
+		 * @return the agent string rewritten, itself if unchanged
+		 */
+		CharSequence apply(CharSequence agentString);
+	}
+
+	/**
+	 * The Class Validation, what a normalizer does to a corpus.
+	 */
+	public static final class Validation {
+
+		/** The distinct agent strings. */
+		private final int agentStrings;
+
+		/** The distinct keys. */
+		private final int keys;
+
+		/** The agent strings rewritten. */
+		private final int rewritten;
+
+		/** The agent strings whose results change. */
+		private final List<String> mismatches;
+
+		/**
+		 * Instantiates a new validation.
+		 *
+		 * @param agentStrings the distinct agent strings
+		 * @param keys the distinct keys
+		 * @param rewritten the agent strings rewritten
+		 * @param mismatches the agent strings whose results change
+		 */
+		Validation(int agentStrings, int keys, int rewritten, List<String> mismatches) {
+			this.agentStrings = agentStrings;
+			this.keys = keys;
+			this.rewritten = rewritten;
+			this.mismatches = Collections.unmodifiableList(mismatches);
+		}
+
+		/**
+		 * Checks if is valid.
+		 *
+		 * @return true, if no result changes
+		 */
+		public boolean isValid() {
+			return mismatches.isEmpty();
+		}
+
+		/**
+		 * Gets the agent strings.
+		 *
+		 * @return the distinct agent strings of the corpus
+		 */
+		public int getAgentStrings() {
+			return agentStrings;
+		}
+
+		/**
+		 * Gets the keys.
+		 *
+		 * @return the distinct keys they were rewritten to
+		 */
+		public int getKeys() {
+			return keys;
+		}
+
+		/**
+		 * Gets the rewritten.
+		 *
+		 * @return the distinct agent strings some rule rewrote
+		 */
+		public int getRewritten() {
+			return rewritten;
+		}
+
+		/**
+		 * Gets the mismatches.
+		 *
+		 * @return the agent strings whose results change when rewritten
+		 */
+		public List<String> getMismatches() {
+			return mismatches;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return agentStrings + " agent strings, " + keys + " keys, " + rewritten + " rewritten, "
+					+ mismatches.size() + " mismatches";
+		}
+	}
+}
@@ -18,28 +18,51 @@ package io.gromit.uaparser;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.constructor.SafeConstructor;
 
 import io.gromit.uaparser.cache.Cache;
+import io.gromit.uaparser.cache.CharSequenceCache;
+import io.gromit.uaparser.cache.HotKeys;
 import io.gromit.uaparser.cache.NoCache;
+import io.gromit.uaparser.cache.PrecomputedTable;
+import io.gromit.uaparser.cache.RuleSetAware;
+import io.gromit.uaparser.metrics.DimensionMetrics;
+import io.gromit.uaparser.metrics.ParserMetrics;
 import io.gromit.uaparser.model.Client;
 import io.gromit.uaparser.model.Device;
 import io.gromit.uaparser.model.OS;
 import io.gromit.uaparser.parsers.DeviceParser;
 import io.gromit.uaparser.parsers.OSParser;
+import io.gromit.uaparser.parsers.AsciiSequence;
+import io.gromit.uaparser.parsers.ParseBudget;
+import io.gromit.uaparser.parsers.ParseOptions;
+import io.gromit.uaparser.parsers.RuleSnapshot;
 import io.gromit.uaparser.parsers.UserAgentParser;
 import io.gromit.uaparser.model.Browser;
 
@@ -56,6 +79,9 @@ public class Parser {
 	
 	/** The scheduled executor service. */
 	private ScheduledExecutorService scheduledExecutorService;
+
+	/** The reorder executor service. */
+	private ScheduledExecutorService reorderExecutorService;
 	
 	/** The ua regex yaml. */
 	private String uaRegexYaml = "https://raw.githubusercontent.com/ua-parser/uap-core/master/regexes.yaml";
@@ -63,12 +89,60 @@ public class Parser {
 	/** The ua regex yaml m d5. */
 	private String uaRegexYamlMD5 = null;
 	
+	/** The Constant DEFAULT_CONNECT_TIMEOUT, in millis. */
+	private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+	/** The Constant DEFAULT_READ_TIMEOUT, in millis. */
+	private static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	/** The Constant MIN_BATCH_CHUNK, the fewest distinct agent strings a batch hands to an executor at once. */
+	private static final int MIN_BATCH_CHUNK = 64;
+
+	/** The Constant DEFAULT_MAX_PENDING_ASYNC. */
+	private static final int DEFAULT_MAX_PENDING_ASYNC = 1024;
+
+	/** The fetcher of the regex yaml urls. */
+	private final RegexYamlFetcher fetcher = new RegexYamlFetcher(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+
 	/** The cache. */
 	private Cache cache = NoCache.NO_CACHE;
+
+	/** The checksum of the rules in use, null until the first load. */
+	private byte[] ruleSet = null;
 	
-	/** The parsers. */
-	private Parsers parsers = null;
+	/** The load mode. */
+	private final LoadMode loadMode;
+
+	/** The parsers, null while a lazy load waits to be compiled. */
+	private volatile Parsers parsers = null;
+
+	/** The lazy load waiting to be compiled, null if none. */
+	private volatile FutureTask<Parsers> pendingLoad = null;
+
+	/** The budget. */
+	private ParseBudget budget = ParseBudget.UNLIMITED;
+
+	/** The metrics, null when not recording. */
+	private ParserMetrics metrics = null;
 	
+	/** The executor of the async parses the cache can not answer. */
+	private Executor asyncExecutor = ForkJoinPool.commonPool();
+
+	/** The most async parses waiting for the executor. */
+	private int maxPendingAsync = DEFAULT_MAX_PENDING_ASYNC;
+
+	/** The async parses waiting for the executor. */
+	private final AtomicInteger pendingAsync = new AtomicInteger();
+
+	/** The hot keys, null when not tracked. */
+	private HotKeys hotKeys = null;
+
+	/** The normalizer of the agent strings, before the cache and the parsers. */
+	private Normalizer normalizer = Normalizer.NONE;
+
+	/** The agent strings precomputed on every load, normalized, null for none. */
+	private volatile List<String> precomputed = null;
+
 	/** The clean cache on update. */
 	private Boolean cleanCacheOnUpdate = false;
 	
@@ -89,6 +163,7 @@ public class Parser {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	public Parser() throws IOException {
+		this.loadMode = LoadMode.configured();
 		initialize(uaRegexYaml);
 	}
 
@@ -99,9 +174,56 @@ public class Parser {
 	 *            the regex yaml
 	 */
 	public Parser(InputStream regexYaml) {
+		this(regexYaml, LoadMode.configured());
+	}
+
+	/**
+	 * Instantiates a new parser.
+	 *
+	 * @param regexYaml
+	 *            the regex yaml
+	 * @param loadMode
+	 *            the load mode
+	 */
+	public Parser(InputStream regexYaml, LoadMode loadMode) {
+		this.loadMode = loadMode;
 		initialize(regexYaml);
 	}
 
+	/**
+	 * Instantiates a new parser from a rule snapshot, without parsing any
+	 * yaml, see {@link RuleSnapshot}.
+	 *
+	 * @param rules
+	 *            the rules
+	 */
+	public Parser(RuleSnapshot rules) {
+		this(rules, LoadMode.configured());
+	}
+
+	/**
+	 * Instantiates a new parser from a rule snapshot.
+	 *
+	 * @param rules
+	 *            the rules
+	 * @param loadMode
+	 *            the load mode
+	 */
+	public Parser(final RuleSnapshot rules, LoadMode loadMode) {
+		this.loadMode = loadMode;
+		uaRegexYamlMD5 = new String(rules.checksum());
+		if (loadMode == LoadMode.LAZY) {
+			defer(rules.checksum(), new Callable<RuleSnapshot>() {
+				@Override
+				public RuleSnapshot call() {
+					return rules;
+				}
+			});
+		} else {
+			initialize(rules);
+		}
+	}
+
 	/**
 	 * Ua regex yaml.
 	 *
@@ -113,6 +235,28 @@ public class Parser {
 		return this;
 	}
 
+	/**
+	 * Connect timeout of the regex yaml downloads, 10 seconds by default.
+	 *
+	 * @param millis the millis, 0 for none
+	 * @return the parser
+	 */
+	public Parser connectTimeout(int millis){
+		fetcher.connectTimeout(millis);
+		return this;
+	}
+
+	/**
+	 * Read timeout of the regex yaml downloads, 30 seconds by default.
+	 *
+	 * @param millis the millis, 0 for none
+	 * @return the parser
+	 */
+	public Parser readTimeout(int millis){
+		fetcher.readTimeout(millis);
+		return this;
+	}
+
 	/**
 	 * Cache.
 	 *
@@ -121,9 +265,121 @@ public class Parser {
 	 */
 	public Parser cache(Cache cache){
 		this.cache = cache;
+		if (ruleSet != null && cache instanceof RuleSetAware) {
+			((RuleSetAware) cache).ruleSet(ruleSet);
+		}
 		return this;
 	}
 	
+	/**
+	 * Budget, bounds the regex work of each parse, see {@link ParseBudget}.
+	 * The browser, os and device of a client share one budget, a parse of a
+	 * single one of them, or of a lazy client, has the whole budget for it.
+	 *
+	 * @param budget the budget
+	 * @return the parser
+	 */
+	public Parser budget(ParseBudget budget){
+		this.budget = budget;
+		return this;
+	}
+	
+	/**
+	 * Metrics, starts recording hit ratios, latencies and fallthroughs of the
+	 * parses into the metrics given, null stops it.
+	 *
+	 * @param metrics the metrics
+	 * @return the parser
+	 */
+	public Parser metrics(ParserMetrics metrics){
+		this.metrics = metrics;
+		return this;
+	}
+	
+	/**
+	 * Async executor, runs the async parses the cache can not answer, the
+	 * common fork join pool by default, with up to 1024 parses waiting.
+	 *
+	 * @param executor the executor
+	 * @param maxPending the most parses waiting for the executor, the ones
+	 *            over it fail with a {@link RejectedExecutionException}
+	 * @return the parser
+	 */
+	public Parser asyncExecutor(Executor executor, int maxPending){
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("max pending must be at least 1");
+		}
+		this.asyncExecutor = executor;
+		this.maxPendingAsync = maxPending;
+		return this;
+	}
+
+	/**
+	 * Hot keys, tracks the agent strings parsed most often. When a reload
+	 * cleans the cache they are parsed again with the new rules before the
+	 * new rules are published, and put back in the cache right after the
+	 * clean, so traffic does not meet an empty cache. Null stops tracking.
+	 *
+	 * @param hotKeys the hot keys
+	 * @return the parser
+	 */
+	public Parser hotKeys(HotKeys hotKeys){
+		this.hotKeys = hotKeys;
+		return this;
+	}
+	
+	/**
+	 * Normalizer, rewrites agent strings before the cache and the parsers
+	 * see them, so more of them share a cache entry, see {@link Normalizer}.
+	 * With metrics, how much it reduces the distinct keys is reported.
+	 *
+	 * @param normalizer the normalizer, {@link Normalizer#NONE} by default
+	 * @return the parser
+	 */
+	public Parser normalizer(Normalizer normalizer){
+		if (normalizer == null) {
+			throw new IllegalArgumentException("normalizer can not be null");
+		}
+		this.normalizer = normalizer;
+		return this;
+	}
+
+	/**
+	 * Precompute, parses the agent strings given with the rules in use, and
+	 * again with every rule set loaded after, into a {@link PrecomputedTable}
+	 * looked up before the cache. Their parses take no lock and never miss,
+	 * whatever the cache evicts. Pass the most frequent agent strings of the
+	 * traffic, the most frequent first; they are normalized with the
+	 * normalizer set now. Null or an empty list drops the table.
+	 *
+	 * @param agentStrings the agent strings
+	 * @return the parser
+	 */
+	public Parser precompute(Collection<String> agentStrings){
+		List<String> keys = null;
+		if (agentStrings != null && !agentStrings.isEmpty()) {
+			Set<String> distinct = new LinkedHashSet<String>();
+			for (String agentString : agentStrings) {
+				if (agentString != null) {
+					distinct.add(normalizer.normalize(agentString));
+				}
+			}
+			keys = Collections.unmodifiableList(new ArrayList<String>(distinct));
+		}
+		this.precomputed = keys;
+		Parsers current = parsers;
+		if (current != null) {
+			Parsers updated = precompute(current);
+			synchronized (this) {
+				// a reload meanwhile precomputed with its own patterns
+				if (parsers == current) {
+					parsers = updated;
+				}
+			}
+		}
+		return this;
+	}
+
 	/**
 	 * Loader listener.
 	 *
@@ -172,6 +428,83 @@ public class Parser {
 		return this;
 	}
 	
+	/**
+	 * Start reorder schedule, periodically moves the patterns that match most
+	 * often ahead in the lists, see {@link #reorderPatterns()}.
+	 *
+	 * @param period the period
+	 * @param unit the unit
+	 * @return the parser
+	 */
+	public Parser startReorderSchedule(long period, TimeUnit unit){
+		reorderExecutorService = Executors.newScheduledThreadPool(1);
+		reorderExecutorService.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					reorderPatterns();
+				}catch(Exception e){
+					logger.error("error reordering patterns",e);
+				}
+			}
+		}, period, period, unit);
+		return this;
+	}
+
+	/**
+	 * Stop reorder schedule.
+	 *
+	 * @return the parser
+	 */
+	public Parser stopReorderSchedule(){
+		reorderExecutorService.shutdown();
+		return this;
+	}
+
+	/**
+	 * Compile in background, starts compiling a lazy load on a daemon thread
+	 * so the first parse does not have to, see {@link LoadMode#LAZY}.
+	 *
+	 * @return the parser
+	 */
+	public Parser compileInBackground(){
+		if (pendingLoad != null) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						parsers();
+					}catch(Exception e){
+						logger.error("error compiling patterns",e);
+					}
+				}
+			}, "ua-parser-compile");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Reorder patterns, swaps in parsers that try the patterns that matched
+	 * most often so far first. A pattern only moves ahead of patterns proven
+	 * to never match the same agent strings, so every result stays the same.
+	 *
+	 * @return the parser
+	 */
+	public Parser reorderPatterns(){
+		Parsers current = parsers();
+		Parsers reordered = new Parsers(current.uaParser.reorder(), current.osParser.reorder(),
+				current.deviceParser.reorder(), current.precomputed);
+		synchronized (this) {
+			// a reload meanwhile brings new patterns, keep them
+			if (parsers == current) {
+				parsers = reordered;
+			}
+		}
+		return this;
+	}
+
 	/**
 	 * Parses the.
 	 *
@@ -180,13 +513,160 @@ public class Parser {
 	 * @return the client
 	 */
 	public Client parse(String agentString) {
-		Parsers parsersForCall = parsers;
-		Browser browser = parsersForCall.uaParser.parse(agentString, cache);
-		OS os = parsersForCall.osParser.parse(agentString, cache);
-		Device device = parsersForCall.deviceParser.parse(agentString, cache);
+		return parse(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the, extracting as much of the results as the options ask for,
+	 * see {@link ParseOptions}.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param options
+	 *            the options
+	 * @return the client
+	 */
+	public Client parse(String agentString, ParseOptions options) {
+		return parse(agentString, key(agentString), options);
+	}
+
+	/**
+	 * Parses the.
+	 *
+	 * @param agentString the agent string
+	 * @param key the key, the agent string normalized
+	 * @param options the options
+	 * @return the client
+	 */
+	private Client parse(String agentString, String key, ParseOptions options) {
+		Parsers parsersForCall = parsers();
+		Cache cache = parsersForCall.cache(this.cache);
+		ParserMetrics metrics = this.metrics;
+		ParseBudget budget = this.budget.begin();
+		Browser browser = parsersForCall.uaParser.parse(key, cache, budget,
+				metrics == null ? null : metrics.browser, options);
+		OS os = parsersForCall.osParser.parse(key, cache, budget, metrics == null ? null : metrics.os,
+				options);
+		Device device = parsersForCall.deviceParser.parse(key, cache, budget,
+				metrics == null ? null : metrics.device, options);
 		return new Client(agentString, browser, os, device);
 	}
 
+	/**
+	 * Parses the, see {@link #parse(CharSequence, ParseOptions)}.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @return the client
+	 */
+	public Client parse(CharSequence agentString) {
+		return parse(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the, copying the agent string into a string once, as the client
+	 * holds it. To read only some of the results without copying it, see
+	 * {@link #parseBrowser(CharSequence, ParseOptions)},
+	 * {@link #parseOS(CharSequence, ParseOptions)} and
+	 * {@link #parseDevice(CharSequence, ParseOptions)}.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param options
+	 *            the options
+	 * @return the client
+	 */
+	public Client parse(CharSequence agentString, ParseOptions options) {
+		return parse(agentString == null ? null : agentString.toString(), options);
+	}
+
+	/**
+	 * Parses the agent string lazily, the client runs the browser, os and
+	 * device parsers the first time {@link LazyClient#getBrowser()},
+	 * {@link LazyClient#getOs()} or {@link LazyClient#getDevice()} is called,
+	 * with the rules, cache, budget and metrics of the parser at this call.
+	 *
+	 * @param agentString the agent string
+	 * @return the lazy client
+	 */
+	public LazyClient parseLazy(String agentString) {
+		Parsers parsersForCall = parsers();
+		return new LazyClient(agentString, key(agentString), parsersForCall, parsersForCall.cache(cache), budget,
+				metrics);
+	}
+
+	/**
+	 * Parses all the agent strings, each distinct one once, see
+	 * {@link #parseAll(String[], Executor)}.
+	 *
+	 * @param agentStrings the agent strings
+	 * @return the clients, in the order of the agent strings
+	 */
+	public List<Client> parseAll(Collection<String> agentStrings) {
+		return parseAll(agentStrings, null);
+	}
+
+	/**
+	 * Parses all the agent strings, each distinct one once, see
+	 * {@link #parseAll(String[], Executor)}.
+	 *
+	 * @param agentStrings the agent strings
+	 * @param executor the executor, null to parse on the calling thread
+	 * @return the clients, in the order of the agent strings
+	 */
+	public List<Client> parseAll(Collection<String> agentStrings, Executor executor) {
+		return Arrays.asList(parseAll(agentStrings.toArray(new String[agentStrings.size()]), executor));
+	}
+
+	/**
+	 * Parses all the agent strings, each distinct one once, see
+	 * {@link #parseAll(String[], Executor)}.
+	 *
+	 * @param agentStrings the agent strings
+	 * @return the clients, in the order of the agent strings
+	 */
+	public Client[] parseAll(String[] agentStrings) {
+		return parseAll(agentStrings, null);
+	}
+
+	/**
+	 * Parses all the agent strings, each distinct one once. The rules, cache,
+	 * budget and metrics are read once for the whole batch, so a reload
+	 * meanwhile does not split it between two rule sets. Repeated agent
+	 * strings share the same client.
+	 *
+	 * @param agentStrings the agent strings
+	 * @param executor the executor to parse the distinct agent strings in
+	 *            chunks, null to parse on the calling thread, which also
+	 *            takes the chunks the executor has not started
+	 * @return the clients, in the order of the agent strings
+	 */
+	public Client[] parseAll(String[] agentStrings, Executor executor) {
+		Map<String, Integer> indexes = new HashMap<String, Integer>();
+		List<String> distinct = new ArrayList<String>();
+		List<String> keys = new ArrayList<String>();
+		int[] positions = new int[agentStrings.length];
+		for (int i = 0; i < agentStrings.length; i++) {
+			String agentString = agentStrings[i];
+			String key = key(agentString);
+			Integer index = indexes.get(agentString);
+			if (index == null) {
+				index = distinct.size();
+				indexes.put(agentString, index);
+				distinct.add(agentString);
+				keys.add(key);
+			}
+			positions[i] = index;
+		}
+		Client[] parsed = new Batch(distinct.toArray(new String[distinct.size()]),
+				keys.toArray(new String[keys.size()])).run(executor);
+		Client[] clients = new Client[agentStrings.length];
+		for (int i = 0; i < clients.length; i++) {
+			clients[i] = parsed[positions[i]];
+		}
+		return clients;
+	}
+
 	/**
 	 * Parses the browser.
 	 *
@@ -194,7 +674,45 @@ public class Parser {
 	 * @return the browser
 	 */
 	public Browser parseBrowser(String agentString){
-		return parsers.uaParser.parse(agentString, cache);
+		return parseBrowser(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the browser, see {@link #parseBrowser(CharSequence, ParseOptions)}.
+	 *
+	 * @param agentString the agent string
+	 * @return the browser
+	 */
+	public Browser parseBrowser(CharSequence agentString){
+		return parseBrowser(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the browser, extracting as much as the options ask for. The agent
+	 * string is read in place, like an {@link AsciiSequence} over the bytes
+	 * of a header, and copied into a string only when the cache is keyed by
+	 * strings, see {@link CharSequenceCache}.
+	 *
+	 * @param agentString the agent string
+	 * @param options the options
+	 * @return the browser
+	 */
+	public Browser parseBrowser(CharSequence agentString, ParseOptions options){
+		return browser(key(agentString), options);
+	}
+
+	/**
+	 * Browser.
+	 *
+	 * @param key the key, the agent string normalized
+	 * @param options the options
+	 * @return the browser
+	 */
+	private Browser browser(CharSequence key, ParseOptions options){
+		ParserMetrics metrics = this.metrics;
+		Parsers parsersForCall = parsers();
+		return parsersForCall.uaParser.parse(key, parsersForCall.cache(cache), budget,
+				metrics == null ? null : metrics.browser, options);
 	}
 	
 	/**
@@ -204,7 +722,45 @@ public class Parser {
 	 * @return the os
 	 */
 	public OS parseOS(String agentString){
-		return parsers.osParser.parse(agentString, cache);
+		return parseOS(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the os, see {@link #parseOS(CharSequence, ParseOptions)}.
+	 *
+	 * @param agentString the agent string
+	 * @return the os
+	 */
+	public OS parseOS(CharSequence agentString){
+		return parseOS(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the os, extracting as much as the options ask for. The agent
+	 * string is read in place, like an {@link AsciiSequence} over the bytes
+	 * of a header, and copied into a string only when the cache is keyed by
+	 * strings, see {@link CharSequenceCache}.
+	 *
+	 * @param agentString the agent string
+	 * @param options the options
+	 * @return the os
+	 */
+	public OS parseOS(CharSequence agentString, ParseOptions options){
+		return os(key(agentString), options);
+	}
+
+	/**
+	 * Os.
+	 *
+	 * @param key the key, the agent string normalized
+	 * @param options the options
+	 * @return the os
+	 */
+	private OS os(CharSequence key, ParseOptions options){
+		ParserMetrics metrics = this.metrics;
+		Parsers parsersForCall = parsers();
+		return parsersForCall.osParser.parse(key, parsersForCall.cache(cache), budget,
+				metrics == null ? null : metrics.os, options);
 	}
 
 	/**
@@ -214,7 +770,357 @@ public class Parser {
 	 * @return the device
 	 */
 	public Device parseDevice(String agentString){
-		return parsers.deviceParser.parse(agentString, cache);
+		return parseDevice(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the device, see {@link #parseDevice(CharSequence, ParseOptions)}.
+	 *
+	 * @param agentString the agent string
+	 * @return the device
+	 */
+	public Device parseDevice(CharSequence agentString){
+		return parseDevice(agentString, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the device, extracting as much as the options ask for. The agent
+	 * string is read in place, like an {@link AsciiSequence} over the bytes
+	 * of a header, and copied into a string only when the cache is keyed by
+	 * strings, see {@link CharSequenceCache}.
+	 *
+	 * @param agentString the agent string
+	 * @param options the options
+	 * @return the device
+	 */
+	public Device parseDevice(CharSequence agentString, ParseOptions options){
+		return device(key(agentString), options);
+	}
+
+	/**
+	 * Device.
+	 *
+	 * @param key the key, the agent string normalized
+	 * @param options the options
+	 * @return the device
+	 */
+	private Device device(CharSequence key, ParseOptions options){
+		ParserMetrics metrics = this.metrics;
+		Parsers parsersForCall = parsers();
+		return parsersForCall.deviceParser.parse(key, parsersForCall.cache(cache), budget,
+				metrics == null ? null : metrics.device, options);
+	}
+
+	/**
+	 * Parses the agent string on the calling thread if the cache holds its
+	 * browser, os and device, or else on the async executor, see
+	 * {@link #asyncExecutor(Executor, int)}.
+	 *
+	 * @param agentString the agent string
+	 * @return the client, completed already on a cache hit
+	 */
+	public CompletableFuture<Client> parseAsync(final String agentString){
+		ParserMetrics metrics = this.metrics;
+		Cache cache = lookupCache();
+		final String key = key(agentString);
+		if (agentString != null) {
+			long start = metrics == null ? DimensionMetrics.UNTIMED : metrics.browser.start();
+			Browser browser = cache.getUserAgent(key);
+			OS os = browser == null ? null : cache.getOs(key);
+			Device device = os == null ? null : cache.getDevice(key);
+			if (device == null) {
+				return offload(new Callable<Client>() {
+					@Override
+					public Client call() {
+						return parse(agentString, key, ParseOptions.FULL);
+					}
+				});
+			}
+			if (metrics != null) {
+				metrics.browser.hit(start);
+				metrics.os.hit(start);
+				metrics.device.hit(start);
+			}
+			return inline(new Client(agentString, browser, os, device), metrics);
+		}
+		return inline(new Client(null, null, null, null), metrics);
+	}
+
+	/**
+	 * Parses the browser on the calling thread if cached, or else on the
+	 * async executor.
+	 *
+	 * @param agentString the agent string
+	 * @return the browser, completed already on a cache hit
+	 */
+	public CompletableFuture<Browser> parseBrowserAsync(final String agentString){
+		ParserMetrics metrics = this.metrics;
+		final String key = key(agentString);
+		if (agentString != null) {
+			long start = metrics == null ? DimensionMetrics.UNTIMED : metrics.browser.start();
+			Browser browser = lookupCache().getUserAgent(key);
+			if (browser == null) {
+				return offload(new Callable<Browser>() {
+					@Override
+					public Browser call() {
+						return browser(key, ParseOptions.FULL);
+					}
+				});
+			}
+			if (metrics != null) {
+				metrics.browser.hit(start);
+			}
+			return inline(browser, metrics);
+		}
+		return inline(null, metrics);
+	}
+
+	/**
+	 * Parses the os on the calling thread if cached, or else on the async
+	 * executor.
+	 *
+	 * @param agentString the agent string
+	 * @return the os, completed already on a cache hit
+	 */
+	public CompletableFuture<OS> parseOSAsync(final String agentString){
+		ParserMetrics metrics = this.metrics;
+		final String key = key(agentString);
+		if (agentString != null) {
+			long start = metrics == null ? DimensionMetrics.UNTIMED : metrics.os.start();
+			OS os = lookupCache().getOs(key);
+			if (os == null) {
+				return offload(new Callable<OS>() {
+					@Override
+					public OS call() {
+						return os(key, ParseOptions.FULL);
+					}
+				});
+			}
+			if (metrics != null) {
+				metrics.os.hit(start);
+			}
+			return inline(os, metrics);
+		}
+		return inline(null, metrics);
+	}
+
+	/**
+	 * Parses the device on the calling thread if cached, or else on the
+	 * async executor.
+	 *
+	 * @param agentString the agent string
+	 * @return the device, completed already on a cache hit
+	 */
+	public CompletableFuture<Device> parseDeviceAsync(final String agentString){
+		ParserMetrics metrics = this.metrics;
+		final String key = key(agentString);
+		if (agentString != null) {
+			long start = metrics == null ? DimensionMetrics.UNTIMED : metrics.device.start();
+			Device device = lookupCache().getDevice(key);
+			if (device == null) {
+				return offload(new Callable<Device>() {
+					@Override
+					public Device call() {
+						return device(key, ParseOptions.FULL);
+					}
+				});
+			}
+			if (metrics != null) {
+				metrics.device.hit(start);
+			}
+			return inline(device, metrics);
+		}
+		return inline(null, metrics);
+	}
+
+	/**
+	 * Pending async.
+	 *
+	 * @return the async parses waiting for the executor
+	 */
+	public int pendingAsync(){
+		return pendingAsync.get();
+	}
+
+	/**
+	 * Inline, completes an async parse on the calling thread.
+	 *
+	 * @param <T> the result type
+	 * @param result the result
+	 * @param metrics the metrics, null for none
+	 * @return the future, completed
+	 */
+	private <T> CompletableFuture<T> inline(T result, ParserMetrics metrics){
+		if (metrics != null) {
+			metrics.asyncInline();
+		}
+		return CompletableFuture.completedFuture(result);
+	}
+
+	/**
+	 * Offload, hands a parse to the async executor, unless too many wait
+	 * already.
+	 *
+	 * @param <T> the result type
+	 * @param parse the parse
+	 * @return the future, completed by the executor, or failed with a
+	 *         {@link RejectedExecutionException}
+	 */
+	private <T> CompletableFuture<T> offload(final Callable<T> parse){
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		ParserMetrics metrics = this.metrics;
+		RejectedExecutionException rejection = null;
+		if (pendingAsync.incrementAndGet() > maxPendingAsync) {
+			rejection = new RejectedExecutionException("more than " + maxPendingAsync + " async parses waiting");
+		} else {
+			try {
+				asyncExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						pendingAsync.decrementAndGet();
+						try {
+							future.complete(parse.call());
+						} catch (Throwable e) {
+							future.completeExceptionally(e);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				rejection = e;
+			}
+		}
+		if (rejection != null) {
+			pendingAsync.decrementAndGet();
+			if (metrics != null) {
+				metrics.asyncRejected();
+			}
+			future.completeExceptionally(rejection);
+		} else if (metrics != null) {
+			metrics.asyncOffloaded();
+		}
+		return future;
+	}
+
+	/**
+	 * Key, normalizes the agent string and counts the key in the hot keys if
+	 * tracked.
+	 *
+	 * @param agentString the agent string
+	 * @return the key to parse and cache it under
+	 */
+	private String key(String agentString){
+		Normalizer normalizer = this.normalizer;
+		String key = agentString;
+		if (agentString != null && !normalizer.isNone()) {
+			key = normalizer.normalize(agentString);
+			ParserMetrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.normalized(agentString, key);
+			}
+		}
+		record(key);
+		return key;
+	}
+
+	/**
+	 * Key, normalizes the agent string and counts the key in the hot keys if
+	 * tracked.
+	 *
+	 * @param agentString the agent string
+	 * @return the key to parse and cache it under, read in place if the
+	 *         normalizer leaves it as it is
+	 */
+	private CharSequence key(CharSequence agentString){
+		Normalizer normalizer = this.normalizer;
+		CharSequence key = agentString;
+		if (agentString != null && !normalizer.isNone()) {
+			key = normalizer.normalize(agentString);
+			ParserMetrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.normalized(agentString, key);
+			}
+		}
+		record(key);
+		return key;
+	}
+
+	/**
+	 * Lookup cache, for the async parses to look results up on the calling
+	 * thread without compiling a pending load.
+	 *
+	 * @return the cache, behind the precomputed table of the rules in use
+	 */
+	private Cache lookupCache(){
+		Parsers current = parsers;
+		return current == null ? cache : current.cache(cache);
+	}
+
+	/**
+	 * Record, counts the agent string in the hot keys if tracked.
+	 *
+	 * @param agentString the agent string
+	 */
+	private void record(CharSequence agentString){
+		HotKeys hotKeys = this.hotKeys;
+		if (hotKeys != null) {
+			hotKeys.record(agentString);
+		}
+	}
+
+	/**
+	 * Parsers.
+	 *
+	 * @return the parsers in use, with their counters, compiled first if the
+	 *         load is lazy and still pending
+	 */
+	public Parsers parsers(){
+		Parsers current = parsers;
+		return current != null ? current : compilePendingLoad();
+	}
+
+	/**
+	 * Compile pending load, on the calling thread unless another one is at it
+	 * already.
+	 *
+	 * @return the parsers
+	 */
+	private Parsers compilePendingLoad(){
+		FutureTask<Parsers> task = pendingLoad;
+		if (task != null) {
+			task.run();
+			Parsers compiled;
+			try {
+				compiled = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while compiling patterns", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+			synchronized (this) {
+				// a reload meanwhile brings newer patterns, keep them
+				if (pendingLoad == task) {
+					parsers = compiled;
+					pendingLoad = null;
+				}
+			}
+		}
+		return parsers;
+	}
+
+	/**
+	 * Budget exceeded.
+	 *
+	 * @return the parser calls given up for running out of budget since the
+	 *         last load
+	 */
+	public long budgetExceeded(){
+		Parsers current = parsers();
+		return current.uaParser.budgetExceeded() + current.osParser.budgetExceeded()
+				+ current.deviceParser.budgetExceeded();
 	}
 
 	/**
@@ -224,11 +1130,19 @@ public class Parser {
 	 */
 	private void initialize(String url){
 		try{
-			initialize(new URL(url).openStream());
+			RegexYamlFetcher.Download download = fetcher.fetch(url);
+			if(download == null){
+				loaderListener.success(url);
+				logger.info("ua-parser remote url {} not modified",url);
+				return;
+			}
+			initialize(new ByteArrayInputStream(download.yaml));
+			fetcher.loaded(url, download);
 			loaderListener.success(url);
 			logger.info("reloaded ua-parser from remote url {}",url);
 		}catch(Exception e){
 			logger.error("error loading from remote",e);
+			fetcher.forget(url);
 			loaderListener.failure(url, e);
 			if(StringUtils.isNotBlank(System.getProperty(FAIL_SAFE_URL))
 					&& !System.getProperty(FAIL_SAFE_URL).equalsIgnoreCase(url)){
@@ -246,10 +1160,12 @@ public class Parser {
 	 */
 	private void initialize(InputStream regexYaml) {
 		byte[] bytes = null;
+		byte[] digest = null;
 		String newMD5 = null;
 		try {
 			bytes = IOUtils.toByteArray(regexYaml);
-			newMD5 = new String(MessageDigest.getInstance("MD5").digest(bytes));
+			digest = MessageDigest.getInstance("MD5").digest(bytes);
+			newMD5 = new String(digest);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -257,35 +1173,335 @@ public class Parser {
 			logger.info("same MD5 content for both files, do not load it");
 			return;
 		}
-		uaRegexYamlMD5 = newMD5;
-		Yaml yaml = new Yaml(new SafeConstructor());
-		@SuppressWarnings("unchecked")
-		Map<String, List<Map<String, String>>> regexConfig = (Map<String, List<Map<String, String>>>) yaml
-				.load(new ByteArrayInputStream(bytes));
-
-		List<Map<String, String>> uaParserConfigs = regexConfig.get("user_agent_parsers");
-		if (uaParserConfigs == null) {
-			throw new IllegalArgumentException("user_agent_parsers is missing from yaml");
+		final byte[] yaml = bytes;
+		if (loadMode == LoadMode.LAZY && parsers == null && pendingLoad == null) {
+			uaRegexYamlMD5 = newMD5;
+			defer(digest, new Callable<RuleSnapshot>() {
+				@Override
+				public RuleSnapshot call() {
+					return RuleSnapshot.fromYaml(yaml);
+				}
+			});
+		} else {
+			initialize(RuleSnapshot.fromYaml(yaml));
+			// only once loaded, a body that failed to load is tried again
+			uaRegexYamlMD5 = newMD5;
 		}
-		UserAgentParser uaParser = UserAgentParser.fromList(uaParserConfigs);
+	}
 
-		List<Map<String, String>> osParserConfigs = regexConfig.get("os_parsers");
-		if (osParserConfigs == null) {
-			throw new IllegalArgumentException("os_parsers is missing from yaml");
+	/**
+	 * Rule set, tells the cache which rules are in use, if it keeps results
+	 * across rule sets.
+	 *
+	 * @param checksum the checksum of the rules
+	 */
+	private void ruleSet(byte[] checksum) {
+		ruleSet = checksum;
+		if (cache instanceof RuleSetAware) {
+			((RuleSetAware) cache).ruleSet(checksum);
 		}
-		OSParser osParser = OSParser.fromList(osParserConfigs);
+	}
 
-		List<Map<String, String>> deviceParserConfigs = regexConfig.get("device_parsers");
-		if (deviceParserConfigs == null) {
-			throw new IllegalArgumentException("device_parsers is missing from yaml");
+	/**
+	 * Defer, leaves the rules to be compiled by the first parse.
+	 *
+	 * @param checksum the checksum of the rules
+	 * @param rules the rules
+	 */
+	private void defer(byte[] checksum, final Callable<RuleSnapshot> rules) {
+		ruleSet(checksum);
+		pendingLoad = new FutureTask<Parsers>(new Callable<Parsers>() {
+			@Override
+			public Parsers call() throws Exception {
+				return precompute(loadMode.compile(rules.call()));
+			}
+		});
+	}
+
+	/**
+	 * Initialize.
+	 *
+	 * @param rules the rules
+	 */
+	private void initialize(RuleSnapshot rules) {
+		Parsers compiled = precompute(loadMode.compile(rules));
+		CacheFill fill = new CacheFill();
+		HotKeys hotKeys = this.hotKeys;
+		if (cleanCacheOnUpdate && hotKeys != null && parsers != null) {
+			for (String agentString : hotKeys.hottest()) {
+				ParseBudget budget = this.budget.begin();
+				compiled.uaParser.parse(agentString, fill, budget);
+				compiled.osParser.parse(agentString, fill, budget);
+				compiled.deviceParser.parse(agentString, fill, budget);
+			}
 		}
-		DeviceParser deviceParser = DeviceParser.fromList(deviceParserConfigs);
-		parsers = new Parsers(uaParser, osParser, deviceParser);
-		if(cleanCacheOnUpdate){
-			cache.clean();
+		synchronized (this) {
+			ruleSet(rules.checksum());
+			parsers = compiled;
+			pendingLoad = null;
+			if(cleanCacheOnUpdate){
+				cache.clean();
+				fill.putInto(cache);
+			}
+		}
+		if (fill.size() > 0) {
+			logger.info("refilled the cache with {} hot agent strings", fill.size());
 		}
 	}
 	
+	/**
+	 * Precompute, parses the agent strings to precompute with the parsers
+	 * given. Results the budget gives up on are left to the cache.
+	 *
+	 * @param compiled the parsers
+	 * @return the parsers with the table of the agent strings, or without a
+	 *         table if there are none
+	 */
+	private Parsers precompute(Parsers compiled) {
+		List<String> agentStrings = precomputed;
+		if (agentStrings == null) {
+			return compiled.precomputed == null ? compiled
+					: new Parsers(compiled.uaParser, compiled.osParser, compiled.deviceParser);
+		}
+		CacheFill fill = new CacheFill();
+		for (String agentString : agentStrings) {
+			ParseBudget budget = this.budget.begin();
+			compiled.uaParser.parse(agentString, fill, budget);
+			compiled.osParser.parse(agentString, fill, budget);
+			compiled.deviceParser.parse(agentString, fill, budget);
+		}
+		PrecomputedTable table = fill.table(agentStrings);
+		logger.info("precomputed {} agent strings", table.size());
+		return new Parsers(compiled.uaParser, compiled.osParser, compiled.deviceParser, table);
+	}
+
+	/**
+	 * The Class Batch, the distinct agent strings of a batch and what they are
+	 * parsed with.
+	 */
+	private final class Batch {
+
+		/** The parsers. */
+		private final Parsers parsers = parsers();
+
+		/** The cache, behind the precomputed table. */
+		private final Cache cache = parsers.cache(Parser.this.cache);
+
+		/** The budget. */
+		private final ParseBudget budget = Parser.this.budget;
+
+		/** The metrics, null when not recording. */
+		private final ParserMetrics metrics = Parser.this.metrics;
+
+		/** The agent strings. */
+		private final String[] agentStrings;
+
+		/** The keys, the agent strings normalized. */
+		private final String[] keys;
+
+		/** The clients. */
+		private final Client[] clients;
+
+		/**
+		 * Instantiates a new batch.
+		 *
+		 * @param agentStrings the distinct agent strings
+		 * @param keys the keys, the agent strings normalized
+		 */
+		Batch(String[] agentStrings, String[] keys) {
+			this.agentStrings = agentStrings;
+			this.keys = keys;
+			this.clients = new Client[agentStrings.length];
+		}
+
+		/**
+		 * Run.
+		 *
+		 * @param executor the executor, null for none
+		 * @return the clients
+		 */
+		Client[] run(Executor executor) {
+			int tasks = 4 * Runtime.getRuntime().availableProcessors();
+			int chunk = Math.max(MIN_BATCH_CHUNK, (agentStrings.length + tasks - 1) / tasks);
+			if (executor == null || agentStrings.length <= chunk) {
+				parse(0, agentStrings.length);
+				return clients;
+			}
+			List<FutureTask<Void>> chunks = new ArrayList<FutureTask<Void>>();
+			for (int from = 0; from < agentStrings.length; from += chunk) {
+				final int start = from;
+				final int end = Math.min(from + chunk, agentStrings.length);
+				FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+					@Override
+					public void run() {
+						parse(start, end);
+					}
+				}, null);
+				chunks.add(task);
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					// run below by the calling thread
+				}
+			}
+			for (FutureTask<Void> task : chunks) {
+				task.run();
+				try {
+					task.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("interrupted while parsing a batch", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			return clients;
+		}
+
+		/**
+		 * Parses the.
+		 *
+		 * @param from the first agent string
+		 * @param to the agent string after the last
+		 */
+		void parse(int from, int to) {
+			for (int i = from; i < to; i++) {
+				String key = keys[i];
+				ParseBudget budget = this.budget.begin();
+				Browser browser = parsers.uaParser.parse(key, cache, budget,
+						metrics == null ? null : metrics.browser);
+				OS os = parsers.osParser.parse(key, cache, budget, metrics == null ? null : metrics.os);
+				Device device = parsers.deviceParser.parse(key, cache, budget,
+						metrics == null ? null : metrics.device);
+				clients[i] = new Client(agentStrings[i], browser, os, device);
+			}
+		}
+	}
+
+	/**
+	 * The Class CacheFill, holds back the results parses put in it, to put
+	 * them in another cache later.
+	 */
+	private static final class CacheFill implements Cache {
+
+		/** The user agents. */
+		private final Map<String, Browser> userAgents = new LinkedHashMap<String, Browser>();
+
+		/** The oses. */
+		private final Map<String, OS> oses = new LinkedHashMap<String, OS>();
+
+		/** The devices. */
+		private final Map<String, Device> devices = new LinkedHashMap<String, Device>();
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#getOs(java.lang.String)
+		 */
+		@Override
+		public OS getOs(String agentString) {
+			return null;
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#putOS(java.lang.String, io.gromit.uaparser.model.OS)
+		 */
+		@Override
+		public void putOS(String agentString, OS object) {
+			oses.put(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#getDevice(java.lang.String)
+		 */
+		@Override
+		public Device getDevice(String agentString) {
+			return null;
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#putDevice(java.lang.String, io.gromit.uaparser.model.Device)
+		 */
+		@Override
+		public void putDevice(String agentString, Device object) {
+			devices.put(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#getUserAgent(java.lang.String)
+		 */
+		@Override
+		public Browser getUserAgent(String agentString) {
+			return null;
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#putUserAgent(java.lang.String, io.gromit.uaparser.model.Browser)
+		 */
+		@Override
+		public void putUserAgent(String agentString, Browser object) {
+			userAgents.put(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#clean()
+		 */
+		@Override
+		public void clean() {
+			userAgents.clear();
+			oses.clear();
+			devices.clear();
+		}
+
+		/**
+		 * Size.
+		 *
+		 * @return the number of agent strings with a result held
+		 */
+		int size() {
+			return Math.max(userAgents.size(), Math.max(oses.size(), devices.size()));
+		}
+
+		/**
+		 * Table.
+		 *
+		 * @param agentStrings the agent strings parsed, the most frequent
+		 *            first
+		 * @return the table of the results held
+		 */
+		PrecomputedTable table(List<String> agentStrings) {
+			int size = agentStrings.size();
+			String[] keys = agentStrings.toArray(new String[size]);
+			Browser[] browsers = new Browser[size];
+			OS[] systems = new OS[size];
+			Device[] found = new Device[size];
+			for (int i = 0; i < size; i++) {
+				browsers[i] = userAgents.get(keys[i]);
+				systems[i] = oses.get(keys[i]);
+				found[i] = devices.get(keys[i]);
+			}
+			return new PrecomputedTable(keys, browsers, systems, found);
+		}
+
+		/**
+		 * Put into.
+		 *
+		 * @param cache the cache to put the results held in
+		 */
+		void putInto(Cache cache) {
+			for (Map.Entry<String, Browser> entry : userAgents.entrySet()) {
+				cache.putUserAgent(entry.getKey(), entry.getValue());
+			}
+			for (Map.Entry<String, OS> entry : oses.entrySet()) {
+				cache.putOS(entry.getKey(), entry.getValue());
+			}
+			for (Map.Entry<String, Device> entry : devices.entrySet()) {
+				cache.putDevice(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
 	/**
 	 * The Class Parsers.
 	 */
@@ -300,6 +1516,9 @@ public class Parser {
 		/** The device parser. */
 		public final DeviceParser deviceParser;
 
+		/** The precomputed results of these parsers, null for none. */
+		public final PrecomputedTable precomputed;
+
 		/**
 		 * Instantiates a new parsers.
 		 *
@@ -308,9 +1527,35 @@ public class Parser {
 		 * @param deviceParser the device parser
 		 */
 		public Parsers(UserAgentParser uaParser, OSParser osParser, DeviceParser deviceParser) {
+			this(uaParser, osParser, deviceParser, null);
+		}
+
+		/**
+		 * Instantiates a new parsers.
+		 *
+		 * @param uaParser the ua parser
+		 * @param osParser the os parser
+		 * @param deviceParser the device parser
+		 * @param precomputed the precomputed results of these parsers, null
+		 *            for none
+		 */
+		public Parsers(UserAgentParser uaParser, OSParser osParser, DeviceParser deviceParser,
+				PrecomputedTable precomputed) {
 			this.uaParser = uaParser;
 			this.osParser = osParser;
 			this.deviceParser = deviceParser;
+			this.precomputed = precomputed;
+		}
+
+		/**
+		 * Cache.
+		 *
+		 * @param cache the cache
+		 * @return the cache behind the precomputed table, the cache itself if
+		 *         there is none
+		 */
+		public Cache cache(Cache cache) {
+			return precomputed == null ? cache : precomputed.over(cache);
 		}
 		
 	}
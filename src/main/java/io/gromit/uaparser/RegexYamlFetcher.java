@@ -0,0 +1,201 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The Class RegexYamlFetcher, downloads a regexes yaml only when it changed.
+ * Over HTTP the ETag and Last-Modified of the last loaded download are sent
+ * back as If-None-Match and If-Modified-Since, a 304 answer skips the body,
+ * and gzip encoded bodies are accepted. Other urls, like file urls, are read
+ * in full every time. A download only counts as the last one once the caller
+ * reports it {@link #loaded(String, Download)}, so a body that failed to load
+ * is downloaded again instead of being answered with a 304.
+ */
+final class RegexYamlFetcher {
+
+	/** The validators of the last loaded download, by url. */
+	private final ConcurrentHashMap<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
+
+	/** The connect timeout, in millis. */
+	private volatile int connectTimeout;
+
+	/** The read timeout, in millis. */
+	private volatile int readTimeout;
+
+	/**
+	 * Instantiates a new regex yaml fetcher.
+	 *
+	 * @param connectTimeout the connect timeout, in millis
+	 * @param readTimeout the read timeout, in millis
+	 */
+	RegexYamlFetcher(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Connect timeout.
+	 *
+	 * @param millis the millis, 0 for none
+	 */
+	void connectTimeout(int millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("connect timeout must not be negative");
+		}
+		this.connectTimeout = millis;
+	}
+
+	/**
+	 * Read timeout.
+	 *
+	 * @param millis the millis, 0 for none
+	 */
+	void readTimeout(int millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("read timeout must not be negative");
+		}
+		this.readTimeout = millis;
+	}
+
+	/**
+	 * Fetch.
+	 *
+	 * @param url the url
+	 * @return the download, null if it did not change since the last loaded one
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	Download fetch(String url) throws IOException {
+		URLConnection connection = new URL(url).openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		if (!(connection instanceof HttpURLConnection)) {
+			try (InputStream in = connection.getInputStream()) {
+				return new Download(IOUtils.toByteArray(in), null);
+			}
+		}
+		HttpURLConnection http = (HttpURLConnection) connection;
+		try {
+			http.setRequestProperty("Accept-Encoding", "gzip");
+			Validators last = validators.get(url);
+			if (last != null) {
+				if (last.etag != null) {
+					http.setRequestProperty("If-None-Match", last.etag);
+				}
+				if (last.lastModified != null) {
+					http.setRequestProperty("If-Modified-Since", last.lastModified);
+				}
+			}
+			int status = http.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				return null;
+			}
+			if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("HTTP " + status + " from " + url);
+			}
+			byte[] yaml;
+			try (InputStream in = "gzip".equalsIgnoreCase(http.getContentEncoding())
+					? new GZIPInputStream(http.getInputStream()) : http.getInputStream()) {
+				yaml = IOUtils.toByteArray(in);
+			}
+			String etag = http.getHeaderField("ETag");
+			String lastModified = http.getHeaderField("Last-Modified");
+			return new Download(yaml,
+					etag != null || lastModified != null ? new Validators(etag, lastModified) : null);
+		} finally {
+			http.disconnect();
+		}
+	}
+
+	/**
+	 * Loaded, the download is the one in use now, its validators are sent by
+	 * the next fetch of the url. The validators of other urls are dropped, as
+	 * their rules are no longer in use.
+	 *
+	 * @param url the url
+	 * @param download the download
+	 */
+	void loaded(String url, Download download) {
+		validators.clear();
+		if (download.validators != null) {
+			validators.put(url, download.validators);
+		}
+	}
+
+	/**
+	 * Forget, the next fetch of the url downloads it in full.
+	 *
+	 * @param url the url
+	 */
+	void forget(String url) {
+		validators.remove(url);
+	}
+
+	/**
+	 * The Class Download, a yaml body and what identifies it.
+	 */
+	static final class Download {
+
+		/** The yaml. */
+		final byte[] yaml;
+
+		/** The validators, null if the server sent none. */
+		private final Validators validators;
+
+		/**
+		 * Instantiates a new download.
+		 *
+		 * @param yaml the yaml
+		 * @param validators the validators
+		 */
+		Download(byte[] yaml, Validators validators) {
+			this.yaml = yaml;
+			this.validators = validators;
+		}
+	}
+
+	/**
+	 * The Class Validators, what a server said identifies a download.
+	 */
+	private static final class Validators {
+
+		/** The etag. */
+		final String etag;
+
+		/** The last modified. */
+		final String lastModified;
+
+		/**
+		 * Instantiates a new validators.
+		 *
+		 * @param etag the etag
+		 * @param lastModified the last modified
+		 */
+		Validators(String etag, String lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import java.util.concurrent.ConcurrentMap;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class CacheEntry, the results cached for one agent string. The agent
+ * string itself is the only key, so it is stored once and its cached hash is
+ * reused by every lookup.
+ */
+final class CacheEntry {
+
+	/** The user agent. */
+	volatile Browser userAgent;
+
+	/** The os. */
+	volatile OS os;
+
+	/** The device. */
+	volatile Device device;
+
+	/**
+	 * Of.
+	 *
+	 * @param entries the entries by agent string
+	 * @param agentString the agent string
+	 * @return the entry of the agent string, added if missing
+	 */
+	static CacheEntry of(ConcurrentMap<String, ? super CacheEntry> entries, String agentString) {
+		CacheEntry entry = (CacheEntry) entries.get(agentString);
+		if (entry == null) {
+			CacheEntry added = new CacheEntry();
+			entry = (CacheEntry) entries.putIfAbsent(agentString, added);
+			if (entry == null) {
+				entry = added;
+			}
+		}
+		return entry;
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class CaffeineCache, keeps the results of an agent string in one entry
+ * of a Caffeine cache. Caffeine admits new entries by their estimated
+ * frequency (W-TinyLFU), which suits the long tail of agent strings better
+ * than plain LRU, and reads take no lock.
+ * <p>
+ * Hits and misses are counted per result asked for, a lookup of a result not
+ * parsed yet for a cached agent string is a miss.
+ * <p>
+ * Caffeine is an optional dependency of uap-java, it is not pulled in with
+ * it: callers of this class must add com.github.ben-manes.caffeine:caffeine
+ * (2.x, for Java 8) to their own dependencies.
+ */
+public class CaffeineCache implements Cache {
+
+	/** The Constant DEFAULT_CAPACITY. */
+	private static final int DEFAULT_CAPACITY = 16384;
+
+	/** The Constant AGENT_LENGTH, weighs an entry by the chars of its agent string. */
+	public static final Weigher<Object, Object> AGENT_LENGTH = new Weigher<Object, Object>() {
+		@Override
+		public int weigh(Object agentString, Object entry) {
+			return Math.max(((String) agentString).length(), 1);
+		}
+	};
+
+	/** The stats. */
+	private final StatsCounter stats = new ConcurrentStatsCounter();
+
+	/** The cache. */
+	private final com.github.benmanes.caffeine.cache.Cache<String, CacheEntry> cache;
+
+	/** The entries. */
+	private final ConcurrentMap<String, CacheEntry> entries;
+
+	/**
+	 * Instantiates a new caffeine cache.
+	 */
+	public CaffeineCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new caffeine cache.
+	 *
+	 * @param maximumSize the maximum number of agent strings
+	 */
+	public CaffeineCache(long maximumSize) {
+		this(Caffeine.newBuilder().maximumSize(maximumSize));
+	}
+
+	/**
+	 * Instantiates a new caffeine cache.
+	 *
+	 * @param maximumSize the maximum number of agent strings
+	 * @param expireAfterAccess the time an agent string stays without lookups
+	 * @param unit the unit
+	 */
+	public CaffeineCache(long maximumSize, long expireAfterAccess, TimeUnit unit) {
+		this(Caffeine.newBuilder().maximumSize(maximumSize).expireAfterAccess(expireAfterAccess, unit));
+	}
+
+	/**
+	 * Instantiates a new caffeine cache, for a maximum weight use
+	 * {@link #AGENT_LENGTH} as the weigher.
+	 *
+	 * @param builder the builder, without stats recording as the cache
+	 *            records its own
+	 */
+	public CaffeineCache(Caffeine<Object, Object> builder) {
+		this.cache = builder.recordStats(new Supplier<StatsCounter>() {
+			@Override
+			public StatsCounter get() {
+				return stats;
+			}
+		}).build();
+		this.entries = cache.asMap();
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getOs(java.lang.String)
+	 */
+	@Override
+	public OS getOs(String agentString) {
+		CacheEntry entry = entries.get(agentString);
+		return record(entry == null ? null : entry.os);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putOS(java.lang.String, io.gromit.uaparser.model.OS)
+	 */
+	@Override
+	public void putOS(String agentString, OS object) {
+		CacheEntry.of(entries, agentString).os = object;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getDevice(java.lang.String)
+	 */
+	@Override
+	public Device getDevice(String agentString) {
+		CacheEntry entry = entries.get(agentString);
+		return record(entry == null ? null : entry.device);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putDevice(java.lang.String, io.gromit.uaparser.model.Device)
+	 */
+	@Override
+	public void putDevice(String agentString, Device object) {
+		CacheEntry.of(entries, agentString).device = object;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getUserAgent(java.lang.String)
+	 */
+	@Override
+	public Browser getUserAgent(String agentString) {
+		CacheEntry entry = entries.get(agentString);
+		return record(entry == null ? null : entry.userAgent);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putUserAgent(java.lang.String, io.gromit.uaparser.model.Browser)
+	 */
+	@Override
+	public void putUserAgent(String agentString, Browser object) {
+		CacheEntry.of(entries, agentString).userAgent = object;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#clean()
+	 */
+	@Override
+	public void clean() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Stats.
+	 *
+	 * @return the hits, misses and evictions so far
+	 */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	/**
+	 * Estimated size.
+	 *
+	 * @return the approximate number of agent strings cached
+	 */
+	public long estimatedSize() {
+		return cache.estimatedSize();
+	}
+
+	/**
+	 * Record.
+	 *
+	 * @param <T> the result type
+	 * @param result the result found, null if missing
+	 * @return the result
+	 */
+	private <T> T record(T result) {
+		if (result == null) {
+			stats.recordMisses(1);
+		} else {
+			stats.recordHits(1);
+		}
+		return result;
+	}
+}
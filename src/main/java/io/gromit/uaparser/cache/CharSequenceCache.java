@@ -0,0 +1,76 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Interface CharSequenceCache, a cache that takes agent strings as any
+ * char sequence, like the bytes of a header, without copying them into a
+ * {@link String}. The parsers hand other caches a string.
+ */
+public interface CharSequenceCache extends Cache {
+
+	/**
+	 * Gets the os.
+	 *
+	 * @param agentString the agent string
+	 * @return the os
+	 */
+	OS getOs(CharSequence agentString);
+
+	/**
+	 * Put os.
+	 *
+	 * @param agentString the agent string
+	 * @param object the object
+	 */
+	void putOS(CharSequence agentString, OS object);
+
+	/**
+	 * Gets the device.
+	 *
+	 * @param agentString the agent string
+	 * @return the device
+	 */
+	Device getDevice(CharSequence agentString);
+
+	/**
+	 * Put device.
+	 *
+	 * @param agentString the agent string
+	 * @param object the object
+	 */
+	void putDevice(CharSequence agentString, Device object);
+
+	/**
+	 * Gets the user agent.
+	 *
+	 * @param agentString the agent string
+	 * @return the user agent
+	 */
+	Browser getUserAgent(CharSequence agentString);
+
+	/**
+	 * Put user agent.
+	 *
+	 * @param agentString the agent string
+	 * @param object the object
+	 */
+	void putUserAgent(CharSequence agentString, Browser object);
+}
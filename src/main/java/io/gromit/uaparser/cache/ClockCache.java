@@ -0,0 +1,246 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class ClockCache, a bounded cache that needs nothing beyond the JDK.
+ * The results of an agent string live in one node of a
+ * {@link ConcurrentHashMap}, so lookups take no lock. Every node also holds a
+ * slot of a ring swept by a CLOCK hand: a lookup marks its node as
+ * referenced, and a new agent string takes the slot of the first node the
+ * hand finds unreferenced, clearing the marks it passes on the way.
+ * {@link #clean()} swaps in an empty map and ring and lets the old ones go.
+ */
+public class ClockCache implements Cache {
+
+	/** The Constant DEFAULT_CAPACITY. */
+	private static final int DEFAULT_CAPACITY = 16384;
+
+	/** The maximum size. */
+	private final int maximumSize;
+
+	/** The state. */
+	private volatile State state;
+
+	/**
+	 * Instantiates a new clock cache.
+	 */
+	public ClockCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new clock cache.
+	 *
+	 * @param maximumSize the maximum number of agent strings
+	 */
+	public ClockCache(int maximumSize) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("maximum size must be positive");
+		}
+		this.maximumSize = maximumSize;
+		this.state = new State(maximumSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getOs(java.lang.String)
+	 */
+	@Override
+	public OS getOs(String agentString) {
+		Node node = state.get(agentString);
+		return node == null ? null : node.os;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putOS(java.lang.String, io.gromit.uaparser.model.OS)
+	 */
+	@Override
+	public void putOS(String agentString, OS object) {
+		state.node(agentString).os = object;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getDevice(java.lang.String)
+	 */
+	@Override
+	public Device getDevice(String agentString) {
+		Node node = state.get(agentString);
+		return node == null ? null : node.device;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putDevice(java.lang.String, io.gromit.uaparser.model.Device)
+	 */
+	@Override
+	public void putDevice(String agentString, Device object) {
+		state.node(agentString).device = object;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getUserAgent(java.lang.String)
+	 */
+	@Override
+	public Browser getUserAgent(String agentString) {
+		Node node = state.get(agentString);
+		return node == null ? null : node.userAgent;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putUserAgent(java.lang.String, io.gromit.uaparser.model.Browser)
+	 */
+	@Override
+	public void putUserAgent(String agentString, Browser object) {
+		state.node(agentString).userAgent = object;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#clean()
+	 */
+	@Override
+	public void clean() {
+		state = new State(maximumSize);
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of agent strings cached, it may go over the maximum
+	 *         size by the number of threads adding agent strings right now
+	 */
+	public int size() {
+		return state.nodes.size();
+	}
+
+	/**
+	 * The Class Node.
+	 */
+	private static final class Node {
+
+		/** The agent string. */
+		final String agentString;
+
+		/** The referenced mark, set by lookups and cleared by the hand. */
+		volatile boolean referenced;
+
+		/** The user agent. */
+		volatile Browser userAgent;
+
+		/** The os. */
+		volatile OS os;
+
+		/** The device. */
+		volatile Device device;
+
+		/**
+		 * Instantiates a new node.
+		 *
+		 * @param agentString the agent string
+		 */
+		Node(String agentString) {
+			this.agentString = agentString;
+		}
+	}
+
+	/**
+	 * The Class State, the nodes and the ring of their slots.
+	 */
+	private static final class State {
+
+		/** The nodes. */
+		final ConcurrentHashMap<String, Node> nodes;
+
+		/** The ring. */
+		final AtomicReferenceArray<Node> ring;
+
+		/** The hand. */
+		final AtomicInteger hand = new AtomicInteger();
+
+		/**
+		 * Instantiates a new state.
+		 *
+		 * @param maximumSize the maximum size
+		 */
+		State(int maximumSize) {
+			this.nodes = new ConcurrentHashMap<String, Node>(maximumSize * 4 / 3 + 1);
+			this.ring = new AtomicReferenceArray<Node>(maximumSize);
+		}
+
+		/**
+		 * Gets the.
+		 *
+		 * @param agentString the agent string
+		 * @return the node, marked as referenced, null if missing
+		 */
+		Node get(String agentString) {
+			Node node = nodes.get(agentString);
+			if (node != null && !node.referenced) {
+				node.referenced = true;
+			}
+			return node;
+		}
+
+		/**
+		 * Node.
+		 *
+		 * @param agentString the agent string
+		 * @return the node of the agent string, added if missing
+		 */
+		Node node(String agentString) {
+			Node node = nodes.get(agentString);
+			if (node == null) {
+				Node added = new Node(agentString);
+				node = nodes.putIfAbsent(agentString, added);
+				if (node == null) {
+					node = added;
+					place(added);
+				}
+			}
+			return node;
+		}
+
+		/**
+		 * Place, gives the node the slot of the first unreferenced node the
+		 * hand finds, or of the node under the hand after two full turns.
+		 *
+		 * @param node the node
+		 */
+		private void place(Node node) {
+			int length = ring.length();
+			for (int turn = 0;; turn++) {
+				int slot = (hand.getAndIncrement() & Integer.MAX_VALUE) % length;
+				Node current = ring.get(slot);
+				if (current != null && current.referenced && turn < 2 * length) {
+					current.referenced = false;
+					continue;
+				}
+				if (ring.compareAndSet(slot, current, node)) {
+					if (current != null) {
+						nodes.remove(current.agentString, current);
+					}
+					return;
+				}
+			}
+		}
+	}
+}
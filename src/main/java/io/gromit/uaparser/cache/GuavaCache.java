@@ -22,39 +22,14 @@ import io.gromit.uaparser.model.OS;
 import io.gromit.uaparser.model.Browser;
 
 /**
- * The Class GuavaCache.
+ * The Class GuavaCache, keeps the user agent, os and device results of an
+ * agent string together in one entry keyed by the agent string.
  */
 public class GuavaCache implements Cache{
 
     /** The Constant DEFAULT_CAPACITY. */
     private static final int DEFAULT_CAPACITY = 16384;
 	
-    /**
-     * The Enum Type.
-     */
-    private enum Type {
-    	
-    	/** The os. */
-    	os,
-    	
-    	/** The user agent. */
-    	userAgent,
-    	
-    	/** The device. */
-    	device;
-    	
-    	/**
-	     * Key.
-	     *
-	     * @param browser the user agent
-	     * @return the string
-	     */
-	    private String key(String userAgent){
-    		return this.name()+":"+userAgent;
-    	}
-    	
-    }
-    
     /** The cache. */
     private final com.google.common.cache.Cache<String, Object> cache;
 
@@ -68,7 +43,7 @@ public class GuavaCache implements Cache{
     /**
      * Instantiates a new guava cache.
      *
-     * @param maximumSize the maximum size
+     * @param maximumSize the maximum number of agent strings
      */
     public GuavaCache(int maximumSize) {
     	cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
@@ -77,7 +52,7 @@ public class GuavaCache implements Cache{
     /**
      * Instantiates a new guava cache.
      *
-     * @param cache the cache
+     * @param cache the cache, keyed by agent string
      */
     public GuavaCache(com.google.common.cache.Cache<String, Object> cache){
     	this.cache = cache;
@@ -88,11 +63,8 @@ public class GuavaCache implements Cache{
 	 */
 	@Override
 	public OS getOs(String agentString) {
-		Object object = cache.getIfPresent(Type.os.key(agentString));
-		if(object == null){
-			return null;
-		}
-		return (OS)object;
+		CacheEntry entry = (CacheEntry) cache.getIfPresent(agentString);
+		return entry == null ? null : entry.os;
 	}
 
 	/* (non-Javadoc)
@@ -100,7 +72,7 @@ public class GuavaCache implements Cache{
 	 */
 	@Override
 	public void putOS(String agentString, OS object) {
-		cache.put(Type.os.key(agentString), object);
+		CacheEntry.of(cache.asMap(), agentString).os = object;
 	}
 
 	/* (non-Javadoc)
@@ -108,11 +80,8 @@ public class GuavaCache implements Cache{
 	 */
 	@Override
 	public Device getDevice(String agentString) {
-		Object object = cache.getIfPresent(Type.device.key(agentString));
-		if(object == null){
-			return null;
-		}
-		return (Device)object;
+		CacheEntry entry = (CacheEntry) cache.getIfPresent(agentString);
+		return entry == null ? null : entry.device;
 	}
 
 	/* (non-Javadoc)
@@ -120,7 +89,7 @@ public class GuavaCache implements Cache{
 	 */
 	@Override
 	public void putDevice(String agentString, Device object) {
-		cache.put(Type.device.key(agentString), object);
+		CacheEntry.of(cache.asMap(), agentString).device = object;
 	}
 
 	/* (non-Javadoc)
@@ -128,11 +97,8 @@ public class GuavaCache implements Cache{
 	 */
 	@Override
 	public Browser getUserAgent(String agentString) {
-		Object object = cache.getIfPresent(Type.userAgent.key(agentString));
-		if(object == null){
-			return null;
-		}
-		return (Browser)object;
+		CacheEntry entry = (CacheEntry) cache.getIfPresent(agentString);
+		return entry == null ? null : entry.userAgent;
 	}
 
 	/* (non-Javadoc)
@@ -140,7 +106,7 @@ public class GuavaCache implements Cache{
 	 */
 	@Override
 	public void putUserAgent(String agentString, Browser object) {
-		cache.put(Type.userAgent.key(agentString), object);
+		CacheEntry.of(cache.asMap(), agentString).userAgent = object;
 	}
 
 	@Override
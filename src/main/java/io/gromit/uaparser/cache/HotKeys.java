@@ -0,0 +1,188 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Class HotKeys, keeps track of the agent strings parsed most often, so
+ * that a reload can parse them again with the new rules before cleaning the
+ * cache, see {@link io.gromit.uaparser.Parser#hotKeys(HotKeys)}. A random
+ * sample of the parses is counted; once twice the capacity of agent strings
+ * are counted, only the most frequent ones are kept. Every ten times the
+ * capacity of samples the counts kept are halved, so agent strings falling
+ * out of use make room over time.
+ */
+public final class HotKeys {
+
+	/** The Constant DEFAULT_CAPACITY. */
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	/** The Constant AGING_WINDOW, the samples between two halvings, per agent string kept. */
+	private static final int AGING_WINDOW = 10;
+
+	/** The Constant DEFAULT_SAMPLING. */
+	private static final int DEFAULT_SAMPLING = 16;
+
+	/** The capacity. */
+	private final int capacity;
+
+	/** The sampling, one parse counted out of this many. */
+	private final int sampling;
+
+	/** The counts. */
+	private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<String, LongAdder>();
+
+	/** The samples recorded. */
+	private final LongAdder samples = new LongAdder();
+
+	/** The samples recorded at the last halving, guarded by this. */
+	private long agedAt;
+
+	/**
+	 * Instantiates a new hot keys that keeps 1024 agent strings and counts one
+	 * parse out of 16.
+	 */
+	public HotKeys() {
+		this(DEFAULT_CAPACITY, DEFAULT_SAMPLING);
+	}
+
+	/**
+	 * Instantiates a new hot keys.
+	 *
+	 * @param capacity the number of agent strings to keep
+	 * @param sampling one parse counted out of this many, 1 to count all
+	 */
+	public HotKeys(int capacity, int sampling) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (sampling < 1) {
+			throw new IllegalArgumentException("sampling must be at least 1");
+		}
+		this.capacity = capacity;
+		this.sampling = sampling;
+	}
+
+	/**
+	 * Record.
+	 *
+	 * @param agentString the agent string parsed, copied into a string only
+	 *            when sampled
+	 */
+	public void record(CharSequence agentString) {
+		if (agentString == null
+				|| (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0)) {
+			return;
+		}
+		String key = agentString.toString();
+		LongAdder count = counts.get(key);
+		if (count == null) {
+			if (counts.size() >= 2 * capacity) {
+				prune();
+			}
+			LongAdder added = new LongAdder();
+			count = counts.putIfAbsent(key, added);
+			if (count == null) {
+				count = added;
+			}
+		}
+		count.increment();
+		samples.increment();
+	}
+
+	/**
+	 * Hottest.
+	 *
+	 * @return the agent strings counted most often, at most the capacity,
+	 *         the most frequent first
+	 */
+	public List<String> hottest() {
+		List<Map.Entry<String, Long>> entries = sorted();
+		List<String> hottest = new ArrayList<String>(Math.min(entries.size(), capacity));
+		for (Map.Entry<String, Long> entry : entries) {
+			if (hottest.size() == capacity) {
+				break;
+			}
+			hottest.add(entry.getKey());
+		}
+		return hottest;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of agent strings counted right now
+	 */
+	public int size() {
+		return counts.size();
+	}
+
+	/**
+	 * Prune, keeps the most frequent agent strings, halving their counts once
+	 * per aging window.
+	 */
+	private synchronized void prune() {
+		if (counts.size() < 2 * capacity) {
+			return;
+		}
+		long recorded = samples.sum();
+		boolean age = recorded - agedAt >= (long) AGING_WINDOW * capacity;
+		if (age) {
+			agedAt = recorded;
+		}
+		List<Map.Entry<String, Long>> entries = sorted();
+		for (int i = 0; i < entries.size(); i++) {
+			String agentString = entries.get(i).getKey();
+			if (i < capacity) {
+				LongAdder count = counts.get(agentString);
+				if (age && count != null) {
+					count.add(-(entries.get(i).getValue() / 2));
+				}
+			} else {
+				counts.remove(agentString);
+			}
+		}
+	}
+
+	/**
+	 * Sorted.
+	 *
+	 * @return the counts, the largest first
+	 */
+	private List<Map.Entry<String, Long>> sorted() {
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.size());
+		for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<String, Long>(entry.getKey(),
+					entry.getValue().sum()));
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> left, Map.Entry<String, Long> right) {
+				return Long.compare(right.getValue(), left.getValue());
+			}
+		});
+		return entries;
+	}
+}
@@ -0,0 +1,544 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class MappedFileCache, keeps the results in a memory mapped file, so
+ * they outlive the process and are shared by every process of the host that
+ * maps the same file. A restarted parser answers from the file right away
+ * instead of parsing its traffic all over again.
+ * <p>
+ * Each result takes a slot of an open addressing table, keyed by a 64 bit
+ * fingerprint of the agent string and tagged with the rule set that produced
+ * it, see {@link RuleSetAware}. Results of other rule sets are never returned
+ * and their slots are the first to be taken. Processes share no lock: every
+ * slot carries a check of its contents, and a slot read while someone else
+ * writes it fails the check and counts as a miss. Only the fingerprint of an
+ * agent string is kept, so it can come as any {@link CharSequence}.
+ * <p>
+ * A matching fingerprint is taken as a hit without checking the agent
+ * string, like {@link OffHeapCache.Collisions#ACCEPT}: two agent strings
+ * with the same fingerprint share their results. With n results in the
+ * file a lookup meets one about once in 2^64 / n; when that is not good
+ * enough use an {@link OffHeapCache} that verifies the agent strings.
+ */
+public class MappedFileCache implements CharSequenceCache, RuleSetAware {
+
+	/** The Constant DEFAULT_CAPACITY. */
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/** The Constant MAX_CAPACITY, keeps the file under 1GB. */
+	private static final int MAX_CAPACITY = 1 << 21;
+
+	/** The Constant MAGIC, "UAPC". */
+	private static final int MAGIC = 0x55415043;
+
+	/** The Constant VERSION, of the file layout and the fingerprint. */
+	private static final int VERSION = 1;
+
+	/** The Constant HEADER_BYTES, magic, version, slot bytes and slots. */
+	private static final int HEADER_BYTES = 64;
+
+	/** The Constant SLOTS, offset of the number of slots in the header. */
+	private static final int SLOTS = 12;
+
+	/** The Constant SLOT_BYTES. */
+	private static final int SLOT_BYTES = 128;
+
+	/** The Constant PROBES, the slots a key may take, from its home slot on. */
+	private static final int PROBES = 8;
+
+	/** The Constant KEY, offset of the key, 0 for a slot never used. */
+	private static final int KEY = 0;
+
+	/** The Constant RULES, offset of the tag of the rule set. */
+	private static final int RULES = 8;
+
+	/** The Constant CHECK, offset of the check of the key, tag and payload. */
+	private static final int CHECK = 16;
+
+	/** The Constant LENGTH, offset of the payload length. */
+	private static final int LENGTH = 20;
+
+	/** The Constant PAYLOAD, offset of the payload. */
+	private static final int PAYLOAD = 24;
+
+	/** The Constant PAYLOAD_BYTES. */
+	private static final int PAYLOAD_BYTES = SLOT_BYTES - PAYLOAD;
+
+	/** The Constant NULL, the length byte of a null field. */
+	private static final int NULL = 0xff;
+
+	/** The Constant USER_AGENT. */
+	private static final int USER_AGENT = 1;
+
+	/** The Constant OPERATING_SYSTEM. */
+	private static final int OPERATING_SYSTEM = 2;
+
+	/** The Constant DEVICE. */
+	private static final int DEVICE = 3;
+
+	/** The buffer. */
+	private final MappedByteBuffer buffer;
+
+	/** The mask. */
+	private final int mask;
+
+	/** The tag of the rule set, 0 until told. */
+	private volatile long rules = 0;
+
+	/**
+	 * Instantiates a new mapped file cache for 65536 agent strings.
+	 *
+	 * @param file the file, created if missing
+	 */
+	public MappedFileCache(File file) {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new mapped file cache. A file already laid out by another
+	 * process keeps its capacity, as that process may have it mapped.
+	 *
+	 * @param file the file, created if missing
+	 * @param capacity the number of agent strings, up to 2097152
+	 */
+	public MappedFileCache(File file, int capacity) {
+		if (capacity <= 0 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+		}
+		this.buffer = map(file, Integer.highestOneBit(capacity * 4 - 1) << 1);
+		this.mask = buffer.getInt(SLOTS) - 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.RuleSetAware#ruleSet(byte[])
+	 */
+	@Override
+	public void ruleSet(byte[] checksum) {
+		long tag = 0xcbf29ce484222325L;
+		for (byte b : checksum) {
+			tag = (tag ^ (b & 0xff)) * 0x100000001b3L;
+		}
+		rules = tag;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getOs(java.lang.String)
+	 */
+	@Override
+	public OS getOs(String agentString) {
+		String[] fields = find(agentString, OPERATING_SYSTEM, 5);
+		return fields == null ? null : new OS(fields[0], fields[1], fields[2], fields[3], fields[4]);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putOS(java.lang.String, io.gromit.uaparser.model.OS)
+	 */
+	@Override
+	public void putOS(String agentString, OS object) {
+		put(agentString, OPERATING_SYSTEM, object.family, object.major, object.minor, object.patch, object.patchMinor);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getDevice(java.lang.String)
+	 */
+	@Override
+	public Device getDevice(String agentString) {
+		String[] fields = find(agentString, DEVICE, 3);
+		return fields == null ? null : new Device(fields[0], fields[1], fields[2]);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putDevice(java.lang.String, io.gromit.uaparser.model.Device)
+	 */
+	@Override
+	public void putDevice(String agentString, Device object) {
+		put(agentString, DEVICE, object.family, object.brand, object.model);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getUserAgent(java.lang.String)
+	 */
+	@Override
+	public Browser getUserAgent(String agentString) {
+		String[] fields = find(agentString, USER_AGENT, 4);
+		return fields == null ? null : new Browser(fields[0], fields[1], fields[2], fields[3]);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putUserAgent(java.lang.String, io.gromit.uaparser.model.Browser)
+	 */
+	@Override
+	public void putUserAgent(String agentString, Browser object) {
+		put(agentString, USER_AGENT, object.family, object.major, object.minor, object.patch);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getOs(java.lang.CharSequence)
+	 */
+	@Override
+	public OS getOs(CharSequence agentString) {
+		String[] fields = find(agentString, OPERATING_SYSTEM, 5);
+		return fields == null ? null : new OS(fields[0], fields[1], fields[2], fields[3], fields[4]);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putOS(java.lang.CharSequence, io.gromit.uaparser.model.OS)
+	 */
+	@Override
+	public void putOS(CharSequence agentString, OS object) {
+		put(agentString, OPERATING_SYSTEM, object.family, object.major, object.minor, object.patch, object.patchMinor);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getDevice(java.lang.CharSequence)
+	 */
+	@Override
+	public Device getDevice(CharSequence agentString) {
+		String[] fields = find(agentString, DEVICE, 3);
+		return fields == null ? null : new Device(fields[0], fields[1], fields[2]);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putDevice(java.lang.CharSequence, io.gromit.uaparser.model.Device)
+	 */
+	@Override
+	public void putDevice(CharSequence agentString, Device object) {
+		put(agentString, DEVICE, object.family, object.brand, object.model);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getUserAgent(java.lang.CharSequence)
+	 */
+	@Override
+	public Browser getUserAgent(CharSequence agentString) {
+		String[] fields = find(agentString, USER_AGENT, 4);
+		return fields == null ? null : new Browser(fields[0], fields[1], fields[2], fields[3]);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putUserAgent(java.lang.CharSequence, io.gromit.uaparser.model.Browser)
+	 */
+	@Override
+	public void putUserAgent(CharSequence agentString, Browser object) {
+		put(agentString, USER_AGENT, object.family, object.major, object.minor, object.patch);
+	}
+
+	/**
+	 * Clean, leaves the file as it is. The parser cleans its cache when it
+	 * loads rules, and the results of the old rules are ignored already, while
+	 * the file may hold results of the new ones from another process or from
+	 * before a restart. See {@link #clear()} to empty the file.
+	 */
+	@Override
+	public void clean() {
+	}
+
+	/**
+	 * Clear, empties the file for every process mapping it.
+	 */
+	public void clear() {
+		for (int index = 0; index <= mask; index++) {
+			buffer.putLong(slot(index) + KEY, 0);
+		}
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of results of the current rule set, found scanning
+	 *         the whole file
+	 */
+	public int size() {
+		long rules = this.rules;
+		int size = 0;
+		for (int index = 0; index <= mask; index++) {
+			int slot = slot(index);
+			if (buffer.getLong(slot + KEY) != 0 && buffer.getLong(slot + RULES) == rules) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Find.
+	 *
+	 * @param agentString the agent string
+	 * @param kind the kind of result
+	 * @param fields the number of fields of the result
+	 * @return the fields, null if missing
+	 */
+	private String[] find(CharSequence agentString, int kind, int fields) {
+		long key = key(agentString, kind);
+		long rules = this.rules;
+		for (int probe = 0; probe < PROBES; probe++) {
+			int slot = slot((int) key + probe);
+			long current = buffer.getLong(slot + KEY);
+			if (current == 0) {
+				return null;
+			}
+			if (current == key && buffer.getLong(slot + RULES) == rules) {
+				return read(slot, key, rules, fields);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Put, in the slot of the key, or else the first empty or stale slot, or
+	 * else a random one.
+	 *
+	 * @param agentString the agent string
+	 * @param kind the kind of result
+	 * @param fields the fields of the result
+	 */
+	private void put(CharSequence agentString, int kind, String... fields) {
+		byte[] payload = encode(fields);
+		if (payload == null) {
+			return;
+		}
+		long key = key(agentString, kind);
+		long rules = this.rules;
+		int target = -1;
+		for (int probe = 0; probe < PROBES; probe++) {
+			int slot = slot((int) key + probe);
+			long current = buffer.getLong(slot + KEY);
+			if (current == key) {
+				target = slot;
+				break;
+			}
+			if (target < 0 && (current == 0 || buffer.getLong(slot + RULES) != rules)) {
+				target = slot;
+			}
+		}
+		if (target < 0) {
+			target = slot((int) key + ThreadLocalRandom.current().nextInt(PROBES));
+		}
+		buffer.putLong(target + KEY, key);
+		buffer.putLong(target + RULES, rules);
+		buffer.putInt(target + LENGTH, payload.length);
+		for (int i = 0; i < payload.length; i++) {
+			buffer.put(target + PAYLOAD + i, payload[i]);
+		}
+		buffer.putInt(target + CHECK, check(key, rules, payload));
+	}
+
+	/**
+	 * Read.
+	 *
+	 * @param slot the slot
+	 * @param key the key expected
+	 * @param rules the tag expected
+	 * @param fields the number of fields
+	 * @return the fields, null if the slot fails the check
+	 */
+	private String[] read(int slot, long key, long rules, int fields) {
+		int length = buffer.getInt(slot + LENGTH);
+		if (length < 0 || length > PAYLOAD_BYTES) {
+			return null;
+		}
+		byte[] payload = new byte[length];
+		for (int i = 0; i < length; i++) {
+			payload[i] = buffer.get(slot + PAYLOAD + i);
+		}
+		if (buffer.getInt(slot + CHECK) != check(key, rules, payload)) {
+			return null;
+		}
+		String[] values = new String[fields];
+		int position = 0;
+		for (int field = 0; field < fields; field++) {
+			if (position >= length) {
+				return null;
+			}
+			int size = payload[position++] & 0xff;
+			if (size != NULL) {
+				if (position + size > length) {
+					return null;
+				}
+				values[field] = new String(payload, position, size, StandardCharsets.UTF_8);
+				position += size;
+			}
+		}
+		return position == length ? values : null;
+	}
+
+	/**
+	 * Encode, each field as its length in a byte followed by its UTF-8 bytes.
+	 *
+	 * @param fields the fields
+	 * @return the payload, null if it does not fit in a slot
+	 */
+	private static byte[] encode(String... fields) {
+		byte[][] bytes = new byte[fields.length][];
+		int length = fields.length;
+		for (int field = 0; field < fields.length; field++) {
+			if (fields[field] != null) {
+				bytes[field] = fields[field].getBytes(StandardCharsets.UTF_8);
+				if (bytes[field].length >= NULL) {
+					return null;
+				}
+				length += bytes[field].length;
+			}
+		}
+		if (length > PAYLOAD_BYTES) {
+			return null;
+		}
+		byte[] payload = new byte[length];
+		int position = 0;
+		for (byte[] field : bytes) {
+			if (field == null) {
+				payload[position++] = (byte) NULL;
+			} else {
+				payload[position++] = (byte) field.length;
+				System.arraycopy(field, 0, payload, position, field.length);
+				position += field.length;
+			}
+		}
+		return payload;
+	}
+
+	/**
+	 * Check.
+	 *
+	 * @param key the key
+	 * @param rules the tag of the rule set
+	 * @param payload the payload
+	 * @return the check
+	 */
+	private static int check(long key, long rules, byte[] payload) {
+		long hash = (key * 31 + rules) * 31 + payload.length;
+		for (byte b : payload) {
+			hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+		}
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * Key.
+	 *
+	 * @param agentString the agent string
+	 * @param kind the kind of result
+	 * @return the key, never 0
+	 */
+	private long key(CharSequence agentString, int kind) {
+		long key = fingerprint(agentString) ^ (kind * 0x9e3779b97f4a7c15L);
+		return key == 0 ? 1 : key;
+	}
+
+	/**
+	 * Fingerprint, FNV-1a over the chars followed by the murmur3 finalizer.
+	 * It is stored in the file, so it must not change without a new
+	 * {@link #VERSION}.
+	 *
+	 * @param agentString the agent string
+	 * @return the fingerprint
+	 */
+	long fingerprint(CharSequence agentString) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0, length = agentString.length(); i < length; i++) {
+			hash = (hash ^ agentString.charAt(i)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Slot.
+	 *
+	 * @param index the index, wrapped around the table
+	 * @return the position of the slot in the file
+	 */
+	private int slot(int index) {
+		return HEADER_BYTES + (index & mask) * SLOT_BYTES;
+	}
+
+	/**
+	 * Map, under a file lock, so processes opening the file at once agree on
+	 * its layout. A file with no valid header is laid out again.
+	 *
+	 * @param file the file
+	 * @param slots the slots of a new file
+	 * @return the buffer
+	 */
+	private static MappedByteBuffer map(File file, int slots) {
+		try (RandomAccessFile access = new RandomAccessFile(file, "rw");
+				FileChannel channel = access.getChannel()) {
+			FileLock lock = channel.lock();
+			try {
+				return map(access, channel, slots);
+			} finally {
+				lock.release();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("can not map the cache file " + file, e);
+		}
+	}
+
+	/**
+	 * Map, with the file locked.
+	 *
+	 * @param access the file
+	 * @param channel the channel of the file
+	 * @param slots the slots of a new file
+	 * @return the buffer
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static MappedByteBuffer map(RandomAccessFile access, FileChannel channel, int slots)
+			throws IOException {
+		long length = access.length();
+		boolean valid = length >= HEADER_BYTES;
+		if (valid) {
+			int magic = access.readInt();
+			int version = access.readInt();
+			int slotBytes = access.readInt();
+			int existing = access.readInt();
+			valid = magic == MAGIC && version == VERSION && slotBytes == SLOT_BYTES && existing >= PROBES
+					&& Integer.bitCount(existing) == 1 && existing <= MAX_CAPACITY * 4
+					&& length == HEADER_BYTES + (long) existing * SLOT_BYTES;
+		}
+		if (!valid) {
+			slots = Math.max(slots, PROBES);
+			length = HEADER_BYTES + (long) slots * SLOT_BYTES;
+			access.setLength(0);
+			access.setLength(length);
+			access.seek(0);
+			access.writeInt(MAGIC);
+			access.writeInt(VERSION);
+			access.writeInt(SLOT_BYTES);
+			access.writeInt(slots);
+		}
+		return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+	}
+}
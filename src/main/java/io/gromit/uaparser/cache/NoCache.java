@@ -22,7 +22,7 @@ import io.gromit.uaparser.model.Browser;
 /**
  * The Class NoCache.
  */
-public class NoCache implements Cache{
+public class NoCache implements CharSequenceCache {
 
 	/** The Constant NO_CACHE. */
 	public static final NoCache NO_CACHE = new NoCache();
@@ -72,6 +72,51 @@ public class NoCache implements Cache{
 	public void putUserAgent(String userAgent, Browser object) {
 	}
 
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getOs(java.lang.CharSequence)
+	 */
+	@Override
+	public OS getOs(CharSequence userAgent) {
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putOS(java.lang.CharSequence, io.gromit.uaparser.model.OS)
+	 */
+	@Override
+	public void putOS(CharSequence userAgent, OS object) {
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getDevice(java.lang.CharSequence)
+	 */
+	@Override
+	public Device getDevice(CharSequence userAgent) {
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putDevice(java.lang.CharSequence, io.gromit.uaparser.model.Device)
+	 */
+	@Override
+	public void putDevice(CharSequence userAgent, Device object) {
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getUserAgent(java.lang.CharSequence)
+	 */
+	@Override
+	public Browser getUserAgent(CharSequence userAgent) {
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putUserAgent(java.lang.CharSequence, io.gromit.uaparser.model.Browser)
+	 */
+	@Override
+	public void putUserAgent(CharSequence userAgent, Browser object) {
+	}
+
 	/* (non-Javadoc)
 	 * @see io.gromit.uaparser.cache.Cache#clean()
 	 */
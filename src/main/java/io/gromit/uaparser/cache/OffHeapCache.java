@@ -0,0 +1,738 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class OffHeapCache, keeps a 64 bit fingerprint of each agent string in
+ * open addressing tables held in direct buffers, mapped to the ids of its
+ * results. Only the distinct results live on the heap, so millions of agent
+ * strings can be cached without adding to the work of the garbage collector.
+ * <p>
+ * The table is split in segments, each one guarded by a
+ * {@link StampedLock} and read optimistically. A segment that fills up is
+ * emptied as a whole, and {@link #clean()} empties all of them at once by
+ * moving to a new generation, without touching the buffers.
+ * <p>
+ * The distinct results are numbered on the heap and stay there while their
+ * generation lasts, also after the agent strings using them are dropped.
+ * Once one kind of result holds more ids than the cache holds agent strings,
+ * most of them are dead, and the cache moves to a new generation as on
+ * {@link #clean()}, see {@link #distinctResults()}.
+ * <p>
+ * Agent strings are only read char by char, so they can be looked up and
+ * stored as any {@link CharSequence} without copying them.
+ */
+public class OffHeapCache implements CharSequenceCache {
+
+	/**
+	 * The Enum Collisions, what a lookup trusts when two agent strings share a
+	 * fingerprint.
+	 */
+	public enum Collisions {
+
+		/** The fingerprint alone, a collision returns the results of the other agent string. */
+		ACCEPT,
+
+		/** The agent string, also kept off heap and compared on every hit. */
+		VERIFY
+	}
+
+	/** The Constant DEFAULT_CAPACITY. */
+	private static final int DEFAULT_CAPACITY = 1 << 18;
+
+	/** The Constant MIN_RESULTS, the fewest distinct results of a kind kept before starting over. */
+	private static final int MIN_RESULTS = 1024;
+
+	/** The Constant SEGMENT_BITS. */
+	private static final int SEGMENT_BITS = 6;
+
+	/** The Constant SLOT_BYTES, fingerprint, epoch, three result ids and the key offset and length. */
+	private static final int SLOT_BYTES = 32;
+
+	/** The Constant KEY_BYTES, the room kept per entry for the agent string when verifying. */
+	private static final int KEY_BYTES = 160;
+
+	/** The Constant EPOCH, offset of the slot epoch, 0 for a slot never used. */
+	private static final int EPOCH = 8;
+
+	/** The Constant USER_AGENT_ID, offset of the user agent id. */
+	private static final int USER_AGENT_ID = 12;
+
+	/** The Constant OS_ID, offset of the os id. */
+	private static final int OS_ID = 16;
+
+	/** The Constant DEVICE_ID, offset of the device id. */
+	private static final int DEVICE_ID = 20;
+
+	/** The Constant KEY_OFFSET, offset of the agent string position in the keys buffer. */
+	private static final int KEY_OFFSET = 24;
+
+	/** The Constant KEY_LENGTH, offset of the agent string length, negated when stored two bytes per char. */
+	private static final int KEY_LENGTH = 28;
+
+	/** The fingerprint of the agent string last seen by each thread. */
+	private final ThreadLocal<Fingerprint> fingerprints = new ThreadLocal<Fingerprint>() {
+		@Override
+		protected Fingerprint initialValue() {
+			return new Fingerprint();
+		}
+	};
+
+	/** The segments. */
+	private final Segment[] segments;
+
+	/** The max results of a kind in a generation. */
+	private final int maxResults;
+
+	/** The state, replaced by {@link #clean()}. */
+	private volatile State state = new State(1);
+
+	/**
+	 * Instantiates a new off heap cache.
+	 */
+	public OffHeapCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new off heap cache.
+	 *
+	 * @param capacity the number of agent strings
+	 */
+	public OffHeapCache(int capacity) {
+		this(capacity, Collisions.VERIFY);
+	}
+
+	/**
+	 * Instantiates a new off heap cache.
+	 *
+	 * @param capacity the number of agent strings
+	 * @param collisions the collisions
+	 */
+	public OffHeapCache(int capacity, Collisions collisions) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (collisions == null) {
+			throw new IllegalArgumentException("collisions can not be null");
+		}
+		long perSegment = ((long) capacity * 4 / 3 >> SEGMENT_BITS) + 1;
+		int slots = Integer.highestOneBit((int) Math.min(perSegment, 1 << 25) - 1) << 1;
+		slots = Math.max(slots, 16);
+		int keyBytes = collisions == Collisions.VERIFY
+				? (int) Math.min(((capacity >> SEGMENT_BITS) + 1) * (long) KEY_BYTES, Integer.MAX_VALUE - 8) : 0;
+		segments = new Segment[1 << SEGMENT_BITS];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(slots, keyBytes);
+		}
+		maxResults = Math.max(capacity, MIN_RESULTS);
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getOs(java.lang.String)
+	 */
+	@Override
+	public OS getOs(String agentString) {
+		State state = this.state;
+		return state.oses.get(find(state, agentString, OS_ID));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putOS(java.lang.String, io.gromit.uaparser.model.OS)
+	 */
+	@Override
+	public void putOS(String agentString, OS object) {
+		State state = this.state;
+		put(state, agentString, OS_ID, state.oses.id(object));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getDevice(java.lang.String)
+	 */
+	@Override
+	public Device getDevice(String agentString) {
+		State state = this.state;
+		return state.devices.get(find(state, agentString, DEVICE_ID));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putDevice(java.lang.String, io.gromit.uaparser.model.Device)
+	 */
+	@Override
+	public void putDevice(String agentString, Device object) {
+		State state = this.state;
+		put(state, agentString, DEVICE_ID, state.devices.id(object));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#getUserAgent(java.lang.String)
+	 */
+	@Override
+	public Browser getUserAgent(String agentString) {
+		State state = this.state;
+		return state.browsers.get(find(state, agentString, USER_AGENT_ID));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#putUserAgent(java.lang.String, io.gromit.uaparser.model.Browser)
+	 */
+	@Override
+	public void putUserAgent(String agentString, Browser object) {
+		State state = this.state;
+		put(state, agentString, USER_AGENT_ID, state.browsers.id(object));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getOs(java.lang.CharSequence)
+	 */
+	@Override
+	public OS getOs(CharSequence agentString) {
+		State state = this.state;
+		return state.oses.get(find(state, agentString, OS_ID));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putOS(java.lang.CharSequence, io.gromit.uaparser.model.OS)
+	 */
+	@Override
+	public void putOS(CharSequence agentString, OS object) {
+		State state = this.state;
+		put(state, agentString, OS_ID, state.oses.id(object));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getDevice(java.lang.CharSequence)
+	 */
+	@Override
+	public Device getDevice(CharSequence agentString) {
+		State state = this.state;
+		return state.devices.get(find(state, agentString, DEVICE_ID));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putDevice(java.lang.CharSequence, io.gromit.uaparser.model.Device)
+	 */
+	@Override
+	public void putDevice(CharSequence agentString, Device object) {
+		State state = this.state;
+		put(state, agentString, DEVICE_ID, state.devices.id(object));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#getUserAgent(java.lang.CharSequence)
+	 */
+	@Override
+	public Browser getUserAgent(CharSequence agentString) {
+		State state = this.state;
+		return state.browsers.get(find(state, agentString, USER_AGENT_ID));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.CharSequenceCache#putUserAgent(java.lang.CharSequence, io.gromit.uaparser.model.Browser)
+	 */
+	@Override
+	public void putUserAgent(CharSequence agentString, Browser object) {
+		State state = this.state;
+		put(state, agentString, USER_AGENT_ID, state.browsers.id(object));
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.cache.Cache#clean()
+	 */
+	@Override
+	public void clean() {
+		synchronized (this) {
+			state = new State(state.generation + 1);
+		}
+	}
+
+	/**
+	 * Renew, moves to a new generation unless the state was replaced already.
+	 *
+	 * @param state the state to replace
+	 */
+	private void renew(State state) {
+		synchronized (this) {
+			if (this.state == state) {
+				this.state = new State(state.generation + 1);
+			}
+		}
+	}
+
+	/**
+	 * Distinct results.
+	 *
+	 * @return the number of distinct results held on the heap, of all kinds
+	 */
+	public int distinctResults() {
+		State state = this.state;
+		return state.browsers.size() + state.oses.size() + state.devices.size();
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of agent strings cached
+	 */
+	public long size() {
+		int generation = state.generation;
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size(generation);
+		}
+		return size;
+	}
+
+	/**
+	 * Find.
+	 *
+	 * @param state the state
+	 * @param agentString the agent string
+	 * @param field the offset of the id in the slot
+	 * @return the id, 0 if missing
+	 */
+	private int find(State state, CharSequence agentString, int field) {
+		long fingerprint = agentString instanceof String ? fingerprint((String) agentString) : fingerprint(agentString);
+		return segment(fingerprint).find(state.generation, fingerprint, agentString, field);
+	}
+
+	/**
+	 * Put.
+	 *
+	 * @param state the state the id comes from
+	 * @param agentString the agent string
+	 * @param field the offset of the id in the slot
+	 * @param id the id
+	 */
+	private void put(State state, CharSequence agentString, int field, int id) {
+		if (id > maxResults) {
+			// ids are never freed, start over rather than grow without end
+			renew(state);
+			return;
+		}
+		long fingerprint = agentString instanceof String ? fingerprint((String) agentString) : fingerprint(agentString);
+		segment(fingerprint).put(state, fingerprint, agentString, field, id);
+	}
+
+	/**
+	 * Segment.
+	 *
+	 * @param fingerprint the fingerprint
+	 * @return the segment
+	 */
+	private Segment segment(long fingerprint) {
+		return segments[(int) (fingerprint >>> (64 - SEGMENT_BITS))];
+	}
+
+	/**
+	 * Fingerprint.
+	 *
+	 * @param agentString the agent string
+	 * @return the fingerprint, reused while the thread keeps asking about the
+	 *         same agent string
+	 */
+	private long fingerprint(String agentString) {
+		Fingerprint last = fingerprints.get();
+		if (last.agentString != agentString) {
+			last.value = fingerprint((CharSequence) agentString);
+			last.agentString = agentString;
+		}
+		return last.value;
+	}
+
+	/**
+	 * Fingerprint, FNV-1a over the chars followed by the murmur3 finalizer.
+	 *
+	 * @param agentString the agent string
+	 * @return the fingerprint, never 0
+	 */
+	long fingerprint(CharSequence agentString) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0, length = agentString.length(); i < length; i++) {
+			hash = (hash ^ agentString.charAt(i)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * The Class Fingerprint.
+	 */
+	private static final class Fingerprint {
+
+		/** The agent string. */
+		String agentString;
+
+		/** The value. */
+		long value;
+	}
+
+	/**
+	 * The Class State, the generation of the tables and the results their ids
+	 * stand for.
+	 */
+	private static final class State {
+
+		/** The generation. */
+		final int generation;
+
+		/** The browsers. */
+		final Results<Browser> browsers = new Results<Browser>();
+
+		/** The oses. */
+		final Results<OS> oses = new Results<OS>();
+
+		/** The devices. */
+		final Results<Device> devices = new Results<Device>();
+
+		/**
+		 * Instantiates a new state.
+		 *
+		 * @param generation the generation
+		 */
+		State(int generation) {
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * The Class Results, numbers the distinct results from 1.
+	 *
+	 * @param <T> the result type
+	 */
+	private static final class Results<T> {
+
+		/** The ids. */
+		private final ConcurrentHashMap<T, Integer> ids = new ConcurrentHashMap<T, Integer>();
+
+		/** The results, by id. */
+		private volatile Object[] results = new Object[64];
+
+		/**
+		 * Id.
+		 *
+		 * @param result the result
+		 * @return the id of the result, numbered on first use
+		 */
+		int id(T result) {
+			Integer id = ids.get(result);
+			if (id == null) {
+				synchronized (this) {
+					id = ids.get(result);
+					if (id == null) {
+						id = ids.size() + 1;
+						Object[] results = this.results;
+						if (id >= results.length) {
+							results = Arrays.copyOf(results, results.length * 2);
+						}
+						results[id] = result;
+						this.results = results;
+						ids.put(result, id);
+					}
+				}
+			}
+			return id;
+		}
+
+		/**
+		 * Size.
+		 *
+		 * @return the number of results numbered
+		 */
+		int size() {
+			return ids.size();
+		}
+
+		/**
+		 * Gets the.
+		 *
+		 * @param id the id
+		 * @return the result, null for 0 or an id not numbered yet
+		 */
+		@SuppressWarnings("unchecked")
+		T get(int id) {
+			Object[] results = this.results;
+			return id > 0 && id < results.length ? (T) results[id] : null;
+		}
+	}
+
+	/**
+	 * The Class Segment, an open addressing table with linear probing.
+	 */
+	private final class Segment {
+
+		/** The lock. */
+		private final StampedLock lock = new StampedLock();
+
+		/** The slots. */
+		private final ByteBuffer slots;
+
+		/** The keys, the chars of the agent strings when verifying. */
+		private final ByteBuffer keys;
+
+		/** The mask. */
+		private final int mask;
+
+		/** The max size. */
+		private final int maxSize;
+
+		/** The generation the segment is in. */
+		private int generation = 1;
+
+		/** The epoch of the slots in use. */
+		private int epoch = 1;
+
+		/** The size. */
+		private int size;
+
+		/** The end of the keys in use. */
+		private int keysEnd;
+
+		/**
+		 * Instantiates a new segment.
+		 *
+		 * @param slots the number of slots, a power of two
+		 * @param keyBytes the bytes for agent strings
+		 */
+		Segment(int slots, int keyBytes) {
+			this.slots = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+			this.keys = keyBytes > 0 ? ByteBuffer.allocateDirect(keyBytes) : null;
+			this.mask = slots - 1;
+			this.maxSize = slots * 3 / 4;
+		}
+
+		/**
+		 * Find.
+		 *
+		 * @param generation the generation asked about
+		 * @param fingerprint the fingerprint
+		 * @param agentString the agent string
+		 * @param field the offset of the id in the slot
+		 * @return the id, 0 if missing
+		 */
+		int find(int generation, long fingerprint, CharSequence agentString, int field) {
+			long stamp = lock.tryOptimisticRead();
+			int id = read(generation, fingerprint, agentString, field);
+			if (!lock.validate(stamp)) {
+				stamp = lock.readLock();
+				try {
+					id = read(generation, fingerprint, agentString, field);
+				} finally {
+					lock.unlockRead(stamp);
+				}
+			}
+			return id;
+		}
+
+		/**
+		 * Read, safe to run while the segment changes, the caller validates
+		 * the result.
+		 *
+		 * @param generation the generation asked about
+		 * @param fingerprint the fingerprint
+		 * @param agentString the agent string
+		 * @param field the offset of the id in the slot
+		 * @return the id, 0 if missing
+		 */
+		private int read(int generation, long fingerprint, CharSequence agentString, int field) {
+			if (this.generation != generation) {
+				return 0;
+			}
+			int slot = slot(fingerprint, agentString);
+			return slot < 0 ? 0 : slots.getInt(slot + field);
+		}
+
+		/**
+		 * Put.
+		 *
+		 * @param state the state the id comes from
+		 * @param fingerprint the fingerprint
+		 * @param agentString the agent string
+		 * @param field the offset of the id in the slot
+		 * @param id the id
+		 */
+		void put(State state, long fingerprint, CharSequence agentString, int field, int id) {
+			long stamp = lock.writeLock();
+			try {
+				if (OffHeapCache.this.state != state) {
+					// cleaned meanwhile, the id belongs to the results of the old generation
+					return;
+				}
+				if (generation != state.generation) {
+					generation = state.generation;
+					empty();
+				}
+				int slot = slot(fingerprint, agentString);
+				if (slot < 0) {
+					int keyBytes = keyBytes(agentString);
+					if (keys != null && keyBytes > keys.capacity()) {
+						return;
+					}
+					if (size >= maxSize || (keys != null && keysEnd + keyBytes > keys.capacity())) {
+						empty();
+					}
+					slot = insert(fingerprint, agentString);
+				}
+				slots.putInt(slot + field, id);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Slot.
+		 *
+		 * @param fingerprint the fingerprint
+		 * @param agentString the agent string
+		 * @return the position of the slot of the agent string, -1 if missing
+		 */
+		private int slot(long fingerprint, CharSequence agentString) {
+			int epoch = this.epoch;
+			for (int probe = 0, index = (int) fingerprint & mask; probe <= mask; probe++, index = (index + 1) & mask) {
+				int slot = index * SLOT_BYTES;
+				if (slots.getInt(slot + EPOCH) != epoch) {
+					return -1;
+				}
+				if (slots.getLong(slot) == fingerprint && (keys == null || sameKey(slot, agentString))) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Insert, the agent string must be missing and the segment not full.
+		 *
+		 * @param fingerprint the fingerprint
+		 * @param agentString the agent string
+		 * @return the position of the new slot
+		 */
+		private int insert(long fingerprint, CharSequence agentString) {
+			int index = (int) fingerprint & mask;
+			while (slots.getInt(index * SLOT_BYTES + EPOCH) == epoch) {
+				index = (index + 1) & mask;
+			}
+			int slot = index * SLOT_BYTES;
+			slots.putLong(slot, fingerprint);
+			slots.putInt(slot + USER_AGENT_ID, 0);
+			slots.putInt(slot + OS_ID, 0);
+			slots.putInt(slot + DEVICE_ID, 0);
+			if (keys != null) {
+				int length = agentString.length();
+				boolean latin1 = keyBytes(agentString) == length;
+				slots.putInt(slot + KEY_OFFSET, keysEnd);
+				slots.putInt(slot + KEY_LENGTH, latin1 ? length : -length);
+				for (int i = 0; i < length; i++) {
+					if (latin1) {
+						keys.put(keysEnd++, (byte) agentString.charAt(i));
+					} else {
+						keys.putChar(keysEnd, agentString.charAt(i));
+						keysEnd += 2;
+					}
+				}
+			}
+			slots.putInt(slot + EPOCH, epoch);
+			size++;
+			return slot;
+		}
+
+		/**
+		 * Same key.
+		 *
+		 * @param slot the slot
+		 * @param agentString the agent string
+		 * @return true, if the slot holds the agent string
+		 */
+		private boolean sameKey(int slot, CharSequence agentString) {
+			int offset = slots.getInt(slot + KEY_OFFSET);
+			int stored = slots.getInt(slot + KEY_LENGTH);
+			int length = agentString.length();
+			boolean latin1 = stored >= 0;
+			if ((latin1 ? stored : -stored) != length || offset < 0
+					|| offset > keys.capacity() - (latin1 ? length : length * 2)) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				char c = latin1 ? (char) (keys.get(offset + i) & 0xff) : keys.getChar(offset + i * 2);
+				if (c != agentString.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Key bytes.
+		 *
+		 * @param agentString the agent string
+		 * @return the bytes the agent string takes in the keys buffer, one per
+		 *         char when all of them fit
+		 */
+		private int keyBytes(CharSequence agentString) {
+			int length = agentString.length();
+			for (int i = 0; i < length; i++) {
+				if (agentString.charAt(i) > 0xff) {
+					return length * 2;
+				}
+			}
+			return length;
+		}
+
+		/**
+		 * Empty, drops every slot by moving to a new epoch.
+		 */
+		private void empty() {
+			epoch++;
+			if (epoch == 0) {
+				// wrapped around, slots of the old epochs could look current again
+				for (int slot = 0; slot < slots.capacity(); slot += SLOT_BYTES) {
+					slots.putInt(slot + EPOCH, 0);
+				}
+				epoch = 1;
+			}
+			size = 0;
+			keysEnd = 0;
+		}
+
+		/**
+		 * Size.
+		 *
+		 * @param generation the current generation
+		 * @return the number of agent strings in the segment
+		 */
+		int size(int generation) {
+			long stamp = lock.readLock();
+			try {
+				return this.generation == generation ? size : 0;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+	}
+}
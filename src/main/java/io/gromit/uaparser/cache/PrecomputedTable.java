@@ -0,0 +1,485 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class PrecomputedTable, the results of a fixed set of agent strings, like
+ * the most frequent ones of the traffic, in a minimal perfect hash table. The
+ * agent strings are spread over buckets of about four, and each bucket keeps
+ * the seed that sends its agent strings to slots no other one took, so a
+ * lookup hashes the agent string, rehashes it with the seed of its bucket and
+ * compares it with the single agent string in that slot. Nothing is locked,
+ * evicted or written after construction; put it in front of a cache with
+ * {@link #over(Cache)}, see {@link io.gromit.uaparser.Parser#precompute(java.util.Collection)}.
+ */
+public final class PrecomputedTable {
+
+	/** The Constant BUCKET_SIZE, the mean agent strings per bucket. */
+	private static final int BUCKET_SIZE = 4;
+
+	/** The Constant MAX_SEED, the seeds tried per bucket before giving up. */
+	private static final int MAX_SEED = 1 << 24;
+
+	/** The Constant EMPTY, the table without agent strings. */
+	public static final PrecomputedTable EMPTY = new PrecomputedTable(new String[0], new Browser[0], new OS[0],
+			new Device[0]);
+
+	/** The seeds per bucket, or minus one minus the slot of a bucket of one agent string. */
+	private final int[] seeds;
+
+	/** The agent strings per slot. */
+	private final String[] agentStrings;
+
+	/** The user agents per slot. */
+	private final Browser[] userAgents;
+
+	/** The oses per slot. */
+	private final OS[] oses;
+
+	/** The devices per slot. */
+	private final Device[] devices;
+
+	/** The layer last made by {@link #over(Cache)}, reused while the cache is the same. */
+	private volatile Layer layer;
+
+	/**
+	 * Instantiates a new precomputed table. Null and repeated agent strings
+	 * are left out, as is one whose hash equals that of an agent string before
+	 * it, so list the most frequent first.
+	 *
+	 * @param agentStrings the agent strings
+	 * @param userAgents the user agents of the agent strings, null for those
+	 *            left to the cache
+	 * @param oses the oses of the agent strings, null for those left to the
+	 *            cache
+	 * @param devices the devices of the agent strings, null for those left to
+	 *            the cache
+	 */
+	public PrecomputedTable(String[] agentStrings, Browser[] userAgents, OS[] oses, Device[] devices) {
+		if (userAgents.length != agentStrings.length || oses.length != agentStrings.length
+				|| devices.length != agentStrings.length) {
+			throw new IllegalArgumentException("one result of each kind per agent string expected");
+		}
+		List<Integer> kept = new ArrayList<Integer>(agentStrings.length);
+		Set<Integer> hashes = new HashSet<Integer>();
+		for (int i = 0; i < agentStrings.length; i++) {
+			if (agentStrings[i] != null && hashes.add(agentStrings[i].hashCode())) {
+				kept.add(i);
+			}
+		}
+		int size = kept.size();
+		this.seeds = new int[Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE)];
+		this.agentStrings = new String[size];
+		this.userAgents = new Browser[size];
+		this.oses = new OS[size];
+		this.devices = new Device[size];
+		int[] slots = place(kept, agentStrings);
+		for (int k = 0; k < size; k++) {
+			int i = kept.get(k);
+			int slot = slots[k];
+			this.agentStrings[slot] = agentStrings[i];
+			this.userAgents[slot] = userAgents[i];
+			this.oses[slot] = oses[i];
+			this.devices[slot] = devices[i];
+		}
+	}
+
+	/**
+	 * Place, picks the seed of every bucket, the largest buckets first while
+	 * most slots are free, and the slot of every bucket of one agent string
+	 * last, among the slots left.
+	 *
+	 * @param kept the indexes of the agent strings kept
+	 * @param agentStrings the agent strings
+	 * @return the slot of each agent string kept
+	 */
+	private int[] place(List<Integer> kept, String[] agentStrings) {
+		int size = kept.size();
+		final List<List<Integer>> buckets = new ArrayList<List<Integer>>(seeds.length);
+		for (int b = 0; b < seeds.length; b++) {
+			buckets.add(new ArrayList<Integer>(BUCKET_SIZE));
+		}
+		long[] hashes = new long[size];
+		for (int k = 0; k < size; k++) {
+			hashes[k] = mix(agentStrings[kept.get(k)].hashCode());
+			buckets.get(bucket(hashes[k])).add(k);
+		}
+		List<Integer> order = new ArrayList<Integer>(seeds.length);
+		for (int b = 0; b < seeds.length; b++) {
+			order.add(b);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer left, Integer right) {
+				return buckets.get(right).size() - buckets.get(left).size();
+			}
+		});
+		int[] slots = new int[size];
+		boolean[] taken = new boolean[size];
+		int free = 0;
+		for (int b : order) {
+			List<Integer> bucket = buckets.get(b);
+			if (bucket.size() == 1) {
+				while (taken[free]) {
+					free++;
+				}
+				taken[free] = true;
+				slots[bucket.get(0)] = free;
+				seeds[b] = -1 - free;
+			} else if (!bucket.isEmpty()) {
+				seeds[b] = seed(bucket, hashes, taken, slots);
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * Seed, finds the first seed sending the agent strings of a bucket to free
+	 * slots, and takes them.
+	 *
+	 * @param bucket the agent strings of the bucket
+	 * @param hashes the hashes of the agent strings
+	 * @param taken the slots taken
+	 * @param slots the slot of each agent string, filled for the bucket
+	 * @return the seed
+	 */
+	private static int seed(List<Integer> bucket, long[] hashes, boolean[] taken, int[] slots) {
+		int[] candidate = new int[bucket.size()];
+		for (int seed = 0; seed < MAX_SEED; seed++) {
+			boolean fits = true;
+			for (int j = 0; j < candidate.length && fits; j++) {
+				candidate[j] = slot(hashes[bucket.get(j)], seed, taken.length);
+				fits = !taken[candidate[j]];
+				for (int i = 0; i < j && fits; i++) {
+					fits = candidate[i] != candidate[j];
+				}
+			}
+			if (fits) {
+				for (int j = 0; j < candidate.length; j++) {
+					taken[candidate[j]] = true;
+					slots[bucket.get(j)] = candidate[j];
+				}
+				return seed;
+			}
+		}
+		throw new IllegalStateException("no seed places a bucket of " + bucket.size() + " agent strings");
+	}
+
+	/**
+	 * Gets the os.
+	 *
+	 * @param agentString the agent string
+	 * @return the os, null if not precomputed
+	 */
+	public OS getOs(CharSequence agentString) {
+		int slot = slot(agentString);
+		return slot < 0 ? null : oses[slot];
+	}
+
+	/**
+	 * Gets the device.
+	 *
+	 * @param agentString the agent string
+	 * @return the device, null if not precomputed
+	 */
+	public Device getDevice(CharSequence agentString) {
+		int slot = slot(agentString);
+		return slot < 0 ? null : devices[slot];
+	}
+
+	/**
+	 * Gets the user agent.
+	 *
+	 * @param agentString the agent string
+	 * @return the user agent, null if not precomputed
+	 */
+	public Browser getUserAgent(CharSequence agentString) {
+		int slot = slot(agentString);
+		return slot < 0 ? null : userAgents[slot];
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of agent strings in the table
+	 */
+	public int size() {
+		return agentStrings.length;
+	}
+
+	/**
+	 * Agent strings.
+	 *
+	 * @return the agent strings in the table, in slot order
+	 */
+	public List<String> agentStrings() {
+		return Collections.unmodifiableList(Arrays.asList(agentStrings));
+	}
+
+	/**
+	 * Over, the table in front of a cache: lookups try the table first and
+	 * the cache after, results are put in the cache. The same cache gets the
+	 * same layer back.
+	 *
+	 * @param cache the cache
+	 * @return the layer, a {@link CharSequenceCache} if the cache is one
+	 */
+	public Cache over(Cache cache) {
+		Layer current = layer;
+		if (current == null || current.cache != cache) {
+			current = cache instanceof CharSequenceCache ? new CharSequenceLayer(this, (CharSequenceCache) cache)
+					: new Layer(this, cache);
+			layer = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Slot.
+	 *
+	 * @param agentString the agent string
+	 * @return the slot of the agent string, -1 if not in the table
+	 */
+	private int slot(CharSequence agentString) {
+		if (agentString == null || agentStrings.length == 0) {
+			return -1;
+		}
+		long hash = mix(hashCode(agentString));
+		int seed = seeds[bucket(hash)];
+		int slot = seed < 0 ? -1 - seed : slot(hash, seed, agentStrings.length);
+		return agentStrings[slot].contentEquals(agentString) ? slot : -1;
+	}
+
+	/**
+	 * Bucket.
+	 *
+	 * @param hash the hash
+	 * @return the bucket
+	 */
+	private int bucket(long hash) {
+		return (int) ((hash >>> 33) % seeds.length);
+	}
+
+	/**
+	 * Slot.
+	 *
+	 * @param hash the hash
+	 * @param seed the seed of its bucket
+	 * @param size the slots
+	 * @return the slot
+	 */
+	private static int slot(long hash, int seed, int size) {
+		return (int) ((mix(hash + seed * 0x9e3779b97f4a7c15L) >>> 33) % size);
+	}
+
+	/**
+	 * Hash code.
+	 *
+	 * @param agentString the agent string
+	 * @return the {@link String#hashCode()} of its chars, cached by strings
+	 */
+	static int hashCode(CharSequence agentString) {
+		if (agentString instanceof String) {
+			return agentString.hashCode();
+		}
+		int hash = 0;
+		for (int i = 0; i < agentString.length(); i++) {
+			hash = 31 * hash + agentString.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Mix, the murmur3 finalizer.
+	 *
+	 * @param hash the hash
+	 * @return the hash mixed
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * The Class Layer, a table in front of a cache.
+	 */
+	private static class Layer implements Cache {
+
+		/** The table. */
+		final PrecomputedTable table;
+
+		/** The cache. */
+		final Cache cache;
+
+		/**
+		 * Instantiates a new layer.
+		 *
+		 * @param table the table
+		 * @param cache the cache
+		 */
+		Layer(PrecomputedTable table, Cache cache) {
+			this.table = table;
+			this.cache = cache;
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#getOs(java.lang.String)
+		 */
+		@Override
+		public OS getOs(String agentString) {
+			OS os = table.getOs(agentString);
+			return os != null ? os : cache.getOs(agentString);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#putOS(java.lang.String, io.gromit.uaparser.model.OS)
+		 */
+		@Override
+		public void putOS(String agentString, OS object) {
+			cache.putOS(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#getDevice(java.lang.String)
+		 */
+		@Override
+		public Device getDevice(String agentString) {
+			Device device = table.getDevice(agentString);
+			return device != null ? device : cache.getDevice(agentString);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#putDevice(java.lang.String, io.gromit.uaparser.model.Device)
+		 */
+		@Override
+		public void putDevice(String agentString, Device object) {
+			cache.putDevice(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#getUserAgent(java.lang.String)
+		 */
+		@Override
+		public Browser getUserAgent(String agentString) {
+			Browser userAgent = table.getUserAgent(agentString);
+			return userAgent != null ? userAgent : cache.getUserAgent(agentString);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#putUserAgent(java.lang.String, io.gromit.uaparser.model.Browser)
+		 */
+		@Override
+		public void putUserAgent(String agentString, Browser object) {
+			cache.putUserAgent(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.Cache#clean()
+		 */
+		@Override
+		public void clean() {
+			cache.clean();
+		}
+	}
+
+	/**
+	 * The Class CharSequenceLayer, a table in front of a cache taking any char
+	 * sequence.
+	 */
+	private static final class CharSequenceLayer extends Layer implements CharSequenceCache {
+
+		/** The cache. */
+		private final CharSequenceCache sequences;
+
+		/**
+		 * Instantiates a new char sequence layer.
+		 *
+		 * @param table the table
+		 * @param cache the cache
+		 */
+		CharSequenceLayer(PrecomputedTable table, CharSequenceCache cache) {
+			super(table, cache);
+			this.sequences = cache;
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.CharSequenceCache#getOs(java.lang.CharSequence)
+		 */
+		@Override
+		public OS getOs(CharSequence agentString) {
+			OS os = table.getOs(agentString);
+			return os != null ? os : sequences.getOs(agentString);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.CharSequenceCache#putOS(java.lang.CharSequence, io.gromit.uaparser.model.OS)
+		 */
+		@Override
+		public void putOS(CharSequence agentString, OS object) {
+			sequences.putOS(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.CharSequenceCache#getDevice(java.lang.CharSequence)
+		 */
+		@Override
+		public Device getDevice(CharSequence agentString) {
+			Device device = table.getDevice(agentString);
+			return device != null ? device : sequences.getDevice(agentString);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.CharSequenceCache#putDevice(java.lang.CharSequence, io.gromit.uaparser.model.Device)
+		 */
+		@Override
+		public void putDevice(CharSequence agentString, Device object) {
+			sequences.putDevice(agentString, object);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.CharSequenceCache#getUserAgent(java.lang.CharSequence)
+		 */
+		@Override
+		public Browser getUserAgent(CharSequence agentString) {
+			Browser userAgent = table.getUserAgent(agentString);
+			return userAgent != null ? userAgent : sequences.getUserAgent(agentString);
+		}
+
+		/* (non-Javadoc)
+		 * @see io.gromit.uaparser.cache.CharSequenceCache#putUserAgent(java.lang.CharSequence, io.gromit.uaparser.model.Browser)
+		 */
+		@Override
+		public void putUserAgent(CharSequence agentString, Browser object) {
+			sequences.putUserAgent(agentString, object);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.cache;
+
+/**
+ * The Interface RuleSetAware, a cache whose entries outlive the parser, told
+ * which rules the parser is using so it only answers with results those
+ * rules produced.
+ */
+public interface RuleSetAware {
+
+	/**
+	 * Rule set, called by the parser before it uses new rules.
+	 *
+	 * @param checksum the MD5 of the regexes yaml the rules come from
+	 */
+	void ruleSet(byte[] checksum);
+}
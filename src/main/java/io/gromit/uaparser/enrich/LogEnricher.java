@@ -0,0 +1,862 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.enrich;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import io.gromit.uaparser.Parser;
+import io.gromit.uaparser.cache.ClockCache;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Client;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+import io.gromit.uaparser.parsers.RuleSnapshot;
+
+/**
+ * The Class LogEnricher, adds the browser, os and device of each line of
+ * access logs, or counts the lines per family of each of them.
+ * <p>
+ * Files are memory mapped in chunks handed to a pool of workers. A chunk
+ * holds the lines that start in it, the first one is left to the chunk before
+ * and the last one is read past the end of the chunk, up to 1MB, longer lines
+ * are cut. The agent string field is found in the bytes of the line, only the
+ * field is decoded, and each chunk parses its distinct agent strings once,
+ * see {@link Parser#parseAll(String[])}. The output of the chunks is written
+ * in the order of the input.
+ */
+public class LogEnricher {
+
+	/**
+	 * The Enum Format.
+	 */
+	public enum Format {
+
+		/** The line followed by the browser, os and device fields, tab separated. */
+		TSV,
+
+		/** A JSON object per line, with the line and its browser, os and device. */
+		JSON,
+
+		/** The lines per browser, os and device family, tab separated. */
+		COUNTS
+	}
+
+	/** The Constant DEFAULT_CHUNK_SIZE. */
+	private static final int DEFAULT_CHUNK_SIZE = 32 << 20;
+
+	/** The Constant MAX_CHUNK_SIZE. */
+	private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+	/** The Constant MAX_LINE, the bytes a line may take past the end of its chunk. */
+	private static final int MAX_LINE = 1 << 20;
+
+	/** The Constant NEW_LINE. */
+	private static final byte NEW_LINE = '\n';
+
+	/** The Constant QUOTE. */
+	private static final byte QUOTE = '"';
+
+	/** The Constant ESCAPE. */
+	private static final byte ESCAPE = '\\';
+
+	/** The parser. */
+	private final Parser parser;
+
+	/** The delimiter of the fields. */
+	private byte delimiter = '\t';
+
+	/** The column of the agent string, negative to count from the last one. */
+	private int column = 0;
+
+	/** The quoted, true if fields in double quotes may hold the delimiter. */
+	private boolean quoted = false;
+
+	/** The format. */
+	private Format format = Format.TSV;
+
+	/** The threads. */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/** The chunk size. */
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Instantiates a new log enricher.
+	 *
+	 * @param parser the parser
+	 */
+	public LogEnricher(Parser parser) {
+		this.parser = parser;
+	}
+
+	/**
+	 * Delimiter.
+	 *
+	 * @param delimiter the delimiter of the fields, a single byte char
+	 * @return the log enricher
+	 */
+	public LogEnricher delimiter(char delimiter) {
+		if (delimiter > 0x7f || delimiter == NEW_LINE || delimiter == QUOTE) {
+			throw new IllegalArgumentException("delimiter must be an ascii char other than new line or quote");
+		}
+		this.delimiter = (byte) delimiter;
+		return this;
+	}
+
+	/**
+	 * Column.
+	 *
+	 * @param column the column of the agent string from 0, or from -1 for the
+	 *            last one backwards
+	 * @return the log enricher
+	 */
+	public LogEnricher column(int column) {
+		this.column = column;
+		return this;
+	}
+
+	/**
+	 * Quoted, for logs like the Apache combined format, whose agent string
+	 * is in double quotes and holds the delimiter.
+	 *
+	 * @param quoted true if fields in double quotes may hold the delimiter
+	 * @return the log enricher
+	 */
+	public LogEnricher quoted(boolean quoted) {
+		this.quoted = quoted;
+		return this;
+	}
+
+	/**
+	 * Format.
+	 *
+	 * @param format the format
+	 * @return the log enricher
+	 */
+	public LogEnricher format(Format format) {
+		this.format = format;
+		return this;
+	}
+
+	/**
+	 * Threads.
+	 *
+	 * @param threads the threads, the processors by default
+	 * @return the log enricher
+	 */
+	public LogEnricher threads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * Chunk size.
+	 *
+	 * @param chunkSize the bytes of a chunk, 32MB by default
+	 * @return the log enricher
+	 */
+	public LogEnricher chunkSize(int chunkSize) {
+		if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Enrich.
+	 *
+	 * @param files the log files
+	 * @param out the output, not closed
+	 * @return the report
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public Report enrich(List<File> files, OutputStream out) throws IOException {
+		long start = System.nanoTime();
+		long lines = 0;
+		long bytes = 0;
+		Counts counts = new Counts();
+		ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ua-log-enricher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (File file : files) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					long size = channel.size();
+					Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+					for (long from = 0; from < size; from += chunkSize) {
+						pending.add(workers.submit(new Chunk(channel, from, Math.min(from + chunkSize, size), size)));
+						if (pending.size() >= 2 * threads) {
+							lines += drain(pending.poll(), out, counts);
+						}
+					}
+					while (!pending.isEmpty()) {
+						lines += drain(pending.poll(), out, counts);
+					}
+					bytes += size;
+				}
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		if (format == Format.COUNTS) {
+			out.write(counts.toTsv());
+		}
+		out.flush();
+		return new Report(lines, bytes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Drain, waits for a chunk and writes its output.
+	 *
+	 * @param pending the chunk
+	 * @param out the output
+	 * @param counts the counts to add the chunk counts to
+	 * @return the lines of the chunk
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long drain(Future<Chunk> pending, OutputStream out, Counts counts) throws IOException {
+		Chunk chunk;
+		try {
+			chunk = pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while enriching logs");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		if (chunk.output != null) {
+			chunk.output.writeTo(out);
+		}
+		if (chunk.counts != null) {
+			counts.add(chunk.counts);
+		}
+		return chunk.lines;
+	}
+
+	/**
+	 * The Class Chunk, the lines starting in a range of a file.
+	 */
+	private final class Chunk implements Callable<Chunk> {
+
+		/** The channel. */
+		private final FileChannel channel;
+
+		/** The start. */
+		private final long start;
+
+		/** The end. */
+		private final long end;
+
+		/** The size of the file. */
+		private final long size;
+
+		/** The lines. */
+		int lines;
+
+		/** The output, null when counting. */
+		ByteArrayOutputStream output;
+
+		/** The counts, null unless counting. */
+		Counts counts;
+
+		/**
+		 * Instantiates a new chunk.
+		 *
+		 * @param channel the channel
+		 * @param start the start
+		 * @param end the end
+		 * @param size the size of the file
+		 */
+		Chunk(FileChannel channel, long start, long end, long size) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.size = size;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Chunk call() throws IOException {
+			// from the byte before the chunk, to tell whether a line starts with it
+			long mapStart = start == 0 ? 0 : start - 1;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart,
+					Math.min(size, end + MAX_LINE) - mapStart);
+			int position = (int) (start - mapStart);
+			if (start > 0 && buffer.get(0) != NEW_LINE) {
+				int lineEnd = indexOf(buffer, NEW_LINE, position);
+				position = lineEnd < 0 ? buffer.limit() : lineEnd + 1;
+			}
+			int limit = (int) (end - mapStart);
+			List<int[]> bounds = new ArrayList<int[]>();
+			List<String> agentStrings = new ArrayList<String>();
+			int[] fields = new int[32];
+			while (position < limit) {
+				int lineEnd = indexOf(buffer, NEW_LINE, position);
+				int next = lineEnd + 1;
+				if (lineEnd < 0) {
+					lineEnd = buffer.limit();
+					next = lineEnd;
+				}
+				if (lineEnd > position && buffer.get(lineEnd - 1) == '\r') {
+					lineEnd--;
+				}
+				fields = fields(buffer, position, lineEnd, fields);
+				bounds.add(new int[] { position, lineEnd });
+				agentStrings.add(agentString(buffer, fields));
+				position = next;
+			}
+			lines = bounds.size();
+			Client[] clients = parser.parseAll(agentStrings.toArray(new String[lines]));
+			if (format == Format.COUNTS) {
+				counts = new Counts();
+				for (Client client : clients) {
+					counts.add(client);
+				}
+			} else {
+				output = new ByteArrayOutputStream((int) (end - start) + (int) (end - start) / 2);
+				byte[] line = new byte[256];
+				for (int i = 0; i < lines; i++) {
+					int from = bounds.get(i)[0];
+					int length = bounds.get(i)[1] - from;
+					if (line.length < length) {
+						line = new byte[Math.max(length, line.length * 2)];
+					}
+					for (int b = 0; b < length; b++) {
+						line[b] = buffer.get(from + b);
+					}
+					if (format == Format.TSV) {
+						writeTsv(output, line, length, clients[i]);
+					} else {
+						writeJson(output, new String(line, 0, length, StandardCharsets.UTF_8), clients[i]);
+					}
+				}
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Index of.
+	 *
+	 * @param buffer the buffer
+	 * @param value the value
+	 * @param from the position to look from
+	 * @return the position of the value, -1 if missing
+	 */
+	private static int indexOf(MappedByteBuffer buffer, byte value, int from) {
+		for (int i = from, limit = buffer.limit(); i < limit; i++) {
+			if (buffer.get(i) == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Fields, finds the bounds of the fields of a line.
+	 *
+	 * @param buffer the buffer
+	 * @param from the start of the line
+	 * @param to the end of the line
+	 * @param fields the array to fill with the start and end of each field,
+	 *            after the number of fields
+	 * @return the array filled, the same one unless it had to grow
+	 */
+	private int[] fields(MappedByteBuffer buffer, int from, int to, int[] fields) {
+		int count = 0;
+		int position = from;
+		while (true) {
+			int fieldEnd = position;
+			if (quoted && position < to && buffer.get(position) == QUOTE) {
+				fieldEnd++;
+				while (fieldEnd < to && buffer.get(fieldEnd) != QUOTE) {
+					fieldEnd += buffer.get(fieldEnd) == ESCAPE ? 2 : 1;
+				}
+				fieldEnd = Math.min(fieldEnd + 1, to);
+			}
+			while (fieldEnd < to && buffer.get(fieldEnd) != delimiter) {
+				fieldEnd++;
+			}
+			if (2 * count + 3 > fields.length) {
+				fields = Arrays.copyOf(fields, fields.length * 2);
+			}
+			fields[2 * count + 1] = position;
+			fields[2 * count + 2] = fieldEnd;
+			count++;
+			if (fieldEnd >= to) {
+				break;
+			}
+			position = fieldEnd + 1;
+		}
+		fields[0] = count;
+		return fields;
+	}
+
+	/**
+	 * Agent string.
+	 *
+	 * @param buffer the buffer
+	 * @param fields the fields of the line
+	 * @return the agent string, without quotes, null if the line has no such
+	 *         column
+	 */
+	private String agentString(MappedByteBuffer buffer, int[] fields) {
+		int index = column < 0 ? fields[0] + column : column;
+		if (index < 0 || index >= fields[0]) {
+			return null;
+		}
+		int from = fields[2 * index + 1];
+		int to = fields[2 * index + 2];
+		boolean unquote = quoted && to - from >= 2 && buffer.get(from) == QUOTE && buffer.get(to - 1) == QUOTE;
+		if (unquote) {
+			from++;
+			to--;
+		}
+		byte[] bytes = new byte[to - from];
+		int length = 0;
+		for (int i = from; i < to; i++) {
+			byte b = buffer.get(i);
+			if (unquote && b == ESCAPE && i + 1 < to) {
+				b = buffer.get(++i);
+			}
+			bytes[length++] = b;
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write tsv.
+	 *
+	 * @param out the out
+	 * @param line the line
+	 * @param length the length of the line
+	 * @param client the client
+	 */
+	private static void writeTsv(ByteArrayOutputStream out, byte[] line, int length, Client client) {
+		out.write(line, 0, length);
+		Browser browser = client.browser;
+		OS os = client.os;
+		Device device = client.device;
+		StringBuilder fields = new StringBuilder(64);
+		tsv(fields, browser == null ? null : browser.family);
+		tsv(fields, browser == null ? null : browser.major);
+		tsv(fields, browser == null ? null : browser.minor);
+		tsv(fields, os == null ? null : os.family);
+		tsv(fields, os == null ? null : os.major);
+		tsv(fields, os == null ? null : os.minor);
+		tsv(fields, device == null ? null : device.family);
+		tsv(fields, device == null ? null : device.brand);
+		tsv(fields, device == null ? null : device.model);
+		fields.append('\n');
+		byte[] bytes = fields.toString().getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Tsv.
+	 *
+	 * @param fields the fields
+	 * @param value the value, null as empty
+	 */
+	private static void tsv(StringBuilder fields, String value) {
+		fields.append('\t');
+		if (value != null) {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				fields.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+			}
+		}
+	}
+
+	/**
+	 * Write json.
+	 *
+	 * @param out the out
+	 * @param line the line
+	 * @param client the client
+	 */
+	private static void writeJson(ByteArrayOutputStream out, String line, Client client) {
+		StringBuilder json = new StringBuilder(line.length() + 256);
+		json.append("{\"line\": ");
+		json(json, line);
+		json.append(", \"user_agent\": ");
+		if (client.browser == null) {
+			json.append("null");
+		} else {
+			json.append("{\"family\": ");
+			json(json, client.browser.family);
+			json.append(", \"major\": ");
+			json(json, client.browser.major);
+			json.append(", \"minor\": ");
+			json(json, client.browser.minor);
+			json.append(", \"patch\": ");
+			json(json, client.browser.patch);
+			json.append('}');
+		}
+		json.append(", \"os\": ");
+		if (client.os == null) {
+			json.append("null");
+		} else {
+			json.append("{\"family\": ");
+			json(json, client.os.family);
+			json.append(", \"major\": ");
+			json(json, client.os.major);
+			json.append(", \"minor\": ");
+			json(json, client.os.minor);
+			json.append(", \"patch\": ");
+			json(json, client.os.patch);
+			json.append(", \"patch_minor\": ");
+			json(json, client.os.patchMinor);
+			json.append('}');
+		}
+		json.append(", \"device\": ");
+		if (client.device == null) {
+			json.append("null");
+		} else {
+			json.append("{\"family\": ");
+			json(json, client.device.family);
+			json.append(", \"brand\": ");
+			json(json, client.device.brand);
+			json.append(", \"model\": ");
+			json(json, client.device.model);
+			json.append('}');
+		}
+		json.append("}\n");
+		byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Json, appends a string literal.
+	 *
+	 * @param json the json
+	 * @param value the value, null as null
+	 */
+	private static void json(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * The Class Counts, the lines per browser, os and device family.
+	 */
+	private static final class Counts {
+
+		/** The browsers. */
+		private final Map<String, long[]> browsers = new HashMap<String, long[]>();
+
+		/** The oses. */
+		private final Map<String, long[]> oses = new HashMap<String, long[]>();
+
+		/** The devices. */
+		private final Map<String, long[]> devices = new HashMap<String, long[]>();
+
+		/**
+		 * Adds the.
+		 *
+		 * @param client the client
+		 */
+		void add(Client client) {
+			add(browsers, client.browser == null ? null : client.browser.family, 1);
+			add(oses, client.os == null ? null : client.os.family, 1);
+			add(devices, client.device == null ? null : client.device.family, 1);
+		}
+
+		/**
+		 * Adds the.
+		 *
+		 * @param other the other counts
+		 */
+		void add(Counts other) {
+			for (Map.Entry<String, long[]> entry : other.browsers.entrySet()) {
+				add(browsers, entry.getKey(), entry.getValue()[0]);
+			}
+			for (Map.Entry<String, long[]> entry : other.oses.entrySet()) {
+				add(oses, entry.getKey(), entry.getValue()[0]);
+			}
+			for (Map.Entry<String, long[]> entry : other.devices.entrySet()) {
+				add(devices, entry.getKey(), entry.getValue()[0]);
+			}
+		}
+
+		/**
+		 * Adds the.
+		 *
+		 * @param counts the counts
+		 * @param family the family, null for lines without an agent string
+		 * @param lines the lines
+		 */
+		private static void add(Map<String, long[]> counts, String family, long lines) {
+			long[] count = counts.get(family);
+			if (count == null) {
+				counts.put(family, new long[] { lines });
+			} else {
+				count[0] += lines;
+			}
+		}
+
+		/**
+		 * To tsv.
+		 *
+		 * @return the dimension, family and lines of each family, the most
+		 *         common first
+		 */
+		byte[] toTsv() {
+			StringBuilder tsv = new StringBuilder();
+			toTsv(tsv, "browser", browsers);
+			toTsv(tsv, "os", oses);
+			toTsv(tsv, "device", devices);
+			return tsv.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * To tsv.
+		 *
+		 * @param tsv the tsv
+		 * @param dimension the dimension
+		 * @param counts the counts
+		 */
+		private static void toTsv(StringBuilder tsv, String dimension, Map<String, long[]> counts) {
+			List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(counts.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+				@Override
+				public int compare(Map.Entry<String, long[]> left, Map.Entry<String, long[]> right) {
+					return Long.compare(right.getValue()[0], left.getValue()[0]);
+				}
+			});
+			for (Map.Entry<String, long[]> entry : entries) {
+				tsv.append(dimension);
+				tsv(tsv, entry.getKey() == null ? "-" : entry.getKey());
+				tsv.append('\t').append(entry.getValue()[0]).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * The Class Report, how much was enriched and how fast.
+	 */
+	public static final class Report {
+
+		/** The lines. */
+		public final long lines;
+
+		/** The bytes. */
+		public final long bytes;
+
+		/** The nanos. */
+		public final long nanos;
+
+		/**
+		 * Instantiates a new report.
+		 *
+		 * @param lines the lines
+		 * @param bytes the bytes
+		 * @param nanos the nanos
+		 */
+		Report(long lines, long bytes, long nanos) {
+			this.lines = lines;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * Lines per second.
+		 *
+		 * @return the lines per second
+		 */
+		public double linesPerSecond() {
+			return lines * 1e9 / Math.max(nanos, 1);
+		}
+
+		/**
+		 * Megabytes per second.
+		 *
+		 * @return the megabytes per second
+		 */
+		public double megabytesPerSecond() {
+			return bytes * 1e9 / Math.max(nanos, 1) / (1 << 20);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%d lines, %.1f MB in %.2f s: %.0f lines/s, %.1f MB/s", lines,
+					bytes / (double) (1 << 20), nanos / 1e9, linesPerSecond(), megabytesPerSecond());
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the options and the log files
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		String regexes = null;
+		String snapshot = null;
+		String output = null;
+		int cacheSize = 65536;
+		char delimiter = '\t';
+		int column = 0;
+		boolean quoted = false;
+		Format format = Format.TSV;
+		int threads = 0;
+		List<File> files = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if ("--regexes".equals(arg)) {
+					regexes = args[++i];
+				} else if ("--snapshot".equals(arg)) {
+					snapshot = args[++i];
+				} else if ("--output".equals(arg)) {
+					output = args[++i];
+				} else if ("--cache".equals(arg)) {
+					cacheSize = Integer.parseInt(args[++i]);
+				} else if ("--delimiter".equals(arg)) {
+					delimiter = delimiter(args[++i]);
+				} else if ("--column".equals(arg)) {
+					column = Integer.parseInt(args[++i]);
+				} else if ("--quoted".equals(arg)) {
+					quoted = true;
+				} else if ("--format".equals(arg)) {
+					format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+				} else if ("--threads".equals(arg)) {
+					threads = Integer.parseInt(args[++i]);
+				} else if (arg.startsWith("--")) {
+					throw new IllegalArgumentException("unknown option " + arg);
+				} else {
+					files.add(new File(arg));
+				}
+			}
+			if (files.isEmpty()) {
+				throw new IllegalArgumentException("no log files");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage() == null ? e.toString() : e.getMessage());
+			System.err.println("usage: LogEnricher [--regexes <yaml> | --snapshot <file>] [--delimiter <char|tab|space>]"
+					+ " [--column <n>] [--quoted] [--format tsv|json|counts] [--threads <n>] [--cache <size>]"
+					+ " [--output <file>] <log>...");
+			System.exit(1);
+		}
+		Parser parser;
+		if (snapshot != null) {
+			try (InputStream in = new FileInputStream(snapshot)) {
+				parser = new Parser(RuleSnapshot.read(in));
+			}
+		} else if (regexes != null) {
+			try (InputStream in = new FileInputStream(regexes)) {
+				parser = new Parser(in);
+			}
+		} else {
+			parser = new Parser();
+		}
+		if (cacheSize > 0) {
+			parser.cache(new ClockCache(cacheSize));
+		}
+		LogEnricher enricher = new LogEnricher(parser).delimiter(delimiter).column(column).quoted(quoted)
+				.format(format);
+		if (threads > 0) {
+			enricher.threads(threads);
+		}
+		Report report;
+		try (OutputStream out = new BufferedOutputStream(
+				output == null ? System.out : new FileOutputStream(output), 1 << 16)) {
+			report = enricher.enrich(files, out);
+		}
+		System.err.println(report);
+	}
+
+	/**
+	 * Delimiter.
+	 *
+	 * @param name the name, tab, space or the char itself
+	 * @return the delimiter
+	 */
+	private static char delimiter(String name) {
+		if ("tab".equalsIgnoreCase(name) || "\\t".equals(name)) {
+			return '\t';
+		}
+		if ("space".equalsIgnoreCase(name)) {
+			return ' ';
+		}
+		if (name.length() != 1) {
+			throw new IllegalArgumentException("delimiter must be a single char, tab or space");
+		}
+		return name.charAt(0);
+	}
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Class DimensionMetrics, what the parses of one dimension (browser, os
+ * or device) cost. The parsers record into it, a cache hit or the outcome of
+ * the pattern loop of a miss, with the time taken and the patterns run.
+ * Counters see every parse, latencies a random sample of them, as reading the
+ * clock costs more than the rest of the recording.
+ */
+public final class DimensionMetrics {
+
+	/** The Constant UNTIMED, the start of a parse left out of the latency sample. */
+	public static final long UNTIMED = Long.MIN_VALUE;
+
+	/** The latency sampling, one parse timed out of this many. */
+	private final int latencySampling;
+
+	/** The cache hits. */
+	private final LongAdder cacheHits = new LongAdder();
+
+	/** The cache misses. */
+	private final LongAdder cacheMisses = new LongAdder();
+
+	/** The misses no pattern matched, answered with the "Other" result. */
+	private final LongAdder fallthroughs = new LongAdder();
+
+	/** The misses given up for running out of budget. */
+	private final LongAdder budgetExceeded = new LongAdder();
+
+	/** The cached latency, in nanos. */
+	private final Histogram cachedLatency = new Histogram();
+
+	/** The uncached latency, in nanos. */
+	private final Histogram uncachedLatency = new Histogram();
+
+	/** The patterns run per miss. */
+	private final Histogram patterns = new Histogram();
+
+	/**
+	 * Instantiates a new dimension metrics.
+	 *
+	 * @param latencySampling one parse timed out of this many
+	 */
+	DimensionMetrics(int latencySampling) {
+		this.latencySampling = latencySampling;
+	}
+
+	/**
+	 * Start.
+	 *
+	 * @return the {@link System#nanoTime()} of the start of a parse, or
+	 *         {@link #UNTIMED} if the parse is not in the latency sample
+	 */
+	public long start() {
+		if (latencySampling > 1 && ThreadLocalRandom.current().nextInt(latencySampling) != 0) {
+			return UNTIMED;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Hit, a result found in the cache.
+	 *
+	 * @param start the start of the parse, see {@link #start()}
+	 */
+	public void hit(long start) {
+		cacheHits.increment();
+		if (start != UNTIMED) {
+			cachedLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Matched, a miss a pattern matched.
+	 *
+	 * @param start the start of the parse, see {@link #start()}
+	 * @param evaluated the patterns run
+	 */
+	public void matched(long start, int evaluated) {
+		miss(start, evaluated);
+	}
+
+	/**
+	 * Fell through, a miss no pattern matched.
+	 *
+	 * @param start the start of the parse, see {@link #start()}
+	 * @param evaluated the patterns run
+	 */
+	public void fellThrough(long start, int evaluated) {
+		fallthroughs.increment();
+		miss(start, evaluated);
+	}
+
+	/**
+	 * Over budget, a miss given up for running out of budget.
+	 *
+	 * @param start the start of the parse, see {@link #start()}
+	 * @param evaluated the patterns run, the last one unfinished
+	 */
+	public void overBudget(long start, int evaluated) {
+		budgetExceeded.increment();
+		miss(start, evaluated);
+	}
+
+	/**
+	 * Miss.
+	 *
+	 * @param start the start
+	 * @param evaluated the evaluated
+	 */
+	private void miss(long start, int evaluated) {
+		cacheMisses.increment();
+		if (start != UNTIMED) {
+			uncachedLatency.record(System.nanoTime() - start);
+		}
+		patterns.record(evaluated);
+	}
+
+	/**
+	 * Gets the cache hits.
+	 *
+	 * @return the cache hits
+	 */
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	/**
+	 * Gets the cache misses.
+	 *
+	 * @return the cache misses
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * Gets the fallthroughs.
+	 *
+	 * @return the misses answered with the "Other" result
+	 */
+	public long getFallthroughs() {
+		return fallthroughs.sum();
+	}
+
+	/**
+	 * Gets the budget exceeded.
+	 *
+	 * @return the misses given up for running out of budget
+	 */
+	public long getBudgetExceeded() {
+		return budgetExceeded.sum();
+	}
+
+	/**
+	 * Gets the cached latency.
+	 *
+	 * @return the cached latency of the parses sampled, in nanos
+	 */
+	public Histogram getCachedLatency() {
+		return cachedLatency;
+	}
+
+	/**
+	 * Gets the uncached latency.
+	 *
+	 * @return the uncached latency of the parses sampled, in nanos
+	 */
+	public Histogram getUncachedLatency() {
+		return uncachedLatency;
+	}
+
+	/**
+	 * Gets the patterns.
+	 *
+	 * @return the patterns run per miss
+	 */
+	public Histogram getPatterns() {
+		return patterns;
+	}
+
+	/**
+	 * Report.
+	 *
+	 * @param prefix the prefix of the metric names
+	 * @param callback the callback
+	 */
+	void report(String prefix, MetricsCallback callback) {
+		long hits = getCacheHits();
+		long misses = getCacheMisses();
+		callback.metric(prefix + "CacheHits", hits);
+		callback.metric(prefix + "CacheMisses", misses);
+		callback.metric(prefix + "CacheHitRatio", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+		callback.metric(prefix + "Fallthroughs", getFallthroughs());
+		callback.metric(prefix + "FallthroughRatio", misses == 0 ? 0 : (double) getFallthroughs() / misses);
+		callback.metric(prefix + "BudgetExceeded", getBudgetExceeded());
+		report(prefix + "PatternsPerMiss", patterns, callback);
+		report(prefix + "CachedNanos", cachedLatency, callback);
+		report(prefix + "UncachedNanos", uncachedLatency, callback);
+	}
+
+	/**
+	 * Report.
+	 *
+	 * @param prefix the prefix of the metric names
+	 * @param histogram the histogram
+	 * @param callback the callback
+	 */
+	private static void report(String prefix, Histogram histogram, MetricsCallback callback) {
+		callback.metric(prefix + "Mean", histogram.mean());
+		callback.metric(prefix + "P50", histogram.percentile(0.5));
+		callback.metric(prefix + "P99", histogram.percentile(0.99));
+		callback.metric(prefix + "P999", histogram.percentile(0.999));
+		callback.metric(prefix + "Max", histogram.max());
+	}
+}
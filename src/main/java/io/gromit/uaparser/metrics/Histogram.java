@@ -0,0 +1,165 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * The Class Histogram, a lock free histogram of non negative values. Values
+ * below 8 get a bucket each, above that every power of two is split in 8
+ * buckets, so a percentile is off by at most an eighth. Each bucket is a
+ * {@link LongAdder}, recording from many threads does not contend.
+ */
+public final class Histogram {
+
+	/** The Constant SUB_BITS, log2 of the buckets per power of two. */
+	private static final int SUB_BITS = 3;
+
+	/** The Constant MAX_EXPONENT, values from 2^40 on share the last bucket. */
+	private static final int MAX_EXPONENT = 40;
+
+	/** The Constant BUCKETS, the last one for values from 2^40 on. */
+	private static final int BUCKETS = ((MAX_EXPONENT - SUB_BITS + 1) << SUB_BITS) + 1;
+
+	/** The buckets. */
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	/** The sum. */
+	private final LongAdder sum = new LongAdder();
+
+	/** The max. */
+	private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	}, 0);
+
+	/**
+	 * Instantiates a new histogram.
+	 */
+	public Histogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record.
+	 *
+	 * @param value the value, negative values count as 0
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		buckets[bucket(value)].increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Count.
+	 *
+	 * @return the values recorded
+	 */
+	public long count() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * Mean.
+	 *
+	 * @return the mean, 0 if nothing was recorded
+	 */
+	public double mean() {
+		long count = count();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * Max.
+	 *
+	 * @return the largest value recorded
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Percentile.
+	 *
+	 * @param quantile the quantile, between 0 and 1
+	 * @return the upper bound of the bucket holding the quantile, 0 if nothing
+	 *         was recorded
+	 */
+	public long percentile(double quantile) {
+		long[] counts = new long[buckets.length];
+		long count = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		long rank = Math.max((long) Math.ceil(quantile * count), 1);
+		for (int i = 0; i < counts.length; i++) {
+			rank -= counts[i];
+			if (rank <= 0) {
+				return Math.min(upperBound(i), max());
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Bucket.
+	 *
+	 * @param value the value
+	 * @return the bucket
+	 */
+	static int bucket(long value) {
+		if (value < 1 << SUB_BITS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	/**
+	 * Upper bound.
+	 *
+	 * @param bucket the bucket
+	 * @return the largest value of the bucket
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < 1 << SUB_BITS) {
+			return bucket;
+		}
+		if (bucket == BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+		long sub = bucket & ((1 << SUB_BITS) - 1);
+		return (((1L << SUB_BITS) + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
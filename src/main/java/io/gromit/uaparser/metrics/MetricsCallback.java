@@ -0,0 +1,31 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.metrics;
+
+/**
+ * The Interface MetricsCallback, receives the current value of every metric,
+ * to hand them over to a metrics registry.
+ */
+public interface MetricsCallback {
+
+	/**
+	 * Metric.
+	 *
+	 * @param name the name, like browserCacheHitRatio
+	 * @param value the value
+	 */
+	void metric(String name, double value);
+}
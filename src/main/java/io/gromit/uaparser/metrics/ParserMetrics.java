@@ -0,0 +1,305 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * The Class ParserMetrics, the metrics of the browser, os and device parses of
+ * a parser. They are read through {@link #report(MetricsCallback)} or as the
+ * read only attributes of an MBean, see {@link #registerMBean(String)}.
+ * Recording takes a few striped counter increments per parse, plus two
+ * {@link System#nanoTime()} calls for the parses in the latency sample.
+ */
+public final class ParserMetrics implements DynamicMBean {
+
+	/** The Constant DEFAULT_LATENCY_SAMPLING. */
+	private static final int DEFAULT_LATENCY_SAMPLING = 8;
+
+	/** The browser. */
+	public final DimensionMetrics browser;
+
+	/** The os. */
+	public final DimensionMetrics os;
+
+	/** The device. */
+	public final DimensionMetrics device;
+
+	/** The async parses answered from the cache on the calling thread. */
+	private final LongAdder asyncInline = new LongAdder();
+
+	/** The async parses handed to the executor. */
+	private final LongAdder asyncOffloaded = new LongAdder();
+
+	/** The async parses rejected, for too many waiting or by the executor. */
+	private final LongAdder asyncRejected = new LongAdder();
+
+	/** The agent strings the normalizer rewrote. */
+	private final LongAdder normalized = new LongAdder();
+
+	/** The distinct agent strings seen by the normalizer. */
+	private final DistinctCounter agentStrings = new DistinctCounter();
+
+	/** The distinct keys the normalizer turned them into. */
+	private final DistinctCounter keys = new DistinctCounter();
+
+	/**
+	 * Instantiates a new parser metrics that times one parse out of 8.
+	 */
+	public ParserMetrics() {
+		this(DEFAULT_LATENCY_SAMPLING);
+	}
+
+	/**
+	 * Instantiates a new parser metrics.
+	 *
+	 * @param latencySampling one parse timed out of this many, 1 to time all
+	 */
+	public ParserMetrics(int latencySampling) {
+		if (latencySampling < 1) {
+			throw new IllegalArgumentException("latency sampling must be at least 1");
+		}
+		this.browser = new DimensionMetrics(latencySampling);
+		this.os = new DimensionMetrics(latencySampling);
+		this.device = new DimensionMetrics(latencySampling);
+	}
+
+	/**
+	 * Async inline, an async parse answered from the cache.
+	 */
+	public void asyncInline() {
+		asyncInline.increment();
+	}
+
+	/**
+	 * Async offloaded, an async parse handed to the executor.
+	 */
+	public void asyncOffloaded() {
+		asyncOffloaded.increment();
+	}
+
+	/**
+	 * Async rejected, an async parse failed without being run.
+	 */
+	public void asyncRejected() {
+		asyncRejected.increment();
+	}
+
+	/**
+	 * Normalized, an agent string turned into the key the parsers and the
+	 * cache see.
+	 *
+	 * @param agentString the agent string
+	 * @param key the key, the agent string itself if left as it was
+	 */
+	public void normalized(CharSequence agentString, CharSequence key) {
+		long hash = DistinctCounter.hash(agentString);
+		agentStrings.add(hash);
+		if (key != agentString) {
+			normalized.increment();
+			hash = DistinctCounter.hash(key);
+		}
+		keys.add(hash);
+	}
+
+	/**
+	 * Gets the async inline.
+	 *
+	 * @return the async parses answered from the cache on the calling thread
+	 */
+	public long getAsyncInline() {
+		return asyncInline.sum();
+	}
+
+	/**
+	 * Gets the async offloaded.
+	 *
+	 * @return the async parses handed to the executor
+	 */
+	public long getAsyncOffloaded() {
+		return asyncOffloaded.sum();
+	}
+
+	/**
+	 * Gets the async rejected.
+	 *
+	 * @return the async parses rejected
+	 */
+	public long getAsyncRejected() {
+		return asyncRejected.sum();
+	}
+
+	/**
+	 * Gets the normalized.
+	 *
+	 * @return the agent strings the normalizer rewrote
+	 */
+	public long getNormalized() {
+		return normalized.sum();
+	}
+
+	/**
+	 * Gets the distinct agent strings.
+	 *
+	 * @return the estimated distinct agent strings seen by the normalizer
+	 */
+	public long getDistinctAgentStrings() {
+		return agentStrings.estimate();
+	}
+
+	/**
+	 * Gets the distinct keys.
+	 *
+	 * @return the estimated distinct keys the normalizer turned them into
+	 */
+	public long getDistinctKeys() {
+		return keys.estimate();
+	}
+
+	/**
+	 * Report.
+	 *
+	 * @param callback the callback, called once per metric
+	 */
+	public void report(MetricsCallback callback) {
+		browser.report("browser", callback);
+		os.report("os", callback);
+		device.report("device", callback);
+		callback.metric("asyncInline", getAsyncInline());
+		callback.metric("asyncOffloaded", getAsyncOffloaded());
+		callback.metric("asyncRejected", getAsyncRejected());
+		long distinctAgentStrings = getDistinctAgentStrings();
+		long distinctKeys = getDistinctKeys();
+		callback.metric("normalized", getNormalized());
+		callback.metric("distinctAgentStrings", distinctAgentStrings);
+		callback.metric("distinctKeys", distinctKeys);
+		callback.metric("distinctKeyReduction",
+				distinctAgentStrings == 0 ? 0 : Math.max(0, 1 - (double) distinctKeys / distinctAgentStrings));
+	}
+
+	/**
+	 * Register M bean.
+	 *
+	 * @param objectName the object name, like io.gromit.uaparser:type=Parser
+	 * @return the object name registered
+	 */
+	public ObjectName registerMBean(String objectName) {
+		try {
+			ObjectName name = new ObjectName(objectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			return name;
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Values.
+	 *
+	 * @return the metrics by name
+	 */
+	private Map<String, Double> values() {
+		final Map<String, Double> values = new LinkedHashMap<String, Double>();
+		report(new MetricsCallback() {
+			@Override
+			public void metric(String name, double value) {
+				values.put(name, value);
+			}
+		});
+		return values;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getAttribute(java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Double value = values().get(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#setAttribute(javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read only");
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getAttributes(java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Double> values = values();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Double value = values.get(attribute);
+			if (value != null) {
+				list.add(new Attribute(attribute, value));
+			}
+		}
+		return list;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#setAttributes(javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#invoke(java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getMBeanInfo()
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String name : values().keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "double", name, true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "ua parser metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+	}
+}
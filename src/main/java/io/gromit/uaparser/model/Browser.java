@@ -25,6 +25,9 @@ import org.apache.commons.lang3.builder.ToStringStyle;
  */
 public class Browser {
 
+	/** The Constant OTHER, the result when no pattern matches. */
+	public static final Browser OTHER = new Browser("Other", null, null, null);
+
 	/** The patch. */
 	public final String family, major, minor, patch;
 
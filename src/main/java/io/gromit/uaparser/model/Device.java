@@ -25,6 +25,9 @@ import org.apache.commons.lang3.builder.ToStringStyle;
  */
 public class Device {
 
+	/** The Constant OTHER, the result when no pattern matches. */
+	public static final Device OTHER = new Device("Other", null, null);
+
 	/** The family. */
 	public final String family, brand, model;
 
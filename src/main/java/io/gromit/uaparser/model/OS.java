@@ -25,6 +25,9 @@ import org.apache.commons.lang3.builder.ToStringStyle;
  */
 public class OS {
 
+	/** The Constant OTHER, the result when no pattern matches. */
+	public static final OS OTHER = new OS("Other", null, null, null, null);
+
 	/** The family. */
 	public final String family, major, minor, patch, patchMinor;
 
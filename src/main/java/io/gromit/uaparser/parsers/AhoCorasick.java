@@ -0,0 +1,379 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The Class AhoCorasick, a multi string automaton over folded chars. Every
+ * keyword carries the targets to mark when it shows up in the scanned text.
+ */
+final class AhoCorasick {
+
+	/** The alphabet, sorted. */
+	private final char[] alphabet;
+
+	/** The ASCII alphabet index, 0 for chars that are in no keyword. */
+	private final int[] asciiIndex = new int[128];
+
+	/** The non ASCII chars of the alphabet, sorted. */
+	private final char[] otherChars;
+
+	/** The alphabet size, including the 0 slot. */
+	private final int width;
+
+	/** The parent of each state in the trie of the keywords. */
+	private final char[] parents;
+
+	/** The symbol leading from the parent to each state. */
+	private final char[] symbols;
+
+	/** The transitions, width entries per state. */
+	private final char[] delta;
+
+	/** The targets of the keywords ending at each state, null if none. */
+	private final int[][] outputs;
+
+	/** The targets marked when a state is reached, null if none. */
+	private final int[][] targets;
+
+	/**
+	 * Instantiates a new aho corasick.
+	 *
+	 * @param keywords the folded keywords mapped to their targets
+	 */
+	AhoCorasick(Map<String, ? extends Iterable<Integer>> keywords) {
+		TreeSet<Character> chars = new TreeSet<Character>();
+		for (String keyword : keywords.keySet()) {
+			for (int i = 0; i < keyword.length(); i++) {
+				chars.add(keyword.charAt(i));
+			}
+		}
+		alphabet = new char[chars.size()];
+		int next = 0;
+		for (Character c : chars) {
+			alphabet[next++] = c;
+		}
+		otherChars = index(alphabet, asciiIndex);
+		width = alphabet.length + 1;
+
+		// trie
+		List<int[]> gotos = new ArrayList<int[]>();
+		List<TreeSet<Integer>> outputs = new ArrayList<TreeSet<Integer>>();
+		gotos.add(new int[width]);
+		outputs.add(new TreeSet<Integer>());
+		for (Map.Entry<String, ? extends Iterable<Integer>> entry : keywords.entrySet()) {
+			int state = 0;
+			String keyword = entry.getKey();
+			for (int i = 0; i < keyword.length(); i++) {
+				int symbol = symbol(keyword.charAt(i));
+				if (gotos.get(state)[symbol] == 0) {
+					gotos.get(state)[symbol] = gotos.size();
+					gotos.add(new int[width]);
+					outputs.add(new TreeSet<Integer>());
+				}
+				state = gotos.get(state)[symbol];
+			}
+			for (Integer target : entry.getValue()) {
+				outputs.get(state).add(target);
+			}
+		}
+		int states = gotos.size();
+		if (states > Character.MAX_VALUE) {
+			throw new IllegalArgumentException("too many keywords, " + states + " states");
+		}
+		parents = new char[states];
+		symbols = new char[states];
+		for (int state = 0; state < states; state++) {
+			for (int symbol = 1; symbol < width; symbol++) {
+				int child = gotos.get(state)[symbol];
+				if (child != 0) {
+					parents[child] = (char) state;
+					symbols[child] = (char) symbol;
+				}
+			}
+		}
+		this.outputs = new int[states][];
+		for (int state = 0; state < states; state++) {
+			TreeSet<Integer> output = outputs.get(state);
+			if (!output.isEmpty()) {
+				this.outputs[state] = new int[output.size()];
+				int i = 0;
+				for (Integer target : output) {
+					this.outputs[state][i++] = target;
+				}
+			}
+		}
+		targets = this.outputs.clone();
+		delta = link(parents, symbols, width, targets);
+	}
+
+	/**
+	 * Instantiates a new aho corasick from its written form.
+	 *
+	 * @param alphabet the alphabet
+	 * @param parents the parents
+	 * @param symbols the symbols
+	 * @param outputs the outputs
+	 */
+	private AhoCorasick(char[] alphabet, char[] parents, char[] symbols, int[][] outputs) {
+		this.alphabet = alphabet;
+		this.otherChars = index(alphabet, asciiIndex);
+		this.width = alphabet.length + 1;
+		this.parents = parents;
+		this.symbols = symbols;
+		this.outputs = outputs;
+		this.targets = outputs.clone();
+		this.delta = link(parents, symbols, width, targets);
+	}
+
+	/**
+	 * Index, fills the ASCII index of an alphabet.
+	 *
+	 * @param alphabet the sorted alphabet
+	 * @param asciiIndex the ASCII index to fill
+	 * @return the non ASCII chars of the alphabet
+	 */
+	private static char[] index(char[] alphabet, int[] asciiIndex) {
+		int ascii = 0;
+		while (ascii < alphabet.length && alphabet[ascii] < 128) {
+			asciiIndex[alphabet[ascii]] = ascii + 1;
+			ascii++;
+		}
+		return Arrays.copyOfRange(alphabet, ascii, alphabet.length);
+	}
+
+	/**
+	 * Link, folds the failure links of the trie into a complete transition
+	 * table and merges the targets along them.
+	 *
+	 * @param parents the parent of each state
+	 * @param symbols the symbol leading to each state
+	 * @param width the alphabet size
+	 * @param targets the targets of the keywords ending at each state, merged
+	 *            in place with the targets of its failure state
+	 * @return the transitions
+	 */
+	private static char[] link(char[] parents, char[] symbols, int width, int[][] targets) {
+		int states = parents.length;
+		char[] trie = new char[states * width];
+		for (int state = 1; state < states; state++) {
+			trie[parents[state] * width + symbols[state]] = (char) state;
+		}
+		int[] fail = new int[states];
+		char[] delta = new char[states * width];
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+		for (int symbol = 1; symbol < width; symbol++) {
+			int child = trie[symbol];
+			delta[symbol] = (char) child;
+			if (child != 0) {
+				queue.add(child);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			targets[state] = merge(targets[state], targets[fail[state]]);
+			for (int symbol = 1; symbol < width; symbol++) {
+				int child = trie[state * width + symbol];
+				if (child != 0) {
+					fail[child] = delta[fail[state] * width + symbol];
+					delta[state * width + symbol] = (char) child;
+					queue.add(child);
+				} else {
+					delta[state * width + symbol] = delta[fail[state] * width + symbol];
+				}
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * Merge.
+	 *
+	 * @param left the sorted left targets, or null
+	 * @param right the sorted right targets, or null
+	 * @return the sorted union of both, null if empty
+	 */
+	private static int[] merge(int[] left, int[] right) {
+		if (left == null || right == null) {
+			return left == null ? right : left;
+		}
+		int[] merged = new int[left.length + right.length];
+		int i = 0, j = 0, k = 0;
+		while (i < left.length || j < right.length) {
+			int next;
+			if (j == right.length || (i < left.length && left[i] < right[j])) {
+				next = left[i++];
+			} else if (i == left.length || right[j] < left[i]) {
+				next = right[j++];
+			} else {
+				next = left[i++];
+				j++;
+			}
+			merged[k++] = next;
+		}
+		return k == merged.length ? merged : Arrays.copyOf(merged, k);
+	}
+
+	/**
+	 * Write, the alphabet, the trie and the targets of the keywords ending at
+	 * every state, the transitions are worked out again on reading.
+	 *
+	 * @param out the out
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeChar(alphabet.length);
+		for (char c : alphabet) {
+			out.writeChar(c);
+		}
+		out.writeChar(parents.length);
+		for (int state = 1; state < parents.length; state++) {
+			out.writeChar(parents[state]);
+			out.writeChar(symbols[state]);
+		}
+		for (int[] output : outputs) {
+			out.writeChar(output == null ? 0 : output.length);
+			if (output != null) {
+				for (int target : output) {
+					out.writeChar(target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read.
+	 *
+	 * @param in the in
+	 * @param targetCount the number of targets
+	 * @return the aho corasick
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static AhoCorasick read(DataInput in, int targetCount) throws IOException {
+		char[] alphabet = new char[in.readChar()];
+		for (int i = 0; i < alphabet.length; i++) {
+			alphabet[i] = in.readChar();
+			if (i > 0 && alphabet[i] <= alphabet[i - 1]) {
+				throw new IllegalArgumentException("alphabet out of order");
+			}
+		}
+		int states = in.readChar();
+		if (states == 0) {
+			throw new IllegalArgumentException("no root state");
+		}
+		char[] parents = new char[states];
+		char[] symbols = new char[states];
+		for (int state = 1; state < states; state++) {
+			parents[state] = in.readChar();
+			symbols[state] = in.readChar();
+			if (parents[state] >= state || symbols[state] == 0 || symbols[state] > alphabet.length) {
+				throw new IllegalArgumentException("bad trie edge to state " + state);
+			}
+		}
+		int[][] outputs = new int[states][];
+		for (int state = 0; state < states; state++) {
+			int count = in.readChar();
+			if (count > 0) {
+				outputs[state] = new int[count];
+				for (int i = 0; i < count; i++) {
+					outputs[state][i] = in.readChar();
+					if (outputs[state][i] >= targetCount || (i > 0 && outputs[state][i] <= outputs[state][i - 1])) {
+						throw new IllegalArgumentException("bad targets in state " + state);
+					}
+				}
+			}
+		}
+		return new AhoCorasick(alphabet, parents, symbols, outputs);
+	}
+
+	/**
+	 * Of, builds an automaton from keywords given per target.
+	 *
+	 * @param keywordsByTarget the folded keywords of each target, null entries are skipped
+	 * @return the aho corasick
+	 */
+	static AhoCorasick of(List<? extends Iterable<String>> keywordsByTarget) {
+		Map<String, List<Integer>> keywords = new TreeMap<String, List<Integer>>();
+		for (int target = 0; target < keywordsByTarget.size(); target++) {
+			if (keywordsByTarget.get(target) == null) {
+				continue;
+			}
+			for (String keyword : keywordsByTarget.get(target)) {
+				List<Integer> list = keywords.get(keyword);
+				if (list == null) {
+					list = new ArrayList<Integer>();
+					keywords.put(keyword, list);
+				}
+				list.add(target);
+			}
+		}
+		return new AhoCorasick(keywords);
+	}
+
+	/**
+	 * Mark, sets marks[target] for every target whose keyword occurs in the
+	 * text.
+	 *
+	 * @param text the text
+	 * @param marks the marks
+	 */
+	void mark(CharSequence text, boolean[] marks) {
+		int state = 0;
+		for (int i = 0, length = text.length(); i < length; i++) {
+			state = delta[state * width + symbol(RequiredLiterals.fold(text.charAt(i)))];
+			int[] hits = targets[state];
+			if (hits != null) {
+				for (int target : hits) {
+					marks[target] = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * States.
+	 *
+	 * @return the number of states
+	 */
+	int states() {
+		return targets.length;
+	}
+
+	/**
+	 * Symbol.
+	 *
+	 * @param c the folded char
+	 * @return the alphabet index
+	 */
+	private int symbol(char c) {
+		if (c < 128) {
+			return asciiIndex[c];
+		}
+		int index = Arrays.binarySearch(otherChars, c);
+		return index < 0 ? 0 : width - otherChars.length + index;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Class AsciiSequence, the bytes of an agent string seen as chars without
+ * decoding them, as they come in a header from the network. Each byte is one
+ * char, as ISO-8859-1 reads it, which for the ASCII of nearly every agent
+ * string is the same. The bytes are not copied, so they must not change while
+ * the sequence is parsed; a {@link String} is built only by
+ * {@link #toString()}.
+ */
+public final class AsciiSequence implements CharSequence {
+
+	/** The array, null for a buffer without one. */
+	private final byte[] array;
+
+	/** The buffer, null when reading the array. */
+	private final ByteBuffer buffer;
+
+	/** The offset of the first byte. */
+	private final int offset;
+
+	/** The length. */
+	private final int length;
+
+	/**
+	 * Instantiates a new ascii sequence.
+	 *
+	 * @param bytes the bytes
+	 */
+	public AsciiSequence(byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Instantiates a new ascii sequence.
+	 *
+	 * @param bytes the bytes
+	 * @param offset the offset of the first byte
+	 * @param length the number of bytes
+	 */
+	public AsciiSequence(byte[] bytes, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > bytes.length - length) {
+			throw new IndexOutOfBoundsException("offset " + offset + " and length " + length
+					+ " out of " + bytes.length + " bytes");
+		}
+		this.array = bytes;
+		this.buffer = null;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Instantiates a new ascii sequence over the bytes between the position
+	 * and the limit of the buffer, neither of which is moved.
+	 *
+	 * @param buffer the buffer, heap or direct
+	 */
+	public AsciiSequence(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			this.array = buffer.array();
+			this.buffer = null;
+			this.offset = buffer.arrayOffset() + buffer.position();
+		} else {
+			this.array = null;
+			this.buffer = buffer;
+			this.offset = buffer.position();
+		}
+		this.length = buffer.remaining();
+	}
+
+	/**
+	 * Instantiates a new ascii sequence sharing the bytes of another one.
+	 *
+	 * @param sequence the sequence
+	 * @param offset the offset of the first byte
+	 * @param length the number of bytes
+	 */
+	private AsciiSequence(AsciiSequence sequence, int offset, int length) {
+		this.array = sequence.array;
+		this.buffer = sequence.buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#length()
+	 */
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#charAt(int)
+	 */
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index " + index + " out of " + length);
+		}
+		return (char) ((array != null ? array[offset + index] : buffer.get(offset + index)) & 0xff);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#subSequence(int, int)
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("start " + start + " and end " + end + " out of " + length);
+		}
+		return new AsciiSequence(this, offset + start, end - start);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		if (array != null) {
+			return new String(array, offset, length, StandardCharsets.ISO_8859_1);
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+/**
+ * The Class BudgetExceededException, unwinds a match that ran out of its
+ * {@link ParseBudget}. It carries no stack trace and a single instance is
+ * thrown, so giving up costs next to nothing.
+ */
+final class BudgetExceededException extends RuntimeException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 1L;
+
+	/** The Constant INSTANCE. */
+	static final BudgetExceededException INSTANCE = new BudgetExceededException();
+
+	/**
+	 * Instantiates a new budget exceeded exception.
+	 */
+	private BudgetExceededException() {
+		super("parse budget exceeded", null, false, false);
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+/**
+ * The Class BudgetedSequence, a string seen through a countdown of char
+ * reads. The regex engine reads every char it tries through
+ * {@link #charAt(int)}, so counting reads bounds backtracking, and checking
+ * the clock every {@link #CHECK_INTERVAL} reads bounds its time. Over budget,
+ * {@link BudgetExceededException} unwinds the match. One instance is reused
+ * per thread.
+ */
+final class BudgetedSequence implements CharSequence {
+
+	/** The Constant CHECK_INTERVAL, char reads between two budget checks. */
+	static final int CHECK_INTERVAL = 1024;
+
+	/** The Constant SEQUENCES. */
+	private static final ThreadLocal<BudgetedSequence> SEQUENCES = new ThreadLocal<BudgetedSequence>() {
+		@Override
+		protected BudgetedSequence initialValue() {
+			return new BudgetedSequence();
+		}
+	};
+
+	/** The text. */
+	private CharSequence text;
+
+	/** The reads left before the next check. */
+	private int countdown;
+
+	/** The reads left after the next check, unlimited if negative. */
+	private long steps;
+
+	/** The deadline, in {@link System#nanoTime()} terms, none if 0. */
+	private long deadline;
+
+	/**
+	 * Instantiates a new budgeted sequence.
+	 */
+	private BudgetedSequence() {
+	}
+
+	/**
+	 * Start.
+	 *
+	 * @param text the text
+	 * @param maxSteps the max steps, unlimited if 0
+	 * @param maxNanos the max nanos, unlimited if 0
+	 * @return the budgeted sequence of the current thread
+	 */
+	static BudgetedSequence start(CharSequence text, long maxSteps, long maxNanos) {
+		BudgetedSequence sequence = SEQUENCES.get();
+		sequence.text = text;
+		if (maxSteps > 0) {
+			sequence.countdown = (int) Math.min(maxSteps, CHECK_INTERVAL);
+			sequence.steps = maxSteps - sequence.countdown;
+		} else {
+			sequence.countdown = CHECK_INTERVAL;
+			sequence.steps = -1;
+		}
+		sequence.deadline = maxNanos > 0 ? System.nanoTime() + maxNanos : 0;
+		return sequence;
+	}
+
+	/**
+	 * Resume, runs on what is left of the budget last started on the thread.
+	 *
+	 * @param text the text
+	 * @return the budgeted sequence of the current thread
+	 */
+	static BudgetedSequence resume(CharSequence text) {
+		BudgetedSequence sequence = SEQUENCES.get();
+		sequence.text = text;
+		return sequence;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#charAt(int)
+	 */
+	@Override
+	public char charAt(int index) {
+		if (--countdown < 0) {
+			check();
+		}
+		return text.charAt(index);
+	}
+
+	/**
+	 * Check, throws once the budget is spent and starts the next countdown
+	 * otherwise.
+	 */
+	private void check() {
+		if (steps == 0 || (deadline != 0 && System.nanoTime() - deadline > 0)) {
+			countdown = 0;
+			throw BudgetExceededException.INSTANCE;
+		}
+		if (steps > 0) {
+			countdown = (int) Math.min(steps, CHECK_INTERVAL) - 1;
+			steps -= countdown + 1;
+		} else {
+			countdown = CHECK_INTERVAL - 1;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#length()
+	 */
+	@Override
+	public int length() {
+		return text.length();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.CharSequence#subSequence(int, int)
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return text.subSequence(start, end);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return text.toString();
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import io.gromit.uaparser.cache.Cache;
+import io.gromit.uaparser.cache.CharSequenceCache;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class CacheLookup, looks cache keys up and stores results under them.
+ * A key is copied into a string up front for a cache that is not a
+ * {@link CharSequenceCache}, and never for one that is.
+ */
+final class CacheLookup {
+
+	/**
+	 * Instantiates a new cache lookup.
+	 */
+	private CacheLookup() {
+	}
+
+	/**
+	 * Key.
+	 *
+	 * @param cache the cache
+	 * @param key the key
+	 * @return the key as the cache looks it up
+	 */
+	static CharSequence key(Cache cache, CharSequence key) {
+		return cache instanceof CharSequenceCache ? key : key.toString();
+	}
+
+	/**
+	 * User agent.
+	 *
+	 * @param cache the cache
+	 * @param key the key, from {@link #key(Cache, CharSequence)}
+	 * @return the user agent, null if missing
+	 */
+	static Browser userAgent(Cache cache, CharSequence key) {
+		if (key instanceof String) {
+			return cache.getUserAgent((String) key);
+		}
+		return ((CharSequenceCache) cache).getUserAgent(key);
+	}
+
+	/**
+	 * Os.
+	 *
+	 * @param cache the cache
+	 * @param key the key, from {@link #key(Cache, CharSequence)}
+	 * @return the os, null if missing
+	 */
+	static OS os(Cache cache, CharSequence key) {
+		if (key instanceof String) {
+			return cache.getOs((String) key);
+		}
+		return ((CharSequenceCache) cache).getOs(key);
+	}
+
+	/**
+	 * Device.
+	 *
+	 * @param cache the cache
+	 * @param key the key, from {@link #key(Cache, CharSequence)}
+	 * @return the device, null if missing
+	 */
+	static Device device(Cache cache, CharSequence key) {
+		if (key instanceof String) {
+			return cache.getDevice((String) key);
+		}
+		return ((CharSequenceCache) cache).getDevice(key);
+	}
+
+	/**
+	 * Put user agent.
+	 *
+	 * @param cache the cache
+	 * @param key the key, from {@link #key(Cache, CharSequence)}
+	 * @param userAgent the user agent
+	 */
+	static void putUserAgent(Cache cache, CharSequence key, Browser userAgent) {
+		if (key instanceof String) {
+			cache.putUserAgent((String) key, userAgent);
+		} else {
+			((CharSequenceCache) cache).putUserAgent(key, userAgent);
+		}
+	}
+
+	/**
+	 * Put os.
+	 *
+	 * @param cache the cache
+	 * @param key the key, from {@link #key(Cache, CharSequence)}
+	 * @param os the os
+	 */
+	static void putOS(Cache cache, CharSequence key, OS os) {
+		if (key instanceof String) {
+			cache.putOS((String) key, os);
+		} else {
+			((CharSequenceCache) cache).putOS(key, os);
+		}
+	}
+
+	/**
+	 * Put device.
+	 *
+	 * @param cache the cache
+	 * @param key the key, from {@link #key(Cache, CharSequence)}
+	 * @param device the device
+	 */
+	static void putDevice(Cache cache, CharSequence key, Device device) {
+		if (key instanceof String) {
+			cache.putDevice((String) key, device);
+		} else {
+			((CharSequenceCache) cache).putDevice(key, device);
+		}
+	}
+}
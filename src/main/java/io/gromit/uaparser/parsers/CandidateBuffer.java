@@ -0,0 +1,43 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+/**
+ * The Class CandidateBuffer, the candidates array a {@link PatternFilter}
+ * fills, kept per thread so parsing does not allocate one on every call.
+ */
+final class CandidateBuffer extends ThreadLocal<boolean[]> {
+
+	/** The pattern count. */
+	private final int size;
+
+	/**
+	 * Instantiates a new candidate buffer.
+	 *
+	 * @param size the pattern count
+	 */
+	CandidateBuffer(int size) {
+		this.size = size;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.ThreadLocal#initialValue()
+	 */
+	@Override
+	protected boolean[] initialValue() {
+		return new boolean[size];
+	}
+}
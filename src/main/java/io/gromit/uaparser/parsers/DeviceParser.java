@@ -18,11 +18,17 @@ package io.gromit.uaparser.parsers;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import io.gromit.uaparser.cache.Cache;
 import io.gromit.uaparser.cache.NoCache;
+import io.gromit.uaparser.metrics.DimensionMetrics;
 import io.gromit.uaparser.model.Device;
 
 /**
@@ -30,9 +36,30 @@ import io.gromit.uaparser.model.Device;
  */
 public class DeviceParser {
 
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(DeviceParser.class);
+
 	/** The patterns. */
 	private final List<DevicePattern> patterns;
 
+	/** The pattern filter. */
+	private final PatternFilter filter;
+
+	/** The candidates, one array per thread. */
+	private final CandidateBuffer candidates;
+
+	/** The matchers, one array per thread. */
+	private final MatcherBuffer matchers;
+
+	/** The pattern order, counting the wins of each pattern. */
+	private final PatternOrder patternOrder;
+
+	/** The indexes of the patterns in the order they are tried, null for list order. */
+	private final int[] order;
+
+	/** The parses given up for running out of budget, per pattern index. */
+	private final AtomicLongArray budgetExceeded;
+
 	/**
 	 * Instantiates a new device parser.
 	 *
@@ -40,7 +67,96 @@ public class DeviceParser {
 	 *            the patterns
 	 */
 	public DeviceParser(List<DevicePattern> patterns) {
+		this(patterns, MatchEngine.configured());
+	}
+
+	/**
+	 * Instantiates a new device parser.
+	 *
+	 * @param patterns
+	 *            the patterns
+	 * @param engine
+	 *            the match engine
+	 */
+	public DeviceParser(List<DevicePattern> patterns, MatchEngine engine) {
+		this(patterns, engine, null);
+	}
+
+	/**
+	 * Instantiates a new device parser.
+	 *
+	 * @param patterns
+	 *            the patterns
+	 * @param engine
+	 *            the match engine
+	 * @param index
+	 *            the literal index of the patterns, built from them when
+	 *            null and the engine needs it
+	 */
+	DeviceParser(List<DevicePattern> patterns, MatchEngine engine, LiteralIndex index) {
 		this.patterns = patterns;
+		List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+		for (DevicePattern p : patterns) {
+			regexes.add(p.pattern);
+		}
+		this.filter = engine.filter(regexes, index);
+		this.candidates = new CandidateBuffer(patterns.size());
+		this.matchers = new MatcherBuffer(regexes);
+		this.patternOrder = new PatternOrder(regexes);
+		this.order = null;
+		this.budgetExceeded = new AtomicLongArray(patterns.size());
+	}
+
+	/**
+	 * Instantiates a new device parser trying the patterns in another order.
+	 *
+	 * @param parser
+	 *            the parser to share patterns, filter and counters with
+	 * @param order
+	 *            the order, null for list order
+	 */
+	private DeviceParser(DeviceParser parser, int[] order) {
+		this.patterns = parser.patterns;
+		this.filter = parser.filter;
+		this.candidates = parser.candidates;
+		this.matchers = parser.matchers;
+		this.patternOrder = parser.patternOrder;
+		this.order = order;
+		this.budgetExceeded = parser.budgetExceeded;
+	}
+
+	/**
+	 * Reorder, moves the patterns that matched most often so far ahead of
+	 * earlier ones that provably never match the same agent strings.
+	 *
+	 * @return a parser giving the same results as this one
+	 */
+	public DeviceParser reorder() {
+		return new DeviceParser(this, patternOrder.reorder());
+	}
+
+	/**
+	 * Budget exceeded.
+	 *
+	 * @return the parses given up for running out of budget
+	 */
+	public long budgetExceeded() {
+		long total = 0;
+		for (int i = 0; i < budgetExceeded.length(); i++) {
+			total += budgetExceeded.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Budget exceeded.
+	 *
+	 * @param pattern
+	 *            the pattern index, as in the regexes file
+	 * @return the parses given up while running the pattern
+	 */
+	public long budgetExceeded(int pattern) {
+		return budgetExceeded.get(pattern);
 	}
 
 	/**
@@ -64,21 +180,113 @@ public class DeviceParser {
 	 * @return the device
 	 */
 	public Device parse(String agentString, Cache cache) {
+		return parse(agentString, cache, ParseBudget.UNLIMITED);
+	}
+
+	/**
+	 * Parses the, giving up with the result of no match once the budget is
+	 * spent.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @return the device
+	 */
+	public Device parse(String agentString, Cache cache, ParseBudget budget) {
+		return parse(agentString, cache, budget, null);
+	}
+
+	/**
+	 * Parses the, recording the cost of the parse.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @param metrics
+	 *            the metrics to record into, null for none
+	 * @return the device
+	 */
+	public Device parse(String agentString, Cache cache, ParseBudget budget, DimensionMetrics metrics) {
+		return parse(agentString, cache, budget, metrics, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the, recording the cost of the parse and extracting as much
+	 * of the result as the options ask for. The agent string is read in
+	 * place, it is copied into a string only for a cache keyed by strings.
+	 *
+	 * @param agentString
+	 *            the agent string, like a {@link String} or an
+	 *            {@link AsciiSequence} over the bytes of a header
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @param metrics
+	 *            the metrics to record into, null for none
+	 * @param options
+	 *            how much of the result to extract
+	 * @return the device
+	 */
+	public Device parse(CharSequence agentString, Cache cache, ParseBudget budget, DimensionMetrics metrics,
+			ParseOptions options) {
 		if (agentString == null) {
 			return null;
 		}
-		Device device = cache.getDevice(agentString);
+		long start = metrics == null ? 0 : metrics.start();
+		CharSequence key = CacheLookup.key(cache, options.cacheKey(agentString));
+		Device device = CacheLookup.device(cache, key);
 		if (device != null) {
+			if (metrics != null) {
+				metrics.hit(start);
+			}
 			return device;
 		}
-		for (DevicePattern p : patterns) {
-			if ((device = p.match(agentString)) != null) {
-				cache.putDevice(agentString, device);
+		CharSequence input = budget.truncate(agentString);
+		CharSequence sequence = budget.sequence(input);
+		boolean[] candidates = this.candidates.get();
+		filter.candidates(input, candidates);
+		int[] order = this.order != null && PatternOrder.reorderable(input) ? this.order : null;
+		int evaluated = 0;
+		for (int k = 0; k < candidates.length; k++) {
+			int i = order == null ? k : order[k];
+			if (!candidates[i]) {
+				continue;
+			}
+			evaluated++;
+			Matcher matcher = matchers.matcher(i, sequence);
+			try {
+				device = patterns.get(i).match(input, matcher, options);
+			} catch (BudgetExceededException e) {
+				budgetExceeded.incrementAndGet(i);
+				logger.debug("parse budget exceeded by pattern {} on {}", i, agentString);
+				if (metrics != null) {
+					metrics.overBudget(start, evaluated);
+				}
+				return Device.OTHER;
+			} finally {
+				MatcherBuffer.release(matcher);
+			}
+			if (device != null) {
+				patternOrder.hit(i);
+				CacheLookup.putDevice(cache, key, device);
+				if (metrics != null) {
+					metrics.matched(start, evaluated);
+				}
 				return device;
 			}
 		}
-		device = new Device("Other", null, null);
-		cache.putDevice(agentString, device);
+		device = Device.OTHER;
+		CacheLookup.putDevice(cache, key, device);
+		if (metrics != null) {
+			metrics.fellThrough(start, evaluated);
+		}
 		return device;
 	}
 
@@ -90,11 +298,58 @@ public class DeviceParser {
 	 * @return the device parser
 	 */
 	public static DeviceParser fromList(List<Map<String, String>> configList) {
-		List<DevicePattern> configPatterns = new ArrayList<DevicePattern>();
-		for (Map<String, String> configMap : configList) {
-			configPatterns.add(DeviceParser.patternFromMap(configMap));
+		return fromList(configList, MatchEngine.configured());
+	}
+
+	/**
+	 * From list.
+	 *
+	 * @param configList
+	 *            the config list
+	 * @param engine
+	 *            the match engine
+	 * @return the device parser
+	 */
+	public static DeviceParser fromList(List<Map<String, String>> configList, MatchEngine engine) {
+		return fromList(configList, engine, null);
+	}
+
+	/**
+	 * From list, compiling the patterns in parallel when called from a
+	 * ForkJoin task.
+	 *
+	 * @param configList
+	 *            the config list
+	 * @param engine
+	 *            the match engine
+	 * @param index
+	 *            the literal index of the patterns, null to build it
+	 * @return the device parser
+	 */
+	static DeviceParser fromList(List<Map<String, String>> configList, MatchEngine engine, LiteralIndex index) {
+		List<DevicePattern> configPatterns = ForkJoinMap.map(configList, new Function<Map<String, String>, DevicePattern>() {
+			@Override
+			public DevicePattern apply(Map<String, String> configMap) {
+				return DeviceParser.patternFromMap(configMap);
+			}
+		});
+		return new DeviceParser(configPatterns, engine, index);
+	}
+
+	/**
+	 * Literal index.
+	 *
+	 * @return the literal index of the patterns
+	 */
+	LiteralIndex literalIndex() {
+		if (filter instanceof LiteralIndex) {
+			return (LiteralIndex) filter;
 		}
-		return new DeviceParser(configPatterns);
+		List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+		for (DevicePattern p : patterns) {
+			regexes.add(p.pattern);
+		}
+		return LiteralIndex.build(regexes);
 	}
 
 	/**
@@ -132,20 +387,17 @@ public class DeviceParser {
 	 */
 	protected static class DevicePattern {
 
-		/** The Constant GROUP_PATTERN. */
-		private static final Pattern GROUP_PATTERN = Pattern.compile("\\$(\\d+)");
-
 		/** The pattern. */
 		private final Pattern pattern;
-		
-		/** The family replacement. */
-		private final String familyReplacement;
-		
-		/** The brand replacement. */
-		private final String brandReplacement;
-		
-		/** The model replacement. */
-		private final String modelReplacement;
+
+		/** The family template. */
+		private final ReplacementTemplate familyTemplate;
+
+		/** The brand template, null without brand replacement. */
+		private final ReplacementTemplate brandTemplate;
+
+		/** The model template. */
+		private final ReplacementTemplate modelTemplate;
 
 		/**
 		 * Instantiates a new device pattern.
@@ -158,60 +410,42 @@ public class DeviceParser {
 		public DevicePattern(Pattern pattern, String familyReplacement, String brandReplacement,
 				String modelReplacement) {
 			this.pattern = pattern;
-			this.familyReplacement = familyReplacement;
-			this.brandReplacement = brandReplacement;
-			this.modelReplacement = modelReplacement;
+			this.familyTemplate = template(familyReplacement, 1);
+			this.brandTemplate = template(brandReplacement, -1);
+			this.modelTemplate = template(modelReplacement, 1);
 		}
 
 		/**
-		 * Perform replacement.
+		 * Template.
 		 *
-		 * @param matcher the matcher
 		 * @param replacement the replacement
-		 * @return the string
+		 * @param position the group used without replacement, none if not positive
+		 * @return the replacement template, null if there is nothing to replace
 		 */
-		private String performReplacement(Matcher matcher, String replacement) {
-			int count = matcher.groupCount();
-			StringBuffer buffer = new StringBuffer();
-			Matcher replaceMatcher = GROUP_PATTERN.matcher(replacement);
-			while (replaceMatcher.find()) {
-				String group = null;
-				try {
-					int id = Integer.parseInt(replaceMatcher.group(1));
-					if (id >= 0 && id <= count) {
-						group = matcher.group(id);
-					}
-				} catch (NumberFormatException ignored) {
-				} catch (IllegalArgumentException ignored) {
-				} catch (IndexOutOfBoundsException ignored) {
+		private static ReplacementTemplate template(String replacement, int position) {
+			if (replacement == null) {
+				if (position > 0) {
+					replacement = "$" + position;
+				} else {
+					return null;
 				}
-				replaceMatcher.appendReplacement(buffer, group == null ? "" : Matcher.quoteReplacement(group));
 			}
-			replacement = buffer.toString();
-			return replacement;
+			return ReplacementTemplate.compile(replacement);
 		}
 
 		/**
 		 * Replace.
 		 *
+		 * @param agentString the agent string
 		 * @param matcher the matcher
-		 * @param replacement the replacement
-		 * @param position the position
+		 * @param template the template
 		 * @return the string
 		 */
-		private String replace(Matcher matcher, String replacement, int position) {
-			if (replacement == null) {
-				if (position > 0) {
-					replacement = "$" + position;
-				} else {
-					return null;
-				}
-			}
-
-			if (replacement.contains("$")) {
-				replacement = performReplacement(matcher, replacement);
+		private String replace(CharSequence agentString, Matcher matcher, ReplacementTemplate template) {
+			if (template == null) {
+				return null;
 			}
-			replacement = replacement.trim();
+			String replacement = template.expand(agentString, matcher).trim();
 			if (replacement.length() == 0) {
 				return null;
 			} else {
@@ -226,23 +460,43 @@ public class DeviceParser {
 		 * @return the device
 		 */
 		public Device match(String agentString) {
+			return match(agentString, agentString);
+		}
 
-			Matcher matcher = pattern.matcher(agentString);
+		/**
+		 * Match.
+		 *
+		 * @param agentString the agent string
+		 * @param input the agent string as the pattern reads it
+		 * @return the device
+		 */
+		Device match(CharSequence agentString, CharSequence input) {
+			return match(agentString, pattern.matcher(input), ParseOptions.FULL);
+		}
 
+		/**
+		 * Match, extracting as much of the result as the options ask for,
+		 * devices have no versions, only {@link ParseOptions#FAMILIES} leaves
+		 * the brand and model out.
+		 *
+		 * @param agentString the agent string
+		 * @param matcher the matcher of the pattern, reset to the agent string as
+		 *            the pattern reads it
+		 * @param options the options
+		 * @return the device
+		 */
+		Device match(CharSequence agentString, Matcher matcher, ParseOptions options) {
 			if (!matcher.find()) {
 				return null;
 			}
 
-			String family = replace(matcher, familyReplacement, 1);
-			String brand = replace(matcher, brandReplacement, -1);
-			String model = replace(matcher, modelReplacement, 1);
-
-			if (family != null) {
-				return new Device(family, brand, model);
-			} else {
-				return null;
+			String family = replace(agentString, matcher, familyTemplate);
+			if (family == null || options == ParseOptions.FAMILIES) {
+				return family == null ? null : ResultInterner.device(family, null, null);
 			}
-
+			String brand = replace(agentString, matcher, brandTemplate);
+			String model = replace(agentString, matcher, modelTemplate);
+			return ResultInterner.device(family, brand, model);
 		}
 
 	}
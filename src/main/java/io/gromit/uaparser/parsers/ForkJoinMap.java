@@ -0,0 +1,123 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * The Class ForkJoinMap, maps the items of a list in order. Called from a
+ * task of a {@link java.util.concurrent.ForkJoinPool} the list is split in
+ * subtasks the other workers of the pool can steal, otherwise it is mapped
+ * one item after the other on the calling thread.
+ */
+final class ForkJoinMap {
+
+	/** The Constant THRESHOLD, the items left to a task before it stops splitting. */
+	static final int THRESHOLD = 16;
+
+	/**
+	 * Instantiates a new fork join map.
+	 */
+	private ForkJoinMap() {
+	}
+
+	/**
+	 * Map.
+	 *
+	 * @param <S> the source type
+	 * @param <T> the target type
+	 * @param items the items
+	 * @param function the function
+	 * @return the results, in the order of the items
+	 */
+	static <S, T> List<T> map(List<S> items, Function<? super S, ? extends T> function) {
+		Object[] results = new Object[items.size()];
+		if (ForkJoinTask.inForkJoinPool()) {
+			new MapTask<S>(items, function, results, 0, results.length).invoke();
+		} else {
+			for (int i = 0; i < results.length; i++) {
+				results[i] = function.apply(items.get(i));
+			}
+		}
+		@SuppressWarnings("unchecked")
+		List<T> mapped = (List<T>) Arrays.asList(results);
+		return new ArrayList<T>(mapped);
+	}
+
+	/**
+	 * The Class MapTask, maps a range of the items.
+	 *
+	 * @param <S> the source type
+	 */
+	private static final class MapTask<S> extends RecursiveAction {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/** The items. */
+		private final List<S> items;
+
+		/** The function. */
+		private final Function<? super S, ?> function;
+
+		/** The results. */
+		private final Object[] results;
+
+		/** The from index, inclusive. */
+		private final int from;
+
+		/** The to index, exclusive. */
+		private final int to;
+
+		/**
+		 * Instantiates a new map task.
+		 *
+		 * @param items the items
+		 * @param function the function
+		 * @param results the results
+		 * @param from the from
+		 * @param to the to
+		 */
+		MapTask(List<S> items, Function<? super S, ?> function, Object[] results, int from, int to) {
+			this.items = items;
+			this.function = function;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					results[i] = function.apply(items.get(i));
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new MapTask<S>(items, function, results, from, middle),
+					new MapTask<S>(items, function, results, middle, to));
+		}
+	}
+}
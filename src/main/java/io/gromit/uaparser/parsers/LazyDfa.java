@@ -0,0 +1,927 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.gromit.uaparser.parsers.RegexNode.Alternation;
+import io.gromit.uaparser.parsers.RegexNode.Assertion;
+import io.gromit.uaparser.parsers.RegexNode.CharSet;
+import io.gromit.uaparser.parsers.RegexNode.Concat;
+import io.gromit.uaparser.parsers.RegexNode.Group;
+import io.gromit.uaparser.parsers.RegexNode.Repeat;
+
+/**
+ * The Class LazyDfa, compiles a whole ordered pattern list into one automaton
+ * and reports, in a single pass over the agent string, which patterns match.
+ * <p>
+ * The patterns are joined into one Thompson NFA whose DFA states are built on
+ * demand and cached, so a scan costs one table lookup per char once the
+ * automaton is warm, whatever the number of patterns. The automaton only
+ * decides which patterns match; the parsers still run the winning
+ * {@link Pattern} to extract groups. Where matching in one pass is not exact
+ * the automaton over approximates: counted repetitions above
+ * {@link #MAX_REPEAT} become unbounded, word boundaries always hold and atomic
+ * groups backtrack. Patterns with lookaround or back references are not
+ * compiled at all and go through the {@link LiteralIndex} instead.
+ * <p>
+ * The state cache is dropped and rebuilt once it holds
+ * {@link MatchEngine#DFA_STATES_PROPERTY} states, {@link #MAX_CACHED_STATES}
+ * by default.
+ */
+final class LazyDfa implements PatternFilter {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(LazyDfa.class);
+
+	/** The Constant MAX_REPEAT, copies of a counted repetition kept exact. */
+	static final int MAX_REPEAT = 16;
+
+	/** The Constant MAX_PATTERN_STATES, NFA states allowed for one pattern. */
+	static final int MAX_PATTERN_STATES = 4096;
+
+	/** The Constant MAX_CACHED_STATES, DFA states cached before starting over. */
+	static final int MAX_CACHED_STATES = 32768;
+
+	/** The Constant CHAR, a state consuming one char of its class set. */
+	private static final byte CHAR = 0;
+
+	/** The Constant SPLIT, an epsilon state with two outs. */
+	private static final byte SPLIT = 1;
+
+	/** The Constant BEGIN, passes at the start of input only. */
+	private static final byte BEGIN = 2;
+
+	/** The Constant END, passes at the end of input or over a line terminator. */
+	private static final byte END = 3;
+
+	/** The Constant ACCEPT, a pattern has matched. */
+	private static final byte ACCEPT = 4;
+
+	/** The Constant LINE_TERMINATORS. */
+	private static final int[] LINE_TERMINATORS = { '\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029 };
+
+	/** The pattern count. */
+	private final int size;
+
+	/** The DFA states cached before starting over. */
+	private final int maxCachedStates;
+
+	/** The literal index, for patterns left out of the automaton and for surrogates. */
+	private final LiteralIndex literals;
+
+	/** The patterns left out of the automaton. */
+	private final int[] fallbacks;
+
+	/** Whether each pattern is left out of the automaton. */
+	private final boolean[] fallback;
+
+	/** The first char of each alphabet class above ASCII, sorted. */
+	private final int[] boundaries;
+
+	/** The alphabet class of each ASCII char. */
+	private final int[] asciiClasses = new int[128];
+
+	/** The alphabet classes made of line terminators. */
+	private final BitSet lineTerminators;
+
+	/** The NFA state kinds. */
+	private final byte[] kinds;
+
+	/** The NFA first outs. */
+	private final int[] out1;
+
+	/** The NFA second outs, for split states. */
+	private final int[] out2;
+
+	/** The alphabet classes consumed by char states, pattern index for accept states. */
+	private final BitSet[] classes;
+
+	/** The accepted pattern of accept states. */
+	private final int[] patternOf;
+
+	/** The NFA states every scan position starts from. */
+	private final int[] starts;
+
+	/** The important states always present, the unanchored start closure. */
+	private final boolean[] unanchored;
+
+	/** The patterns accepted and accepted at end by the unanchored states alone. */
+	private final int[] alwaysAccepts, alwaysEndAccepts;
+
+	/** The states reached from the unanchored states, per alphabet class. */
+	private final int[][] unanchoredMoves;
+
+	/** The closure work stamps. */
+	private final int[] stamps;
+
+	/** The closure work stack. */
+	private final int[] stack;
+
+	/** The current closure stamp. */
+	private int stamp;
+
+	/** The DFA cache. */
+	private volatile Cache cache;
+
+	/**
+	 * Instantiates a new lazy dfa.
+	 *
+	 * @param patterns the patterns
+	 */
+	LazyDfa(List<Pattern> patterns) {
+		this.size = patterns.size();
+		this.maxCachedStates = Math.max(1, Integer.getInteger(MatchEngine.DFA_STATES_PROPERTY, MAX_CACHED_STATES));
+		this.literals = LiteralIndex.build(patterns);
+
+		// parse, keeping the patterns the automaton can take
+		List<RegexNode> nodes = new ArrayList<RegexNode>(size);
+		List<Integer> left = new ArrayList<Integer>();
+		List<int[]> ranges = new ArrayList<int[]>();
+		ranges.add(LINE_TERMINATORS);
+		for (int i = 0; i < size; i++) {
+			RegexNode node = null;
+			try {
+				node = RegexParser.parse(patterns.get(i));
+				if (!supported(node, ranges)) {
+					node = null;
+				}
+			} catch (IllegalArgumentException e) {
+				logger.debug("pattern {} left out of the automaton: {}", patterns.get(i), e.getMessage());
+			}
+			nodes.add(node);
+		}
+
+		// alphabet classes, the coarsest partition of chars no char set splits
+		TreeSet<Integer> cuts = new TreeSet<Integer>();
+		cuts.add(0);
+		for (int[] r : ranges) {
+			for (int i = 0; i < r.length; i += 2) {
+				cuts.add(r[i]);
+				if (r[i + 1] < RegexParser.MAX_CHAR) {
+					cuts.add(r[i + 1] + 1);
+				}
+			}
+		}
+		boundaries = new int[cuts.size()];
+		int k = 0;
+		for (Integer cut : cuts) {
+			boundaries[k++] = cut;
+		}
+		for (char c = 0; c < 128; c++) {
+			asciiClasses[c] = classOf(c);
+		}
+		lineTerminators = classSet(LINE_TERMINATORS);
+
+		// NFA, built backwards from one accept state per pattern
+		Nfa nfa = new Nfa();
+		List<Integer> startList = new ArrayList<Integer>();
+		Map<String, BitSet> classSets = new HashMap<String, BitSet>();
+		for (int i = 0; i < size; i++) {
+			if (nodes.get(i) == null) {
+				left.add(i);
+				continue;
+			}
+			int mark = nfa.size();
+			int accept = nfa.add(ACCEPT, -1, -1, null, i);
+			int start = compile(nodes.get(i), accept, nfa, classSets, mark + MAX_PATTERN_STATES);
+			if (nfa.size() - mark > MAX_PATTERN_STATES) {
+				logger.debug("pattern {} left out of the automaton: too large", patterns.get(i));
+				nfa.truncate(mark);
+				left.add(i);
+				continue;
+			}
+			startList.add(start);
+		}
+		kinds = nfa.kinds();
+		out1 = nfa.out1();
+		out2 = nfa.out2();
+		classes = nfa.classes.toArray(new BitSet[0]);
+		patternOf = nfa.patterns();
+		starts = toArray(startList);
+		fallbacks = toArray(left);
+		fallback = new boolean[size];
+		for (int i : fallbacks) {
+			fallback[i] = true;
+		}
+		stamps = new int[kinds.length];
+		stack = new int[kinds.length];
+
+		// unanchored start set, present at every position after the first
+		unanchored = new boolean[kinds.length];
+		for (int state : closure(starts, starts.length, false, false, null)) {
+			unanchored[state] = true;
+		}
+		List<Integer> unanchoredStates = new ArrayList<Integer>();
+		for (int state = 0; state < unanchored.length; state++) {
+			if (unanchored[state]) {
+				unanchoredStates.add(state);
+			}
+		}
+		int[] always = toArray(unanchoredStates);
+		alwaysAccepts = accepts(always);
+		alwaysEndAccepts = endAccepts(always);
+		unanchoredMoves = new int[boundaries.length][];
+		for (int cls = 0; cls < boundaries.length; cls++) {
+			unanchoredMoves[cls] = move(always, cls);
+		}
+		cache = new Cache(newState(closure(starts, starts.length, true, false, unanchored)));
+		logger.debug("automaton for {} patterns: {} NFA states, {} classes, {} left out", size, kinds.length,
+				boundaries.length, fallbacks.length);
+	}
+
+	/**
+	 * Candidates.
+	 *
+	 * @param agentString the agent string
+	 * @return the patterns that may match, indexed as the pattern list
+	 */
+	boolean[] candidates(CharSequence agentString) {
+		boolean[] candidates = new boolean[size];
+		candidates(agentString, candidates);
+		return candidates;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.parsers.PatternFilter#candidates(java.lang.CharSequence, boolean[])
+	 */
+	@Override
+	public void candidates(CharSequence agentString, boolean[] candidates) {
+		if (fallbacks.length > 0) {
+			literals.candidates(agentString, candidates);
+			for (int i = 0; i < size; i++) {
+				candidates[i] &= fallback[i];
+			}
+		} else {
+			Arrays.fill(candidates, false);
+		}
+		mark(alwaysAccepts, candidates);
+		State state = cache.start;
+		mark(state.accepts, candidates);
+		for (int i = 0, length = agentString.length(); i < length; i++) {
+			char c = agentString.charAt(i);
+			if (Character.isSurrogate(c)) {
+				// Pattern matches code points, this automaton matches chars
+				literals.candidates(agentString, candidates);
+				return;
+			}
+			int cls = c < 128 ? asciiClasses[c] : classOf(c);
+			State next = state.next[cls];
+			if (next == null) {
+				next = step(state, cls);
+			}
+			state = next;
+			mark(state.accepts, candidates);
+		}
+		mark(state.endAccepts, candidates);
+		mark(alwaysEndAccepts, candidates);
+	}
+
+	/**
+	 * Cached states.
+	 *
+	 * @return the number of DFA states built so far
+	 */
+	synchronized int cachedStates() {
+		return cache.states.size();
+	}
+
+	/**
+	 * Fallbacks.
+	 *
+	 * @return the patterns left out of the automaton
+	 */
+	int[] fallbacks() {
+		return fallbacks.clone();
+	}
+
+	/**
+	 * May match together, explores every input up to the given number of
+	 * DFA states looking for one both patterns find a match in. As the
+	 * automaton over approximates, false means no such input exists at all.
+	 *
+	 * @param first the first pattern
+	 * @param second the second pattern
+	 * @param maxStates the DFA states to explore before giving up
+	 * @return true, if some input may be matched by both or the search gave up
+	 */
+	boolean mayMatchTogether(int first, int second, int maxStates) {
+		if (fallback[first] || fallback[second]) {
+			return true;
+		}
+		int both = 3;
+		Map<State, boolean[]> seen = new IdentityHashMap<State, boolean[]>();
+		Deque<State> states = new ArrayDeque<State>();
+		Deque<Integer> masks = new ArrayDeque<Integer>();
+		State start = cache.start;
+		int startMask = mask(alwaysAccepts, first, second) | mask(start.accepts, first, second);
+		seen.put(start, new boolean[both + 1]);
+		seen.get(start)[startMask] = true;
+		states.add(start);
+		masks.add(startMask);
+		while (!states.isEmpty()) {
+			State state = states.poll();
+			int mask = masks.poll();
+			if ((mask | mask(state.endAccepts, first, second) | mask(alwaysEndAccepts, first, second)) == both) {
+				return true;
+			}
+			for (int cls = 0; cls < boundaries.length; cls++) {
+				State next = state.next[cls];
+				if (next == null) {
+					next = step(state, cls);
+				}
+				int nextMask = mask | mask(next.accepts, first, second);
+				if (nextMask == both) {
+					return true;
+				}
+				boolean[] seenMasks = seen.get(next);
+				if (seenMasks == null) {
+					if (seen.size() >= maxStates) {
+						return true;
+					}
+					seenMasks = new boolean[both + 1];
+					seen.put(next, seenMasks);
+				}
+				if (!seenMasks[nextMask]) {
+					seenMasks[nextMask] = true;
+					states.add(next);
+					masks.add(nextMask);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mask.
+	 *
+	 * @param patterns the accepted patterns, null if none
+	 * @param first the first pattern
+	 * @param second the second pattern
+	 * @return bit 0 set if the first is accepted, bit 1 if the second is
+	 */
+	private static int mask(int[] patterns, int first, int second) {
+		int mask = 0;
+		if (patterns != null) {
+			for (int pattern : patterns) {
+				mask |= pattern == first ? 1 : pattern == second ? 2 : 0;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Step, builds the transition of a state on an alphabet class.
+	 *
+	 * @param state the state
+	 * @param cls the alphabet class
+	 * @return the next state
+	 */
+	private synchronized State step(State state, int cls) {
+		State next = state.next[cls];
+		if (next != null) {
+			return next;
+		}
+		int[] moved = move(state.nfa, cls);
+		int[] fromStart = unanchoredMoves[cls];
+		int[] seeds = Arrays.copyOf(moved, moved.length + fromStart.length);
+		System.arraycopy(fromStart, 0, seeds, moved.length, fromStart.length);
+		int[] nfa = closure(seeds, seeds.length, false, false, unanchored);
+		Cache current = cache;
+		if (current.states.size() >= maxCachedStates) {
+			logger.debug("automaton cache full, starting over");
+			current = new Cache(newState(current.start.nfa));
+			cache = current;
+		}
+		Key key = new Key(nfa);
+		next = current.states.get(key);
+		if (next == null) {
+			next = newState(nfa);
+			current.states.put(key, next);
+		}
+		state.next[cls] = next;
+		return next;
+	}
+
+	/**
+	 * New state.
+	 *
+	 * @param nfa the important NFA states
+	 * @return the state
+	 */
+	private State newState(int[] nfa) {
+		return new State(nfa, accepts(nfa), endAccepts(nfa), boundaries.length);
+	}
+
+	/**
+	 * Move, the states reached consuming a char of the class.
+	 *
+	 * @param nfa the important NFA states
+	 * @param cls the alphabet class
+	 * @return the states
+	 */
+	private int[] move(int[] nfa, int cls) {
+		int[] moved = new int[nfa.length];
+		int count = 0;
+		for (int state : nfa) {
+			if ((kinds[state] == CHAR && classes[state].get(cls))
+					|| (kinds[state] == END && lineTerminators.get(cls))) {
+				moved[count++] = out1[state];
+			}
+		}
+		return Arrays.copyOf(moved, count);
+	}
+
+	/**
+	 * Closure, follows epsilon moves and keeps the states that consume input
+	 * or accept.
+	 *
+	 * @param seeds the seeds
+	 * @param count the seed count
+	 * @param atStart whether the closure is taken at the start of input
+	 * @param atEnd whether the closure is taken at the end of input
+	 * @param skip the states to leave out, null for none
+	 * @return the sorted important states
+	 */
+	private int[] closure(int[] seeds, int count, boolean atStart, boolean atEnd, boolean[] skip) {
+		if (++stamp == 0) {
+			Arrays.fill(stamps, 0);
+			stamp = 1;
+		}
+		int[] result = new int[16];
+		int size = 0;
+		int top = 0;
+		for (int i = 0; i < count; i++) {
+			if (stamps[seeds[i]] != stamp) {
+				stamps[seeds[i]] = stamp;
+				stack[top++] = seeds[i];
+			}
+		}
+		while (top > 0) {
+			int state = stack[--top];
+			if (kinds[state] == END && atEnd) {
+				top = push(out1[state], top);
+				continue;
+			}
+			switch (kinds[state]) {
+			case SPLIT:
+				top = push(out2[state], top);
+				top = push(out1[state], top);
+				break;
+			case BEGIN:
+				if (atStart) {
+					top = push(out1[state], top);
+				}
+				break;
+			default:
+				// an end not at the end is kept too, as it may consume a line terminator
+				if (skip == null || !skip[state]) {
+					if (size == result.length) {
+						result = Arrays.copyOf(result, size * 2);
+					}
+					result[size++] = state;
+				}
+			}
+		}
+		result = Arrays.copyOf(result, size);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Push.
+	 *
+	 * @param state the state
+	 * @param top the top
+	 * @return the new top
+	 */
+	private int push(int state, int top) {
+		if (state >= 0 && stamps[state] != stamp) {
+			stamps[state] = stamp;
+			stack[top++] = state;
+		}
+		return top;
+	}
+
+	/**
+	 * Accepts.
+	 *
+	 * @param nfa the important NFA states
+	 * @return the accepted patterns, null if none
+	 */
+	private int[] accepts(int[] nfa) {
+		int[] accepts = new int[nfa.length];
+		int count = 0;
+		for (int state : nfa) {
+			if (kinds[state] == ACCEPT) {
+				accepts[count++] = patternOf[state];
+			}
+		}
+		return count == 0 ? null : Arrays.copyOf(accepts, count);
+	}
+
+	/**
+	 * End accepts, the patterns accepted if the input ends here.
+	 *
+	 * @param nfa the important NFA states
+	 * @return the accepted patterns, null if none
+	 */
+	private int[] endAccepts(int[] nfa) {
+		int[] seeds = new int[nfa.length];
+		int count = 0;
+		for (int state : nfa) {
+			if (kinds[state] == END) {
+				seeds[count++] = out1[state];
+			}
+		}
+		// taken as if at the start too, which only ever reports more patterns
+		return count == 0 ? null : accepts(closure(seeds, count, true, true, null));
+	}
+
+	/**
+	 * Mark.
+	 *
+	 * @param patterns the patterns
+	 * @param candidates the candidates
+	 */
+	private static void mark(int[] patterns, boolean[] candidates) {
+		if (patterns != null) {
+			for (int pattern : patterns) {
+				candidates[pattern] = true;
+			}
+		}
+	}
+
+	/**
+	 * Class of.
+	 *
+	 * @param c the c
+	 * @return the alphabet class
+	 */
+	private int classOf(int c) {
+		int index = Arrays.binarySearch(boundaries, c);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/**
+	 * Class set.
+	 *
+	 * @param ranges the ranges
+	 * @return the alphabet classes inside the ranges
+	 */
+	private BitSet classSet(int[] ranges) {
+		BitSet set = new BitSet(boundaries.length);
+		for (int i = 0; i < ranges.length; i += 2) {
+			set.set(classOf(ranges[i]), classOf(ranges[i + 1]) + 1);
+		}
+		return set;
+	}
+
+	/**
+	 * Supported, checks the tree can go into the automaton and collects its
+	 * char sets.
+	 *
+	 * @param node the node
+	 * @param ranges the ranges
+	 * @return true, if supported
+	 */
+	private static boolean supported(RegexNode node, List<int[]> ranges) {
+		if (node instanceof CharSet) {
+			ranges.add(((CharSet) node).ranges);
+			return true;
+		}
+		if (node instanceof Concat) {
+			for (RegexNode child : ((Concat) node).children) {
+				if (!supported(child, ranges)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (node instanceof Alternation) {
+			for (RegexNode alternative : ((Alternation) node).alternatives) {
+				if (!supported(alternative, ranges)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (node instanceof Repeat) {
+			return supported(((Repeat) node).child, ranges);
+		}
+		if (node instanceof Group) {
+			return supported(((Group) node).child, ranges);
+		}
+		if (node instanceof Assertion) {
+			return ((Assertion) node).kind != Assertion.Kind.LOOKAROUND;
+		}
+		return false;
+	}
+
+	/**
+	 * Compile, adds the states of a node in front of the given next state.
+	 *
+	 * @param node the node
+	 * @param next the next state
+	 * @param nfa the nfa
+	 * @param classSets the class sets already built, by ranges
+	 * @param limit the NFA size past which the pattern is dropped
+	 * @return the first state of the node
+	 */
+	private int compile(RegexNode node, int next, Nfa nfa, Map<String, BitSet> classSets, int limit) {
+		if (nfa.size() > limit) {
+			// the caller drops the pattern, stop growing
+			return next;
+		}
+		if (node instanceof CharSet) {
+			int[] ranges = ((CharSet) node).ranges;
+			String key = Arrays.toString(ranges);
+			BitSet set = classSets.get(key);
+			if (set == null) {
+				set = classSet(ranges);
+				classSets.put(key, set);
+			}
+			return nfa.add(CHAR, next, -1, set, -1);
+		}
+		if (node instanceof Concat) {
+			List<RegexNode> children = ((Concat) node).children;
+			for (int i = children.size() - 1; i >= 0; i--) {
+				next = compile(children.get(i), next, nfa, classSets, limit);
+			}
+			return next;
+		}
+		if (node instanceof Alternation) {
+			List<RegexNode> alternatives = ((Alternation) node).alternatives;
+			int first = compile(alternatives.get(alternatives.size() - 1), next, nfa, classSets, limit);
+			for (int i = alternatives.size() - 2; i >= 0; i--) {
+				first = nfa.add(SPLIT, compile(alternatives.get(i), next, nfa, classSets, limit), first, null, -1);
+			}
+			return first;
+		}
+		if (node instanceof Repeat) {
+			Repeat repeat = (Repeat) node;
+			int min = Math.min(repeat.min, MAX_REPEAT);
+			int max = repeat.max == Repeat.UNBOUNDED || repeat.max > MAX_REPEAT ? Repeat.UNBOUNDED : repeat.max;
+			if (max == Repeat.UNBOUNDED) {
+				int loop = nfa.add(SPLIT, -1, next, null, -1);
+				nfa.out1.set(loop, compile(repeat.child, loop, nfa, classSets, limit));
+				next = loop;
+			} else {
+				for (int i = min; i < max; i++) {
+					next = nfa.add(SPLIT, compile(repeat.child, next, nfa, classSets, limit), next, null, -1);
+				}
+			}
+			for (int i = 0; i < min; i++) {
+				next = compile(repeat.child, next, nfa, classSets, limit);
+			}
+			return next;
+		}
+		if (node instanceof Group) {
+			return compile(((Group) node).child, next, nfa, classSets, limit);
+		}
+		Assertion assertion = (Assertion) node;
+		switch (assertion.kind) {
+		case BEGIN_INPUT:
+			return nfa.add(BEGIN, next, -1, null, -1);
+		case END_INPUT:
+			return nfa.add(END, next, -1, null, -1);
+		default:
+			return next;
+		}
+	}
+
+	/**
+	 * To array.
+	 *
+	 * @param list the list
+	 * @return the int[]
+	 */
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * The Class Nfa, the growing state lists while compiling.
+	 */
+	private static final class Nfa {
+
+		/** The kinds. */
+		private final List<Byte> kinds = new ArrayList<Byte>();
+
+		/** The out1. */
+		private final List<Integer> out1 = new ArrayList<Integer>();
+
+		/** The out2. */
+		private final List<Integer> out2 = new ArrayList<Integer>();
+
+		/** The classes. */
+		private final List<BitSet> classes = new ArrayList<BitSet>();
+
+		/** The patterns. */
+		private final List<Integer> patterns = new ArrayList<Integer>();
+
+		/**
+		 * Adds a state.
+		 *
+		 * @param kind the kind
+		 * @param out1 the out1
+		 * @param out2 the out2
+		 * @param classes the classes
+		 * @param pattern the pattern
+		 * @return the state
+		 */
+		private int add(byte kind, int out1, int out2, BitSet classes, int pattern) {
+			kinds.add(kind);
+			this.out1.add(out1);
+			this.out2.add(out2);
+			this.classes.add(classes);
+			patterns.add(pattern);
+			return kinds.size() - 1;
+		}
+
+		/**
+		 * Size.
+		 *
+		 * @return the int
+		 */
+		private int size() {
+			return kinds.size();
+		}
+
+		/**
+		 * Truncate.
+		 *
+		 * @param size the size
+		 */
+		private void truncate(int size) {
+			kinds.subList(size, kinds.size()).clear();
+			out1.subList(size, out1.size()).clear();
+			out2.subList(size, out2.size()).clear();
+			classes.subList(size, classes.size()).clear();
+			patterns.subList(size, patterns.size()).clear();
+		}
+
+		/**
+		 * Kinds.
+		 *
+		 * @return the byte[]
+		 */
+		private byte[] kinds() {
+			byte[] array = new byte[kinds.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = kinds.get(i);
+			}
+			return array;
+		}
+
+		/**
+		 * Out1.
+		 *
+		 * @return the int[]
+		 */
+		private int[] out1() {
+			return toArray(out1);
+		}
+
+		/**
+		 * Out2.
+		 *
+		 * @return the int[]
+		 */
+		private int[] out2() {
+			return toArray(out2);
+		}
+
+		/**
+		 * Patterns.
+		 *
+		 * @return the int[]
+		 */
+		private int[] patterns() {
+			return toArray(patterns);
+		}
+	}
+
+	/**
+	 * The Class State, a DFA state: the NFA states active on top of the
+	 * unanchored start set.
+	 */
+	private static final class State {
+
+		/** The important NFA states. */
+		private final int[] nfa;
+
+		/** The patterns accepted on reaching this state, null if none. */
+		private final int[] accepts;
+
+		/** The patterns accepted if the input ends in this state, null if none. */
+		private final int[] endAccepts;
+
+		/** The transitions, filled on demand. */
+		private final State[] next;
+
+		/**
+		 * Instantiates a new state.
+		 *
+		 * @param nfa the nfa
+		 * @param accepts the accepts
+		 * @param endAccepts the end accepts
+		 * @param width the alphabet size
+		 */
+		private State(int[] nfa, int[] accepts, int[] endAccepts, int width) {
+			this.nfa = nfa;
+			this.accepts = accepts;
+			this.endAccepts = endAccepts;
+			this.next = new State[width];
+		}
+	}
+
+	/**
+	 * The Class Key.
+	 */
+	private static final class Key {
+
+		/** The nfa. */
+		private final int[] nfa;
+
+		/** The hash. */
+		private final int hash;
+
+		/**
+		 * Instantiates a new key.
+		 *
+		 * @param nfa the nfa
+		 */
+		private Key(int[] nfa) {
+			this.nfa = nfa;
+			this.hash = Arrays.hashCode(nfa);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(nfa, ((Key) obj).nfa);
+		}
+	}
+
+	/**
+	 * The Class Cache, the DFA states built so far.
+	 */
+	private static final class Cache {
+
+		/** The start. */
+		private final State start;
+
+		/** The states. */
+		private final Map<Key, State> states = new HashMap<Key, State>();
+
+		/**
+		 * Instantiates a new cache.
+		 *
+		 * @param start the start
+		 */
+		private Cache(State start) {
+			this.start = start;
+		}
+	}
+}
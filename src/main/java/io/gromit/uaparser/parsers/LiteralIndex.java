@@ -0,0 +1,176 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Class LiteralIndex, a prefilter in front of an ordered pattern list.
+ * At load time the literals every match of a pattern must contain are pulled
+ * out of its regex; at parse time a single {@link AhoCorasick} scan of the
+ * agent string tells which patterns can possibly match. Patterns are still
+ * tried in their original order, so the first match wins as before.
+ */
+final class LiteralIndex implements PatternFilter {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(LiteralIndex.class);
+
+	/** The patterns that have no required literal and are always tried. */
+	private final boolean[] unconditional;
+
+	/** The automaton. */
+	private final AhoCorasick automaton;
+
+	/**
+	 * Instantiates a new literal index.
+	 *
+	 * @param literals the folded literals of each pattern, null if it has none
+	 */
+	LiteralIndex(List<Set<String>> literals) {
+		AhoCorasick automaton = null;
+		try {
+			automaton = AhoCorasick.of(literals);
+		} catch (IllegalArgumentException e) {
+			logger.warn("literal prefilter disabled: {}", e.getMessage());
+		}
+		this.automaton = automaton;
+		unconditional = new boolean[literals.size()];
+		for (int i = 0; i < unconditional.length; i++) {
+			unconditional[i] = automaton == null || literals.get(i) == null;
+		}
+	}
+
+	/**
+	 * Instantiates a new literal index.
+	 *
+	 * @param unconditional the patterns always tried
+	 * @param automaton the automaton, null if every pattern is always tried
+	 */
+	private LiteralIndex(boolean[] unconditional, AhoCorasick automaton) {
+		this.unconditional = unconditional;
+		this.automaton = automaton;
+	}
+
+	/**
+	 * Builds the index of the given patterns, working out their literals in
+	 * parallel when called from a ForkJoin task.
+	 *
+	 * @param patterns the patterns
+	 * @return the literal index
+	 */
+	static LiteralIndex build(List<Pattern> patterns) {
+		List<Set<String>> literals = ForkJoinMap.map(patterns, new Function<Pattern, Set<String>>() {
+			@Override
+			public Set<String> apply(Pattern pattern) {
+				return literals(pattern);
+			}
+		});
+		return new LiteralIndex(literals);
+	}
+
+	/**
+	 * Write.
+	 *
+	 * @param out the out
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void write(DataOutput out) throws IOException {
+		if (unconditional.length > Character.MAX_VALUE) {
+			throw new IllegalArgumentException("too many patterns to write, " + unconditional.length);
+		}
+		out.writeChar(unconditional.length);
+		for (boolean always : unconditional) {
+			out.writeBoolean(always);
+		}
+		out.writeBoolean(automaton != null);
+		if (automaton != null) {
+			automaton.write(out);
+		}
+	}
+
+	/**
+	 * Read.
+	 *
+	 * @param in the in
+	 * @return the literal index
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static LiteralIndex read(DataInput in) throws IOException {
+		boolean[] unconditional = new boolean[in.readChar()];
+		for (int i = 0; i < unconditional.length; i++) {
+			unconditional[i] = in.readBoolean();
+		}
+		AhoCorasick automaton = in.readBoolean() ? AhoCorasick.read(in, unconditional.length) : null;
+		return new LiteralIndex(unconditional, automaton);
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the number of patterns indexed
+	 */
+	int size() {
+		return unconditional.length;
+	}
+
+	/**
+	 * Literals.
+	 *
+	 * @param pattern the pattern
+	 * @return the folded literals every match contains one of, null if none
+	 */
+	static Set<String> literals(Pattern pattern) {
+		try {
+			return RequiredLiterals.of(RegexParser.parse(pattern));
+		} catch (IllegalArgumentException e) {
+			logger.debug("no literal prefilter for {}: {}", pattern, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Candidates.
+	 *
+	 * @param agentString the agent string
+	 * @return the patterns that may match, indexed as the pattern list
+	 */
+	boolean[] candidates(CharSequence agentString) {
+		boolean[] candidates = new boolean[unconditional.length];
+		candidates(agentString, candidates);
+		return candidates;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.gromit.uaparser.parsers.PatternFilter#candidates(java.lang.CharSequence, boolean[])
+	 */
+	@Override
+	public void candidates(CharSequence agentString, boolean[] candidates) {
+		System.arraycopy(unconditional, 0, candidates, 0, unconditional.length);
+		if (automaton != null) {
+			automaton.mark(agentString, candidates);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The Enum MatchEngine, how a parser finds the patterns worth running against
+ * an agent string. The engine is picked with the {@link #PROPERTY} system
+ * property and defaults to {@link #LITERAL}.
+ */
+public enum MatchEngine {
+
+	/** Every pattern is run in order, one regex at a time. */
+	REGEX {
+		@Override
+		PatternFilter filter(List<Pattern> patterns) {
+			return new PatternFilter() {
+				@Override
+				public void candidates(CharSequence agentString, boolean[] candidates) {
+					Arrays.fill(candidates, true);
+				}
+			};
+		}
+	},
+
+	/** Only patterns whose required literals occur in the agent string are run. */
+	LITERAL {
+		@Override
+		PatternFilter filter(List<Pattern> patterns) {
+			return LiteralIndex.build(patterns);
+		}
+
+		@Override
+		PatternFilter filter(List<Pattern> patterns, LiteralIndex index) {
+			return index == null ? filter(patterns) : index;
+		}
+	},
+
+	/** One lazily built automaton finds the matching patterns in a single pass. */
+	DFA {
+		@Override
+		PatternFilter filter(List<Pattern> patterns) {
+			return new LazyDfa(patterns);
+		}
+	};
+
+	/** The Constant PROPERTY. */
+	public static final String PROPERTY = "io.gromit.uaparser.match.engine";
+
+	/** The Constant DFA_STATES_PROPERTY, the automaton states {@link #DFA} caches per parser. */
+	public static final String DFA_STATES_PROPERTY = "io.gromit.uaparser.match.dfa.states";
+
+	/**
+	 * Filter.
+	 *
+	 * @param patterns the patterns
+	 * @return the pattern filter
+	 */
+	abstract PatternFilter filter(List<Pattern> patterns);
+
+	/**
+	 * Filter, reusing a literal index built before where the engine needs one.
+	 *
+	 * @param patterns the patterns
+	 * @param index the literal index of the patterns, null to build it
+	 * @return the pattern filter
+	 */
+	PatternFilter filter(List<Pattern> patterns, LiteralIndex index) {
+		return filter(patterns);
+	}
+
+	/**
+	 * Configured.
+	 *
+	 * @return the engine named by the {@link #PROPERTY} system property, or
+	 *         {@link #LITERAL}
+	 */
+	public static MatchEngine configured() {
+		String name = System.getProperty(PROPERTY);
+		return StringUtils.isBlank(name) ? LITERAL : valueOf(name.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The Class MatcherBuffer, the matchers of the patterns of a parser, kept per
+ * thread so parsing does not allocate one on every call. A matcher is made
+ * the first time its pattern is tried, and {@link #release(Matcher)} lets go
+ * of the input once its groups are read, so a thread does not keep the last
+ * agent string it parsed, or the buffer it was read from, reachable.
+ */
+final class MatcherBuffer extends ThreadLocal<Matcher[]> {
+
+	/** The patterns. */
+	private final Pattern[] patterns;
+
+	/**
+	 * Instantiates a new matcher buffer.
+	 *
+	 * @param patterns the patterns
+	 */
+	MatcherBuffer(List<Pattern> patterns) {
+		this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.ThreadLocal#initialValue()
+	 */
+	@Override
+	protected Matcher[] initialValue() {
+		return new Matcher[patterns.length];
+	}
+
+	/**
+	 * Matcher.
+	 *
+	 * @param pattern the pattern index
+	 * @param input the input
+	 * @return the matcher of the current thread, reset to the input
+	 */
+	Matcher matcher(int pattern, CharSequence input) {
+		Matcher[] matchers = get();
+		Matcher matcher = matchers[pattern];
+		if (matcher == null) {
+			matcher = patterns[pattern].matcher(input);
+			matchers[pattern] = matcher;
+			return matcher;
+		}
+		return matcher.reset(input);
+	}
+
+	/**
+	 * Release, drops the input of the matcher.
+	 *
+	 * @param matcher the matcher
+	 */
+	static void release(Matcher matcher) {
+		matcher.reset("");
+	}
+}
@@ -19,22 +19,49 @@ package io.gromit.uaparser.parsers;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import io.gromit.uaparser.cache.Cache;
 import io.gromit.uaparser.cache.NoCache;
+import io.gromit.uaparser.metrics.DimensionMetrics;
 import io.gromit.uaparser.model.OS;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
 
 /**
  * The Class OSParser.
  */
 public class OSParser {
 
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(OSParser.class);
+
 	/** The patterns. */
 	private final List<OSPattern> patterns;
 
+	/** The pattern filter. */
+	private final PatternFilter filter;
+
+	/** The candidates, one array per thread. */
+	private final CandidateBuffer candidates;
+
+	/** The matchers, one array per thread. */
+	private final MatcherBuffer matchers;
+
+	/** The pattern order, counting the wins of each pattern. */
+	private final PatternOrder patternOrder;
+
+	/** The indexes of the patterns in the order they are tried, null for list order. */
+	private final int[] order;
+
+	/** The parses given up for running out of budget, per pattern index. */
+	private final AtomicLongArray budgetExceeded;
+
 	/**
 	 * Instantiates a new OS parser.
 	 *
@@ -42,7 +69,96 @@ public class OSParser {
 	 *            the patterns
 	 */
 	public OSParser(List<OSPattern> patterns) {
+		this(patterns, MatchEngine.configured());
+	}
+
+	/**
+	 * Instantiates a new OS parser.
+	 *
+	 * @param patterns
+	 *            the patterns
+	 * @param engine
+	 *            the match engine
+	 */
+	public OSParser(List<OSPattern> patterns, MatchEngine engine) {
+		this(patterns, engine, null);
+	}
+
+	/**
+	 * Instantiates a new OS parser.
+	 *
+	 * @param patterns
+	 *            the patterns
+	 * @param engine
+	 *            the match engine
+	 * @param index
+	 *            the literal index of the patterns, built from them when
+	 *            null and the engine needs it
+	 */
+	OSParser(List<OSPattern> patterns, MatchEngine engine, LiteralIndex index) {
 		this.patterns = patterns;
+		List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+		for (OSPattern p : patterns) {
+			regexes.add(p.pattern);
+		}
+		this.filter = engine.filter(regexes, index);
+		this.candidates = new CandidateBuffer(patterns.size());
+		this.matchers = new MatcherBuffer(regexes);
+		this.patternOrder = new PatternOrder(regexes);
+		this.order = null;
+		this.budgetExceeded = new AtomicLongArray(patterns.size());
+	}
+
+	/**
+	 * Instantiates a new OS parser trying the patterns in another order.
+	 *
+	 * @param parser
+	 *            the parser to share patterns, filter and counters with
+	 * @param order
+	 *            the order, null for list order
+	 */
+	private OSParser(OSParser parser, int[] order) {
+		this.patterns = parser.patterns;
+		this.filter = parser.filter;
+		this.candidates = parser.candidates;
+		this.matchers = parser.matchers;
+		this.patternOrder = parser.patternOrder;
+		this.order = order;
+		this.budgetExceeded = parser.budgetExceeded;
+	}
+
+	/**
+	 * Reorder, moves the patterns that matched most often so far ahead of
+	 * earlier ones that provably never match the same agent strings.
+	 *
+	 * @return a parser giving the same results as this one
+	 */
+	public OSParser reorder() {
+		return new OSParser(this, patternOrder.reorder());
+	}
+
+	/**
+	 * Budget exceeded.
+	 *
+	 * @return the parses given up for running out of budget
+	 */
+	public long budgetExceeded() {
+		long total = 0;
+		for (int i = 0; i < budgetExceeded.length(); i++) {
+			total += budgetExceeded.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Budget exceeded.
+	 *
+	 * @param pattern
+	 *            the pattern index, as in the regexes file
+	 * @return the parses given up while running the pattern
+	 */
+	public long budgetExceeded(int pattern) {
+		return budgetExceeded.get(pattern);
 	}
 
 	/**
@@ -53,12 +169,58 @@ public class OSParser {
 	 * @return the OS parser
 	 */
 	public static OSParser fromList(List<Map<String, String>> configList) {
-		List<OSPattern> configPatterns = new ArrayList<OSPattern>();
+		return fromList(configList, MatchEngine.configured());
+	}
+
+	/**
+	 * From list.
+	 *
+	 * @param configList
+	 *            the config list
+	 * @param engine
+	 *            the match engine
+	 * @return the OS parser
+	 */
+	public static OSParser fromList(List<Map<String, String>> configList, MatchEngine engine) {
+		return fromList(configList, engine, null);
+	}
+
+	/**
+	 * From list, compiling the patterns in parallel when called from a
+	 * ForkJoin task.
+	 *
+	 * @param configList
+	 *            the config list
+	 * @param engine
+	 *            the match engine
+	 * @param index
+	 *            the literal index of the patterns, null to build it
+	 * @return the OS parser
+	 */
+	static OSParser fromList(List<Map<String, String>> configList, MatchEngine engine, LiteralIndex index) {
+		List<OSPattern> configPatterns = ForkJoinMap.map(configList, new Function<Map<String, String>, OSPattern>() {
+			@Override
+			public OSPattern apply(Map<String, String> configMap) {
+				return OSParser.patternFromMap(configMap);
+			}
+		});
+		return new OSParser(configPatterns, engine, index);
+	}
 
-		for (Map<String, String> configMap : configList) {
-			configPatterns.add(OSParser.patternFromMap(configMap));
+	/**
+	 * Literal index.
+	 *
+	 * @return the literal index of the patterns
+	 */
+	LiteralIndex literalIndex() {
+		if (filter instanceof LiteralIndex) {
+			return (LiteralIndex) filter;
+		}
+		List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+		for (OSPattern p : patterns) {
+			regexes.add(p.pattern);
 		}
-		return new OSParser(configPatterns);
+		return LiteralIndex.build(regexes);
 	}
 
 	/**
@@ -82,19 +244,110 @@ public class OSParser {
 	 * @return the os
 	 */
 	public OS parse(String agentString, Cache cache) {
+		return parse(agentString, cache, ParseBudget.UNLIMITED);
+	}
+
+	/**
+	 * Parses the, giving up with the result of no match once the budget is
+	 * spent.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @return the os
+	 */
+	public OS parse(String agentString, Cache cache, ParseBudget budget) {
+		return parse(agentString, cache, budget, null);
+	}
+
+	/**
+	 * Parses the, recording the cost of the parse.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @param metrics
+	 *            the metrics to record into, null for none
+	 * @return the os
+	 */
+	public OS parse(String agentString, Cache cache, ParseBudget budget, DimensionMetrics metrics) {
+		return parse(agentString, cache, budget, metrics, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the, recording the cost of the parse and extracting as much
+	 * of the result as the options ask for. The agent string is read in
+	 * place, it is copied into a string only for a cache keyed by strings.
+	 *
+	 * @param agentString
+	 *            the agent string, like a {@link String} or an
+	 *            {@link AsciiSequence} over the bytes of a header
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @param metrics
+	 *            the metrics to record into, null for none
+	 * @param options
+	 *            how much of the result to extract
+	 * @return the os
+	 */
+	public OS parse(CharSequence agentString, Cache cache, ParseBudget budget, DimensionMetrics metrics,
+			ParseOptions options) {
 		if (agentString == null) {
 			return null;
 		}
-		OS os = cache.getOs(agentString);
+		long start = metrics == null ? 0 : metrics.start();
+		CharSequence key = CacheLookup.key(cache, options.cacheKey(agentString));
+		OS os = CacheLookup.os(cache, key);
 		if (os == null) {
-			for (OSPattern p : patterns) {
-				if ((os = p.match(agentString)) != null) {
-					cache.putOS(agentString, os);
+			CharSequence input = budget.truncate(agentString);
+			CharSequence sequence = budget.sequence(input);
+			boolean[] candidates = this.candidates.get();
+			filter.candidates(input, candidates);
+			int[] order = this.order != null && PatternOrder.reorderable(input) ? this.order : null;
+			int evaluated = 0;
+			for (int k = 0; k < candidates.length; k++) {
+				int i = order == null ? k : order[k];
+				if (!candidates[i]) {
+					continue;
+				}
+				evaluated++;
+				Matcher matcher = matchers.matcher(i, sequence);
+				try {
+					os = patterns.get(i).match(input, matcher, options);
+				} catch (BudgetExceededException e) {
+					budgetExceeded.incrementAndGet(i);
+					logger.debug("parse budget exceeded by pattern {} on {}", i, agentString);
+					if (metrics != null) {
+						metrics.overBudget(start, evaluated);
+					}
+					return OS.OTHER;
+				} finally {
+					MatcherBuffer.release(matcher);
+				}
+				if (os != null) {
+					patternOrder.hit(i);
+					CacheLookup.putOS(cache, key, os);
+					if (metrics != null) {
+						metrics.matched(start, evaluated);
+					}
 					return os;
 				}
 			}
-			os = new OS("Other", null, null, null, null);
-			cache.putOS(agentString, os);
+			os = OS.OTHER;
+			CacheLookup.putOS(cache, key, os);
+			if (metrics != null) {
+				metrics.fellThrough(start, evaluated);
+			}
+		} else if (metrics != null) {
+			metrics.hit(start);
 		}
 		return os;
 	}
@@ -128,6 +381,9 @@ public class OSParser {
 		/** The v2 replacement. */
 		private final String osReplacement, v1Replacement, v2Replacement, v3Replacement;
 
+		/** The os template, null without os replacement. */
+		private final ReplacementTemplate osTemplate;
+
 		/**
 		 * Instantiates a new OS pattern.
 		 *
@@ -147,6 +403,7 @@ public class OSParser {
 			this.v1Replacement = v1Replacement;
 			this.v2Replacement = v2Replacement;
 			this.v3Replacement = v3Replacement;
+			this.osTemplate = osReplacement == null ? null : ReplacementTemplate.firstGroup(osReplacement, true);
 		}
 
 		/**
@@ -157,8 +414,31 @@ public class OSParser {
 		 * @return the os
 		 */
 		public OS match(String agentString) {
+			return match(agentString, agentString);
+		}
+
+		/**
+		 * Match.
+		 *
+		 * @param agentString the agent string
+		 * @param input the agent string as the pattern reads it
+		 * @return the os
+		 */
+		OS match(CharSequence agentString, CharSequence input) {
+			return match(agentString, pattern.matcher(input), ParseOptions.FULL);
+		}
+
+		/**
+		 * Match, extracting as much of the result as the options ask for.
+		 *
+		 * @param agentString the agent string
+		 * @param matcher the matcher of the pattern, reset to the agent string as
+		 *            the pattern reads it
+		 * @param options the options
+		 * @return the os
+		 */
+		OS match(CharSequence agentString, Matcher matcher, ParseOptions options) {
 			String family = null, v1 = null, v2 = null, v3 = null, v4 = null;
-			Matcher matcher = pattern.matcher(agentString);
 
 			if (!matcher.find()) {
 				return null;
@@ -168,8 +448,7 @@ public class OSParser {
 
 			if (osReplacement != null) {
 				if (groupCount >= 1) {
-					family = Pattern.compile("(" + Pattern.quote("$1") + ")").matcher(osReplacement)
-							.replaceAll(matcher.group(1));
+					family = osTemplate.expand(agentString, matcher);
 				} else {
 					family = osReplacement;
 				}
@@ -177,11 +456,18 @@ public class OSParser {
 				family = matcher.group(1);
 			}
 
+			if (family == null || options == ParseOptions.FAMILIES) {
+				return family == null ? null : ResultInterner.os(family, null, null, null, null);
+			}
+
 			if (v1Replacement != null) {
 				v1 = v1Replacement;
 			} else if (groupCount >= 2) {
 				v1 = matcher.group(2);
 			}
+			if (options == ParseOptions.MAJOR) {
+				return ResultInterner.os(family, v1, null, null, null);
+			}
 			if (v2Replacement != null) {
 				v2 = v2Replacement;
 			} else if (groupCount >= 3) {
@@ -196,7 +482,7 @@ public class OSParser {
 				v4 = matcher.group(5);
 			}
 
-			return family == null ? null : new OS(family, v1, v2, v3, v4);
+			return family == null ? null : ResultInterner.os(family, v1, v2, v3, v4);
 		}
 	}
 }
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class ParseBudget, bounds the regex work a single parse of an agent
+ * string may take. Agent strings longer than the maximum length are cut
+ * before matching; the patterns of one parser call together may read at most
+ * the maximum steps chars and run at most the maximum time. A budget from
+ * {@link #begin()} is shared instead by the parser calls that follow on the
+ * same thread, so the browser, os and device of one agent string are bounded
+ * together. A parse over budget gives up and returns the same result as when
+ * no pattern matches, without caching it. Zero means no limit. Instances are
+ * immutable.
+ */
+public final class ParseBudget {
+
+	/** The Constant UNLIMITED. */
+	public static final ParseBudget UNLIMITED = new ParseBudget(0, 0, 0);
+
+	/** The max length. */
+	private final int maxLength;
+
+	/** The max steps. */
+	private final long maxSteps;
+
+	/** The max nanos. */
+	private final long maxNanos;
+
+	/** The shared budget, this one if it continues the budget begun on the thread. */
+	private final ParseBudget shared;
+
+	/**
+	 * Instantiates a new parse budget.
+	 *
+	 * @param maxLength the max length
+	 * @param maxSteps the max steps
+	 * @param maxNanos the max nanos
+	 */
+	private ParseBudget(int maxLength, long maxSteps, long maxNanos) {
+		if (maxLength < 0 || maxSteps < 0 || maxNanos < 0) {
+			throw new IllegalArgumentException("budget limits can not be negative");
+		}
+		this.maxLength = maxLength;
+		this.maxSteps = maxSteps;
+		this.maxNanos = maxNanos;
+		this.shared = new ParseBudget(this);
+	}
+
+	/**
+	 * Instantiates a new parse budget continuing the one begun on the thread.
+	 *
+	 * @param budget the budget
+	 */
+	private ParseBudget(ParseBudget budget) {
+		this.maxLength = budget.maxLength;
+		this.maxSteps = budget.maxSteps;
+		this.maxNanos = budget.maxNanos;
+		this.shared = this;
+	}
+
+	/**
+	 * Begin, starts the budget of the parser calls that follow on the current
+	 * thread, until the next call to begin on it.
+	 *
+	 * @return the budget to give those parser calls
+	 */
+	public ParseBudget begin() {
+		if (maxSteps == 0 && maxNanos == 0) {
+			return this;
+		}
+		BudgetedSequence.start(null, maxSteps, maxNanos);
+		return shared;
+	}
+
+	/**
+	 * Max length.
+	 *
+	 * @param maxLength the chars of the agent string kept for matching
+	 * @return the parse budget
+	 */
+	public ParseBudget maxLength(int maxLength) {
+		return new ParseBudget(maxLength, maxSteps, maxNanos);
+	}
+
+	/**
+	 * Max steps.
+	 *
+	 * @param maxSteps the char reads the regex engine may do per parser call
+	 * @return the parse budget
+	 */
+	public ParseBudget maxSteps(long maxSteps) {
+		return new ParseBudget(maxLength, maxSteps, maxNanos);
+	}
+
+	/**
+	 * Max time.
+	 *
+	 * @param maxTime the time matching may take per parser call
+	 * @param unit the unit
+	 * @return the parse budget
+	 */
+	public ParseBudget maxTime(long maxTime, TimeUnit unit) {
+		return new ParseBudget(maxLength, maxSteps, unit.toNanos(maxTime));
+	}
+
+	/**
+	 * Gets the max length.
+	 *
+	 * @return the max length
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Gets the max steps.
+	 *
+	 * @return the max steps
+	 */
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * Gets the max nanos.
+	 *
+	 * @return the max nanos
+	 */
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/**
+	 * Truncate.
+	 *
+	 * @param agentString the agent string
+	 * @return the part of the agent string to match
+	 */
+	CharSequence truncate(CharSequence agentString) {
+		return maxLength > 0 && agentString.length() > maxLength ? agentString.subSequence(0, maxLength) : agentString;
+	}
+
+	/**
+	 * Sequence, starts the budget of one parser call, or continues the one
+	 * begun on the thread.
+	 *
+	 * @param input the truncated agent string
+	 * @return the char sequence to run the patterns on
+	 */
+	CharSequence sequence(CharSequence input) {
+		if (maxSteps == 0 && maxNanos == 0) {
+			return input;
+		}
+		if (shared == this) {
+			return BudgetedSequence.resume(input);
+		}
+		return BudgetedSequence.start(input, maxSteps, maxNanos);
+	}
+}
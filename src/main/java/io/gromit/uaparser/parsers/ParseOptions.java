@@ -0,0 +1,122 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+/**
+ * The Enum ParseOptions, how much of a result a parse extracts. The cheaper
+ * levels skip the capture groups and replacements of the fields they leave
+ * null, the pattern that matches is the same. Each level caches its results
+ * apart, under the agent string with a control char in front. Full results
+ * are cached under the agent string itself, unless it starts with one of
+ * those control chars: then it gets the one of {@link #FULL} in front, so no
+ * agent string reads or overwrites the results of another one or level.
+ */
+public enum ParseOptions {
+
+	/** The families only, devices without brand and model. */
+	FAMILIES('\u0001'),
+
+	/** The families and major versions, devices with brand and model. */
+	MAJOR('\u0002'),
+
+	/** Every field, cached under the agent string itself. */
+	FULL('\u0000');
+
+	/** The Constant LAST_PREFIX, the largest prefix of the cache keys. */
+	private static final char LAST_PREFIX = '\u0002';
+
+	/** The prefix of the cache keys. */
+	private final char prefix;
+
+	/**
+	 * Instantiates a new parse options.
+	 *
+	 * @param prefix the prefix of the cache keys
+	 */
+	private ParseOptions(char prefix) {
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Cache key.
+	 *
+	 * @param agentString the agent string
+	 * @return the key of the results of this level in the cache, the agent
+	 *         string itself or a view of it behind the prefix
+	 */
+	public CharSequence cacheKey(CharSequence agentString) {
+		if (this == FULL && (agentString.length() == 0 || agentString.charAt(0) > LAST_PREFIX)) {
+			return agentString;
+		}
+		return new Prefixed(prefix, agentString);
+	}
+
+	/**
+	 * The Class Prefixed, a char in front of a char sequence, without
+	 * copying it until {@link #toString()}.
+	 */
+	private static final class Prefixed implements CharSequence {
+
+		/** The prefix. */
+		private final char prefix;
+
+		/** The rest. */
+		private final CharSequence rest;
+
+		/**
+		 * Instantiates a new prefixed.
+		 *
+		 * @param prefix the prefix
+		 * @param rest the rest
+		 */
+		Prefixed(char prefix, CharSequence rest) {
+			this.prefix = prefix;
+			this.rest = rest;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#length()
+		 */
+		@Override
+		public int length() {
+			return rest.length() + 1;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#charAt(int)
+		 */
+		@Override
+		public char charAt(int index) {
+			return index == 0 ? prefix : rest.charAt(index - 1);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.CharSequence#subSequence(int, int)
+		 */
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return new StringBuilder(length()).append(prefix).append(rest).toString();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+/**
+ * The Interface PatternFilter, narrows an ordered pattern list down to the
+ * patterns that can match a given agent string. A filter may report patterns
+ * that then fail to match, but never leaves out one that would.
+ */
+interface PatternFilter {
+
+	/**
+	 * Candidates, fills the given array so parsers can reuse one per thread.
+	 *
+	 * @param agentString the agent string
+	 * @param candidates set to the patterns that may match, indexed as the
+	 *            pattern list, whatever it held before
+	 */
+	void candidates(CharSequence agentString, boolean[] candidates);
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import io.gromit.uaparser.parsers.RegexNode.Alternation;
+import io.gromit.uaparser.parsers.RegexNode.Assertion;
+import io.gromit.uaparser.parsers.RegexNode.Concat;
+import io.gromit.uaparser.parsers.RegexNode.Group;
+import io.gromit.uaparser.parsers.RegexNode.Repeat;
+
+/**
+ * The Class PatternOrder, counts the wins of each pattern of an ordered list
+ * and works out an order that tries the frequent winners first.
+ * <p>
+ * A pattern only ever moves ahead of another one when the two can be proven
+ * to never find a match in the same input, by exploring the {@link LazyDfa}
+ * of the pair. For every input, the patterns that match it then keep their
+ * relative order and the first match is the one the original order gives.
+ * The proof holds for inputs without surrogate chars, see
+ * {@link #reorderable(String)}.
+ */
+final class PatternOrder {
+
+	/** The Constant MAX_PROOF_STATES, DFA states explored to prove two patterns disjoint. */
+	static final int MAX_PROOF_STATES = 2048;
+
+	/** The patterns. */
+	private final List<Pattern> patterns;
+
+	/** The hits, per pattern index. */
+	private final LongAdder[] hits;
+
+	/** The disjointness already worked out, by pattern pair. */
+	private final Map<Long, Boolean> disjoint = new HashMap<Long, Boolean>();
+
+	/**
+	 * Instantiates a new pattern order.
+	 *
+	 * @param patterns the patterns
+	 */
+	PatternOrder(List<Pattern> patterns) {
+		this.patterns = patterns;
+		this.hits = new LongAdder[patterns.size()];
+		for (int i = 0; i < hits.length; i++) {
+			hits[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Hit.
+	 *
+	 * @param pattern the pattern that matched
+	 */
+	void hit(int pattern) {
+		hits[pattern].increment();
+	}
+
+	/**
+	 * Hits.
+	 *
+	 * @param pattern the pattern
+	 * @return the times the pattern matched
+	 */
+	long hits(int pattern) {
+		return hits[pattern].sum();
+	}
+
+	/**
+	 * Reorder, an insertion sort by descending hits that swaps two neighbours
+	 * only when they are disjoint.
+	 *
+	 * @return the pattern indexes in the order to try them, null if that is the
+	 *         original order
+	 */
+	synchronized int[] reorder() {
+		long[] counts = new long[hits.length];
+		int[] order = new int[hits.length];
+		for (int i = 0; i < order.length; i++) {
+			counts[i] = hits[i].sum();
+			order[i] = i;
+		}
+		boolean moved = false;
+		for (int k = 1; k < order.length; k++) {
+			int current = order[k];
+			int position = k;
+			while (position > 0 && counts[order[position - 1]] < counts[current]
+					&& disjoint(order[position - 1], current)) {
+				order[position] = order[position - 1];
+				position--;
+			}
+			order[position] = current;
+			moved |= position != k;
+		}
+		return moved ? order : null;
+	}
+
+	/**
+	 * Reorderable.
+	 *
+	 * @param agentString the agent string
+	 * @return true, if a reordered list gives the same result for the agent
+	 *         string; surrogates are matched as code points by
+	 *         {@link Pattern} but as chars by the proof
+	 */
+	static boolean reorderable(CharSequence agentString) {
+		for (int i = 0, length = agentString.length(); i < length; i++) {
+			if (Character.isSurrogate(agentString.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Disjoint.
+	 *
+	 * @param a the first pattern
+	 * @param b the second pattern
+	 * @return true, if no input without surrogates has a match of both
+	 */
+	static boolean disjoint(Pattern a, Pattern b) {
+		try {
+			// without anchors a pattern matches any input that embeds one of its matches
+			if (!anchored(RegexParser.parse(a)) || !anchored(RegexParser.parse(b))) {
+				return false;
+			}
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return !new LazyDfa(Arrays.asList(a, b)).mayMatchTogether(0, 1, MAX_PROOF_STATES);
+	}
+
+	/**
+	 * Disjoint.
+	 *
+	 * @param a the first pattern index
+	 * @param b the second pattern index
+	 * @return true, if no input without surrogates has a match of both
+	 */
+	private boolean disjoint(int a, int b) {
+		Long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+		Boolean known = disjoint.get(key);
+		if (known == null) {
+			known = disjoint(patterns.get(a), patterns.get(b));
+			disjoint.put(key, known);
+		}
+		return known;
+	}
+
+	/**
+	 * Anchored.
+	 *
+	 * @param node the node
+	 * @return true, if the node holds a start or end of input anchor
+	 */
+	private static boolean anchored(RegexNode node) {
+		if (node instanceof Concat) {
+			for (RegexNode child : ((Concat) node).children) {
+				if (anchored(child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (node instanceof Alternation) {
+			for (RegexNode alternative : ((Alternation) node).alternatives) {
+				if (anchored(alternative)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (node instanceof Repeat) {
+			return anchored(((Repeat) node).child);
+		}
+		if (node instanceof Group) {
+			return anchored(((Group) node).child);
+		}
+		if (node instanceof Assertion) {
+			Assertion.Kind kind = ((Assertion) node).kind;
+			return kind == Assertion.Kind.BEGIN_INPUT || kind == Assertion.Kind.END_INPUT;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.List;
+
+/**
+ * The Class RegexNode, the syntax tree built by {@link RegexParser}.
+ */
+abstract class RegexNode {
+
+	/**
+	 * The Class CharSet, a single character position given as sorted,
+	 * disjoint, inclusive ranges of chars.
+	 */
+	static final class CharSet extends RegexNode {
+
+		/** The ranges. */
+		final int[] ranges;
+
+		/**
+		 * Instantiates a new char set.
+		 *
+		 * @param ranges the ranges
+		 */
+		CharSet(int[] ranges) {
+			this.ranges = ranges;
+		}
+
+		/**
+		 * Size.
+		 *
+		 * @return the number of chars in the set
+		 */
+		int size() {
+			int size = 0;
+			for (int i = 0; i < ranges.length; i += 2) {
+				size += ranges[i + 1] - ranges[i] + 1;
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * The Class Concat.
+	 */
+	static final class Concat extends RegexNode {
+
+		/** The children. */
+		final List<RegexNode> children;
+
+		/**
+		 * Instantiates a new concat.
+		 *
+		 * @param children the children
+		 */
+		Concat(List<RegexNode> children) {
+			this.children = children;
+		}
+	}
+
+	/**
+	 * The Class Alternation.
+	 */
+	static final class Alternation extends RegexNode {
+
+		/** The alternatives. */
+		final List<RegexNode> alternatives;
+
+		/**
+		 * Instantiates a new alternation.
+		 *
+		 * @param alternatives the alternatives
+		 */
+		Alternation(List<RegexNode> alternatives) {
+			this.alternatives = alternatives;
+		}
+	}
+
+	/**
+	 * The Class Repeat.
+	 */
+	static final class Repeat extends RegexNode {
+
+		/** The Constant UNBOUNDED. */
+		static final int UNBOUNDED = -1;
+
+		/** The child. */
+		final RegexNode child;
+
+		/** The max, or {@link #UNBOUNDED}. */
+		final int min, max;
+
+		/** The possessive. */
+		final boolean possessive;
+
+		/**
+		 * Instantiates a new repeat.
+		 *
+		 * @param child the child
+		 * @param min the min
+		 * @param max the max
+		 * @param possessive the possessive
+		 */
+		Repeat(RegexNode child, int min, int max, boolean possessive) {
+			this.child = child;
+			this.min = min;
+			this.max = max;
+			this.possessive = possessive;
+		}
+	}
+
+	/**
+	 * The Class Group.
+	 */
+	static final class Group extends RegexNode {
+
+		/** The child. */
+		final RegexNode child;
+
+		/** The atomic. */
+		final boolean atomic;
+
+		/**
+		 * Instantiates a new group.
+		 *
+		 * @param child the child
+		 * @param atomic the atomic
+		 */
+		Group(RegexNode child, boolean atomic) {
+			this.child = child;
+			this.atomic = atomic;
+		}
+	}
+
+	/**
+	 * The Class Assertion, any zero-width construct.
+	 */
+	static final class Assertion extends RegexNode {
+
+		/**
+		 * The Enum Kind.
+		 */
+		enum Kind {
+
+			/** Start of input: non multiline ^ and \A. */
+			BEGIN_INPUT,
+
+			/** End of input or before a final line terminator: non multiline $ and \Z. */
+			END_INPUT,
+
+			/** Lookahead and lookbehind groups. */
+			LOOKAROUND,
+
+			/** Word boundaries, multiline anchors and every other zero-width test. */
+			OTHER
+		}
+
+		/** The kind. */
+		final Kind kind;
+
+		/**
+		 * Instantiates a new assertion.
+		 *
+		 * @param kind the kind
+		 */
+		Assertion(Kind kind) {
+			this.kind = kind;
+		}
+	}
+
+	/**
+	 * The Class BackReference.
+	 */
+	static final class BackReference extends RegexNode {
+	}
+}
@@ -0,0 +1,705 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import io.gromit.uaparser.parsers.RegexNode.Alternation;
+import io.gromit.uaparser.parsers.RegexNode.Assertion;
+import io.gromit.uaparser.parsers.RegexNode.BackReference;
+import io.gromit.uaparser.parsers.RegexNode.CharSet;
+import io.gromit.uaparser.parsers.RegexNode.Concat;
+import io.gromit.uaparser.parsers.RegexNode.Group;
+import io.gromit.uaparser.parsers.RegexNode.Repeat;
+
+/**
+ * The Class RegexParser, reads the subset of the {@link Pattern} syntax used
+ * by regexes.yaml into a {@link RegexNode} tree. Anything it does not fully
+ * understand is rejected with an {@link IllegalArgumentException} so callers
+ * can fall back to plain {@link Pattern} matching for that regex.
+ */
+final class RegexParser {
+
+	/** The Constant MAX_CHAR. */
+	static final int MAX_CHAR = 0xFFFF;
+
+	/** The Constant DIGIT. */
+	private static final int[] DIGIT = { '0', '9' };
+
+	/** The Constant WORD. */
+	private static final int[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+
+	/** The Constant SPACE. */
+	private static final int[] SPACE = { '\t', '\r', ' ', ' ' };
+
+	/** The Constant HORIZONTAL_SPACE. */
+	private static final int[] HORIZONTAL_SPACE = { '\t', '\t', ' ', ' ', 0xA0, 0xA0, 0x1680, 0x1680, 0x180E, 0x180E,
+			0x2000, 0x200A, 0x202F, 0x202F, 0x205F, 0x205F, 0x3000, 0x3000 };
+
+	/** The Constant VERTICAL_SPACE. */
+	private static final int[] VERTICAL_SPACE = { '\n', '\r', 0x85, 0x85, 0x2028, 0x2029 };
+
+	/** The Constant LINE_TERMINATORS. */
+	private static final int[] LINE_TERMINATORS = { '\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029 };
+
+	/** The Constant SUPPORTED_FLAGS. */
+	private static final int SUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.MULTILINE;
+
+	/** The regex. */
+	private final String regex;
+
+	/** The position. */
+	private int pos;
+
+	/** The flags. */
+	private int flags;
+
+	/**
+	 * Instantiates a new regex parser.
+	 *
+	 * @param regex the regex
+	 * @param flags the flags
+	 */
+	private RegexParser(String regex, int flags) {
+		this.regex = regex;
+		this.flags = flags;
+	}
+
+	/**
+	 * Parses the pattern.
+	 *
+	 * @param pattern the pattern
+	 * @return the regex node
+	 * @throws IllegalArgumentException if the pattern uses an unsupported construct
+	 */
+	static RegexNode parse(Pattern pattern) {
+		return parse(pattern.pattern(), pattern.flags());
+	}
+
+	/**
+	 * Parses the regex.
+	 *
+	 * @param regex the regex
+	 * @param flags the {@link Pattern} flags
+	 * @return the regex node
+	 * @throws IllegalArgumentException if the regex uses an unsupported construct
+	 */
+	static RegexNode parse(String regex, int flags) {
+		if ((flags & ~SUPPORTED_FLAGS) != 0) {
+			throw new IllegalArgumentException("unsupported flags " + flags);
+		}
+		RegexParser parser = new RegexParser(regex, flags);
+		RegexNode node = parser.alternation();
+		if (parser.pos != regex.length()) {
+			throw parser.unsupported("unbalanced )");
+		}
+		return node;
+	}
+
+	/**
+	 * Alternation.
+	 *
+	 * @return the regex node
+	 */
+	private RegexNode alternation() {
+		int savedFlags = flags;
+		List<RegexNode> alternatives = new ArrayList<RegexNode>();
+		alternatives.add(concat());
+		while (more() && peek() == '|') {
+			pos++;
+			alternatives.add(concat());
+		}
+		flags = savedFlags;
+		return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+	}
+
+	/**
+	 * Concat.
+	 *
+	 * @return the regex node
+	 */
+	private RegexNode concat() {
+		List<RegexNode> children = new ArrayList<RegexNode>();
+		while (more() && peek() != '|' && peek() != ')') {
+			RegexNode atom = atom();
+			if (atom != null) {
+				children.add(quantifier(atom));
+			}
+		}
+		return children.size() == 1 ? children.get(0) : new Concat(children);
+	}
+
+	/**
+	 * Atom.
+	 *
+	 * @return the regex node, or null for a bare flag group
+	 */
+	private RegexNode atom() {
+		char c = regex.charAt(pos++);
+		switch (c) {
+		case '(':
+			return group();
+		case '[':
+			return new CharSet(fold(charClass()));
+		case '.':
+			return new CharSet(has(Pattern.DOTALL) ? new int[] { 0, MAX_CHAR } : complement(LINE_TERMINATORS));
+		case '^':
+			return new Assertion(has(Pattern.MULTILINE) ? Assertion.Kind.OTHER : Assertion.Kind.BEGIN_INPUT);
+		case '$':
+			return new Assertion(has(Pattern.MULTILINE) ? Assertion.Kind.OTHER : Assertion.Kind.END_INPUT);
+		case '\\':
+			return escape();
+		case '*':
+		case '+':
+		case '?':
+		case '{':
+			throw unsupported("dangling quantifier");
+		default:
+			return literal(c);
+		}
+	}
+
+	/**
+	 * Group.
+	 *
+	 * @return the regex node, or null for a bare flag group
+	 */
+	private RegexNode group() {
+		boolean atomic = false;
+		boolean lookaround = false;
+		int savedFlags = flags;
+		if (more() && peek() == '?') {
+			pos++;
+			char kind = next();
+			if (kind == ':') {
+				// non capturing
+			} else if (kind == '>') {
+				atomic = true;
+			} else if (kind == '=' || kind == '!') {
+				lookaround = true;
+			} else if (kind == '<' && more() && (peek() == '=' || peek() == '!')) {
+				pos++;
+				lookaround = true;
+			} else if (kind == '<') {
+				while (next() != '>') {
+				}
+			} else {
+				pos--;
+				if (inlineFlags()) {
+					// (?flags) applies to the rest of the enclosing group
+					return null;
+				}
+			}
+		}
+		RegexNode child = alternation();
+		if (!more() || next() != ')') {
+			throw unsupported("unclosed group");
+		}
+		flags = savedFlags;
+		if (lookaround) {
+			return new Assertion(Assertion.Kind.LOOKAROUND);
+		}
+		return new Group(child, atomic);
+	}
+
+	/**
+	 * Inline flags, the "i-s" in (?i-s) or (?i-s:X).
+	 *
+	 * @return true if the group ended the flags, false if a sub expression follows
+	 */
+	private boolean inlineFlags() {
+		boolean on = true;
+		while (true) {
+			char c = next();
+			int flag;
+			switch (c) {
+			case 'i':
+				flag = Pattern.CASE_INSENSITIVE;
+				break;
+			case 's':
+				flag = Pattern.DOTALL;
+				break;
+			case 'm':
+				flag = Pattern.MULTILINE;
+				break;
+			case '-':
+				on = false;
+				continue;
+			case ')':
+				return true;
+			case ':':
+				return false;
+			default:
+				throw unsupported("inline flag " + c);
+			}
+			flags = on ? flags | flag : flags & ~flag;
+		}
+	}
+
+	/**
+	 * Quantifier.
+	 *
+	 * @param atom the atom
+	 * @return the regex node
+	 */
+	private RegexNode quantifier(RegexNode atom) {
+		if (!more()) {
+			return atom;
+		}
+		int min, max;
+		char c = peek();
+		if (c == '*') {
+			min = 0;
+			max = Repeat.UNBOUNDED;
+		} else if (c == '+') {
+			min = 1;
+			max = Repeat.UNBOUNDED;
+		} else if (c == '?') {
+			min = 0;
+			max = 1;
+		} else if (c == '{') {
+			int start = pos;
+			pos++;
+			min = number();
+			max = min;
+			if (more() && peek() == ',') {
+				pos++;
+				max = more() && peek() == '}' ? Repeat.UNBOUNDED : number();
+			}
+			if (next() != '}' || (max != Repeat.UNBOUNDED && max < min)) {
+				pos = start;
+				throw unsupported("illegal repetition");
+			}
+			pos--;
+		} else {
+			return atom;
+		}
+		pos++;
+		boolean possessive = false;
+		if (more() && peek() == '?') {
+			pos++;
+		} else if (more() && peek() == '+') {
+			pos++;
+			possessive = true;
+		}
+		if (more() && (peek() == '*' || peek() == '+' || peek() == '?' || peek() == '{')) {
+			throw unsupported("stacked quantifier");
+		}
+		return new Repeat(atom, min, max, possessive);
+	}
+
+	/**
+	 * Number.
+	 *
+	 * @return the int
+	 */
+	private int number() {
+		int start = pos;
+		while (more() && Character.isDigit(peek()) && peek() < 128) {
+			pos++;
+		}
+		if (start == pos || pos - start > 6) {
+			throw unsupported("illegal repetition");
+		}
+		return Integer.parseInt(regex.substring(start, pos));
+	}
+
+	/**
+	 * Escape outside a character class.
+	 *
+	 * @return the regex node
+	 */
+	private RegexNode escape() {
+		char c = next();
+		switch (c) {
+		case 'b':
+		case 'B':
+		case 'G':
+			return new Assertion(Assertion.Kind.OTHER);
+		case 'A':
+			return new Assertion(Assertion.Kind.BEGIN_INPUT);
+		case 'Z':
+		case 'z':
+			return new Assertion(Assertion.Kind.END_INPUT);
+		case 'k':
+			throw unsupported("named back reference");
+		case 'Q':
+			int end = regex.indexOf("\\E", pos);
+			String quoted = regex.substring(pos, end < 0 ? regex.length() : end);
+			pos = end < 0 ? regex.length() : end + 2;
+			List<RegexNode> chars = new ArrayList<RegexNode>();
+			for (int i = 0; i < quoted.length(); i++) {
+				chars.add(literal(quoted.charAt(i)));
+			}
+			return chars.size() == 1 ? chars.get(0) : new Concat(chars);
+		default:
+			if (c >= '1' && c <= '9') {
+				while (more() && peek() >= '0' && peek() <= '9') {
+					pos++;
+				}
+				return new BackReference();
+			}
+			int[] predefined = predefined(c);
+			if (predefined != null) {
+				return new CharSet(fold(predefined));
+			}
+			return literal(escapedChar(c));
+		}
+	}
+
+	/**
+	 * Char class, the body of [...] after the opening bracket.
+	 *
+	 * @return the ranges
+	 */
+	private int[] charClass() {
+		boolean negate = false;
+		if (more() && peek() == '^') {
+			pos++;
+			negate = true;
+		}
+		if (more() && peek() == ']') {
+			throw unsupported("leading ] in class");
+		}
+		List<int[]> parts = new ArrayList<int[]>();
+		while (true) {
+			if (!more()) {
+				throw unsupported("unclosed class");
+			}
+			char c = next();
+			if (c == ']') {
+				break;
+			}
+			if (c == '[' || (c == '&' && more() && peek() == '&')) {
+				throw unsupported("nested class");
+			}
+			int low;
+			if (c == '\\') {
+				char e = next();
+				int[] predefined = predefined(e);
+				if (predefined != null) {
+					if (more() && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+						throw unsupported("range from class");
+					}
+					parts.add(predefined);
+					continue;
+				}
+				if (e == 'Q' || e == 'b' || (e >= '1' && e <= '9')) {
+					throw unsupported("escape in class");
+				}
+				low = escapedChar(e);
+			} else {
+				low = c;
+			}
+			int high = low;
+			if (more() && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+				pos++;
+				char h = next();
+				if (h == '[' || h == '&') {
+					throw unsupported("nested class");
+				}
+				if (h == '\\') {
+					char e = next();
+					if (predefined(e) != null || e == 'Q' || e == 'b' || (e >= '1' && e <= '9')) {
+						throw unsupported("range to class");
+					}
+					high = escapedChar(e);
+				} else {
+					high = h;
+				}
+				if (high < low) {
+					throw unsupported("illegal range");
+				}
+				if (more() && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+					throw unsupported("chained range");
+				}
+			}
+			checkChar(low);
+			checkChar(high);
+			parts.add(new int[] { low, high });
+		}
+		int[] ranges = union(parts);
+		return negate ? complement(has(Pattern.CASE_INSENSITIVE) ? caseClosure(ranges) : ranges) : ranges;
+	}
+
+	/**
+	 * Predefined character classes.
+	 *
+	 * @param c the escaped char
+	 * @return the ranges, or null if c does not name a class
+	 */
+	private static int[] predefined(char c) {
+		switch (c) {
+		case 'd':
+			return DIGIT;
+		case 'D':
+			return complement(DIGIT);
+		case 'w':
+			return WORD;
+		case 'W':
+			return complement(WORD);
+		case 's':
+			return SPACE;
+		case 'S':
+			return complement(SPACE);
+		case 'h':
+			return HORIZONTAL_SPACE;
+		case 'H':
+			return complement(HORIZONTAL_SPACE);
+		case 'v':
+			return VERTICAL_SPACE;
+		case 'V':
+			return complement(VERTICAL_SPACE);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Escaped char.
+	 *
+	 * @param c the char after the backslash
+	 * @return the char it stands for
+	 */
+	private int escapedChar(char c) {
+		switch (c) {
+		case 't':
+			return '\t';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case 'a':
+			return 0x07;
+		case 'e':
+			return 0x1B;
+		case '0': {
+			int value = 0;
+			int digits = 0;
+			while (more() && digits < 3 && peek() >= '0' && peek() <= '7' && value * 8 + (peek() - '0') <= 0377) {
+				value = value * 8 + (next() - '0');
+				digits++;
+			}
+			if (digits == 0) {
+				throw unsupported("illegal octal escape");
+			}
+			return value;
+		}
+		case 'x':
+			if (more() && peek() == '{') {
+				throw unsupported("code point escape");
+			}
+			return hex(2);
+		case 'u':
+			return hex(4);
+		default:
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c >= 128) {
+				throw unsupported("escape \\" + c);
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * Hex.
+	 *
+	 * @param digits the digits
+	 * @return the int
+	 */
+	private int hex(int digits) {
+		if (pos + digits > regex.length()) {
+			throw unsupported("illegal hex escape");
+		}
+		try {
+			int value = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+			pos += digits;
+			checkChar(value);
+			return value;
+		} catch (NumberFormatException e) {
+			throw unsupported("illegal hex escape");
+		}
+	}
+
+	/**
+	 * Literal.
+	 *
+	 * @param c the c
+	 * @return the char set
+	 */
+	private CharSet literal(int c) {
+		checkChar(c);
+		return new CharSet(fold(new int[] { c, c }));
+	}
+
+	/**
+	 * Check char, surrogates would be matched as code points by
+	 * {@link Pattern}.
+	 *
+	 * @param c the c
+	 */
+	private void checkChar(int c) {
+		if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+			throw unsupported("surrogate char");
+		}
+	}
+
+	/**
+	 * Fold, widens ranges with their ASCII case counterparts when the
+	 * pattern is case insensitive.
+	 *
+	 * @param ranges the ranges
+	 * @return the ranges
+	 */
+	private int[] fold(int[] ranges) {
+		return has(Pattern.CASE_INSENSITIVE) ? caseClosure(ranges) : ranges;
+	}
+
+	/**
+	 * Case closure.
+	 *
+	 * @param ranges the ranges
+	 * @return the ranges
+	 */
+	static int[] caseClosure(int[] ranges) {
+		List<int[]> parts = new ArrayList<int[]>();
+		parts.add(ranges);
+		for (int i = 0; i < ranges.length; i += 2) {
+			int low = Math.max(ranges[i], 'A'), high = Math.min(ranges[i + 1], 'Z');
+			if (low <= high) {
+				parts.add(new int[] { low + 32, high + 32 });
+			}
+			low = Math.max(ranges[i], 'a');
+			high = Math.min(ranges[i + 1], 'z');
+			if (low <= high) {
+				parts.add(new int[] { low - 32, high - 32 });
+			}
+		}
+		return union(parts);
+	}
+
+	/**
+	 * Union.
+	 *
+	 * @param parts the parts
+	 * @return the sorted, merged ranges
+	 */
+	static int[] union(List<int[]> parts) {
+		List<int[]> pairs = new ArrayList<int[]>();
+		for (int[] part : parts) {
+			for (int i = 0; i < part.length; i += 2) {
+				pairs.add(new int[] { part[i], part[i + 1] });
+			}
+		}
+		Collections.sort(pairs, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return Integer.compare(a[0], b[0]);
+			}
+		});
+		int[] merged = new int[pairs.size() * 2];
+		int size = 0;
+		for (int[] pair : pairs) {
+			if (size > 0 && pair[0] <= merged[size - 1] + 1) {
+				merged[size - 1] = Math.max(merged[size - 1], pair[1]);
+			} else {
+				merged[size++] = pair[0];
+				merged[size++] = pair[1];
+			}
+		}
+		return Arrays.copyOf(merged, size);
+	}
+
+	/**
+	 * Complement.
+	 *
+	 * @param ranges the sorted ranges
+	 * @return the ranges
+	 */
+	static int[] complement(int[] ranges) {
+		int[] result = new int[ranges.length + 2];
+		int size = 0;
+		int next = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (ranges[i] > next) {
+				result[size++] = next;
+				result[size++] = ranges[i] - 1;
+			}
+			next = ranges[i + 1] + 1;
+		}
+		if (next <= MAX_CHAR) {
+			result[size++] = next;
+			result[size++] = MAX_CHAR;
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Checks for flag.
+	 *
+	 * @param flag the flag
+	 * @return true, if the flag is on
+	 */
+	private boolean has(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	/**
+	 * More.
+	 *
+	 * @return true, if there is input left
+	 */
+	private boolean more() {
+		return pos < regex.length();
+	}
+
+	/**
+	 * Peek.
+	 *
+	 * @return the char
+	 */
+	private char peek() {
+		return regex.charAt(pos);
+	}
+
+	/**
+	 * Next.
+	 *
+	 * @return the char
+	 */
+	private char next() {
+		if (!more()) {
+			throw unsupported("unexpected end");
+		}
+		return regex.charAt(pos++);
+	}
+
+	/**
+	 * Unsupported.
+	 *
+	 * @param what the what
+	 * @return the illegal argument exception
+	 */
+	private IllegalArgumentException unsupported(String what) {
+		return new IllegalArgumentException(what + " near index " + pos + " in " + regex);
+	}
+}
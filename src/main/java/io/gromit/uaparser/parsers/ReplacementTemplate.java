@@ -0,0 +1,193 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * The Class ReplacementTemplate, a replacement string split once at load into
+ * literal parts and group references, so expanding it against a match needs
+ * no regex and no intermediate buffers.
+ */
+final class ReplacementTemplate {
+
+	/** The Constant NO_GROUP, a reference that always expands to nothing. */
+	private static final int NO_GROUP = -1;
+
+	/** The literal parts, one more than the group references. */
+	private final String[] literals;
+
+	/** The group referenced after each literal part but the last. */
+	private final int[] groups;
+
+	/** The total length of the literal parts. */
+	private final int literalLength;
+
+	/**
+	 * Instantiates a new replacement template.
+	 *
+	 * @param literals the literals
+	 * @param groups the groups
+	 */
+	private ReplacementTemplate(List<String> literals, List<Integer> groups) {
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.groups = new int[groups.size()];
+		for (int i = 0; i < this.groups.length; i++) {
+			this.groups[i] = groups.get(i);
+		}
+		int length = 0;
+		for (String literal : this.literals) {
+			length += literal.length();
+		}
+		this.literalLength = length;
+	}
+
+	/**
+	 * Compile, every <code>$</code> followed by digits references that
+	 * group. References to groups that do not exist expand to nothing. As
+	 * the device replacements always did, through
+	 * {@link Matcher#appendReplacement(StringBuffer, String)} without
+	 * {@link Matcher#appendTail(StringBuffer)}, a replacement holding a
+	 * <code>$</code> drops the text after its last reference, all of it if
+	 * there is none; one without is kept as it is.
+	 *
+	 * @param replacement the replacement
+	 * @return the replacement template
+	 */
+	static ReplacementTemplate compile(String replacement) {
+		List<String> literals = new ArrayList<String>();
+		List<Integer> groups = new ArrayList<Integer>();
+		int from = 0;
+		int dollar = replacement.indexOf('$');
+		while (dollar >= 0) {
+			int end = dollar + 1;
+			while (end < replacement.length() && replacement.charAt(end) >= '0' && replacement.charAt(end) <= '9') {
+				end++;
+			}
+			if (end > dollar + 1) {
+				literals.add(replacement.substring(from, dollar));
+				groups.add(group(replacement.substring(dollar + 1, end)));
+				from = end;
+			}
+			dollar = replacement.indexOf('$', end);
+		}
+		literals.add(replacement.indexOf('$') < 0 ? replacement : "");
+		return new ReplacementTemplate(literals, groups);
+	}
+
+	/**
+	 * First group, only the exact text <code>$1</code> references a group,
+	 * the first one.
+	 *
+	 * @param replacement the replacement
+	 * @param all whether every occurrence is replaced or just the first
+	 * @return the replacement template
+	 */
+	static ReplacementTemplate firstGroup(String replacement, boolean all) {
+		List<String> literals = new ArrayList<String>();
+		List<Integer> groups = new ArrayList<Integer>();
+		int from = 0;
+		int reference = replacement.indexOf("$1");
+		while (reference >= 0) {
+			literals.add(replacement.substring(from, reference));
+			groups.add(1);
+			from = reference + 2;
+			reference = all ? replacement.indexOf("$1", from) : -1;
+		}
+		literals.add(replacement.substring(from));
+		return new ReplacementTemplate(literals, groups);
+	}
+
+	/**
+	 * Checks for group references.
+	 *
+	 * @return true, if the template references any group
+	 */
+	boolean hasGroups() {
+		return groups.length > 0;
+	}
+
+	/**
+	 * Expand, a missing or unmatched group expands to nothing.
+	 *
+	 * @param input the input the matcher ran on
+	 * @param matcher the matcher after a successful find
+	 * @return the string
+	 */
+	String expand(CharSequence input, Matcher matcher) {
+		if (groups.length == 0) {
+			return literals[0];
+		}
+		if (literalLength == 0 && groups.length == 1) {
+			String group = group(matcher, groups[0]);
+			return group == null ? "" : group;
+		}
+		int length = literalLength;
+		for (int group : groups) {
+			length += length(matcher, group);
+		}
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < groups.length; i++) {
+			builder.append(literals[i]);
+			int group = groups[i];
+			if (length(matcher, group) > 0) {
+				builder.append(input, matcher.start(group), matcher.end(group));
+			}
+		}
+		return builder.append(literals[groups.length]).toString();
+	}
+
+	/**
+	 * Group.
+	 *
+	 * @param digits the digits
+	 * @return the group number, or {@link #NO_GROUP} if too large
+	 */
+	private static int group(String digits) {
+		try {
+			return Integer.parseInt(digits);
+		} catch (NumberFormatException e) {
+			return NO_GROUP;
+		}
+	}
+
+	/**
+	 * Group.
+	 *
+	 * @param matcher the matcher
+	 * @param group the group
+	 * @return the group text, null if missing or unmatched
+	 */
+	private static String group(Matcher matcher, int group) {
+		return group == NO_GROUP || group > matcher.groupCount() ? null : matcher.group(group);
+	}
+
+	/**
+	 * Length.
+	 *
+	 * @param matcher the matcher
+	 * @param group the group
+	 * @return the group length, 0 if missing or unmatched
+	 */
+	private static int length(Matcher matcher, int group) {
+		if (group == NO_GROUP || group > matcher.groupCount() || matcher.start(group) < 0) {
+			return 0;
+		}
+		return matcher.end(group) - matcher.start(group);
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.gromit.uaparser.parsers.RegexNode.Alternation;
+import io.gromit.uaparser.parsers.RegexNode.Assertion;
+import io.gromit.uaparser.parsers.RegexNode.CharSet;
+import io.gromit.uaparser.parsers.RegexNode.Concat;
+import io.gromit.uaparser.parsers.RegexNode.Group;
+import io.gromit.uaparser.parsers.RegexNode.Repeat;
+
+/**
+ * The Class RequiredLiterals, works out a set of folded literals such that
+ * every match of a regex contains at least one of them. Literals are folded
+ * with {@link #fold(char)} so a single scan serves case sensitive and case
+ * insensitive patterns alike.
+ */
+final class RequiredLiterals {
+
+	/** The Constant MAX_EXACT, the largest set of exact strings tracked for a node. */
+	private static final int MAX_EXACT = 16;
+
+	/** The Constant MAX_CLASS, the largest char class expanded into exact strings. */
+	private static final int MAX_CLASS = 4;
+
+	/** The Constant MAX_REQUIRED, the largest set of alternatives kept as requirement. */
+	private static final int MAX_REQUIRED = 512;
+
+	/**
+	 * Instantiates a new required literals.
+	 */
+	private RequiredLiterals() {
+	}
+
+	/**
+	 * Of.
+	 *
+	 * @param node the node
+	 * @return the folded literals, or null if no literal is required
+	 */
+	static Set<String> of(RegexNode node) {
+		Info info = info(node);
+		return info.best();
+	}
+
+	/**
+	 * Fold, lower cases ASCII letters only as {@link java.util.regex.Pattern}
+	 * does for case insensitive matching.
+	 *
+	 * @param c the c
+	 * @return the char
+	 */
+	static char fold(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+	}
+
+	/**
+	 * Info.
+	 *
+	 * @param node the node
+	 * @return the info
+	 */
+	private static Info info(RegexNode node) {
+		if (node instanceof CharSet) {
+			return charSet((CharSet) node);
+		}
+		if (node instanceof Concat) {
+			return concat(((Concat) node).children);
+		}
+		if (node instanceof Alternation) {
+			return alternation(((Alternation) node).alternatives);
+		}
+		if (node instanceof Repeat) {
+			return repeat((Repeat) node);
+		}
+		if (node instanceof Group) {
+			return info(((Group) node).child);
+		}
+		if (node instanceof Assertion) {
+			return Info.empty();
+		}
+		return new Info(null, null);
+	}
+
+	/**
+	 * Char set.
+	 *
+	 * @param node the node
+	 * @return the info
+	 */
+	private static Info charSet(CharSet node) {
+		if (node.size() > MAX_CLASS * 2) {
+			return new Info(null, null);
+		}
+		Set<String> exact = new TreeSet<String>();
+		for (int i = 0; i < node.ranges.length; i += 2) {
+			for (int c = node.ranges[i]; c <= node.ranges[i + 1]; c++) {
+				exact.add(String.valueOf(fold((char) c)));
+			}
+		}
+		return exact.size() > MAX_CLASS ? new Info(null, null) : new Info(exact, null);
+	}
+
+	/**
+	 * Concat.
+	 *
+	 * @param children the children
+	 * @return the info
+	 */
+	private static Info concat(List<RegexNode> children) {
+		Info result = Info.empty();
+		Set<String> current = Collections.singleton("");
+		boolean exact = true;
+		for (RegexNode child : children) {
+			Info info = info(child);
+			result.candidate(info.required);
+			if (info.exact != null && current.size() * info.exact.size() <= MAX_EXACT) {
+				current = cross(current, info.exact);
+				continue;
+			}
+			exact = false;
+			result.candidate(current);
+			current = info.exact != null ? info.exact : Collections.singleton("");
+		}
+		result.candidate(current);
+		result.exact = exact ? current : null;
+		return result;
+	}
+
+	/**
+	 * Alternation.
+	 *
+	 * @param alternatives the alternatives
+	 * @return the info
+	 */
+	private static Info alternation(List<RegexNode> alternatives) {
+		Set<String> exact = new TreeSet<String>();
+		Set<String> required = new TreeSet<String>();
+		for (RegexNode alternative : alternatives) {
+			Info info = info(alternative);
+			if (exact != null && info.exact != null && exact.size() + info.exact.size() <= MAX_EXACT) {
+				exact.addAll(info.exact);
+			} else {
+				exact = null;
+			}
+			Set<String> best = info.best();
+			if (required != null && best != null && required.size() + best.size() <= MAX_REQUIRED) {
+				required.addAll(best);
+			} else {
+				required = null;
+			}
+		}
+		Info result = new Info(exact, null);
+		result.candidate(required);
+		return result;
+	}
+
+	/**
+	 * Repeat.
+	 *
+	 * @param node the node
+	 * @return the info
+	 */
+	private static Info repeat(Repeat node) {
+		Info child = info(node.child);
+		if (child.exact != null && node.max != Repeat.UNBOUNDED && node.max <= MAX_EXACT) {
+			Set<String> exact = new TreeSet<String>();
+			Set<String> power = Collections.singleton("");
+			for (int i = 0; i <= node.max && exact != null; i++) {
+				if (i >= node.min) {
+					exact.addAll(power);
+				}
+				if (exact.size() > MAX_EXACT || power.size() * child.exact.size() > MAX_EXACT) {
+					exact = null;
+				} else {
+					power = cross(power, child.exact);
+				}
+			}
+			if (exact != null) {
+				Info result = new Info(exact, null);
+				if (node.min > 0) {
+					result.candidate(child.best());
+				}
+				return result;
+			}
+		}
+		return new Info(null, node.min > 0 ? child.best() : null);
+	}
+
+	/**
+	 * Cross.
+	 *
+	 * @param left the left
+	 * @param right the right
+	 * @return the sets
+	 */
+	private static Set<String> cross(Set<String> left, Set<String> right) {
+		Set<String> result = new TreeSet<String>();
+		for (String l : left) {
+			for (String r : right) {
+				result.add(l + r);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Minimize, drops every literal that contains another one of the set as
+	 * that one is then present too.
+	 *
+	 * @param literals the literals
+	 * @return the sets the
+	 */
+	private static Set<String> minimize(Set<String> literals) {
+		List<String> sorted = new ArrayList<String>(literals);
+		Collections.sort(sorted, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Integer.compare(a.length(), b.length());
+			}
+		});
+		Set<String> result = new LinkedHashSet<String>();
+		for (String literal : sorted) {
+			boolean covered = false;
+			for (String kept : result) {
+				if (literal.contains(kept)) {
+					covered = true;
+					break;
+				}
+			}
+			if (!covered) {
+				result.add(literal);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The Class Info.
+	 */
+	private static final class Info {
+
+		/** The exact strings a node can match, null if unknown or too many. */
+		private Set<String> exact;
+
+		/** The best requirement found so far, null if none. */
+		private Set<String> required;
+
+		/**
+		 * Instantiates a new info.
+		 *
+		 * @param exact the exact
+		 * @param required the required
+		 */
+		private Info(Set<String> exact, Set<String> required) {
+			this.exact = exact;
+			this.required = required;
+		}
+
+		/**
+		 * Empty.
+		 *
+		 * @return the info
+		 */
+		private static Info empty() {
+			return new Info(Collections.singleton(""), null);
+		}
+
+		/**
+		 * Candidate, keeps the given requirement if it is more selective.
+		 *
+		 * @param literals the literals
+		 */
+		private void candidate(Set<String> literals) {
+			if (literals == null || literals.isEmpty() || literals.contains("")) {
+				return;
+			}
+			literals = minimize(literals);
+			if (required == null || score(literals) > score(required)) {
+				required = literals;
+			}
+		}
+
+		/**
+		 * Best.
+		 *
+		 * @return the sets the
+		 */
+		private Set<String> best() {
+			Info copy = new Info(null, required);
+			copy.candidate(exact);
+			return copy.required;
+		}
+
+		/**
+		 * Score, longer shortest literals first then fewer literals.
+		 *
+		 * @param literals the literals
+		 * @return the long
+		 */
+		private static long score(Set<String> literals) {
+			int shortest = Integer.MAX_VALUE;
+			for (String literal : literals) {
+				shortest = Math.min(shortest, literal.length());
+			}
+			return ((long) shortest << 32) - literals.size();
+		}
+	}
+}
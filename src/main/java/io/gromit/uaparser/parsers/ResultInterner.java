@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+/**
+ * The Class ResultInterner, hands out one canonical instance for each
+ * distinct parse result, and for each distinct string in them, so that the
+ * results held by a cache share their memory. The interners hold their
+ * instances weakly, a result nobody references any more is collected.
+ */
+final class ResultInterner {
+
+	/** The strings. */
+	private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+	/** The browsers. */
+	private static final Interner<Browser> BROWSERS = Interners.newWeakInterner();
+
+	/** The oses. */
+	private static final Interner<OS> OSES = Interners.newWeakInterner();
+
+	/** The devices. */
+	private static final Interner<Device> DEVICES = Interners.newWeakInterner();
+
+	static {
+		BROWSERS.intern(Browser.OTHER);
+		OSES.intern(OS.OTHER);
+		DEVICES.intern(Device.OTHER);
+		STRINGS.intern(Browser.OTHER.family);
+	}
+
+	/**
+	 * Instantiates a new result interner.
+	 */
+	private ResultInterner() {
+	}
+
+	/**
+	 * Browser.
+	 *
+	 * @param family the family
+	 * @param major the major
+	 * @param minor the minor
+	 * @param patch the patch
+	 * @return the canonical browser
+	 */
+	static Browser browser(String family, String major, String minor, String patch) {
+		return BROWSERS.intern(new Browser(string(family), string(major), string(minor), string(patch)));
+	}
+
+	/**
+	 * Os.
+	 *
+	 * @param family the family
+	 * @param major the major
+	 * @param minor the minor
+	 * @param patch the patch
+	 * @param patchMinor the patch minor
+	 * @return the canonical os
+	 */
+	static OS os(String family, String major, String minor, String patch, String patchMinor) {
+		return OSES.intern(new OS(string(family), string(major), string(minor), string(patch), string(patchMinor)));
+	}
+
+	/**
+	 * Device.
+	 *
+	 * @param family the family
+	 * @param brand the brand
+	 * @param model the model
+	 * @return the canonical device
+	 */
+	static Device device(String family, String brand, String model) {
+		return DEVICES.intern(new Device(string(family), string(brand), string(model)));
+	}
+
+	/**
+	 * String.
+	 *
+	 * @param value the value
+	 * @return the canonical string, null for null
+	 */
+	static String string(String value) {
+		return value == null ? null : STRINGS.intern(value);
+	}
+}
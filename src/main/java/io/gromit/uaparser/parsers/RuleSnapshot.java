@@ -0,0 +1,413 @@
+/**
+ * Copyright 2016 gromit.it
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gromit.uaparser.parsers;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * The Class RuleSnapshot, the rules of a regexes yaml in a compact binary
+ * form that loads without any yaml parsing. Next to the patterns, flags and
+ * replacements of the three lists it keeps their {@link LiteralIndex}, so the
+ * {@link MatchEngine#LITERAL} prefilter is neither worked out from the regexes
+ * nor built again, and the MD5 of the yaml it was built from, to tell a stale
+ * snapshot from a current one.
+ * <p>
+ * The format is a magic number and version, the yaml MD5, a table of the
+ * distinct strings, then for each list the entries of every pattern as
+ * indexes into the table followed by the literal index, and last a CRC32 of
+ * all of it. Snapshots are written with {@link #main(String[])}, see the
+ * ruleSnapshot gradle task.
+ */
+public final class RuleSnapshot {
+
+	/** The Constant MAGIC, "UAPS". */
+	private static final int MAGIC = 0x55415053;
+
+	/** The Constant VERSION. */
+	private static final int VERSION = 1;
+
+	/** The Constant LISTS, the yaml keys of the pattern lists, in snapshot order. */
+	private static final String[] LISTS = { "user_agent_parsers", "os_parsers", "device_parsers" };
+
+	/** The checksum, the MD5 of the yaml. */
+	private final byte[] checksum;
+
+	/** The configs, per list. */
+	private final List<List<Map<String, String>>> configs;
+
+	/** The literal indexes, per list, null where they are still to be built. */
+	private final List<LiteralIndex> indexes;
+
+	/**
+	 * Instantiates a new rule snapshot.
+	 *
+	 * @param checksum the checksum
+	 * @param configs the configs
+	 * @param indexes the literal indexes
+	 */
+	private RuleSnapshot(byte[] checksum, List<List<Map<String, String>>> configs, List<LiteralIndex> indexes) {
+		this.checksum = checksum;
+		this.configs = configs;
+		this.indexes = indexes;
+	}
+
+	/**
+	 * From yaml.
+	 *
+	 * @param regexYaml the regexes yaml
+	 * @return the rules of the yaml
+	 */
+	public static RuleSnapshot fromYaml(byte[] regexYaml) {
+		Yaml yaml = new Yaml(new SafeConstructor());
+		@SuppressWarnings("unchecked")
+		Map<String, List<Map<String, String>>> regexConfig = (Map<String, List<Map<String, String>>>) yaml
+				.load(new ByteArrayInputStream(regexYaml));
+		List<List<Map<String, String>>> configs = new ArrayList<List<Map<String, String>>>(LISTS.length);
+		List<LiteralIndex> indexes = new ArrayList<LiteralIndex>(LISTS.length);
+		for (String list : LISTS) {
+			List<Map<String, String>> config = regexConfig.get(list);
+			if (config == null) {
+				throw new IllegalArgumentException(list + " is missing from yaml");
+			}
+			configs.add(config);
+			indexes.add(null);
+		}
+		return new RuleSnapshot(md5(regexYaml), configs, indexes);
+	}
+
+	/**
+	 * Read.
+	 *
+	 * @param snapshot the snapshot
+	 * @return the rule snapshot
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static RuleSnapshot read(InputStream snapshot) throws IOException {
+		byte[] bytes = IOUtils.toByteArray(snapshot);
+		if (bytes.length < 28) {
+			throw new IllegalArgumentException("not a rule snapshot");
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (data.readInt() != MAGIC) {
+			throw new IllegalArgumentException("not a rule snapshot");
+		}
+		int version = data.readInt();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("unsupported rule snapshot version " + version);
+		}
+		if (readTrailer(bytes) != (int) crc.getValue()) {
+			throw new IllegalArgumentException("rule snapshot is corrupt, checksum mismatch");
+		}
+		try {
+			byte[] checksum = new byte[16];
+			data.readFully(checksum);
+			String[] strings = new String[readCount(data)];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = data.readUTF();
+			}
+			List<List<Map<String, String>>> configs = new ArrayList<List<Map<String, String>>>(LISTS.length);
+			List<LiteralIndex> indexes = new ArrayList<LiteralIndex>(LISTS.length);
+			for (int l = 0; l < LISTS.length; l++) {
+				int patterns = readCount(data);
+				List<Map<String, String>> config = new ArrayList<Map<String, String>>(patterns);
+				for (int p = 0; p < patterns; p++) {
+					int entries = readCount(data);
+					Map<String, String> map = new LinkedHashMap<String, String>();
+					for (int e = 0; e < entries; e++) {
+						String key = string(strings, readCount(data));
+						int value = readCount(data);
+						map.put(key, value == 0 ? null : string(strings, value - 1));
+					}
+					config.add(map);
+				}
+				LiteralIndex index = LiteralIndex.read(data);
+				if (index.size() != patterns) {
+					throw new IllegalArgumentException("literal index of " + LISTS[l] + " has " + index.size()
+							+ " patterns instead of " + patterns);
+				}
+				configs.add(config);
+				indexes.add(index);
+			}
+			if (data.available() != 4) {
+				throw new IllegalArgumentException(data.available() - 4 + " bytes left over");
+			}
+			return new RuleSnapshot(checksum, configs, indexes);
+		} catch (IllegalArgumentException | EOFException e) {
+			throw new IllegalArgumentException("rule snapshot is corrupt, " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read, making sure the snapshot was built from the given yaml.
+	 *
+	 * @param snapshot the snapshot
+	 * @param regexYaml the regexes yaml
+	 * @return the rule snapshot
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static RuleSnapshot read(InputStream snapshot, InputStream regexYaml) throws IOException {
+		RuleSnapshot rules = read(snapshot);
+		if (!rules.builtFrom(IOUtils.toByteArray(regexYaml))) {
+			throw new IllegalArgumentException("rule snapshot was not built from this regexes yaml");
+		}
+		return rules;
+	}
+
+	/**
+	 * Write.
+	 *
+	 * @param out the out, flushed and left open
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write(OutputStream out) throws IOException {
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		for (List<Map<String, String>> config : configs) {
+			for (Map<String, String> map : config) {
+				for (Map.Entry<String, String> entry : map.entrySet()) {
+					index(strings, entry.getKey());
+					if (entry.getValue() != null) {
+						index(strings, entry.getValue());
+					}
+				}
+			}
+		}
+		CRC32 crc = new CRC32();
+		DataOutputStream data = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(out), crc));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.write(checksum);
+		writeCount(data, strings.size());
+		for (String string : strings.keySet()) {
+			data.writeUTF(string);
+		}
+		for (int l = 0; l < LISTS.length; l++) {
+			List<Map<String, String>> config = configs.get(l);
+			writeCount(data, config.size());
+			for (Map<String, String> map : config) {
+				writeCount(data, map.size());
+				for (Map.Entry<String, String> entry : map.entrySet()) {
+					writeCount(data, strings.get(entry.getKey()));
+					writeCount(data, entry.getValue() == null ? 0 : strings.get(entry.getValue()) + 1);
+				}
+			}
+			literalIndex(l).write(data);
+		}
+		data.writeInt((int) crc.getValue());
+		data.flush();
+	}
+
+	/**
+	 * Checksum.
+	 *
+	 * @return the MD5 of the yaml the rules come from
+	 */
+	public byte[] checksum() {
+		return checksum.clone();
+	}
+
+	/**
+	 * Built from.
+	 *
+	 * @param regexYaml the regexes yaml
+	 * @return true, if the rules come from the yaml
+	 */
+	public boolean builtFrom(byte[] regexYaml) {
+		return Arrays.equals(checksum, md5(regexYaml));
+	}
+
+	/**
+	 * User agent parser.
+	 *
+	 * @return a new user agent parser of the rules
+	 */
+	public UserAgentParser userAgentParser() {
+		return UserAgentParser.fromList(configs.get(0), MatchEngine.configured(), indexes.get(0));
+	}
+
+	/**
+	 * Os parser.
+	 *
+	 * @return a new OS parser of the rules
+	 */
+	public OSParser osParser() {
+		return OSParser.fromList(configs.get(1), MatchEngine.configured(), indexes.get(1));
+	}
+
+	/**
+	 * Device parser.
+	 *
+	 * @return a new device parser of the rules
+	 */
+	public DeviceParser deviceParser() {
+		return DeviceParser.fromList(configs.get(2), MatchEngine.configured(), indexes.get(2));
+	}
+
+	/**
+	 * Literal index.
+	 *
+	 * @param list the list
+	 * @return the literal index of the patterns of the list
+	 */
+	private LiteralIndex literalIndex(int list) {
+		if (indexes.get(list) != null) {
+			return indexes.get(list);
+		}
+		switch (list) {
+		case 0:
+			return UserAgentParser.fromList(configs.get(0), MatchEngine.LITERAL).literalIndex();
+		case 1:
+			return OSParser.fromList(configs.get(1), MatchEngine.LITERAL).literalIndex();
+		default:
+			return DeviceParser.fromList(configs.get(2), MatchEngine.LITERAL).literalIndex();
+		}
+	}
+
+	/**
+	 * Read trailer.
+	 *
+	 * @param bytes the bytes
+	 * @return the CRC32 in the last 4 bytes
+	 */
+	private static int readTrailer(byte[] bytes) {
+		int n = bytes.length;
+		return (bytes[n - 4] & 0xFF) << 24 | (bytes[n - 3] & 0xFF) << 16 | (bytes[n - 2] & 0xFF) << 8
+				| (bytes[n - 1] & 0xFF);
+	}
+
+	/**
+	 * Index.
+	 *
+	 * @param strings the strings
+	 * @param string the string
+	 */
+	private static void index(Map<String, Integer> strings, String string) {
+		if (!strings.containsKey(string)) {
+			strings.put(string, strings.size());
+		}
+	}
+
+	/**
+	 * String.
+	 *
+	 * @param strings the strings
+	 * @param index the index
+	 * @return the string
+	 */
+	private static String string(String[] strings, int index) {
+		if (index >= strings.length) {
+			throw new IllegalArgumentException("string " + index + " out of range");
+		}
+		return strings[index];
+	}
+
+	/**
+	 * Write count, 7 bits per byte, low bits first.
+	 *
+	 * @param data the data
+	 * @param count the count
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeCount(DataOutputStream data, int count) throws IOException {
+		while ((count & ~0x7F) != 0) {
+			data.writeByte((count & 0x7F) | 0x80);
+			count >>>= 7;
+		}
+		data.writeByte(count);
+	}
+
+	/**
+	 * Read count.
+	 *
+	 * @param data the data
+	 * @return the count
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static int readCount(DataInputStream data) throws IOException {
+		int count = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = data.readUnsignedByte();
+			count |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (count < 0) {
+					break;
+				}
+				return count;
+			}
+		}
+		throw new IllegalArgumentException("bad count");
+	}
+
+	/**
+	 * Md5.
+	 *
+	 * @param bytes the bytes
+	 * @return the digest
+	 */
+	private static byte[] md5(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * The main method, writes the snapshot of a regexes yaml.
+	 *
+	 * @param args the regexes yaml and the snapshot file to write
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: RuleSnapshot <regexes.yaml> <snapshot>");
+			System.exit(1);
+		}
+		RuleSnapshot rules;
+		try (InputStream in = new FileInputStream(args[0])) {
+			rules = fromYaml(IOUtils.toByteArray(in));
+		}
+		File file = new File(args[1]);
+		try (OutputStream out = new FileOutputStream(file)) {
+			rules.write(out);
+		}
+		System.out.println("wrote " + file.length() + " bytes to " + file);
+	}
+}
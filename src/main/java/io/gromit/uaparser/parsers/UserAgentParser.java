@@ -18,11 +18,17 @@ package io.gromit.uaparser.parsers;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import io.gromit.uaparser.cache.Cache;
 import io.gromit.uaparser.cache.NoCache;
+import io.gromit.uaparser.metrics.DimensionMetrics;
 import io.gromit.uaparser.model.Browser;
 
 /**
@@ -30,8 +36,29 @@ import io.gromit.uaparser.model.Browser;
  */
 public class UserAgentParser {
 
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(UserAgentParser.class);
+
 	/** The patterns. */
 	private final List<UAPattern> patterns;
+
+	/** The pattern filter. */
+	private final PatternFilter filter;
+
+	/** The candidates, one array per thread. */
+	private final CandidateBuffer candidates;
+
+	/** The matchers, one array per thread. */
+	private final MatcherBuffer matchers;
+
+	/** The pattern order, counting the wins of each pattern. */
+	private final PatternOrder patternOrder;
+
+	/** The indexes of the patterns in the order they are tried, null for list order. */
+	private final int[] order;
+
+	/** The parses given up for running out of budget, per pattern index. */
+	private final AtomicLongArray budgetExceeded;
 	
 	/**
 	 * Instantiates a new user agent parser.
@@ -40,7 +67,96 @@ public class UserAgentParser {
 	 *            the patterns
 	 */
 	public UserAgentParser(List<UAPattern> patterns) {
+		this(patterns, MatchEngine.configured());
+	}
+
+	/**
+	 * Instantiates a new user agent parser.
+	 *
+	 * @param patterns
+	 *            the patterns
+	 * @param engine
+	 *            the match engine
+	 */
+	public UserAgentParser(List<UAPattern> patterns, MatchEngine engine) {
+		this(patterns, engine, null);
+	}
+
+	/**
+	 * Instantiates a new user agent parser.
+	 *
+	 * @param patterns
+	 *            the patterns
+	 * @param engine
+	 *            the match engine
+	 * @param index
+	 *            the literal index of the patterns, built from them when
+	 *            null and the engine needs it
+	 */
+	UserAgentParser(List<UAPattern> patterns, MatchEngine engine, LiteralIndex index) {
 		this.patterns = patterns;
+		List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+		for (UAPattern p : patterns) {
+			regexes.add(p.pattern);
+		}
+		this.filter = engine.filter(regexes, index);
+		this.candidates = new CandidateBuffer(patterns.size());
+		this.matchers = new MatcherBuffer(regexes);
+		this.patternOrder = new PatternOrder(regexes);
+		this.order = null;
+		this.budgetExceeded = new AtomicLongArray(patterns.size());
+	}
+
+	/**
+	 * Instantiates a new user agent parser trying the patterns in another order.
+	 *
+	 * @param parser
+	 *            the parser to share patterns, filter and counters with
+	 * @param order
+	 *            the order, null for list order
+	 */
+	private UserAgentParser(UserAgentParser parser, int[] order) {
+		this.patterns = parser.patterns;
+		this.filter = parser.filter;
+		this.candidates = parser.candidates;
+		this.matchers = parser.matchers;
+		this.patternOrder = parser.patternOrder;
+		this.order = order;
+		this.budgetExceeded = parser.budgetExceeded;
+	}
+
+	/**
+	 * Reorder, moves the patterns that matched most often so far ahead of
+	 * earlier ones that provably never match the same agent strings.
+	 *
+	 * @return a parser giving the same results as this one
+	 */
+	public UserAgentParser reorder() {
+		return new UserAgentParser(this, patternOrder.reorder());
+	}
+
+	/**
+	 * Budget exceeded.
+	 *
+	 * @return the parses given up for running out of budget
+	 */
+	public long budgetExceeded() {
+		long total = 0;
+		for (int i = 0; i < budgetExceeded.length(); i++) {
+			total += budgetExceeded.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Budget exceeded.
+	 *
+	 * @param pattern
+	 *            the pattern index, as in the regexes file
+	 * @return the parses given up while running the pattern
+	 */
+	public long budgetExceeded(int pattern) {
+		return budgetExceeded.get(pattern);
 	}
 
 	/**
@@ -51,12 +167,58 @@ public class UserAgentParser {
 	 * @return the user agent parser
 	 */
 	public static UserAgentParser fromList(List<Map<String, String>> configList) {
-		List<UAPattern> configPatterns = new ArrayList<UAPattern>();
+		return fromList(configList, MatchEngine.configured());
+	}
+
+	/**
+	 * From list.
+	 *
+	 * @param configList
+	 *            the config list
+	 * @param engine
+	 *            the match engine
+	 * @return the user agent parser
+	 */
+	public static UserAgentParser fromList(List<Map<String, String>> configList, MatchEngine engine) {
+		return fromList(configList, engine, null);
+	}
+
+	/**
+	 * From list, compiling the patterns in parallel when called from a
+	 * ForkJoin task.
+	 *
+	 * @param configList
+	 *            the config list
+	 * @param engine
+	 *            the match engine
+	 * @param index
+	 *            the literal index of the patterns, null to build it
+	 * @return the user agent parser
+	 */
+	static UserAgentParser fromList(List<Map<String, String>> configList, MatchEngine engine, LiteralIndex index) {
+		List<UAPattern> configPatterns = ForkJoinMap.map(configList, new Function<Map<String, String>, UAPattern>() {
+			@Override
+			public UAPattern apply(Map<String, String> configMap) {
+				return UserAgentParser.patternFromMap(configMap);
+			}
+		});
+		return new UserAgentParser(configPatterns, engine, index);
+	}
 
-		for (Map<String, String> configMap : configList) {
-			configPatterns.add(UserAgentParser.patternFromMap(configMap));
+	/**
+	 * Literal index.
+	 *
+	 * @return the literal index of the patterns
+	 */
+	LiteralIndex literalIndex() {
+		if (filter instanceof LiteralIndex) {
+			return (LiteralIndex) filter;
 		}
-		return new UserAgentParser(configPatterns);
+		List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+		for (UAPattern p : patterns) {
+			regexes.add(p.pattern);
+		}
+		return LiteralIndex.build(regexes);
 	}
 	
 	/**
@@ -77,19 +239,110 @@ public class UserAgentParser {
 	 * @return the user agent
 	 */
 	public Browser parse(String agentString, Cache cache) {
+		return parse(agentString, cache, ParseBudget.UNLIMITED);
+	}
+
+	/**
+	 * Parses the, giving up with the result of no match once the budget is
+	 * spent.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @return the user agent
+	 */
+	public Browser parse(String agentString, Cache cache, ParseBudget budget) {
+		return parse(agentString, cache, budget, null);
+	}
+
+	/**
+	 * Parses the, recording the cost of the parse.
+	 *
+	 * @param agentString
+	 *            the agent string
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @param metrics
+	 *            the metrics to record into, null for none
+	 * @return the user agent
+	 */
+	public Browser parse(String agentString, Cache cache, ParseBudget budget, DimensionMetrics metrics) {
+		return parse(agentString, cache, budget, metrics, ParseOptions.FULL);
+	}
+
+	/**
+	 * Parses the, recording the cost of the parse and extracting as much
+	 * of the result as the options ask for. The agent string is read in
+	 * place, it is copied into a string only for a cache keyed by strings.
+	 *
+	 * @param agentString
+	 *            the agent string, like a {@link String} or an
+	 *            {@link AsciiSequence} over the bytes of a header
+	 * @param cache
+	 *            the cache
+	 * @param budget
+	 *            the budget
+	 * @param metrics
+	 *            the metrics to record into, null for none
+	 * @param options
+	 *            how much of the result to extract
+	 * @return the user agent
+	 */
+	public Browser parse(CharSequence agentString, Cache cache, ParseBudget budget, DimensionMetrics metrics,
+			ParseOptions options) {
 		if (agentString == null) {
 			return null;
 		}
-		Browser agent = cache.getUserAgent(agentString);
+		long start = metrics == null ? 0 : metrics.start();
+		CharSequence key = CacheLookup.key(cache, options.cacheKey(agentString));
+		Browser agent = CacheLookup.userAgent(cache, key);
 		if(agent==null){
-			for (UAPattern p : patterns) {
-				if ((agent = p.match(agentString)) != null) {
-					cache.putUserAgent(agentString, agent);
+			CharSequence input = budget.truncate(agentString);
+			CharSequence sequence = budget.sequence(input);
+			boolean[] candidates = this.candidates.get();
+			filter.candidates(input, candidates);
+			int[] order = this.order != null && PatternOrder.reorderable(input) ? this.order : null;
+			int evaluated = 0;
+			for (int k = 0; k < candidates.length; k++) {
+				int i = order == null ? k : order[k];
+				if (!candidates[i]) {
+					continue;
+				}
+				evaluated++;
+				Matcher matcher = matchers.matcher(i, sequence);
+				try {
+					agent = patterns.get(i).match(input, matcher, options);
+				} catch (BudgetExceededException e) {
+					budgetExceeded.incrementAndGet(i);
+					logger.debug("parse budget exceeded by pattern {} on {}", i, agentString);
+					if (metrics != null) {
+						metrics.overBudget(start, evaluated);
+					}
+					return Browser.OTHER;
+				} finally {
+					MatcherBuffer.release(matcher);
+				}
+				if (agent != null) {
+					patternOrder.hit(i);
+					CacheLookup.putUserAgent(cache, key, agent);
+					if (metrics != null) {
+						metrics.matched(start, evaluated);
+					}
 					return agent;
 				}
 			}
-			agent = new Browser("Other", null, null, null);
-			cache.putUserAgent(agentString, agent);
+			agent = Browser.OTHER;
+			CacheLookup.putUserAgent(cache, key, agent);
+			if (metrics != null) {
+				metrics.fellThrough(start, evaluated);
+			}
+		} else if (metrics != null) {
+			metrics.hit(start);
 		}
 		return agent;
 	}
@@ -122,6 +375,9 @@ public class UserAgentParser {
 		/** The v2 replacement. */
 		private final String familyReplacement, v1Replacement, v2Replacement;
 
+		/** The family template, null without family replacement. */
+		private final ReplacementTemplate familyTemplate;
+
 		/**
 		 * Instantiates a new UA pattern.
 		 *
@@ -139,6 +395,8 @@ public class UserAgentParser {
 			this.familyReplacement = familyReplacement;
 			this.v1Replacement = v1Replacement;
 			this.v2Replacement = v2Replacement;
+			this.familyTemplate = familyReplacement == null ? null
+					: ReplacementTemplate.firstGroup(familyReplacement, false);
 		}
 
 		/**
@@ -149,8 +407,31 @@ public class UserAgentParser {
 		 * @return the user agent
 		 */
 		public Browser match(String agentString) {
+			return match(agentString, agentString);
+		}
+
+		/**
+		 * Match.
+		 *
+		 * @param agentString the agent string
+		 * @param input the agent string as the pattern reads it
+		 * @return the user agent
+		 */
+		Browser match(CharSequence agentString, CharSequence input) {
+			return match(agentString, pattern.matcher(input), ParseOptions.FULL);
+		}
+
+		/**
+		 * Match, extracting as much of the result as the options ask for.
+		 *
+		 * @param agentString the agent string
+		 * @param matcher the matcher of the pattern, reset to the agent string as
+		 *            the pattern reads it
+		 * @param options the options
+		 * @return the user agent
+		 */
+		Browser match(CharSequence agentString, Matcher matcher, ParseOptions options) {
 			String family = null, v1 = null, v2 = null, v3 = null;
-			Matcher matcher = pattern.matcher(agentString);
 
 			if (!matcher.find()) {
 				return null;
@@ -159,8 +440,8 @@ public class UserAgentParser {
 			int groupCount = matcher.groupCount();
 
 			if (familyReplacement != null) {
-				if (familyReplacement.contains("$1") && groupCount >= 1 && matcher.group(1) != null) {
-					family = familyReplacement.replaceFirst("\\$1", Matcher.quoteReplacement(matcher.group(1)));
+				if (familyTemplate.hasGroups() && groupCount >= 1 && matcher.start(1) >= 0) {
+					family = familyTemplate.expand(agentString, matcher);
 				} else {
 					family = familyReplacement;
 				}
@@ -168,12 +449,20 @@ public class UserAgentParser {
 				family = matcher.group(1);
 			}
 
+			if (family == null || options == ParseOptions.FAMILIES) {
+				return family == null ? null : ResultInterner.browser(family, null, null, null);
+			}
+
 			if (v1Replacement != null) {
 				v1 = v1Replacement;
 			} else if (groupCount >= 2) {
 				v1 = matcher.group(2);
 			}
 
+			if (options == ParseOptions.MAJOR) {
+				return ResultInterner.browser(family, v1, null, null);
+			}
+
 			if (v2Replacement != null) {
 				v2 = v2Replacement;
 			} else if (groupCount >= 3) {
@@ -182,7 +471,7 @@ public class UserAgentParser {
 					v3 = matcher.group(4);
 				}
 			}
-			return family == null ? null : new Browser(family, v1, v2, v3);
+			return family == null ? null : ResultInterner.browser(family, v1, v2, v3);
 		}
 	}
 }
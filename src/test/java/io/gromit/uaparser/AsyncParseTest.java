@@ -0,0 +1,117 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Client;
+
+public class AsyncParseTest {
+
+	private static final String YAML = "user_agent_parsers:\n  - regex: '(Foo)/(\\d+)'\n"
+			+ "os_parsers:\n  - regex: '(Bar) (\\d+)'\n" + "device_parsers:\n  - regex: '(Qux)'\n";
+
+	private final List<Runnable> queued = new ArrayList<Runnable>();
+
+	private final Executor queue = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			queued.add(command);
+		}
+	};
+
+	private final ParserMetrics metrics = new ParserMetrics(1);
+
+	private Parser parser;
+
+	@Before
+	public void setUp() {
+		parser = new Parser(new ByteArrayInputStream(YAML.getBytes(StandardCharsets.UTF_8)))
+				.cache(new GuavaCache()).metrics(metrics).asyncExecutor(queue, 2);
+	}
+
+	@Test
+	public void testMissesAreOffloaded() throws Exception {
+		CompletableFuture<Client> client = parser.parseAsync("Foo/3 Bar 7 Qux");
+		CompletableFuture<Browser> browser = parser.parseBrowserAsync("Foo/4");
+		assertThat(client.isDone(), is(false));
+		assertThat(queued.size(), is(2));
+		assertThat(parser.pendingAsync(), is(2));
+		for (Runnable task : queued) {
+			task.run();
+		}
+		assertThat(parser.pendingAsync(), is(0));
+		assertThat(client.get(), equalTo(parser.parse("Foo/3 Bar 7 Qux")));
+		assertThat(browser.get().major, is("4"));
+		assertThat(metrics.getAsyncOffloaded(), is(2L));
+	}
+
+	@Test
+	public void testHitsCompleteOnTheCaller() throws Exception {
+		parser.parse("Foo/3 Bar 7 Qux");
+		CompletableFuture<Client> client = parser.parseAsync("Foo/3 Bar 7 Qux");
+		assertThat(client.isDone(), is(true));
+		assertThat(client.get().os.major, is("7"));
+		assertThat(parser.parseOSAsync("Foo/3 Bar 7 Qux").get().family, is("Bar"));
+		assertThat(parser.parseDeviceAsync("Foo/3 Bar 7 Qux").get().family, is("Qux"));
+		assertThat(parser.parseBrowserAsync(null).get(), nullValue());
+		assertThat(queued.size(), is(0));
+		assertThat(metrics.getAsyncInline(), is(4L));
+		assertThat(metrics.browser.getCacheHits(), is(1L));
+		assertThat(metrics.os.getCacheHits(), is(2L));
+	}
+
+	@Test
+	public void testBoundedQueueing() throws Exception {
+		parser.parseOSAsync("Bar 1");
+		parser.parseOSAsync("Bar 2");
+		CompletableFuture<Client> rejected = parser.parseAsync("Foo/5");
+		assertThat(rejected.isCompletedExceptionally(), is(true));
+		assertThat(metrics.getAsyncRejected(), is(1L));
+		assertThat(parser.pendingAsync(), is(2));
+		queued.get(0).run();
+		assertThat(parser.parseAsync("Foo/5").isCompletedExceptionally(), is(false));
+	}
+
+	@Test
+	public void testExecutorRejection() throws Exception {
+		parser.asyncExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("shut down");
+			}
+		}, 10);
+		try {
+			parser.parseDeviceAsync("Qux").get();
+			fail("rejection not reported");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+		}
+		assertThat(parser.pendingAsync(), is(0));
+		assertThat(metrics.getAsyncRejected(), is(1L));
+	}
+
+	@Test
+	public void testDefaultExecutor() throws Exception {
+		Parser parser = new Parser(new ByteArrayInputStream(YAML.getBytes(StandardCharsets.UTF_8)));
+		assertThat(parser.parseBrowserAsync("Foo/9").get().major, is("9"));
+	}
+}
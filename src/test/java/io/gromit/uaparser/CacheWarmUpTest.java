@@ -0,0 +1,88 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.cache.HotKeys;
+
+public class CacheWarmUpTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String yaml(String family) {
+		return "user_agent_parsers:\n  - regex: '(Foo)/(\\d+)'\n    family_replacement: '" + family + "'\n"
+				+ "os_parsers:\n  - regex: '(Bar) (\\d+)'\n"
+				+ "device_parsers:\n  - regex: '(Qux)'\n";
+	}
+
+	private static Parser reload(Parser parser, File yaml) throws InterruptedException {
+		final CountDownLatch loaded = new CountDownLatch(1);
+		parser.loaderListener(new LoaderListener() {
+			@Override
+			public void success(String url) {
+				loaded.countDown();
+			}
+
+			@Override
+			public void failure(String url, Exception e) {
+			}
+		}).uaRegexYaml(yaml.toURI().toString()).startSchedule();
+		assertTrue(loaded.await(30, TimeUnit.SECONDS));
+		return parser.stopSchedule();
+	}
+
+	@Test
+	public void testHotKeysRefilledOnReload() throws Exception {
+		GuavaCache cache = new GuavaCache();
+		Parser parser = new Parser(new ByteArrayInputStream(yaml("Old").getBytes(StandardCharsets.UTF_8)))
+				.cache(cache).cleanCacheOnUpdate(true).hotKeys(new HotKeys(2, 1));
+		for (int i = 0; i < 5; i++) {
+			parser.parse("Foo/1 Bar 1 Qux");
+		}
+		for (int i = 0; i < 3; i++) {
+			parser.parse("Foo/2 Bar 2");
+		}
+		parser.parse("Foo/3");
+		assertThat(cache.getUserAgent("Foo/3").family, is("Old"));
+
+		File next = folder.newFile("regexes.yaml");
+		FileUtils.writeStringToFile(next, yaml("New"), StandardCharsets.UTF_8);
+		reload(parser, next);
+
+		assertThat(cache.getUserAgent("Foo/1 Bar 1 Qux").family, is("New"));
+		assertThat(cache.getOs("Foo/1 Bar 1 Qux").family, is("Bar"));
+		assertThat(cache.getDevice("Foo/1 Bar 1 Qux").family, is("Qux"));
+		assertThat(cache.getUserAgent("Foo/2 Bar 2").family, is("New"));
+		assertThat(cache.getUserAgent("Foo/3"), nullValue());
+	}
+
+	@Test
+	public void testCleanedWithoutHotKeys() throws Exception {
+		GuavaCache cache = new GuavaCache();
+		Parser parser = new Parser(new ByteArrayInputStream(yaml("Old").getBytes(StandardCharsets.UTF_8)))
+				.cache(cache).cleanCacheOnUpdate(true);
+		parser.parse("Foo/1");
+
+		File next = folder.newFile("regexes.yaml");
+		FileUtils.writeStringToFile(next, yaml("New"), StandardCharsets.UTF_8);
+		reload(parser, next);
+
+		assertThat(cache.getUserAgent("Foo/1"), nullValue());
+		assertThat(parser.parse("Foo/1").browser.family, is("New"));
+	}
+}
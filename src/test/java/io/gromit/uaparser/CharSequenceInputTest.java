@@ -0,0 +1,103 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.cache.HotKeys;
+import io.gromit.uaparser.cache.OffHeapCache;
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Client;
+import io.gromit.uaparser.parsers.AsciiSequence;
+import io.gromit.uaparser.parsers.ParseBudget;
+import io.gromit.uaparser.parsers.ParseOptions;
+
+public class CharSequenceInputTest {
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = CharSequenceInputTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = CharSequenceInputTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8).subList(0, 500);
+		}
+	}
+
+	private static Parser parser() {
+		return new Parser(new ByteArrayInputStream(regexYaml));
+	}
+
+	private static ByteBuffer direct(String agent) {
+		byte[] bytes = agent.getBytes(StandardCharsets.ISO_8859_1);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes).flip();
+		return buffer;
+	}
+
+	@Test
+	public void testBytesParseAsStrings() {
+		ParseBudget budget = ParseBudget.UNLIMITED.maxLength(256).maxSteps(1000000);
+		Parser strings = parser().budget(budget);
+		Parser bytes = parser().budget(budget);
+		for (String agent : agents) {
+			if (!StandardCharsets.ISO_8859_1.newEncoder().canEncode(agent)) {
+				continue;
+			}
+			Client client = strings.parse(agent);
+			AsciiSequence heap = new AsciiSequence(agent.getBytes(StandardCharsets.ISO_8859_1));
+			assertThat(agent, bytes.parseBrowser(heap), equalTo(client.browser));
+			assertThat(agent, bytes.parseOS(new AsciiSequence(direct(agent))), equalTo(client.os));
+			assertThat(agent, bytes.parseDevice(new StringBuilder(agent)), equalTo(client.device));
+			assertThat(agent, bytes.parse(heap), equalTo(client));
+		}
+		assertThat(parser().parseOS((CharSequence) null), nullValue());
+	}
+
+	@Test
+	public void testOffHeapCacheIsSharedWithStrings() {
+		ParserMetrics metrics = new ParserMetrics(1);
+		Parser parser = parser().cache(new OffHeapCache(1000)).metrics(metrics);
+		String agent = agents.get(0);
+		Client client = parser.parse(agent);
+		AsciiSequence sequence = new AsciiSequence(direct(agent));
+		assertThat(parser.parseBrowser(sequence), equalTo(client.browser));
+		assertThat(parser.parseOS(sequence), equalTo(client.os));
+		assertThat(parser.parseDevice(sequence), equalTo(client.device));
+		assertThat(metrics.os.getCacheMisses(), is(1L));
+		assertThat(metrics.os.getCacheHits(), is(1L));
+		assertThat(parser.parseOS(sequence, ParseOptions.FAMILIES).family, equalTo(client.os.family));
+		assertThat(parser.parseOS(agent, ParseOptions.FAMILIES).family, equalTo(client.os.family));
+		assertThat(metrics.os.getCacheMisses(), is(2L));
+		assertThat(metrics.os.getCacheHits(), is(2L));
+	}
+
+	@Test
+	public void testStringCachesGetStrings() {
+		ParserMetrics metrics = new ParserMetrics(1);
+		HotKeys hotKeys = new HotKeys(10, 1);
+		Parser parser = parser().cache(new GuavaCache()).metrics(metrics).hotKeys(hotKeys);
+		String agent = agents.get(0);
+		AsciiSequence sequence = new AsciiSequence(agent.getBytes(StandardCharsets.ISO_8859_1));
+		assertThat(parser.parseBrowser(sequence), equalTo(parser.parseBrowser(agent)));
+		assertThat(metrics.browser.getCacheHits(), is(1L));
+		assertThat(hotKeys.hottest().get(0), is(agent));
+	}
+}
@@ -0,0 +1,106 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Client;
+import io.gromit.uaparser.model.OS;
+
+public class LazyClientTest {
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = LazyClientTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = LazyClientTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8).subList(0, 300);
+		}
+	}
+
+	private static Parser parser() {
+		return new Parser(new ByteArrayInputStream(regexYaml));
+	}
+
+	@Test
+	public void testOnlyTheDimensionReadIsParsed() {
+		ParserMetrics metrics = new ParserMetrics(1);
+		Parser parser = parser().metrics(metrics);
+		LazyClient client = parser.parseLazy(agents.get(0));
+		assertThat(metrics.os.getCacheMisses(), is(0L));
+		OS os = client.getOs();
+		assertThat(client.getOs(), sameInstance(os));
+		assertThat(metrics.os.getCacheMisses(), is(1L));
+		assertThat(metrics.browser.getCacheMisses(), is(0L));
+		assertThat(metrics.device.getCacheMisses(), is(0L));
+		assertThat(client.userAgent, is(agents.get(0)));
+		Client resolved = client.toClient();
+		assertThat(resolved.os, sameInstance(os));
+		assertThat(resolved.browser.family, is(client.getBrowser().family));
+		assertThat(metrics.browser.getCacheMisses(), is(1L));
+	}
+
+	@Test
+	public void testSameAsEager() {
+		Parser parser = parser();
+		for (String agent : agents) {
+			Client eager = parser.parse(agent);
+			LazyClient lazy = parser.parseLazy(agent);
+			assertThat(lazy.toClient(), equalTo(eager));
+			assertThat(eager, equalTo(parser.parseLazy(agent).toClient()));
+			assertThat(lazy.toClient().hashCode(), is(eager.hashCode()));
+			assertThat(lazy.toString(), is(eager.toString()));
+			assertThat(lazy.getDevice(), equalTo(eager.device));
+		}
+		assertThat(parser.parseLazy(null).getBrowser(), nullValue());
+	}
+
+	@Test
+	public void testConcurrentFirstAccess() throws Exception {
+		Parser parser = parser();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (String agent : agents.subList(0, 50)) {
+				final LazyClient client = parser.parseLazy(agent);
+				List<Future<String>> families = new ArrayList<Future<String>>();
+				for (int t = 0; t < 4; t++) {
+					families.add(executor.submit(new Callable<String>() {
+						@Override
+						public String call() {
+							return client.getBrowser().family + client.getOs().family + client.getDevice().family;
+						}
+					}));
+				}
+				Client eager = parser.parse(agent);
+				for (Future<String> family : families) {
+					assertThat(family.get(), is(eager.browser.family + eager.os.family + eager.device.family));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.gromit.uaparser.parsers.RuleSnapshot;
+
+public class LoadModeTest {
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = LoadModeTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = LoadModeTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8).subList(0, 1000);
+		}
+	}
+
+	private static void assertParsesAsEager(Parser parser) {
+		Parser eager = new Parser(new ByteArrayInputStream(regexYaml), LoadMode.EAGER);
+		for (String agent : agents) {
+			assertThat(agent, parser.parse(agent), equalTo(eager.parse(agent)));
+		}
+	}
+
+	@Test
+	public void testParallel() {
+		assertParsesAsEager(new Parser(new ByteArrayInputStream(regexYaml), LoadMode.PARALLEL));
+	}
+
+	@Test
+	public void testLazy() {
+		assertParsesAsEager(new Parser(new ByteArrayInputStream(regexYaml), LoadMode.LAZY));
+	}
+
+	@Test
+	public void testLazySnapshot() {
+		RuleSnapshot rules = RuleSnapshot.fromYaml(regexYaml);
+		assertParsesAsEager(new Parser(rules, LoadMode.LAZY));
+	}
+
+	@Test
+	public void testLazyCompileInBackground() {
+		Parser parser = new Parser(new ByteArrayInputStream(regexYaml), LoadMode.LAZY).compileInBackground();
+		assertThat(parser.parsers(), notNullValue());
+		assertParsesAsEager(parser);
+	}
+
+	@Test
+	public void testLazyErrorsShowOnFirstParse() {
+		byte[] broken = "user_agent_parsers: []\n".getBytes(StandardCharsets.UTF_8);
+		Parser parser = new Parser(new ByteArrayInputStream(broken), LoadMode.LAZY);
+		for (int i = 0; i < 2; i++) {
+			try {
+				parser.parse("Mozilla/5.0");
+				fail("missing lists not reported");
+			} catch (IllegalArgumentException e) {
+				assertThat(e.getMessage(), is("os_parsers is missing from yaml"));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEagerErrorsShowOnLoad() {
+		new Parser(new ByteArrayInputStream("user_agent_parsers: []\n".getBytes(StandardCharsets.UTF_8)),
+				LoadMode.EAGER);
+	}
+
+	@Test
+	public void testConfigured() {
+		System.setProperty(LoadMode.PROPERTY, "lazy");
+		try {
+			assertThat(LoadMode.configured(), is(LoadMode.LAZY));
+		} finally {
+			System.clearProperty(LoadMode.PROPERTY);
+		}
+		assertThat(LoadMode.configured(), is(LoadMode.EAGER));
+	}
+}
@@ -0,0 +1,121 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.cache.HotKeys;
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Client;
+
+public class NormalizerTest {
+
+	private static final String FIREFOX = "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; fr; rv:1.9.1.5) Gecko/20091102 Firefox/3.5.5";
+
+	private static final Normalizer GFE = Normalizer.NONE.stripSuffix(",gzip(gfe)");
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = NormalizerTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = NormalizerTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static Parser parser() {
+		return new Parser(new ByteArrayInputStream(regexYaml));
+	}
+
+	@Test
+	public void testRules() {
+		Normalizer normalizer = GFE.collapseWhitespace();
+		assertThat(normalizer.normalize(FIREFOX), is(sameInstance(FIREFOX)));
+		assertThat(GFE.normalize(FIREFOX + ",gzip(gfe),gzip(gfe)"), is(FIREFOX));
+		assertThat(GFE.normalize("a  b"), is("a  b"));
+		assertThat(normalizer.normalize("  Mozilla/5.0  (X11;\tLinux \t x86_64) \t"), is("Mozilla/5.0 (X11;\tLinux x86_64)"));
+		assertThat(normalizer.normalize(new StringBuilder("a  b")).toString(), is("a b"));
+		assertThat(Normalizer.NONE.normalize("a  b"), is("a  b"));
+		Normalizer tokens = Normalizer.NONE.replaceAll("session=[0-9a-f]+", "session=");
+		assertThat(tokens.normalize("MyApp/2.1 session=9f86d081884c7d65"), is("MyApp/2.1 session="));
+	}
+
+	@Test
+	public void testProxySuffixIsNotAlwaysSafe() {
+		String webPageTest = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)"
+				+ " Chrome/67.0.3396.99 Safari/537.36 PTST/180620.180643";
+		Parser parser = parser();
+		assertThat(parser.parseBrowser(webPageTest).family, is("WebPageTest.org bot"));
+		assertThat(parser.parseBrowser(webPageTest + ",gzip(gfe)").family, is("Chrome"));
+		List<String> proxied = new ArrayList<String>();
+		for (String agent : agents) {
+			proxied.add(agent + ",gzip(gfe)");
+		}
+		proxied.add(webPageTest + ",gzip(gfe)");
+		Normalizer.Validation validation = GFE.validate(parser, proxied);
+		assertThat(validation.isValid(), is(false));
+		assertThat(validation.getMismatches(), hasItem(webPageTest + ",gzip(gfe)"));
+		assertThat(validation.getRewritten(), is(validation.getAgentStrings()));
+	}
+
+	@Test
+	public void testSyntheticNoiseIsNotAlwaysSafe() {
+		List<String> spaced = new ArrayList<String>();
+		for (String agent : agents.subList(0, 200)) {
+			spaced.add(agent.replace(" ", "  "));
+		}
+		Normalizer.Validation validation = Normalizer.NONE.collapseWhitespace().validate(parser(), spaced);
+		assertThat(validation.getMismatches().size(), is(greaterThan(0)));
+		assertThat(validation.getRewritten(), is(greaterThan(validation.getMismatches().size())));
+	}
+
+	@Test
+	public void testValidationFindsUnsafeRules() {
+		Normalizer unsafe = Normalizer.NONE.replaceAll("Firefox/[0-9.]+", "Firefox/1.0");
+		Normalizer.Validation validation = unsafe.validate(parser(), Arrays.asList(FIREFOX, FIREFOX));
+		assertThat(validation.isValid(), is(false));
+		assertThat(validation.getAgentStrings(), is(1));
+		assertThat(validation.getMismatches(), is(Arrays.asList(FIREFOX)));
+	}
+
+	@Test
+	public void testNormalizedAgentStringsShareCacheEntries() {
+		ParserMetrics metrics = new ParserMetrics(1);
+		HotKeys hotKeys = new HotKeys(10, 1);
+		Parser parser = parser().cache(new GuavaCache()).metrics(metrics).hotKeys(hotKeys)
+				.normalizer(GFE.collapseWhitespace());
+		Client client = parser.parse(FIREFOX);
+		Client proxied = parser.parse(FIREFOX + ",gzip(gfe)");
+		assertThat(proxied.userAgent, is(FIREFOX + ",gzip(gfe)"));
+		assertThat(proxied.browser, is(client.browser));
+		assertThat(parser.parseOS(FIREFOX + ",gzip(gfe),gzip(gfe)"), is(client.os));
+		assertThat(parser.parseLazy(FIREFOX + "  ").getDevice(), is(client.device));
+		assertThat(parser.parseAll(new String[] { FIREFOX + " " })[0].browser, is(client.browser));
+		assertThat(metrics.os.getCacheMisses(), is(1L));
+		assertThat(metrics.os.getCacheHits(), is(3L));
+		assertThat(metrics.getNormalized(), is(4L));
+		assertThat(metrics.getDistinctAgentStrings(), is(5L));
+		assertThat(metrics.getDistinctKeys(), is(1L));
+		assertThat(hotKeys.hottest(), is(Arrays.asList(FIREFOX)));
+	}
+}
@@ -0,0 +1,112 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Client;
+
+public class ParseAllTest {
+
+	private static byte[] regexYaml;
+
+	private static List<String> batch;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = ParseAllTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		List<String> agents;
+		try (InputStream in = ParseAllTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8).subList(0, 500);
+		}
+		Random random = new Random(7);
+		batch = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) {
+			batch.add(agents.get(random.nextInt(agents.size())));
+		}
+	}
+
+	private static Parser parser() {
+		return new Parser(new ByteArrayInputStream(regexYaml));
+	}
+
+	private static void assertAligned(List<Client> clients) {
+		Parser parser = parser();
+		assertThat(clients.size(), is(batch.size()));
+		for (int i = 0; i < batch.size(); i++) {
+			assertThat(clients.get(i), equalTo(parser.parse(batch.get(i))));
+		}
+	}
+
+	@Test
+	public void testSequential() {
+		assertAligned(parser().parseAll(batch));
+	}
+
+	@Test
+	public void testEachDistinctAgentParsedOnce() {
+		ParserMetrics metrics = new ParserMetrics(1);
+		Client[] clients = parser().metrics(metrics).parseAll(batch.toArray(new String[batch.size()]));
+		long distinct = new HashSet<String>(batch).size();
+		assertThat(metrics.browser.getCacheMisses(), is(distinct));
+		assertThat(metrics.os.getCacheMisses(), is(distinct));
+		assertThat(metrics.device.getCacheMisses(), is(distinct));
+		int repeated = batch.lastIndexOf(batch.get(0));
+		assertThat(clients[repeated], sameInstance(clients[0]));
+	}
+
+	@Test
+	public void testExecutor() {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			assertAligned(parser().parseAll(batch, executor));
+		} finally {
+			executor.shutdown();
+		}
+		assertAligned(parser().parseAll(batch, ForkJoinPool.commonPool()));
+	}
+
+	@Test
+	public void testRejectingExecutorRunsOnTheCaller() {
+		assertAligned(parser().parseAll(batch, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		}));
+	}
+
+	@Test
+	public void testNullsAndEmpty() {
+		Client[] clients = parser().parseAll(new String[] { null, "Foo", null });
+		assertThat(clients[0].browser, nullValue());
+		assertThat(clients[2], sameInstance(clients[0]));
+		assertThat(clients[1].browser.family, is("Other"));
+		assertThat(parser().parseAll(Collections.<String> emptyList()), equalTo(Arrays.<Client> asList()));
+	}
+}
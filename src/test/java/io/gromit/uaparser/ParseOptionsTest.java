@@ -0,0 +1,120 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.Cache;
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.cache.OffHeapCache;
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Client;
+import io.gromit.uaparser.parsers.ParseOptions;
+
+public class ParseOptionsTest {
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = ParseOptionsTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = ParseOptionsTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8).subList(0, 500);
+		}
+	}
+
+	private static Parser parser() {
+		return new Parser(new ByteArrayInputStream(regexYaml));
+	}
+
+	@Test
+	public void testFamiliesMatchFullParse() {
+		Parser parser = parser();
+		for (String agent : agents) {
+			Client full = parser.parse(agent);
+			Client families = parser.parse(agent, ParseOptions.FAMILIES);
+			assertThat(agent, families.browser.family, equalTo(full.browser.family));
+			assertThat(agent, families.browser.major, nullValue());
+			assertThat(agent, families.browser.minor, nullValue());
+			assertThat(agent, families.os.family, equalTo(full.os.family));
+			assertThat(agent, families.os.major, nullValue());
+			assertThat(agent, families.os.patchMinor, nullValue());
+			assertThat(agent, families.device.family, equalTo(full.device.family));
+			assertThat(agent, families.device.brand, nullValue());
+			assertThat(agent, families.device.model, nullValue());
+		}
+	}
+
+	@Test
+	public void testMajorKeepsMajorVersions() {
+		Parser parser = parser();
+		for (String agent : agents) {
+			Client full = parser.parse(agent);
+			Client major = parser.parse(agent, ParseOptions.MAJOR);
+			assertThat(agent, major.browser.family, equalTo(full.browser.family));
+			assertThat(agent, major.browser.major, equalTo(full.browser.major));
+			assertThat(agent, major.browser.minor, nullValue());
+			assertThat(agent, major.browser.patch, nullValue());
+			assertThat(agent, major.os.family, equalTo(full.os.family));
+			assertThat(agent, major.os.major, equalTo(full.os.major));
+			assertThat(agent, major.os.minor, nullValue());
+			assertThat(agent, major.device, equalTo(full.device));
+		}
+	}
+
+	@Test
+	public void testSingleDimensions() {
+		Parser parser = parser();
+		String agent = agents.get(0);
+		Client full = parser.parse(agent);
+		assertThat(parser.parseBrowser(agent, ParseOptions.FAMILIES).family, equalTo(full.browser.family));
+		assertThat(parser.parseOS(agent, ParseOptions.MAJOR).major, equalTo(full.os.major));
+		assertThat(parser.parseDevice(agent, ParseOptions.FULL), equalTo(full.device));
+	}
+
+	@Test
+	public void testLevelsAreCachedApart() {
+		ParserMetrics metrics = new ParserMetrics(1);
+		Parser parser = parser().cache(new GuavaCache()).metrics(metrics);
+		String agent = agents.get(0);
+		Client full = parser.parse(agent);
+		assertThat(metrics.os.getCacheMisses(), is(1L));
+		Client families = parser.parse(agent, ParseOptions.FAMILIES);
+		assertThat(metrics.os.getCacheMisses(), is(2L));
+		assertThat(parser.parse(agent, ParseOptions.FAMILIES), equalTo(families));
+		assertThat(parser.parse(agent), equalTo(full));
+		assertThat(metrics.os.getCacheMisses(), is(2L));
+		assertThat(metrics.os.getCacheHits(), is(2L));
+	}
+
+	@Test
+	public void testControlCharsDoNotReachOtherLevels() {
+		for (Cache cache : Arrays.asList(new GuavaCache(), new OffHeapCache(1024))) {
+			Parser parser = parser().cache(cache);
+			String agent = "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:109.0) Gecko/20100101 Firefox/115.0";
+			Client families = parser.parse(agent, ParseOptions.FAMILIES);
+			Client prefixed = parser.parse("\u0001" + agent);
+			assertThat(prefixed.browser, equalTo(parser().parseBrowser("\u0001" + agent)));
+			assertThat(prefixed.browser.major, equalTo("115"));
+			assertThat(parser.parse(agent, ParseOptions.FAMILIES), equalTo(families));
+			parser.parse("\u0000" + agent);
+			assertThat(parser.parse("\u0000\u0000" + agent).browser.major, equalTo(prefixed.browser.major));
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.gromit.uaparser.cache.GuavaCache;
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.parsers.AsciiSequence;
+import io.gromit.uaparser.parsers.ParseOptions;
+
+public class PrecomputeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = PrecomputeTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = PrecomputeTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String yaml(String family) {
+		return "user_agent_parsers:\n  - regex: '(Foo)/(\\d+)'\n    family_replacement: '" + family + "'\n"
+				+ "os_parsers:\n  - regex: '(Bar) (\\d+)'\n"
+				+ "device_parsers:\n  - regex: '(Qux)'\n";
+	}
+
+	@Test
+	public void testSameResults() {
+		Parser plain = new Parser(new ByteArrayInputStream(regexYaml));
+		ParserMetrics metrics = new ParserMetrics(1);
+		Parser precomputed = new Parser(new ByteArrayInputStream(regexYaml)).metrics(metrics)
+				.precompute(agents.subList(0, 1000));
+		assertThat(precomputed.parsers().precomputed.size(), is(1000));
+		for (String agent : agents) {
+			assertThat(precomputed.parse(agent), is(plain.parse(agent)));
+		}
+		// no cache, so every hit came from the table
+		assertThat(metrics.browser.getCacheHits(), is(1000L));
+		assertThat(metrics.os.getCacheHits(), is(1000L));
+		assertThat(metrics.device.getCacheHits(), is(1000L));
+
+		String agent = agents.get(0);
+		assertThat(precomputed.parseOS(new AsciiSequence(agent.getBytes(StandardCharsets.ISO_8859_1))),
+				is(sameInstance(precomputed.parseOS(agent))));
+		assertThat(precomputed.parseBrowser(agent, ParseOptions.FAMILIES), is(plain.parseBrowser(agent, ParseOptions.FAMILIES)));
+		assertThat(precomputed.parseAll(agents.subList(0, 10)), is(plain.parseAll(agents.subList(0, 10))));
+	}
+
+	@Test
+	public void testInFrontOfTheCache() {
+		GuavaCache cache = new GuavaCache();
+		Parser parser = new Parser(new ByteArrayInputStream(regexYaml)).cache(cache)
+				.precompute(Arrays.asList(agents.get(0), null, agents.get(0)));
+		assertThat(parser.parsers().precomputed.size(), is(1));
+		parser.parse(agents.get(0));
+		parser.parse(agents.get(1));
+		assertThat(cache.getUserAgent(agents.get(0)), is(nullValue()));
+		assertThat(cache.getUserAgent(agents.get(1)), is(parser.parseBrowser(agents.get(1))));
+		parser.reorderPatterns();
+		assertThat(parser.parsers().precomputed.size(), is(1));
+		parser.precompute(null);
+		assertThat(parser.parsers().precomputed, is(nullValue()));
+	}
+
+	@Test
+	public void testLazyLoad() {
+		Parser parser = new Parser(new ByteArrayInputStream(regexYaml), LoadMode.LAZY)
+				.precompute(agents.subList(0, 10));
+		assertThat(parser.parsers().precomputed.size(), is(10));
+	}
+
+	@Test
+	public void testRebuiltOnReload() throws Exception {
+		Parser parser = new Parser(new ByteArrayInputStream(yaml("Old").getBytes(StandardCharsets.UTF_8)))
+				.precompute(Arrays.asList("Foo/1 Bar 1 Qux", "Foo/2"));
+		assertThat(parser.parse("Foo/1 Bar 1 Qux").browser.family, is("Old"));
+
+		File next = folder.newFile("regexes.yaml");
+		FileUtils.writeStringToFile(next, yaml("New"), StandardCharsets.UTF_8);
+		final CountDownLatch loaded = new CountDownLatch(1);
+		parser.loaderListener(new LoaderListener() {
+			@Override
+			public void success(String url) {
+				loaded.countDown();
+			}
+
+			@Override
+			public void failure(String url, Exception e) {
+			}
+		}).uaRegexYaml(next.toURI().toString()).startSchedule();
+		assertTrue(loaded.await(30, TimeUnit.SECONDS));
+		parser.stopSchedule();
+
+		assertThat(parser.parsers().precomputed.size(), is(2));
+		assertThat(parser.parsers().precomputed.getUserAgent("Foo/1 Bar 1 Qux").family, is("New"));
+		assertThat(parser.parse("Foo/1 Bar 1 Qux").browser.family, is("New"));
+		assertThat(parser.parse("Foo/1 Bar 1 Qux").os.family, is("Bar"));
+	}
+}
@@ -0,0 +1,206 @@
+package io.gromit.uaparser;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RegexYamlFetcherTest {
+
+	private static final String YAML = "user_agent_parsers:\n  - regex: '(Foo)/(\\d+)'\n"
+			+ "os_parsers:\n  - regex: '(Bar) (\\d+)'\n" + "device_parsers:\n  - regex: '(Qux)'\n";
+
+	private static final String ETAG = "\"v1\"";
+
+	private static final String LAST_MODIFIED = "Wed, 01 Jun 2016 00:00:00 GMT";
+
+	private HttpServer server;
+
+	private String url;
+
+	private final List<String> requests = new ArrayList<String>();
+
+	private volatile boolean validators = true;
+
+	private volatile long delay = 0;
+
+	private volatile String yaml = YAML;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/regexes.yaml", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+				String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				synchronized (requests) {
+					requests.add(ifNoneMatch + "|" + ifModifiedSince + "|" + acceptEncoding);
+				}
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (validators) {
+					exchange.getResponseHeaders().set("ETag", ETAG);
+					exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+				}
+				if (ETAG.equals(ifNoneMatch)) {
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = yaml.getBytes(StandardCharsets.UTF_8);
+				if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+					ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+					try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+						out.write(body);
+					}
+					body = gzipped.toByteArray();
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/regexes.yaml";
+	}
+
+	@After
+	public void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testNotModifiedSkipsTheBody() throws IOException {
+		RegexYamlFetcher fetcher = new RegexYamlFetcher(1000, 1000);
+		RegexYamlFetcher.Download download = fetcher.fetch(url);
+		assertThat(new String(download.yaml, StandardCharsets.UTF_8), is(YAML));
+		fetcher.loaded(url, download);
+		assertThat(fetcher.fetch(url), nullValue());
+		assertThat(requests.get(0), is("null|null|gzip"));
+		assertThat(requests.get(1), is(ETAG + "|" + LAST_MODIFIED + "|gzip"));
+	}
+
+	@Test
+	public void testNotLoadedFetchesAgain() throws IOException {
+		RegexYamlFetcher fetcher = new RegexYamlFetcher(1000, 1000);
+		fetcher.fetch(url);
+		assertThat(fetcher.fetch(url).yaml, equalTo(YAML.getBytes(StandardCharsets.UTF_8)));
+		assertThat(requests.get(1), is("null|null|gzip"));
+		fetcher.loaded(url, fetcher.fetch(url));
+		fetcher.forget(url);
+		assertThat(fetcher.fetch(url).yaml, equalTo(YAML.getBytes(StandardCharsets.UTF_8)));
+		assertThat(requests.get(3), is("null|null|gzip"));
+	}
+
+	@Test
+	public void testNoValidatorsFetchesAgain() throws IOException {
+		validators = false;
+		RegexYamlFetcher fetcher = new RegexYamlFetcher(1000, 1000);
+		fetcher.loaded(url, fetcher.fetch(url));
+		assertThat(fetcher.fetch(url).yaml, equalTo(YAML.getBytes(StandardCharsets.UTF_8)));
+		assertThat(requests.get(1), is("null|null|gzip"));
+	}
+
+	@Test
+	public void testNotFound() {
+		try {
+			new RegexYamlFetcher(1000, 1000).fetch(url.replace("regexes", "missing"));
+			fail("404 not reported");
+		} catch (IOException e) {
+			assertThat(e.getMessage(), is("HTTP 404 from " + url.replace("regexes", "missing")));
+		}
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void testReadTimeout() throws IOException {
+		delay = 2000;
+		new RegexYamlFetcher(1000, 200).fetch(url);
+	}
+
+	@Test
+	public void testParserReloadsFromTheServer() throws InterruptedException {
+		final CountDownLatch loaded = new CountDownLatch(1);
+		Parser parser = new Parser(new ByteArrayInputStream(
+				"user_agent_parsers: []\nos_parsers: []\ndevice_parsers: []\n".getBytes(StandardCharsets.UTF_8)))
+						.connectTimeout(1000).readTimeout(1000).loaderListener(new LoaderListener() {
+							@Override
+							public void success(String url) {
+								loaded.countDown();
+							}
+
+							@Override
+							public void failure(String url, Exception e) {
+							}
+						}).uaRegexYaml(url).startSchedule();
+		try {
+			assertTrue(loaded.await(30, TimeUnit.SECONDS));
+		} finally {
+			parser.stopSchedule();
+		}
+		assertThat(parser.parseBrowser("Foo/3").family, is("Foo"));
+	}
+
+	@Test
+	public void testFailedLoadIsNotAnsweredWithNotModified() throws InterruptedException {
+		yaml = "user_agent_parsers: [\n";
+		final CountDownLatch failed = new CountDownLatch(1);
+		final CountDownLatch loaded = new CountDownLatch(1);
+		Parser parser = new Parser(new ByteArrayInputStream(
+				"user_agent_parsers: []\nos_parsers: []\ndevice_parsers: []\n".getBytes(StandardCharsets.UTF_8)))
+						.connectTimeout(1000).readTimeout(1000).loaderListener(new LoaderListener() {
+							@Override
+							public void success(String url) {
+								loaded.countDown();
+							}
+
+							@Override
+							public void failure(String url, Exception e) {
+								failed.countDown();
+							}
+						}).uaRegexYaml(url).startSchedule();
+		try {
+			assertTrue(failed.await(30, TimeUnit.SECONDS));
+		} finally {
+			parser.stopSchedule();
+		}
+		yaml = YAML;
+		parser.startSchedule();
+		try {
+			assertTrue(loaded.await(30, TimeUnit.SECONDS));
+		} finally {
+			parser.stopSchedule();
+		}
+		assertThat(requests.get(1), is("null|null|gzip"));
+		assertThat(parser.parseBrowser("Foo/3").family, is("Foo"));
+	}
+}
@@ -0,0 +1,46 @@
+package io.gromit.uaparser.cache;
+
+import org.junit.Test;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CaffeineCacheTest {
+
+	@Test
+	public void testPutAndGet() {
+		CaffeineCache cache = new CaffeineCache(100);
+		String agent = "Mozilla/5.0 (X11) Chrome/120.0";
+		assertThat(cache.getUserAgent(agent), is(nullValue()));
+		cache.putUserAgent(agent, Browser.OTHER);
+		assertThat(cache.getOs(agent), is(nullValue()));
+		cache.putOS(agent, OS.OTHER);
+		cache.putDevice(agent, Device.OTHER);
+		assertThat(cache.getUserAgent(new String(agent)), is(sameInstance(Browser.OTHER)));
+		assertThat(cache.getOs(agent), is(sameInstance(OS.OTHER)));
+		assertThat(cache.getDevice(agent), is(sameInstance(Device.OTHER)));
+		assertThat(cache.stats().hitCount(), is(3L));
+		assertThat(cache.stats().missCount(), is(2L));
+		assertThat(cache.estimatedSize(), is(1L));
+		cache.clean();
+		assertThat(cache.getDevice(agent), is(nullValue()));
+	}
+
+	@Test
+	public void testMaximumWeight() {
+		CaffeineCache cache = new CaffeineCache(Caffeine.newBuilder().maximumWeight(100)
+				.weigher(CaffeineCache.AGENT_LENGTH).executor(MoreExecutors.directExecutor()));
+		for (int i = 0; i < 100; i++) {
+			cache.putUserAgent("Mozilla/5.0 Chrome/" + i, Browser.OTHER);
+		}
+		assertThat(cache.estimatedSize(), is(lessThanOrEqualTo(5L)));
+		assertThat(cache.stats().evictionCount(), is(greaterThanOrEqualTo(95L)));
+	}
+}
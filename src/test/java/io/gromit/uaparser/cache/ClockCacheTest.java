@@ -0,0 +1,50 @@
+package io.gromit.uaparser.cache;
+
+import org.junit.Test;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ClockCacheTest {
+
+	@Test
+	public void testPutAndGet() {
+		ClockCache cache = new ClockCache(10);
+		String agent = "Mozilla/5.0 (X11) Chrome/120.0";
+		assertThat(cache.getUserAgent(agent), is(nullValue()));
+		cache.putUserAgent(agent, Browser.OTHER);
+		assertThat(cache.getOs(agent), is(nullValue()));
+		cache.putOS(agent, OS.OTHER);
+		cache.putDevice(agent, Device.OTHER);
+		assertThat(cache.getUserAgent(new String(agent)), is(sameInstance(Browser.OTHER)));
+		assertThat(cache.getOs(agent), is(sameInstance(OS.OTHER)));
+		assertThat(cache.getDevice(agent), is(sameInstance(Device.OTHER)));
+		assertThat(cache.size(), is(1));
+	}
+
+	@Test
+	public void testReferencedEntriesSurvive() {
+		ClockCache cache = new ClockCache(10);
+		cache.putUserAgent("Hot", Browser.OTHER);
+		for (int i = 0; i < 1000; i++) {
+			cache.putUserAgent("Chrome/" + i, Browser.OTHER);
+			assertThat(cache.getUserAgent("Hot"), is(sameInstance(Browser.OTHER)));
+			assertThat(cache.size(), is(lessThanOrEqualTo(10)));
+		}
+		assertThat(cache.getUserAgent("Chrome/999"), is(sameInstance(Browser.OTHER)));
+		assertThat(cache.getUserAgent("Chrome/0"), is(nullValue()));
+	}
+
+	@Test
+	public void testClean() {
+		ClockCache cache = new ClockCache(10);
+		cache.putUserAgent("Chrome/120", Browser.OTHER);
+		cache.clean();
+		assertThat(cache.getUserAgent("Chrome/120"), is(nullValue()));
+		assertThat(cache.size(), is(0));
+	}
+}
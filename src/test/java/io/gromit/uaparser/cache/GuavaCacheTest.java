@@ -0,0 +1,34 @@
+package io.gromit.uaparser.cache;
+
+import org.junit.Test;
+
+import com.google.common.cache.CacheBuilder;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class GuavaCacheTest {
+
+	@Test
+	public void testOneEntryPerAgentString() {
+		com.google.common.cache.Cache<String, Object> entries = CacheBuilder.newBuilder().maximumSize(10).build();
+		GuavaCache cache = new GuavaCache(entries);
+		String agent = "Mozilla/5.0 (X11) Chrome/120.0";
+		assertThat(cache.getUserAgent(agent), is(nullValue()));
+		cache.putUserAgent(agent, Browser.OTHER);
+		assertThat(cache.getOs(agent), is(nullValue()));
+		cache.putOS(agent, OS.OTHER);
+		cache.putDevice(agent, Device.OTHER);
+		assertThat(entries.size(), is(1L));
+		assertThat(entries.asMap().keySet().iterator().next(), is(sameInstance(agent)));
+		assertThat(cache.getUserAgent(new String(agent)), is(sameInstance(Browser.OTHER)));
+		assertThat(cache.getOs(agent), is(sameInstance(OS.OTHER)));
+		assertThat(cache.getDevice(agent), is(sameInstance(Device.OTHER)));
+		cache.clean();
+		assertThat(cache.getDevice(agent), is(nullValue()));
+	}
+}
@@ -0,0 +1,74 @@
+package io.gromit.uaparser.cache;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class HotKeysTest {
+
+	@Test
+	public void testHottestFirst() {
+		HotKeys hotKeys = new HotKeys(2, 1);
+		for (int i = 0; i < 3; i++) {
+			hotKeys.record("b");
+		}
+		for (int i = 0; i < 5; i++) {
+			hotKeys.record("a");
+		}
+		hotKeys.record("c");
+		hotKeys.record(null);
+		assertThat(hotKeys.hottest(), equalTo(Arrays.asList("a", "b")));
+	}
+
+	@Test
+	public void testBounded() {
+		HotKeys hotKeys = new HotKeys(10, 1);
+		for (int i = 0; i < 10000; i++) {
+			if (i % 20 == 0) {
+				hotKeys.record("hot");
+			}
+			hotKeys.record("agent " + i);
+			assertThat(hotKeys.size(), lessThanOrEqualTo(20));
+		}
+		assertThat(hotKeys.hottest().get(0), is("hot"));
+		assertThat(hotKeys.hottest().size(), is(10));
+	}
+
+	@Test
+	public void testAgedOut() {
+		HotKeys hotKeys = new HotKeys(1, 1);
+		for (int i = 0; i < 8; i++) {
+			hotKeys.record("old");
+		}
+		// the counts kept are halved every 10 samples
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < 3; i++) {
+				hotKeys.record("new");
+			}
+			hotKeys.record("noise " + round);
+		}
+		assertThat(hotKeys.hottest(), equalTo(Arrays.asList("new")));
+	}
+
+	@Test
+	public void testSampling() {
+		HotKeys hotKeys = new HotKeys(10, 1000000);
+		hotKeys.record("a");
+		assertThat(hotKeys.size(), lessThanOrEqualTo(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacity() {
+		new HotKeys(0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSamplingAtLeastOne() {
+		new HotKeys(1, 0);
+	}
+}
@@ -0,0 +1,161 @@
+package io.gromit.uaparser.cache;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.gromit.uaparser.Parser;
+import io.gromit.uaparser.metrics.ParserMetrics;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+public class MappedFileCacheTest {
+
+	private static final byte[] RULES = "rules".getBytes();
+
+	private static final byte[] OTHER_RULES = "other rules".getBytes();
+
+	private static final Browser CHROME = new Browser("Chrome", "120", "0", null);
+
+	private static final OS ANDROID = new OS("Android", "14", null, null, null);
+
+	private static final Device PIXEL = new Device("Pixel 8", "Google", "Pixel 8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPutAndGet() throws IOException {
+		MappedFileCache cache = new MappedFileCache(folder.newFile(), 1000);
+		cache.ruleSet(RULES);
+		String agent = "Mozilla/5.0 (Linux; Android 14; Pixel 8) Chrome/120.0";
+		assertThat(cache.getUserAgent(agent), is(nullValue()));
+		cache.putUserAgent(agent, CHROME);
+		cache.putOS(agent, ANDROID);
+		cache.putDevice(agent, PIXEL);
+		assertThat(cache.getUserAgent(agent), is(CHROME));
+		assertThat(cache.getOs(agent), is(ANDROID));
+		assertThat(cache.getDevice(agent), is(PIXEL));
+		String wide = "Mozilla/5.0 \u4e2d\u6587";
+		cache.putUserAgent(wide, new Browser("\u4e2d\u6587", null, null, null));
+		assertThat(cache.getUserAgent(wide).family, is("\u4e2d\u6587"));
+		assertThat(cache.size(), is(4));
+	}
+
+	@Test
+	public void testSurvivesReopening() throws IOException {
+		File file = folder.newFile();
+		MappedFileCache first = new MappedFileCache(file, 1000);
+		first.ruleSet(RULES);
+		first.putUserAgent("Chrome/120", CHROME);
+		MappedFileCache second = new MappedFileCache(file, 50000);
+		second.ruleSet(RULES);
+		assertThat(second.getUserAgent("Chrome/120"), is(CHROME));
+		second.putOS("Chrome/120", ANDROID);
+		assertThat(first.getOs("Chrome/120"), is(ANDROID));
+		assertThat(file.length(), is(64L + 4096 * 128));
+	}
+
+	@Test
+	public void testOtherRuleSetsAreIgnored() throws IOException {
+		File file = folder.newFile();
+		MappedFileCache cache = new MappedFileCache(file, 1000);
+		cache.ruleSet(RULES);
+		cache.putUserAgent("Chrome/120", CHROME);
+		MappedFileCache other = new MappedFileCache(file, 1000);
+		other.ruleSet(OTHER_RULES);
+		assertThat(other.getUserAgent("Chrome/120"), is(nullValue()));
+		assertThat(other.size(), is(0));
+		other.putUserAgent("Chrome/120", Browser.OTHER);
+		assertThat(other.getUserAgent("Chrome/120"), is(Browser.OTHER));
+		assertThat(cache.getUserAgent("Chrome/120"), is(nullValue()));
+	}
+
+	@Test
+	public void testCorruptSlotsAreMisses() throws IOException {
+		File file = folder.newFile();
+		MappedFileCache cache = new MappedFileCache(file, 1);
+		cache.putUserAgent("Chrome/120", CHROME);
+		try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+			for (long position = 64 + 24; position < access.length(); position += 128) {
+				access.seek(position + 1);
+				access.write('X');
+			}
+		}
+		assertThat(cache.getUserAgent("Chrome/120"), is(nullValue()));
+	}
+
+	@Test
+	public void testGarbageFileIsLaidOutAgain() throws IOException {
+		File file = folder.newFile();
+		try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+			access.write("not a cache".getBytes());
+		}
+		MappedFileCache cache = new MappedFileCache(file, 1000);
+		cache.putUserAgent("Chrome/120", CHROME);
+		assertThat(cache.getUserAgent("Chrome/120"), is(CHROME));
+	}
+
+	@Test
+	public void testResultsTooLongAreNotCached() throws IOException {
+		MappedFileCache cache = new MappedFileCache(folder.newFile(), 1000);
+		cache.putDevice("Bot", new Device(StringUtils.repeat('x', 200), null, null));
+		assertThat(cache.getDevice("Bot"), is(nullValue()));
+	}
+
+	@Test
+	public void testCollisionsEvictWithinTheProbes() throws IOException {
+		MappedFileCache cache = new MappedFileCache(folder.newFile(), 1000) {
+			@Override
+			long fingerprint(CharSequence agentString) {
+				return agentString.length() * 0x10000L;
+			}
+		};
+		for (int i = 0; i < 100; i++) {
+			cache.putUserAgent(StringUtils.repeat('a', i), new Browser("a" + i, null, null, null));
+		}
+		assertThat(cache.getUserAgent(StringUtils.repeat('a', 99)).family, is("a99"));
+		assertThat(cache.size(), is(lessThanOrEqualTo(8)));
+	}
+
+	@Test
+	public void testCleanKeepsTheFileAndClearEmptiesIt() throws IOException {
+		File file = folder.newFile();
+		MappedFileCache cache = new MappedFileCache(file, 1000);
+		MappedFileCache other = new MappedFileCache(file, 1000);
+		cache.putUserAgent("Chrome/120", CHROME);
+		cache.clean();
+		assertThat(cache.getUserAgent("Chrome/120"), is(CHROME));
+		assertThat(other.getUserAgent("Chrome/120"), is(CHROME));
+		cache.clear();
+		assertThat(cache.getUserAgent("Chrome/120"), is(nullValue()));
+		assertThat(other.getUserAgent("Chrome/120"), is(nullValue()));
+		assertThat(cache.size(), is(0));
+	}
+
+	@Test
+	public void testRestartedParserHitsTheFile() throws IOException {
+		File file = folder.newFile();
+		String yaml = "user_agent_parsers:\n  - regex: '(Foo)/(\\d+)'\nos_parsers: []\ndevice_parsers: []\n";
+		new Parser(new ByteArrayInputStream(yaml.getBytes())).cache(new MappedFileCache(file)).parseBrowser("Foo/3");
+		ParserMetrics metrics = new ParserMetrics(1);
+		Parser restarted = new Parser(new ByteArrayInputStream(yaml.getBytes())).cache(new MappedFileCache(file))
+				.metrics(metrics);
+		assertThat(restarted.parseBrowser("Foo/3").major, is("3"));
+		assertThat(metrics.browser.getCacheHits(), is(1L));
+		Parser updated = new Parser(new ByteArrayInputStream((yaml + "\n").getBytes()))
+				.cache(new MappedFileCache(file)).metrics(metrics);
+		assertThat(updated.parseBrowser("Foo/3").major, is("3"));
+		assertThat(metrics.browser.getCacheMisses(), is(1L));
+	}
+}
@@ -0,0 +1,108 @@
+package io.gromit.uaparser.cache;
+
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.OffHeapCache.Collisions;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class OffHeapCacheTest {
+
+	private static final Browser CHROME = new Browser("Chrome", "120", "0", null);
+
+	private static final Browser FIREFOX = new Browser("Firefox", "115", null, null);
+
+	@Test
+	public void testPutAndGet() {
+		OffHeapCache cache = new OffHeapCache(1000);
+		String agent = "Mozilla/5.0 (X11) Chrome/120.0";
+		assertThat(cache.getUserAgent(agent), is(nullValue()));
+		cache.putUserAgent(agent, CHROME);
+		cache.putOS(agent, OS.OTHER);
+		assertThat(cache.getUserAgent(new String(agent)), is(CHROME));
+		assertThat(cache.getOs(agent), is(sameInstance(OS.OTHER)));
+		assertThat(cache.getDevice(agent), is(nullValue()));
+		cache.putDevice(agent, Device.OTHER);
+		assertThat(cache.getDevice(agent), is(sameInstance(Device.OTHER)));
+		String wide = "Mozilla/5.0 \u4e2d\u6587 Chrome/120.0";
+		cache.putUserAgent(wide, FIREFOX);
+		assertThat(cache.getUserAgent(wide), is(FIREFOX));
+		assertThat(cache.size(), is(2L));
+	}
+
+	@Test
+	public void testCollisions() {
+		OffHeapCache verify = new Colliding(Collisions.VERIFY);
+		verify.putUserAgent("Chrome/120", CHROME);
+		assertThat(verify.getUserAgent("Firefox/115"), is(nullValue()));
+		verify.putUserAgent("Firefox/115", FIREFOX);
+		assertThat(verify.getUserAgent("Chrome/120"), is(CHROME));
+		assertThat(verify.getUserAgent("Firefox/115"), is(FIREFOX));
+		OffHeapCache accept = new Colliding(Collisions.ACCEPT);
+		accept.putUserAgent("Chrome/120", CHROME);
+		assertThat(accept.getUserAgent("Firefox/115"), is(CHROME));
+	}
+
+	@Test
+	public void testCharSequenceKeys() {
+		OffHeapCache cache = new OffHeapCache(1000);
+		cache.putUserAgent(new StringBuilder("Chrome/120"), CHROME);
+		assertThat(cache.getUserAgent("Chrome/120"), is(CHROME));
+		cache.putOS("Chrome/120", OS.OTHER);
+		assertThat(cache.getOs(new StringBuilder("Chrome/120")), is(sameInstance(OS.OTHER)));
+		assertThat(cache.getDevice(new StringBuilder("Chrome/120")), is(nullValue()));
+		OffHeapCache verify = new Colliding(Collisions.VERIFY);
+		verify.putUserAgent(new StringBuilder("Chrome/120"), CHROME);
+		assertThat(verify.getUserAgent(new StringBuilder("Firefox/115")), is(nullValue()));
+		assertThat(verify.getUserAgent(new StringBuilder("Chrome/120")), is(CHROME));
+	}
+
+	@Test
+	public void testClean() {
+		OffHeapCache cache = new OffHeapCache(1000);
+		cache.putUserAgent("Chrome/120", CHROME);
+		cache.clean();
+		assertThat(cache.getUserAgent("Chrome/120"), is(nullValue()));
+		assertThat(cache.size(), is(0L));
+		cache.putUserAgent("Chrome/120", FIREFOX);
+		assertThat(cache.getUserAgent("Chrome/120"), is(FIREFOX));
+	}
+
+	@Test
+	public void testFullSegmentsAreEmptied() {
+		OffHeapCache cache = new OffHeapCache(64);
+		for (int i = 0; i < 100000; i++) {
+			cache.putUserAgent("Chrome/" + i, CHROME);
+			assertThat(cache.getUserAgent("Chrome/" + i), is(CHROME));
+		}
+		assertThat(cache.size(), is(lessThanOrEqualTo(64L * 12)));
+	}
+
+	@Test
+	public void testDistinctResultsAreBounded() {
+		OffHeapCache cache = new OffHeapCache(64);
+		for (int i = 0; i < 5000; i++) {
+			cache.putUserAgent("Chrome/" + i, new Browser("Chrome", String.valueOf(i), null, null));
+			assertThat(cache.distinctResults(), is(lessThanOrEqualTo(1024)));
+		}
+		cache.putUserAgent("Chrome/120", CHROME);
+		assertThat(cache.getUserAgent("Chrome/120"), is(CHROME));
+		assertThat(cache.distinctResults(), is(greaterThan(0)));
+	}
+
+	private static final class Colliding extends OffHeapCache {
+
+		Colliding(Collisions collisions) {
+			super(1000, collisions);
+		}
+
+		@Override
+		long fingerprint(CharSequence agentString) {
+			return 42;
+		}
+	}
+}
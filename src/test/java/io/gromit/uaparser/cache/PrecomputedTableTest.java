@@ -0,0 +1,84 @@
+package io.gromit.uaparser.cache;
+
+import org.junit.Test;
+
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class PrecomputedTableTest {
+
+	private static PrecomputedTable table(String... agentStrings) {
+		Browser[] userAgents = new Browser[agentStrings.length];
+		OS[] oses = new OS[agentStrings.length];
+		Device[] devices = new Device[agentStrings.length];
+		for (int i = 0; i < agentStrings.length; i++) {
+			userAgents[i] = new Browser("Browser " + i, null, null, null);
+			oses[i] = new OS("OS " + i, null, null, null, null);
+			devices[i] = new Device("Device " + i, null, null);
+		}
+		return new PrecomputedTable(agentStrings, userAgents, oses, devices);
+	}
+
+	@Test
+	public void testEveryAgentStringFound() {
+		String[] agentStrings = new String[20000];
+		for (int i = 0; i < agentStrings.length; i++) {
+			agentStrings[i] = "Mozilla/5.0 (X11) Chrome/" + i;
+		}
+		PrecomputedTable table = table(agentStrings);
+		assertThat(table.size(), is(agentStrings.length));
+		for (int i = 0; i < agentStrings.length; i++) {
+			assertThat(table.getUserAgent(agentStrings[i]).family, is("Browser " + i));
+			assertThat(table.getOs(new StringBuilder(agentStrings[i])).family, is("OS " + i));
+			assertThat(table.getDevice(new String(agentStrings[i])).family, is("Device " + i));
+		}
+		assertThat(table.getUserAgent("Mozilla/5.0 (X11) Chrome/20000"), is(nullValue()));
+		assertThat(table.getUserAgent("Mozilla/5.0 (X11) Chrome/"), is(nullValue()));
+		assertThat(table.getOs((CharSequence) null), is(nullValue()));
+	}
+
+	@Test
+	public void testRepeatedAndCollidingLeftOut() {
+		// "Aa" and "BB" share a hash code, the first one listed is kept
+		PrecomputedTable table = table("Aa", null, "Aa", "BB", "Cc");
+		assertThat(table.size(), is(2));
+		assertThat(table.getUserAgent("Aa").family, is("Browser 0"));
+		assertThat(table.getUserAgent("BB"), is(nullValue()));
+		assertThat(table.getUserAgent("Cc").family, is("Browser 4"));
+		assertThat(PrecomputedTable.EMPTY.getUserAgent("Aa"), is(nullValue()));
+		assertThat(PrecomputedTable.EMPTY.size(), is(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResultsPerAgentString() {
+		new PrecomputedTable(new String[] { "Aa" }, new Browser[0], new OS[1], new Device[1]);
+	}
+
+	@Test
+	public void testOverCache() {
+		PrecomputedTable table = table("Hot");
+		GuavaCache guava = new GuavaCache();
+		Cache layer = table.over(guava);
+		assertThat(layer, is(not(instanceOf(CharSequenceCache.class))));
+		assertThat(table.over(guava), is(sameInstance(layer)));
+		assertThat(layer.getUserAgent("Hot").family, is("Browser 0"));
+		assertThat(layer.getUserAgent("Cold"), is(nullValue()));
+		layer.putUserAgent("Cold", Browser.OTHER);
+		assertThat(guava.getUserAgent("Cold"), is(sameInstance(Browser.OTHER)));
+		assertThat(layer.getUserAgent("Cold"), is(sameInstance(Browser.OTHER)));
+		layer.clean();
+		assertThat(layer.getUserAgent("Cold"), is(nullValue()));
+		assertThat(layer.getUserAgent("Hot").family, is("Browser 0"));
+
+		OffHeapCache offHeap = new OffHeapCache(1024);
+		CharSequenceCache sequences = (CharSequenceCache) table.over(offHeap);
+		assertThat(sequences.getOs(new StringBuilder("Hot")).family, is("OS 0"));
+		sequences.putOS(new StringBuilder("Cold"), OS.OTHER);
+		assertThat(offHeap.getOs("Cold"), is(sameInstance(OS.OTHER)));
+		assertThat(table.over(guava), is(not(sameInstance(layer))));
+	}
+}
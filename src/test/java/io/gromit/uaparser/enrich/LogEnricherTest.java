@@ -0,0 +1,153 @@
+package io.gromit.uaparser.enrich;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.gromit.uaparser.Parser;
+import io.gromit.uaparser.enrich.LogEnricher.Format;
+import io.gromit.uaparser.enrich.LogEnricher.Report;
+import io.gromit.uaparser.model.Client;
+
+public class LogEnricherTest {
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = LogEnricherTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = LogEnricherTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8).subList(0, 200);
+		}
+	}
+
+	private static Parser parser() {
+		return new Parser(new ByteArrayInputStream(regexYaml));
+	}
+
+	private final List<String> logged = new ArrayList<String>();
+
+	private File combinedLog(int lines) throws IOException {
+		Random random = new Random(3);
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			String agent = agents.get(random.nextInt(agents.size()));
+			logged.add(agent);
+			log.append("10.0.0.").append(i % 256).append(" - - [01/Jun/2016:00:00:00 +0000] \"GET /").append(i)
+					.append(" HTTP/1.1\" 200 512 \"-\" \"").append(agent.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"\n");
+		}
+		File file = folder.newFile();
+		FileUtils.writeStringToFile(file, log.toString(), StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private static List<String> lines(ByteArrayOutputStream out) {
+		return Arrays.asList(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+	}
+
+	@Test
+	public void testTsvAcrossChunks() throws IOException {
+		File log = combinedLog(2000);
+		List<String> input = FileUtils.readLines(log, StandardCharsets.UTF_8);
+		Parser parser = parser();
+		for (int chunkSize : new int[] { 1, 333, 1 << 20 }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Report report = new LogEnricher(parser).delimiter(' ').column(-1).quoted(true).threads(3)
+					.chunkSize(chunkSize).enrich(Arrays.asList(log, log), out);
+			assertThat(report.lines, is(4000L));
+			assertThat(report.bytes, is(2 * log.length()));
+			List<String> output = lines(out);
+			assertThat(output.size(), is(4000));
+			for (int i = 0; i < output.size(); i++) {
+				String line = input.get(i % input.size());
+				Client client = parser.parse(logged.get(i % input.size()));
+				assertThat(output.get(i), is(line + "\t" + client.browser.family + "\t" + nullToEmpty(client.browser.major)
+						+ "\t" + nullToEmpty(client.browser.minor) + "\t" + client.os.family + "\t"
+						+ nullToEmpty(client.os.major) + "\t" + nullToEmpty(client.os.minor) + "\t"
+						+ client.device.family + "\t" + nullToEmpty(client.device.brand) + "\t"
+						+ nullToEmpty(client.device.model)));
+			}
+		}
+	}
+
+	private static String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+
+	@Test
+	public void testCounts() throws IOException {
+		File log = combinedLog(1000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new LogEnricher(parser()).delimiter(' ').column(-1).quoted(true).format(Format.COUNTS).chunkSize(4096)
+				.enrich(Arrays.asList(log), out);
+		long[] totals = new long[3];
+		List<String> dimensions = Arrays.asList("browser", "os", "device");
+		long previous = Long.MAX_VALUE;
+		String dimension = "browser";
+		for (String line : lines(out)) {
+			String[] fields = line.split("\t");
+			long count = Long.parseLong(fields[2]);
+			if (!fields[0].equals(dimension)) {
+				dimension = fields[0];
+				previous = Long.MAX_VALUE;
+			}
+			assertThat(count <= previous, is(true));
+			previous = count;
+			totals[dimensions.indexOf(fields[0])] += count;
+		}
+		assertThat(totals[0], is(1000L));
+		assertThat(totals[1], is(1000L));
+		assertThat(totals[2], is(1000L));
+	}
+
+	@Test
+	public void testJsonAndMissingColumns() throws IOException {
+		File log = folder.newFile();
+		FileUtils.writeStringToFile(log, "a\tFoo \"quoted\"\r\nonly\n\n", StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new LogEnricher(parser()).column(1).format(Format.JSON).enrich(Arrays.asList(log), out);
+		List<String> output = lines(out);
+		assertThat(output.size(), is(3));
+		assertThat(output.get(0), startsWith("{\"line\": \"a\\u0009Foo \\\"quoted\\\"\", \"user_agent\": {\"family\": \"Other\""));
+		assertThat(output.get(1), is("{\"line\": \"only\", \"user_agent\": null, \"os\": null, \"device\": null}"));
+		assertThat(output.get(2), is("{\"line\": \"\", \"user_agent\": null, \"os\": null, \"device\": null}"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testQuoteIsNotADelimiter() {
+		new LogEnricher(parser()).delimiter('"');
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Report report = new LogEnricher(parser()).enrich(new ArrayList<File>(Arrays.asList(folder.newFile())), out);
+		assertThat(report.lines, is(0L));
+		assertThat(out.size(), is(0));
+	}
+}
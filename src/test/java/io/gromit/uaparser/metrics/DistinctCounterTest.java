@@ -0,0 +1,36 @@
+package io.gromit.uaparser.metrics;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class DistinctCounterTest {
+
+	@Test
+	public void testEmpty() {
+		assertThat(new DistinctCounter().estimate(), is(0L));
+	}
+
+	@Test
+	public void testRepeatsCountOnce() {
+		DistinctCounter counter = new DistinctCounter();
+		for (int i = 0; i < 100000; i++) {
+			counter.add("Mozilla/5.0 Chrome/" + (i % 1000));
+		}
+		assertThat(counter.estimate(), is(greaterThan(970L)));
+		assertThat(counter.estimate(), is(lessThan(1030L)));
+	}
+
+	@Test
+	public void testLargeCardinality() {
+		DistinctCounter counter = new DistinctCounter();
+		for (int i = 0; i < 500000; i++) {
+			counter.add(new StringBuilder("Mozilla/5.0 Build/").append(i));
+		}
+		assertThat(counter.estimate(), is(greaterThan(475000L)));
+		assertThat(counter.estimate(), is(lessThan(525000L)));
+	}
+}
@@ -0,0 +1,38 @@
+package io.gromit.uaparser.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value = 0; value < 100000; value++) {
+			int bucket = Histogram.bucket(value);
+			assertThat(Histogram.upperBound(bucket), is(greaterThanOrEqualTo(value)));
+			assertThat(Histogram.upperBound(bucket), is(lessThanOrEqualTo(value + value / 8)));
+			if (bucket > 0) {
+				assertThat(Histogram.upperBound(bucket - 1), is(lessThan(value)));
+			}
+		}
+		assertThat(Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		assertThat(histogram.percentile(0.5), is(0L));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		histogram.record(-5);
+		assertThat(histogram.count(), is(1001L));
+		assertThat(histogram.max(), is(1000L));
+		assertThat(histogram.percentile(0.5), is(greaterThanOrEqualTo(500L)));
+		assertThat(histogram.percentile(0.5), is(lessThanOrEqualTo(563L)));
+		assertThat(histogram.percentile(1), is(1000L));
+		assertThat(histogram.mean(), is(closeTo(500.0, 1)));
+	}
+}
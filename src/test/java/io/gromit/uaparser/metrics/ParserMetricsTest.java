@@ -0,0 +1,63 @@
+package io.gromit.uaparser.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.ClockCache;
+import io.gromit.uaparser.parsers.ParseBudget;
+import io.gromit.uaparser.parsers.UserAgentParser;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ParserMetricsTest {
+
+	@Test
+	public void testRecording() throws Exception {
+		Map<String, String> opera = new HashMap<String, String>();
+		opera.put("regex", "(Opera)/(\\d+)");
+		Map<String, String> chrome = new HashMap<String, String>();
+		chrome.put("regex", "(Chrome)/(\\d+)");
+		UserAgentParser parser = UserAgentParser.fromList(Arrays.asList(opera, chrome));
+		ClockCache cache = new ClockCache();
+		ParserMetrics metrics = new ParserMetrics(1);
+		parser.parse("Mozilla/5.0 Chrome/120", cache, ParseBudget.UNLIMITED, metrics.browser);
+		parser.parse("Mozilla/5.0 Chrome/120", cache, ParseBudget.UNLIMITED, metrics.browser);
+		parser.parse("Lynx/2.8", cache, ParseBudget.UNLIMITED, metrics.browser);
+		parser.parse("Lynx/2.8", cache, ParseBudget.UNLIMITED, null);
+		assertThat(metrics.browser.getCacheHits(), is(1L));
+		assertThat(metrics.browser.getCacheMisses(), is(2L));
+		assertThat(metrics.browser.getFallthroughs(), is(1L));
+		assertThat(metrics.browser.getCachedLatency().count(), is(1L));
+		assertThat(metrics.browser.getUncachedLatency().count(), is(2L));
+		assertThat(metrics.os.getCacheMisses(), is(0L));
+
+		final Map<String, Double> values = new HashMap<String, Double>();
+		metrics.report(new MetricsCallback() {
+			@Override
+			public void metric(String name, double value) {
+				values.put(name, value);
+			}
+		});
+		assertThat(values.get("browserCacheHitRatio"), is(closeTo(1 / 3.0, 0.001)));
+		assertThat(values.get("browserFallthroughRatio"), is(0.5));
+		assertThat(values.get("browserPatternsPerMissMax"), is(lessThanOrEqualTo(2.0)));
+		assertThat(values.get("deviceCacheHits"), is(0.0));
+
+		ObjectName name = metrics.registerMBean("io.gromit.uaparser:type=ParserMetricsTest");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertThat((Double) server.getAttribute(name, "browserCacheMisses"), is(2.0));
+			assertThat(server.getMBeanInfo(name).getAttributes().length, is(values.size()));
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+}
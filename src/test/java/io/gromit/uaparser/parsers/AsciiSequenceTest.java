@@ -0,0 +1,43 @@
+package io.gromit.uaparser.parsers;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class AsciiSequenceTest {
+
+	@Test
+	public void testReadsBytesInPlace() {
+		byte[] bytes = "GET Mozilla/5.0 (X11) HTTP".getBytes(StandardCharsets.US_ASCII);
+		AsciiSequence sequence = new AsciiSequence(bytes, 4, 17);
+		assertThat(sequence.length(), is(17));
+		assertThat(sequence.toString(), is("Mozilla/5.0 (X11)"));
+		assertThat(sequence.subSequence(8, 11).toString(), is("5.0"));
+		bytes[4] = 'm';
+		assertThat(sequence.charAt(0), is('m'));
+	}
+
+	@Test
+	public void testBuffersFromPositionToLimit() {
+		byte[] bytes = "xxMozilla/5.0 \u00e9yy".getBytes(StandardCharsets.ISO_8859_1);
+		for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.wrap(bytes), ByteBuffer.allocateDirect(bytes.length) }) {
+			if (buffer.isDirect()) {
+				buffer.put(bytes).flip();
+			}
+			buffer.position(2).limit(bytes.length - 2);
+			AsciiSequence sequence = new AsciiSequence(buffer.slice());
+			assertThat(sequence.toString(), is("Mozilla/5.0 \u00e9"));
+			assertThat(sequence.charAt(12), is('\u00e9'));
+			assertThat(buffer.position(), is(2));
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() {
+		new AsciiSequence(new byte[4], 2, 3);
+	}
+}
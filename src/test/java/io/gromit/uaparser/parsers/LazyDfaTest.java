@@ -0,0 +1,82 @@
+package io.gromit.uaparser.parsers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class LazyDfaTest {
+
+	private static final List<Pattern> PATTERNS = Arrays.asList(Pattern.compile("(Chrome)/(\\d+)\\.(\\d+)"),
+			Pattern.compile("^Mozilla/(\\d+)"), Pattern.compile("Safari$"), Pattern.compile("android", Pattern.CASE_INSENSITIVE),
+			Pattern.compile("(?:Opera|)Mini\\b"), Pattern.compile("; {0,2}(SM-[A-Z]\\d{3}) Build"),
+			Pattern.compile("(Kindle)(?!/)"), Pattern.compile("(\\w)\\1x"), Pattern.compile("\\bbot\\b"),
+			Pattern.compile("^$"));
+
+	private static final String[] AGENTS = { "Mozilla/5.0 (Linux; Android 9; SM-G960 Build/PPR1) Chrome/120.0 Safari",
+			"Mozilla/5.0 (Linux; ANDROID 9) Chrome/120 Safari\n", " Mozilla/5 Safari/537", "Opera Mini/4", "Mini",
+			"Kindle/3.0", "Kindle Fire", "aax", "Googlebot/2.1", "a bot", "", "\n", "Chrome/1.2 \ud83d\ude00" };
+
+	@Test
+	public void testCandidatesKeepEveryMatch() {
+		LazyDfa dfa = new LazyDfa(PATTERNS);
+		for (String agent : AGENTS) {
+			boolean[] candidates = dfa.candidates(agent);
+			for (int i = 0; i < PATTERNS.size(); i++) {
+				if (PATTERNS.get(i).matcher(agent).find()) {
+					assertThat(agent + " " + PATTERNS.get(i), candidates[i], is(true));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCandidatesAreExactForPlainPatterns() {
+		LazyDfa dfa = new LazyDfa(PATTERNS);
+		assertThat(dfa.candidates(" Mozilla/5 Safari/537"), is(new boolean[10]));
+		boolean[] candidates = dfa.candidates("Mozilla/5.0 (Linux; Android 9; SM-G960 Build/PPR1) Chrome/120.0 Safari");
+		assertThat(candidates[0] && candidates[1] && candidates[2] && candidates[3] && candidates[5], is(true));
+		assertThat(candidates[4] || candidates[9], is(false));
+		assertThat(dfa.candidates("Chrome/1.")[0], is(false));
+		assertThat(dfa.candidates("")[9], is(true));
+		assertThat(dfa.candidates("\n")[9], is(true));
+		assertThat(dfa.candidates("x\n")[9], is(false));
+	}
+
+	@Test
+	public void testLookaroundAndBackReferencesFallBack() {
+		LazyDfa dfa = new LazyDfa(PATTERNS);
+		assertThat(dfa.fallbacks(), is(new int[] { 6, 7 }));
+		assertThat(dfa.candidates("Kindle/3.0")[6], is(true));
+		assertThat(dfa.candidates("Nook")[6], is(false));
+	}
+
+	@Test
+	public void testCacheStartsOver() {
+		String previous = System.setProperty(MatchEngine.DFA_STATES_PROPERTY, "4");
+		try {
+			LazyDfa dfa = new LazyDfa(PATTERNS);
+			for (int round = 0; round < 2; round++) {
+				for (String agent : AGENTS) {
+					boolean[] candidates = dfa.candidates(agent);
+					for (int i = 0; i < PATTERNS.size(); i++) {
+						if (PATTERNS.get(i).matcher(agent).find()) {
+							assertThat(agent + " " + PATTERNS.get(i), candidates[i], is(true));
+						}
+					}
+				}
+				assertThat(dfa.cachedStates(), is(lessThanOrEqualTo(4)));
+			}
+		} finally {
+			if (previous == null) {
+				System.clearProperty(MatchEngine.DFA_STATES_PROPERTY);
+			} else {
+				System.setProperty(MatchEngine.DFA_STATES_PROPERTY, previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package io.gromit.uaparser.parsers;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class LiteralIndexTest {
+
+	@Test
+	public void testRequiredLiterals() {
+		assertThat(LiteralIndex.literals(Pattern.compile("(Chrome)/(\\d+)\\.(\\d+)")),
+				is(set("chrome/")));
+		assertThat(LiteralIndex.literals(Pattern.compile("(Firefox|Minefield)/(\\d+)")),
+				is(set("firefox/", "minefield/")));
+		assertThat(LiteralIndex.literals(Pattern.compile("[Vv]ersion/(\\d+) Safari")),
+				is(set("version/")));
+		assertThat(LiteralIndex.literals(Pattern.compile("SAMSUNG-(\\w+)", Pattern.CASE_INSENSITIVE)),
+				is(set("samsung-")));
+		assertThat(LiteralIndex.literals(Pattern.compile("(?:Opera|)Mini")), is(set("mini")));
+		assertThat(LiteralIndex.literals(Pattern.compile("(\\w+)/(\\d+)")), is(set("/")));
+	}
+
+	@Test
+	public void testNoRequiredLiterals() {
+		assertThat(LiteralIndex.literals(Pattern.compile("(\\w+) ?(\\d+)")), is(nullValue()));
+		assertThat(LiteralIndex.literals(Pattern.compile("(?:Chrome|\\d+)/")), is(set("/")));
+		assertThat(LiteralIndex.literals(Pattern.compile("(?:Chrome|\\d+)")), is(nullValue()));
+		assertThat(LiteralIndex.literals(Pattern.compile("(Kindle)?")), is(nullValue()));
+		assertThat(LiteralIndex.literals(Pattern.compile("[a-z&&[^b]]x")), is(nullValue()));
+	}
+
+	@Test
+	public void testCandidatesKeepEveryMatch() {
+		List<Pattern> patterns = Arrays.asList(Pattern.compile("(Chrome)/(\\d+)"),
+				Pattern.compile("Mobile Safari"), Pattern.compile("(\\w+) ?(\\d+)"),
+				Pattern.compile("android", Pattern.CASE_INSENSITIVE));
+		LiteralIndex index = LiteralIndex.build(patterns);
+		String[] agents = { "Mozilla/5.0 (Linux; ANDROID 9) Chrome/120.0 Mobile Safari/537.36", "chrome/1",
+				"CHROME/1", "Mobile", "" };
+		for (String agent : agents) {
+			boolean[] candidates = index.candidates(agent);
+			for (int i = 0; i < patterns.size(); i++) {
+				if (patterns.get(i).matcher(agent).find()) {
+					assertThat(agent + " " + patterns.get(i), candidates[i], is(true));
+				}
+			}
+		}
+		assertThat(index.candidates("Mobile")[1], is(false));
+		assertThat(index.candidates("Mobile")[2], is(true));
+	}
+
+	private static HashSet<String> set(String... literals) {
+		return new HashSet<String>(Arrays.asList(literals));
+	}
+}
@@ -0,0 +1,28 @@
+package io.gromit.uaparser.parsers;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class MatcherBufferTest {
+
+	@Test
+	public void testReleaseDropsTheInput() {
+		MatcherBuffer buffer = new MatcherBuffer(Arrays.asList(Pattern.compile("(Foo)/(\\d+)"), Pattern.compile("Bar")));
+		CharSequence input = new AsciiSequence(ByteBuffer.wrap("Foo/3".getBytes(StandardCharsets.US_ASCII)));
+		Matcher matcher = buffer.matcher(0, input);
+		assertThat(matcher.find(), is(true));
+		assertThat(matcher.group(2), is("3"));
+		MatcherBuffer.release(matcher);
+		assertThat(matcher.regionEnd(), is(0));
+		assertThat(buffer.matcher(0, "Foo/4"), is(sameInstance(matcher)));
+		assertThat(buffer.get()[1], is(nullValue()));
+	}
+}
@@ -0,0 +1,99 @@
+package io.gromit.uaparser.parsers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.NoCache;
+import io.gromit.uaparser.model.Browser;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ParseBudgetTest {
+
+	private static final String EVIL = StringUtils.repeat('a', 64) + "!";
+
+	@Test
+	public void testStepsCountCharReads() {
+		BudgetedSequence sequence = BudgetedSequence.start("abc", 3000, 0);
+		for (int i = 0; i < 3000; i++) {
+			sequence.charAt(i % 3);
+		}
+		try {
+			sequence.charAt(0);
+			fail("budget should be spent");
+		} catch (BudgetExceededException e) {
+			assertThat(e.getStackTrace().length, is(0));
+		}
+		sequence = BudgetedSequence.start("abc", 0, TimeUnit.HOURS.toNanos(1));
+		for (int i = 0; i < 100000; i++) {
+			sequence.charAt(i % 3);
+		}
+	}
+
+	@Test
+	public void testStepBudgetStopsBacktracking() {
+		UserAgentParser parser = parser();
+		ParseBudget budget = ParseBudget.UNLIMITED.maxSteps(100000);
+		assertThat(parser.parse(EVIL, NoCache.NO_CACHE, budget), is(new Browser("Other", null, null, null)));
+		assertThat(parser.budgetExceeded(1), is(1L));
+		assertThat(parser.budgetExceeded(), is(1L));
+		assertThat(parser.parse("Chrome/120", NoCache.NO_CACHE, budget), is(new Browser("Chrome", "120", null, null)));
+		assertThat(parser.budgetExceeded(), is(1L));
+	}
+
+	@Test
+	public void testTimeBudgetStopsBacktracking() {
+		UserAgentParser parser = parser();
+		long start = System.nanoTime();
+		Browser browser = parser.parse(EVIL, NoCache.NO_CACHE, ParseBudget.UNLIMITED.maxTime(20, TimeUnit.MILLISECONDS));
+		assertThat(browser.family, is("Other"));
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), is(lessThan(5000L)));
+		assertThat(parser.budgetExceeded(1), is(1L));
+	}
+
+	@Test
+	public void testMaxLengthTruncates() {
+		UserAgentParser parser = parser();
+		String agent = "Mozilla/5.0 Chrome/120";
+		assertThat(parser.parse(agent, NoCache.NO_CACHE, ParseBudget.UNLIMITED.maxLength(20)).major, is("1"));
+		assertThat(parser.parse(agent, NoCache.NO_CACHE, ParseBudget.UNLIMITED.maxLength(12)).family, is("Other"));
+		assertThat(parser.parse(agent, NoCache.NO_CACHE, ParseBudget.UNLIMITED.maxLength(100)).major, is("120"));
+		assertThat(parser.budgetExceeded(), is(0L));
+	}
+
+	@Test
+	public void testBegunBudgetIsShared() {
+		UserAgentParser parser = parser();
+		ParseBudget budget = ParseBudget.UNLIMITED.maxSteps(100000);
+		ParseBudget shared = budget.begin();
+		assertThat(parser.parse(EVIL, NoCache.NO_CACHE, shared).family, is("Other"));
+		assertThat(parser.parse("Chrome/120", NoCache.NO_CACHE, shared).family, is("Other"));
+		assertThat(parser.budgetExceeded(), is(2L));
+		shared = budget.begin();
+		assertThat(parser.parse("Chrome/120", NoCache.NO_CACHE, shared).family, is("Chrome"));
+		assertThat(parser.parse("Chrome/121", NoCache.NO_CACHE, shared).family, is("Chrome"));
+		assertThat(parser.parse("Chrome/120", NoCache.NO_CACHE, budget).family, is("Chrome"));
+		assertThat(ParseBudget.UNLIMITED.begin(), is(sameInstance(ParseBudget.UNLIMITED)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLimit() {
+		ParseBudget.UNLIMITED.maxSteps(-1);
+	}
+
+	private static UserAgentParser parser() {
+		return UserAgentParser.fromList(Arrays.asList(ua("(Chrome)/(\\d+)"), ua("(.*a){8}$")), MatchEngine.REGEX);
+	}
+
+	private static Map<String, String> ua(String regex) {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("regex", regex);
+		return map;
+	}
+}
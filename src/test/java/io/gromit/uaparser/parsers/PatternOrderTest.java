@@ -0,0 +1,83 @@
+package io.gromit.uaparser.parsers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import io.gromit.uaparser.model.Browser;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class PatternOrderTest {
+
+	@Test
+	public void testDisjoint() {
+		assertThat(disjoint("^Mozilla/", "^Opera/"), is(true));
+		assertThat(disjoint("^Safari$", "^Chrome"), is(true));
+		assertThat(disjoint("^(Opera|Mozilla)/(\\d+)$", "^Opera/\\d+ Mini"), is(true));
+		assertThat(disjoint("^Opera", "^Opera/\\d+"), is(false));
+		assertThat(disjoint("Chrome", "^Opera"), is(false));
+		assertThat(disjoint("^Mozilla", "Safari$"), is(false));
+		assertThat(disjoint("^opera", "^OPERA"), is(true));
+		assertThat(PatternOrder.disjoint(Pattern.compile("^opera", Pattern.CASE_INSENSITIVE), Pattern.compile("^OPERA")),
+				is(false));
+		assertThat(disjoint("^Opera(?=/)", "^Mozilla"), is(false));
+		assertThat(disjoint("^Opera$", "^Opera\n$"), is(false));
+	}
+
+	@Test
+	public void testReorderKeepsConflictingPatternsInPlace() {
+		PatternOrder order = new PatternOrder(
+				Arrays.asList(Pattern.compile("^Opera/"), Pattern.compile("Chrome"), Pattern.compile("^Mozilla/")));
+		assertThat(order.reorder(), is(nullValue()));
+		order.hit(1);
+		assertThat(order.reorder(), is(nullValue()));
+		order.hit(2);
+		order.hit(2);
+		assertThat(order.reorder(), is(nullValue()));
+	}
+
+	@Test
+	public void testReorderMovesDisjointPatterns() {
+		PatternOrder order = new PatternOrder(Arrays.asList(Pattern.compile("^Opera/"), Pattern.compile("^Lynx/"),
+				Pattern.compile("^Mozilla/"), Pattern.compile("Chrome")));
+		order.hit(2);
+		order.hit(2);
+		order.hit(1);
+		assertThat(order.reorder(), is(new int[] { 2, 1, 0, 3 }));
+		assertThat(order.hits(2), is(2L));
+	}
+
+	@Test
+	public void testReorderedParserGivesSameResults() {
+		UserAgentParser parser = UserAgentParser.fromList(
+				Arrays.asList(ua("^Opera/(\\d+)"), ua("^Mozilla/5.0 .*(Firefox)/(\\d+)"), ua("(Firefox)/(\\d+)"),
+						ua("^Mozilla/5.0 .*(Chrome)/(\\d+)")), MatchEngine.LITERAL);
+		List<String> agents = Arrays.asList("Mozilla/5.0 (X11) Chrome/120", "Mozilla/5.0 (X11) Chrome/121",
+				"Opera/9", "Mozilla/5.0 (X11) Firefox/3", "Mozilla/4.0 Firefox/2", "Mozilla/5.0 \ud83d\ude00 Chrome/1");
+		List<Browser> expected = new ArrayList<Browser>();
+		for (String agent : agents) {
+			expected.add(parser.parse(agent));
+		}
+		UserAgentParser reordered = parser.reorder();
+		for (int i = 0; i < agents.size(); i++) {
+			assertThat(reordered.parse(agents.get(i)), is(expected.get(i)));
+		}
+	}
+
+	private static boolean disjoint(String a, String b) {
+		return PatternOrder.disjoint(Pattern.compile(a), Pattern.compile(b));
+	}
+
+	private static Map<String, String> ua(String regex) {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("regex", regex);
+		return map;
+	}
+}
@@ -0,0 +1,76 @@
+package io.gromit.uaparser.parsers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import io.gromit.uaparser.model.Device;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ReplacementTemplateTest {
+
+	@Test
+	public void testCompile() {
+		String agent = "Mozilla/5.0 (Linux; SM-G960F Build/1)";
+		Matcher matcher = find("; (SM)-(\\w+)( Foo)? Build", agent);
+		assertThat(ReplacementTemplate.compile("Samsung $1$2").expand(agent, matcher), is("Samsung SMG960F"));
+		assertThat(ReplacementTemplate.compile("$2").expand(agent, matcher), is("G960F"));
+		assertThat(ReplacementTemplate.compile("$3|$4|$99999999999|$0").expand(agent, matcher),
+				is("|||; SM-G960F Build"));
+		assertThat(ReplacementTemplate.compile("US$ $x $").expand(agent, matcher), is(""));
+		assertThat(ReplacementTemplate.compile("Generic").hasGroups(), is(false));
+		assertThat(ReplacementTemplate.compile("Generic").expand(agent, matcher), is("Generic"));
+	}
+
+	@Test
+	public void testTextAfterLastReferenceDropped() {
+		String agent = "Dev XY Foo/1 Bar 2";
+		Matcher matcher = find("Dev (\\w+)", agent);
+		assertThat(ReplacementTemplate.compile("$1 Phone").expand(agent, matcher), is("XY"));
+		assertThat(ReplacementTemplate.compile("Acme $1 Inc").expand(agent, matcher), is("Acme XY"));
+		assertThat(ReplacementTemplate.compile("$1 Model $2 x").expand(agent, matcher), is("XY Model "));
+	}
+
+	@Test
+	public void testFirstGroup() {
+		String agent = "Opera Mini/4.2";
+		Matcher matcher = find("(Opera) Mini/(\\d+)", agent);
+		assertThat(ReplacementTemplate.firstGroup("$1 $1 $2", false).expand(agent, matcher), is("Opera $1 $2"));
+		assertThat(ReplacementTemplate.firstGroup("$1 $1 $2", true).expand(agent, matcher), is("Opera Opera $2"));
+		assertThat(ReplacementTemplate.firstGroup("$10", true).expand(agent, matcher), is("Opera0"));
+		assertThat(ReplacementTemplate.firstGroup("Mini", true).hasGroups(), is(false));
+	}
+
+	@Test
+	public void testGroupTextIsLiteral() {
+		String agent = "Foo/a$1\\b";
+		Matcher matcher = find("Foo/(\\S+)", agent);
+		assertThat(ReplacementTemplate.firstGroup("X $1", true).expand(agent, matcher), is("X a$1\\b"));
+		assertThat(ReplacementTemplate.compile("$1").expand(agent, matcher), is("a$1\\b"));
+	}
+
+	@Test
+	public void testDeviceFieldsDropTrailingText() {
+		Map<String, String> config = new HashMap<String, String>();
+		config.put("regex", "Dev (\\w+)");
+		config.put("device_replacement", "$1 Phone");
+		config.put("brand_replacement", "Acme $1 Inc");
+		config.put("model_replacement", "$1 Model");
+		Device device = DeviceParser.fromList(Arrays.asList(config)).parse("Dev XY Foo/1 Bar 2");
+		assertThat(device.family, is("XY"));
+		assertThat(device.brand, is("Acme XY"));
+		assertThat(device.model, is("XY"));
+	}
+
+	private static Matcher find(String regex, String agent) {
+		Matcher matcher = Pattern.compile(regex).matcher(agent);
+		assertThat(matcher.find(), is(true));
+		return matcher;
+	}
+}
@@ -0,0 +1,42 @@
+package io.gromit.uaparser.parsers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.gromit.uaparser.cache.NoCache;
+import io.gromit.uaparser.model.Browser;
+import io.gromit.uaparser.model.Device;
+import io.gromit.uaparser.model.OS;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ResultInternerTest {
+
+	@Test
+	public void testEqualResultsAreShared() {
+		Map<String, String> chrome = new HashMap<String, String>();
+		chrome.put("regex", "(Chrome)/(\\d+)\\.(\\d+)");
+		UserAgentParser parser = UserAgentParser.fromList(Arrays.asList(chrome));
+		Browser first = parser.parse("Mozilla/5.0 (X11) Chrome/120.0", NoCache.NO_CACHE);
+		Browser second = parser.parse("Mozilla/5.0 (Windows) Chrome/120.0", NoCache.NO_CACHE);
+		assertThat(second, is(sameInstance(first)));
+		Browser other = parser.parse("Mozilla/5.0 (Windows) Chrome/121.0", NoCache.NO_CACHE);
+		assertThat(other, is(not(sameInstance(first))));
+		assertThat(other.family, is(sameInstance(first.family)));
+		assertThat(other.minor, is(sameInstance(first.minor)));
+		assertThat(parser.parse("Lynx/2.8", NoCache.NO_CACHE), is(sameInstance(Browser.OTHER)));
+	}
+
+	@Test
+	public void testOtherIsCanonical() {
+		assertThat(ResultInterner.browser("Other", null, null, null), is(sameInstance(Browser.OTHER)));
+		assertThat(ResultInterner.os(new String("Other"), null, null, null, null), is(sameInstance(OS.OTHER)));
+		assertThat(ResultInterner.device("Other", null, null), is(sameInstance(Device.OTHER)));
+		assertThat(ResultInterner.device("Other", "Generic", null), is(not(sameInstance(Device.OTHER))));
+		assertThat(ResultInterner.string(null), is(nullValue()));
+	}
+}
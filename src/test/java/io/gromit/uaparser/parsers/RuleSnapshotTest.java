@@ -0,0 +1,111 @@
+package io.gromit.uaparser.parsers;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.gromit.uaparser.Parser;
+
+public class RuleSnapshotTest {
+
+	private static byte[] regexYaml;
+
+	private static List<String> agents;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		try (InputStream in = RuleSnapshotTest.class.getResourceAsStream("/benchmark/regexes.yaml")) {
+			regexYaml = IOUtils.toByteArray(in);
+		}
+		try (InputStream in = RuleSnapshotTest.class.getResourceAsStream("/benchmark/user-agents.txt")) {
+			agents = IOUtils.readLines(in, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static byte[] snapshot(byte[] yaml) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RuleSnapshot.fromYaml(yaml).write(out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testSnapshotParsesAsTheYaml() throws IOException {
+		byte[] snapshot = snapshot(regexYaml);
+		Parser fromYaml = new Parser(new ByteArrayInputStream(regexYaml));
+		Parser fromSnapshot = new Parser(RuleSnapshot.read(new ByteArrayInputStream(snapshot)));
+		for (String agent : agents) {
+			assertThat(agent, fromSnapshot.parse(agent), equalTo(fromYaml.parse(agent)));
+		}
+	}
+
+	@Test
+	public void testRewriteIsIdentical() throws IOException {
+		byte[] snapshot = snapshot(regexYaml);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RuleSnapshot.read(new ByteArrayInputStream(snapshot)).write(out);
+		assertThat(out.toByteArray(), equalTo(snapshot));
+	}
+
+	@Test
+	public void testFlagsAndMissingReplacements() throws IOException {
+		String yaml = "user_agent_parsers:\n  - regex: '(Foo)/(\\d+)'\n    family_replacement:\n"
+				+ "os_parsers:\n  - regex: 'Bar (\\d+)'\n    os_replacement: 'Baz'\n"
+				+ "device_parsers:\n  - regex: 'qux'\n    regex_flag: 'i'\n    device_replacement: 'Qux'\n";
+		byte[] bytes = yaml.getBytes(StandardCharsets.UTF_8);
+		Parser parser = new Parser(RuleSnapshot.read(new ByteArrayInputStream(snapshot(bytes))));
+		assertThat(parser.parseBrowser("Foo/12").family, is("Foo"));
+		assertThat(parser.parseBrowser("Foo/12").major, is("12"));
+		assertThat(parser.parseOS("Bar 7").family, is("Baz"));
+		assertThat(parser.parseDevice("a QUX b").family, is("Qux"));
+	}
+
+	@Test
+	public void testChecksumAgainstTheYaml() throws IOException {
+		byte[] snapshot = snapshot(regexYaml);
+		RuleSnapshot rules = RuleSnapshot.read(new ByteArrayInputStream(snapshot),
+				new ByteArrayInputStream(regexYaml));
+		assertThat(rules.builtFrom(regexYaml), is(true));
+		byte[] edited = (new String(regexYaml, StandardCharsets.UTF_8) + "\n# edited\n")
+				.getBytes(StandardCharsets.UTF_8);
+		try {
+			RuleSnapshot.read(new ByteArrayInputStream(snapshot), new ByteArrayInputStream(edited));
+			fail("stale snapshot loaded");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("rule snapshot was not built from this regexes yaml"));
+		}
+	}
+
+	@Test
+	public void testCorruptSnapshotIsRejected() throws IOException {
+		byte[] snapshot = snapshot(regexYaml);
+		snapshot[snapshot.length / 2] ^= 0x20;
+		try {
+			RuleSnapshot.read(new ByteArrayInputStream(snapshot));
+			fail("corrupt snapshot loaded");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotASnapshot() throws IOException {
+		RuleSnapshot.read(new ByteArrayInputStream(regexYaml));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingList() {
+		RuleSnapshot.fromYaml("user_agent_parsers: []\nos_parsers: []\n".getBytes(StandardCharsets.UTF_8));
+	}
+}